@@ -0,0 +1,471 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the text files inside zip, tar, gzipped tar and gzip archives without extracting them to
+ * disk. Each text file is identified by the location of the archive followed by
+ * {@link #SEPARATOR} and its name inside the archive, for example {@code corpus.zip!/dir/file.txt}.
+ *
+ * The entries of a zip archive are compressed separately, so they can be decompressed by several
+ * threads at once. Tar and gzip archives are a single compressed stream, so they are decompressed
+ * by one thread and only the parsing of their entries is done in parallel.
+ *
+ * @author matthew
+ *
+ */
+public class ArchiveReader {
+	/**
+	 * Separates the location of the archive from the name of the entry inside it
+	 */
+	public static final String SEPARATOR = "!/";
+
+	/**
+	 * The size of a tar header and the unit tar entries are padded to
+	 */
+	private static final int BLOCK = 512;
+
+	/**
+	 * The most entries per worker thread of a tar or gzip archive that may be waiting in memory to
+	 * be parsed, so decompressing never gets far ahead of the workers
+	 */
+	public static final int ENTRIES_PER_THREAD = 64;
+
+	/**
+	 * The supported kinds of archive
+	 */
+	private enum Format {
+		/** A zip archive */
+		ZIP,
+		/** An uncompressed tar archive */
+		TAR,
+		/** A gzipped tar archive */
+		TAR_GZ,
+		/** A single gzipped file */
+		GZ
+	}
+
+	/**
+	 * Receives the text files of an archive
+	 */
+	@FunctionalInterface
+	public interface EntryHandler {
+		/**
+		 * Handles one text file of an archive
+		 * @param location the location of the archive followed by the name of the entry
+		 * @param in the content of the entry, closed by the caller
+		 * @throws IOException if unable to read the entry
+		 */
+		void accept(String location, InputStream in) throws IOException;
+	}
+
+	/**
+	 * Checks if the path ends in a .zip, .tar, .tgz or .gz extension (case-insensitive)
+	 * @param path the path
+	 * @return true if the path is a supported archive
+	 */
+	public static boolean isArchive(String path) {
+		return formatOf(path) != null;
+	}
+
+	/**
+	 * Passes every text file in the archive to the handler, one after the other
+	 * @param archive the archive
+	 * @param handler receives the text files
+	 * @throws IOException if unable to read the archive or the handler fails
+	 */
+	public static void read(Path archive, EntryHandler handler) throws IOException {
+		read(archive, location -> true, handler);
+	}
+
+	/**
+	 * Passes the text files in the archive whose locations are accepted to the handler, one after
+	 * the other. The other entries are skipped without being read into memory.
+	 * @param archive the archive
+	 * @param locations accepts the locations of the entries to read
+	 * @param handler receives the text files
+	 * @throws IOException if unable to read the archive or the handler fails
+	 */
+	public static void read(Path archive, Predicate<String> locations, EntryHandler handler) throws IOException {
+		Format format = formatOf(archive.toString());
+		if(format == null) {
+			throw new IOException("Not a supported archive: " + archive);
+		}
+
+		String location = archive.toString();
+		if(format == Format.ZIP) {
+			try (ZipFile zip = new ZipFile(archive.toFile())) {
+				for(ZipEntry entry : textEntries(zip, location, locations)) {
+					try (InputStream in = zip.getInputStream(entry)) {
+						handler.accept(location(location, entry.getName()), in);
+					}
+				}
+			}
+			return;
+		}
+
+		try (InputStream in = open(archive, format)) {
+			if(format == Format.GZ) {
+				String name = archive.getFileName().toString();
+				name = name.substring(0, name.length() - ".gz".length());
+				if(TextFileFinder.hasTextExtension(name) && locations.test(location(location, name))) {
+					handler.accept(location(location, name), in);
+				}
+			}
+			else {
+				readTar(in, location, locations, handler);
+			}
+		}
+	}
+
+	/**
+	 * Passes every text file in the archive to the handler, running the handler on the work queue.
+	 * Zip entries are decompressed by the workers, the entries of other archives are decompressed
+	 * by the calling thread and handed to the workers in memory. At most {@link #ENTRIES_PER_THREAD}
+	 * entries per worker wait in memory at once; when that many are waiting the calling thread
+	 * parses the next entry itself, so it also works when it is one of the workers. Errors reading
+	 * an entry are reported by the worker and do not stop the other entries.
+	 * @param archive the archive
+	 * @param handler receives the text files, must be thread-safe
+	 * @param workQueue runs the handler
+	 * @throws IOException if unable to read the archive
+	 */
+	public static void read(Path archive, EntryHandler handler, WorkQueue workQueue) throws IOException {
+		read(archive, location -> true, handler, workQueue);
+	}
+
+	/**
+	 * Passes the text files in the archive whose locations are accepted to the handler, running the
+	 * handler on the work queue like {@link #read(Path, EntryHandler, WorkQueue)}. The other entries
+	 * are skipped without being read into memory.
+	 * @param archive the archive
+	 * @param locations accepts the locations of the entries to read
+	 * @param handler receives the text files, must be thread-safe
+	 * @param workQueue runs the handler
+	 * @throws IOException if unable to read the archive
+	 */
+	public static void read(Path archive, Predicate<String> locations, EntryHandler handler, WorkQueue workQueue) throws IOException {
+		if(formatOf(archive.toString()) != Format.ZIP) {
+			Semaphore waiting = new Semaphore(Math.max(1, workQueue.size()) * ENTRIES_PER_THREAD);
+			read(archive, locations, (location, in) -> {
+				if(!waiting.tryAcquire()) {
+					// the workers are behind, so parse this one here instead of waiting for them
+					accept(handler, location, in);
+					return;
+				}
+				byte[] content;
+				try {
+					content = in.readAllBytes();
+				} catch (IOException e) {
+					waiting.release();
+					throw e;
+				}
+				workQueue.execute(() -> {
+					try {
+						accept(handler, location, new ByteArrayInputStream(content));
+					} finally {
+						waiting.release();
+					}
+				});
+			});
+			return;
+		}
+
+		ZipFile zip = new ZipFile(archive.toFile());
+		List<ZipEntry> entries = textEntries(zip, archive.toString(), locations);
+		if(entries.isEmpty()) {
+			zip.close();
+			return;
+		}
+
+		// the last entry to finish closes the archive
+		AtomicInteger pending = new AtomicInteger(entries.size());
+		for(ZipEntry entry : entries) {
+			workQueue.execute(() -> {
+				try (InputStream in = zip.getInputStream(entry)) {
+					accept(handler, location(archive.toString(), entry.getName()), in);
+				} catch (IOException e) {
+					System.out.println("Error: could not read file - " + location(archive.toString(), entry.getName()));
+				} finally {
+					if(pending.decrementAndGet() == 0) {
+						try {
+							zip.close();
+						} catch (IOException e) {
+							System.out.println("Error: could not close archive - " + archive);
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Runs the handler on one entry, reporting instead of throwing errors
+	 * @param handler the handler
+	 * @param location the location of the entry
+	 * @param in the content of the entry
+	 */
+	private static void accept(EntryHandler handler, String location, InputStream in) {
+		try {
+			handler.accept(location, in);
+		} catch (IOException e) {
+			System.out.println("Error: could not read file - " + location);
+		}
+	}
+
+	/**
+	 * Returns the text file entries of a zip archive whose locations are accepted
+	 * @param zip the zip archive
+	 * @param archive the location of the archive
+	 * @param locations accepts the locations of the entries to read
+	 * @return the entries that are text files
+	 */
+	private static List<ZipEntry> textEntries(ZipFile zip, String archive, Predicate<String> locations) {
+		List<ZipEntry> entries = new ArrayList<>();
+		Enumeration<? extends ZipEntry> all = zip.entries();
+		while(all.hasMoreElements()) {
+			ZipEntry entry = all.nextElement();
+			if(!entry.isDirectory() && TextFileFinder.hasTextExtension(entry.getName()) && locations.test(location(archive, entry.getName()))) {
+				entries.add(entry);
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Opens a tar or gzip archive as a (decompressed) stream
+	 * @param archive the archive
+	 * @param format the format of the archive
+	 * @return the stream
+	 * @throws IOException if unable to open the archive
+	 */
+	private static InputStream open(Path archive, Format format) throws IOException {
+		InputStream in = new BufferedInputStream(Files.newInputStream(archive));
+		try {
+			return format == Format.TAR ? in : new GZIPInputStream(in, 1 << 16);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads a tar stream (ustar, including GNU long names and pax paths) and passes the regular
+	 * text files to the handler
+	 * @param in the tar stream
+	 * @param archive the location of the archive
+	 * @param locations accepts the locations of the entries to read
+	 * @param handler receives the text files
+	 * @throws IOException if unable to read the stream or the handler fails
+	 */
+	private static void readTar(InputStream in, String archive, Predicate<String> locations, EntryHandler handler) throws IOException {
+		byte[] header = new byte[BLOCK];
+		String nextName = null;
+		while(in.readNBytes(header, 0, BLOCK) == BLOCK && !isZero(header)) {
+			String name = string(header, 0, 100);
+			// posix ustar, gnu tar uses these fields for other things
+			if(string(header, 257, 6).equals("ustar")) {
+				String prefix = string(header, 345, 155);
+				if(!prefix.isEmpty()) {
+					name = prefix + "/" + name;
+				}
+			}
+			long size = number(header, 124, 12);
+			long padding = (BLOCK - size % BLOCK) % BLOCK;
+			char type = (char) header[156];
+
+			if(type == 'L' || type == 'x') {
+				// the name (or pax attributes) of the entry that follows
+				byte[] data = content(in, size);
+				in.skipNBytes(padding);
+				String longName = type == 'L' ? string(data, 0, data.length) : paxPath(data);
+				if(longName != null) {
+					nextName = longName;
+				}
+				continue;
+			}
+			if(nextName != null) {
+				name = nextName;
+				nextName = null;
+			}
+
+			if((type == '0' || type == '\0' || type == '7') && TextFileFinder.hasTextExtension(name) && locations.test(location(archive, name))) {
+				byte[] data = content(in, size);
+				in.skipNBytes(padding);
+				handler.accept(location(archive, name), new ByteArrayInputStream(data));
+			}
+			else {
+				in.skipNBytes(size + padding);
+			}
+		}
+	}
+
+	/**
+	 * Reads the content of a tar entry
+	 * @param in the tar stream
+	 * @param size the size of the entry
+	 * @return the content
+	 * @throws IOException if unable to read the entry or it is too large
+	 */
+	private static byte[] content(InputStream in, long size) throws IOException {
+		if(size > Integer.MAX_VALUE - 8) {
+			throw new IOException("Archive entry too large: " + size + " bytes");
+		}
+		byte[] data = in.readNBytes((int) size);
+		if(data.length < size) {
+			throw new IOException("Truncated archive");
+		}
+		return data;
+	}
+
+	/**
+	 * Finds the path attribute of a pax extended header
+	 * @param data the records of the header, each "length key=value\n"
+	 * @return the path or null if there is none
+	 */
+	private static String paxPath(byte[] data) {
+		String path = null;
+		int start = 0;
+		while(start < data.length) {
+			int space = start;
+			while(space < data.length && data[space] != ' ') {
+				space++;
+			}
+			int length;
+			try {
+				length = Integer.parseInt(new String(data, start, space - start, StandardCharsets.UTF_8));
+			} catch (NumberFormatException e) {
+				break;
+			}
+			if(length <= 0 || start + length > data.length || space + 1 >= start + length) {
+				break;
+			}
+			String record = new String(data, space + 1, start + length - space - 2, StandardCharsets.UTF_8);
+			if(record.startsWith("path=")) {
+				path = record.substring("path=".length());
+			}
+			start += length;
+		}
+		return path;
+	}
+
+	/**
+	 * Reads a null-terminated string field of a tar header
+	 * @param header the header
+	 * @param offset the start of the field
+	 * @param length the length of the field
+	 * @return the string
+	 */
+	private static String string(byte[] header, int offset, int length) {
+		int end = offset;
+		while(end < offset + length && header[end] != 0) {
+			end++;
+		}
+		return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads an octal (or, for large values, base-256) number field of a tar header
+	 * @param header the header
+	 * @param offset the start of the field
+	 * @param length the length of the field
+	 * @return the number
+	 * @throws IOException if the field is not a number
+	 */
+	private static long number(byte[] header, int offset, int length) throws IOException {
+		long value = 0;
+		if((header[offset] & 0x80) != 0) {
+			value = header[offset] & 0x7f;
+			for(int i = offset + 1 ; i < offset + length ; i ++) {
+				value = (value << 8) | (header[i] & 0xff);
+			}
+			return value;
+		}
+
+		for(int i = offset ; i < offset + length ; i ++) {
+			byte b = header[i];
+			if(b == 0 || b == ' ') {
+				if(value > 0) {
+					break;
+				}
+				continue;
+			}
+			if(b < '0' || b > '7') {
+				throw new IOException("Invalid tar header");
+			}
+			value = (value << 3) | (b - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * Checks if a tar block is all zeros, which marks the end of the archive
+	 * @param block the block
+	 * @return true if every byte is zero
+	 */
+	private static boolean isZero(byte[] block) {
+		for(byte b : block) {
+			if(b != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the location of an entry
+	 * @param archive the location of the archive
+	 * @param name the name of the entry inside the archive
+	 * @return the location
+	 */
+	private static String location(String archive, String name) {
+		while(name.startsWith("./") || name.startsWith("/")) {
+			name = name.substring(name.indexOf('/') + 1);
+		}
+		return archive + SEPARATOR + name;
+	}
+
+	/**
+	 * Returns the format of an archive based on its extension
+	 * @param path the path of the archive
+	 * @return the format or null if the path is not a supported archive
+	 */
+	private static Format formatOf(String path) {
+		if(endsWith(path, ".zip")) {
+			return Format.ZIP;
+		}
+		if(endsWith(path, ".tar")) {
+			return Format.TAR;
+		}
+		if(endsWith(path, ".tgz") || endsWith(path, ".tar.gz")) {
+			return Format.TAR_GZ;
+		}
+		if(endsWith(path, ".gz")) {
+			return Format.GZ;
+		}
+		return null;
+	}
+
+	/**
+	 * Checks if the path ends with the extension, ignoring case
+	 * @param path the path
+	 * @param extension the extension including the dot
+	 * @return true if the path has more than just the extension and ends with it
+	 */
+	private static boolean endsWith(String path, String extension) {
+		return path.length() > extension.length() && path.regionMatches(true, path.length() - extension.length(), extension, 0, extension.length());
+	}
+}
@@ -0,0 +1,137 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free Bloom filter over 64-bit fingerprints. Used in front of the crawler's visited set
+ * when a crawl is too large to keep every fingerprint in memory.
+ *
+ * @author matthew
+ *
+ */
+public class BloomFilter {
+	/**
+	 * The bits of the filter, packed 64 to a word
+	 */
+	private final AtomicLongArray bits;
+
+	/**
+	 * The total number of bits in the filter
+	 */
+	private final long numBits;
+
+	/**
+	 * The number of bits set for each fingerprint
+	 */
+	private final int numHashes;
+
+	/**
+	 * Initializes a filter sized for the expected number of elements and false positive rate
+	 * @param expected the number of elements that will be added
+	 * @param falsePositiveRate the acceptable false positive rate, between 0 and 1
+	 */
+	public BloomFilter(int expected, double falsePositiveRate) {
+		if(expected < 1) {
+			expected = 1;
+		}
+		if(falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("Invalid false positive rate: " + falsePositiveRate);
+		}
+
+		// optimal m = -n ln(p) / (ln 2)^2 and k = (m / n) ln 2
+		long m = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		int words = (int) Math.max(1, (m + 63) / 64);
+
+		this.bits = new AtomicLongArray(words);
+		this.numBits = (long) words * 64;
+		this.numHashes = (int) Math.max(1, Math.round((double) numBits / expected * Math.log(2)));
+	}
+
+	/**
+	 * Reads a filter written by {@link #write(DataOutputStream)}
+	 * @param in the stream to read from
+	 * @throws IOException if unable to read the filter
+	 */
+	public BloomFilter(DataInputStream in) throws IOException {
+		this.numHashes = in.readInt();
+		int words = in.readInt();
+		this.bits = new AtomicLongArray(words);
+		this.numBits = (long) words * 64;
+		for(int i = 0 ; i < words ; i ++) {
+			bits.set(i, in.readLong());
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the filter to the stream
+	 * @param out the stream to write to
+	 * @throws IOException if unable to write the filter
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(numHashes);
+		out.writeInt(bits.length());
+		for(int i = 0 ; i < bits.length() ; i ++) {
+			out.writeLong(bits.get(i));
+		}
+	}
+
+	/**
+	 * Adds the fingerprint to the filter
+	 * @param fingerprint the 64-bit fingerprint to add
+	 * @return true if the fingerprint was definitely not in the filter before this call
+	 */
+	public boolean put(long fingerprint) {
+		boolean changed = false;
+		for(int i = 0 ; i < numHashes ; i ++) {
+			long bit = index(fingerprint, i);
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+
+			long current = bits.get(word);
+			while((current & mask) == 0) {
+				if(bits.compareAndSet(word, current, current | mask)) {
+					changed = true;
+					break;
+				}
+				current = bits.get(word);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Checks the filter for the fingerprint
+	 * @param fingerprint the 64-bit fingerprint to look for
+	 * @return false if the fingerprint was definitely never added, true if it might have been
+	 */
+	public boolean mightContain(long fingerprint) {
+		for(int i = 0 ; i < numHashes ; i ++) {
+			long bit = index(fingerprint, i);
+			if((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of bits used by this filter
+	 * @return the number of bits
+	 */
+	public long numBits() {
+		return numBits;
+	}
+
+	/**
+	 * Derives the i-th bit index from the fingerprint using double hashing
+	 * @param fingerprint the 64-bit fingerprint
+	 * @param i which hash function to use
+	 * @return the index of the bit to use
+	 */
+	private long index(long fingerprint, int i) {
+		long h1 = fingerprint & 0xFFFFFFFFL;
+		long h2 = fingerprint >>> 32;
+		return Long.remainderUnsigned(h1 + i * h2, numBits);
+	}
+}
@@ -0,0 +1,512 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent manifest of the files read by a build. For every file it keeps the size, the last
+ * modified time and a SHA-256 hash of the content, and for every distinct content the stems of the
+ * document in order, which is all that is needed to add it to an index again. A rebuild that uses
+ * the manifest of the previous build only reads the files whose size or modified time changed, and
+ * only parses and stems content it has not seen before, so byte-identical files are parsed once.
+ *
+ * The stems are kept in a stem file next to the manifest, and only the offset of each content is
+ * kept in memory. The stems of an unchanged file are read back when the file is added to the index.
+ * Every content used by a build is written to a new stem file as it is read. Saving the manifest
+ * switches to the new stem file and deletes the previous one.
+ *
+ * This class is thread-safe, so the same manifest can be used by every worker of a
+ * {@link MultiThreadedIndexBuilder}.
+ *
+ * @author matthew
+ *
+ */
+public class BuildManifest {
+	/**
+	 * Marks a manifest file
+	 */
+	private static final int MAGIC = 0x49444d32;
+
+	/**
+	 * The end of the name of every stem file
+	 */
+	private static final String STEMS = ".stems";
+
+	/**
+	 * Where the manifest is saved, next to its stem files
+	 */
+	private final Path path;
+
+	/**
+	 * The files of the previous build by location
+	 */
+	private final Map<String, Entry> previous;
+
+	/**
+	 * The stem file of the previous build, or null
+	 */
+	private final Path previousStems;
+
+	/**
+	 * Where each content is in the stem file of the previous build, by hash
+	 */
+	private final Map<String, Record> saved;
+
+	/**
+	 * The files of this build by location
+	 */
+	private final ConcurrentHashMap<String, Entry> current;
+
+	/**
+	 * Where each content is in the stem file of this build, by hash
+	 */
+	private final ConcurrentHashMap<String, Record> stored;
+
+	/**
+	 * Reads the stem file of the previous build, or null
+	 */
+	private FileChannel savedChannel;
+
+	/**
+	 * The stem file of this build, or null until the first content is stored
+	 */
+	private Path stems;
+
+	/**
+	 * Appends to the stem file of this build
+	 */
+	private OutputStream out;
+
+	/**
+	 * Reads the stem file of this build
+	 */
+	private FileChannel storedChannel;
+
+	/**
+	 * The size of the stem file of this build
+	 */
+	private long length;
+
+	/**
+	 * The number of files that were parsed
+	 */
+	private final AtomicLong parsed;
+
+	/**
+	 * The number of files taken from the previous build without reading them
+	 */
+	private final AtomicLong unchanged;
+
+	/**
+	 * The number of files that were read but had the same content as another file
+	 */
+	private final AtomicLong duplicates;
+
+	/**
+	 * Initializes an empty manifest
+	 * @param path where the manifest will be saved, next to its stem files
+	 */
+	public BuildManifest(Path path) {
+		this(path, new HashMap<>(), null, new HashMap<>());
+	}
+
+	/**
+	 * Initializes a manifest from the files of a previous build
+	 * @param path where the manifest will be saved, next to its stem files
+	 * @param previous the files of the previous build
+	 * @param previousStems the stem file of the previous build, or null
+	 * @param saved where each content is in the stem file of the previous build
+	 */
+	private BuildManifest(Path path, Map<String, Entry> previous, Path previousStems, Map<String, Record> saved) {
+		this.path = path;
+		this.previous = previous;
+		this.previousStems = previousStems;
+		this.saved = saved;
+		this.current = new ConcurrentHashMap<>();
+		this.stored = new ConcurrentHashMap<>();
+		this.savedChannel = null;
+		this.stems = null;
+		this.out = null;
+		this.storedChannel = null;
+		this.length = 0;
+		this.parsed = new AtomicLong();
+		this.unchanged = new AtomicLong();
+		this.duplicates = new AtomicLong();
+	}
+
+	/**
+	 * Adds the file to the index as one document, reading and parsing it only if necessary
+	 * @param file the text file
+	 * @param index the index to add to
+	 * @throws IOException if unable to read the file or store its stems
+	 * @see InvertedIndexBuilder#readFile(Path, InvertedIndex)
+	 */
+	public void readFile(Path file, InvertedIndex index) throws IOException {
+		String location = file.toString();
+		BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		long size = attributes.size();
+		long modified = attributes.lastModifiedTime().toMillis();
+
+		Entry entry = previous.get(location);
+		String[] stems = null;
+		if(entry != null && entry.size == size && entry.modified == modified) {
+			stems = load(entry.hash);
+		}
+
+		if(stems != null) {
+			unchanged.incrementAndGet();
+		}
+		else {
+			byte[] content = Files.readAllBytes(file);
+			entry = new Entry(size, modified, hash(content));
+			stems = load(entry.hash);
+			if(stems != null) {
+				duplicates.incrementAndGet();
+			}
+			else {
+				// decode strictly, like Files#newBufferedReader
+				String text = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(content)).toString();
+				try (BufferedReader br = new BufferedReader(new StringReader(text))) {
+					stems = InvertedIndexBuilder.stem(br).toArray(String[]::new);
+				}
+				store(entry.hash, encode(stems));
+				parsed.incrementAndGet();
+			}
+		}
+
+		current.put(location, entry);
+		index.addDocument(location, Arrays.asList(stems));
+	}
+
+	/**
+	 * Returns the stems of a content read by this build or the previous one. Content of the
+	 * previous build is copied to the stem file of this build.
+	 * @param hash the hash of the content
+	 * @return the stems, or null if the content is not known or the previous stem file cannot be
+	 * read
+	 * @throws IOException if unable to read or write the stem file of this build
+	 */
+	private String[] load(String hash) throws IOException {
+		Record record = stored.get(hash);
+		if(record != null) {
+			return decode(read(record, true));
+		}
+
+		record = saved.get(hash);
+		if(record == null) {
+			return null;
+		}
+		byte[] bytes;
+		try {
+			bytes = read(record, false);
+		} catch (IOException e) {
+			// the content is parsed again
+			return null;
+		}
+		store(hash, bytes);
+		return decode(bytes);
+	}
+
+	/**
+	 * Reads a content from a stem file
+	 * @param record where the content is
+	 * @param current whether it is in the stem file of this build or of the previous build
+	 * @return the encoded stems
+	 * @throws IOException if unable to read the stem file
+	 */
+	private byte[] read(Record record, boolean current) throws IOException {
+		FileChannel channel;
+		synchronized (this) {
+			if(current) {
+				// the content may still be buffered
+				out.flush();
+				channel = storedChannel;
+			}
+			else {
+				if(savedChannel == null) {
+					savedChannel = FileChannel.open(previousStems, StandardOpenOption.READ);
+				}
+				channel = savedChannel;
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(record.length);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, record.offset + buffer.position()) < 0) {
+				throw new IOException("Truncated stem file");
+			}
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Appends a content to the stem file of this build, unless it is already there
+	 * @param hash the hash of the content
+	 * @param bytes the encoded stems
+	 * @throws IOException if unable to write the stem file
+	 */
+	private synchronized void store(String hash, byte[] bytes) throws IOException {
+		if(stored.containsKey(hash)) {
+			return;
+		}
+		if(out == null) {
+			stems = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName() + "-", STEMS);
+			out = new BufferedOutputStream(Files.newOutputStream(stems));
+			storedChannel = FileChannel.open(stems, StandardOpenOption.READ);
+		}
+		out.write(bytes);
+		stored.put(hash, new Record(length, bytes.length));
+		length += bytes.length;
+	}
+
+	/**
+	 * Encodes the stems of a document
+	 * @param stems the stems
+	 * @return the encoded stems
+	 * @throws IOException if unable to encode the stems
+	 */
+	private static byte[] encode(String[] stems) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream data = new DataOutputStream(bytes)) {
+			data.writeInt(stems.length);
+			for(String stem : stems) {
+				data.writeUTF(stem);
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes the stems of a document
+	 * @param bytes the encoded stems
+	 * @return the stems
+	 * @throws IOException if the stems are not valid
+	 */
+	private static String[] decode(byte[] bytes) throws IOException {
+		try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes))) {
+			String[] stems = new String[data.readInt()];
+			for(int i = 0 ; i < stems.length ; i ++) {
+				stems[i] = data.readUTF();
+			}
+			return stems;
+		}
+	}
+
+	/**
+	 * Returns how many files were parsed, taken unchanged from the previous build, or found to be
+	 * copies of another file
+	 * @return the counts by name
+	 */
+	public Map<String, Long> getStats() {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		stats.put("parsed", parsed.get());
+		stats.put("unchanged", unchanged.get());
+		stats.put("duplicates", duplicates.get());
+		stats.put("files", (long) current.size());
+		return stats;
+	}
+
+	/**
+	 * Writes the files read by this build to the path given when the manifest was created or
+	 * loaded, and deletes the stem file of the previous build. Files of the previous build that were
+	 * not read again are left out. The manifest is written to a temporary file first and then moved
+	 * into place, so a crash while saving leaves the previous manifest intact. Must be called once,
+	 * after the build.
+	 * @throws IOException if unable to write the file
+	 * @see #load(Path)
+	 */
+	public synchronized void save() throws IOException {
+		if(out != null) {
+			out.close();
+			storedChannel.close();
+		}
+		if(savedChannel != null) {
+			savedChannel.close();
+		}
+
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			data.writeInt(MAGIC);
+			data.writeUTF(stems == null ? "" : stems.getFileName().toString());
+
+			Map<String, Integer> ids = new LinkedHashMap<>();
+			for(String hash : stored.keySet()) {
+				ids.put(hash, ids.size());
+			}
+			data.writeInt(ids.size());
+			for(String hash : ids.keySet()) {
+				data.writeUTF(hash);
+				data.writeLong(stored.get(hash).offset);
+				data.writeInt(stored.get(hash).length);
+			}
+
+			data.writeInt(current.size());
+			for(Map.Entry<String, Entry> file : current.entrySet()) {
+				data.writeUTF(file.getKey());
+				data.writeLong(file.getValue().size);
+				data.writeLong(file.getValue().modified);
+				data.writeInt(ids.get(file.getValue().hash));
+			}
+		}
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		if(previousStems != null && !previousStems.equals(stems)) {
+			Files.deleteIfExists(previousStems);
+		}
+	}
+
+	/**
+	 * Reads a manifest written by {@link #save()}, or returns an empty manifest if the file does not
+	 * exist. Only the files and where each content is in the stem file are read. Stem files left
+	 * behind by builds that were not saved are deleted.
+	 * @param path the file to read from
+	 * @return the manifest, which saves to the same file
+	 * @throws IOException if unable to read the file or it is not a manifest
+	 */
+	public static BuildManifest load(Path path) throws IOException {
+		if(!Files.exists(path)) {
+			deleteStems(path, null);
+			return new BuildManifest(path);
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if(in.readInt() != MAGIC) {
+				throw new IOException("Not a build manifest: " + path);
+			}
+			String name = in.readUTF();
+			Path stems = name.isEmpty() ? null : path.resolveSibling(name);
+
+			String[] hashes = new String[in.readInt()];
+			Map<String, Record> saved = new HashMap<>();
+			for(int i = 0 ; i < hashes.length ; i ++) {
+				hashes[i] = in.readUTF();
+				long offset = in.readLong();
+				saved.put(hashes[i], new Record(offset, in.readInt()));
+			}
+
+			Map<String, Entry> files = new HashMap<>();
+			int size = in.readInt();
+			for(int i = 0 ; i < size ; i ++) {
+				String location = in.readUTF();
+				long length = in.readLong();
+				long modified = in.readLong();
+				files.put(location, new Entry(length, modified, hashes[in.readInt()]));
+			}
+
+			deleteStems(path, stems);
+			return new BuildManifest(path, files, stems, saved);
+		}
+	}
+
+	/**
+	 * Deletes the stem files of a manifest other than the one it uses
+	 * @param path the manifest
+	 * @param keep the stem file the manifest uses, or null
+	 * @throws IOException if unable to list the directory
+	 */
+	private static void deleteStems(Path path, Path keep) throws IOException {
+		Path directory = path.toAbsolutePath().getParent();
+		try (DirectoryStream<Path> listing = Files.newDirectoryStream(directory, path.getFileName() + "-*" + STEMS)) {
+			for(Path file : listing) {
+				if(keep == null || !Files.isSameFile(file, keep)) {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the SHA-256 hash of the content
+	 * @param content the content of a file
+	 * @return the hash as a hexadecimal string
+	 */
+	private static String hash(byte[] content) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The size, modified time and content hash of one file
+	 */
+	private static class Entry {
+		/**
+		 * The size of the file in bytes
+		 */
+		private final long size;
+
+		/**
+		 * The last modified time of the file in milliseconds
+		 */
+		private final long modified;
+
+		/**
+		 * The SHA-256 hash of the content
+		 */
+		private final String hash;
+
+		/**
+		 * Initializes an entry
+		 * @param size the size of the file in bytes
+		 * @param modified the last modified time of the file in milliseconds
+		 * @param hash the SHA-256 hash of the content
+		 */
+		public Entry(long size, long modified, String hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * Where the stems of one content are in a stem file
+	 */
+	private static class Record {
+		/**
+		 * The position of the stems in the file
+		 */
+		private final long offset;
+
+		/**
+		 * The number of bytes of the stems
+		 */
+		private final int length;
+
+		/**
+		 * Initializes a record
+		 * @param offset the position of the stems in the file
+		 * @param length the number of bytes of the stems
+		 */
+		public Record(long offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link HostResolver} that caches the addresses of each host for a fixed time, and also caches
+ * failed lookups (negative caching) for a shorter time so that unresolvable hosts fail fast.
+ *
+ * @author matthew
+ *
+ */
+public class CachingResolver implements HostResolver {
+	/**
+	 * The default time to cache resolved addresses in milliseconds
+	 */
+	public static final long DEFAULT_TTL = 300_000;
+
+	/**
+	 * The default time to cache failed lookups in milliseconds
+	 */
+	public static final long DEFAULT_NEGATIVE_TTL = 30_000;
+
+	/**
+	 * The resolver used on a cache miss
+	 */
+	private final HostResolver delegate;
+
+	/**
+	 * The time to cache resolved addresses in nanoseconds
+	 */
+	private final long ttl;
+
+	/**
+	 * The time to cache failed lookups in nanoseconds
+	 */
+	private final long negativeTtl;
+
+	/**
+	 * The cached lookups by lowercase host name
+	 */
+	private final ConcurrentHashMap<String, Entry> cache;
+
+	/**
+	 * Initializes a cache in front of the system resolver with the default times
+	 */
+	public CachingResolver() {
+		this(HostResolver.SYSTEM, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL);
+	}
+
+	/**
+	 * Initializes a cache in front of the given resolver
+	 * @param delegate the resolver used on a cache miss
+	 * @param ttlMillis the time to cache resolved addresses
+	 * @param negativeTtlMillis the time to cache failed lookups
+	 */
+	public CachingResolver(HostResolver delegate, long ttlMillis, long negativeTtlMillis) {
+		this.delegate = delegate;
+		this.ttl = ttlMillis * 1_000_000;
+		this.negativeTtl = negativeTtlMillis * 1_000_000;
+		this.cache = new ConcurrentHashMap<>();
+	}
+
+	@Override
+	public InetAddress[] resolve(String host) throws UnknownHostException {
+		String key = host.toLowerCase();
+		long now = System.nanoTime();
+
+		Entry entry = cache.get(key);
+		if(entry == null || entry.expired(now)) {
+			try {
+				entry = new Entry(delegate.resolve(host), null, now + ttl);
+			} catch (UnknownHostException e) {
+				entry = new Entry(null, e, now + negativeTtl);
+			}
+			cache.put(key, entry);
+		}
+
+		if(entry.error != null) {
+			throw new UnknownHostException(entry.error.getMessage());
+		}
+		return entry.addresses.clone();
+	}
+
+	@Override
+	public boolean isUnresolvable(String host) {
+		Entry entry = cache.get(host.toLowerCase());
+		return entry != null && entry.error != null && !entry.expired(System.nanoTime());
+	}
+
+	/**
+	 * Returns the number of cached lookups, including expired ones not yet replaced
+	 * @return the number of cached lookups
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Removes all cached lookups
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * A cached lookup, either the addresses or the error
+	 */
+	private static class Entry {
+		/**
+		 * The resolved addresses, or null if the lookup failed
+		 */
+		private final InetAddress[] addresses;
+
+		/**
+		 * The lookup error, or null if the lookup succeeded
+		 */
+		private final UnknownHostException error;
+
+		/**
+		 * The {@link System#nanoTime()} after which this entry is stale
+		 */
+		private final long expires;
+
+		/**
+		 * Initializes a cached lookup
+		 * @param addresses the resolved addresses or null
+		 * @param error the lookup error or null
+		 * @param expires when this entry becomes stale
+		 */
+		public Entry(InetAddress[] addresses, UnknownHostException error, long expires) {
+			this.addresses = addresses;
+			this.error = error;
+			this.expires = expires;
+		}
+
+		/**
+		 * Checks if this entry is stale
+		 * @param now the current {@link System#nanoTime()}
+		 * @return true if stale
+		 */
+		public boolean expired(long now) {
+			return now - expires >= 0;
+		}
+	}
+}
@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Saves and restores the state of a web crawl in a checkpoint directory. A checkpoint consists of
+ * the {@link CrawlFrontier} log, compacted to the waiting urls at every save, a snapshot of the {@link VisitedSet}, a binary snapshot
+ * of the inverted index with the {@link PageValidators} of its pages, the waiting urls of a
+ * {@link PriorityFrontier} if one is used, and a small properties file that ties them together. The properties file
+ * is always written last, so a crash while saving leaves the previous checkpoint intact.
+ *
+ * @author matthew
+ *
+ */
+public class CrawlCheckpoint {
+	/**
+	 * The name of the properties file inside the checkpoint directory
+	 */
+	public static final String STATE = "checkpoint.properties";
+
+	/**
+	 * The directory the checkpoint is kept in
+	 */
+	private final Path directory;
+
+	/**
+	 * The most recently saved (or loaded) state
+	 */
+	private final Properties state;
+
+	/**
+	 * Opens the checkpoint in the given directory, creating the directory if needed
+	 * @param directory the checkpoint directory
+	 * @throws IOException if unable to create the directory or read the saved state
+	 */
+	public CrawlCheckpoint(Path directory) throws IOException {
+		this.directory = directory;
+		this.state = new Properties();
+
+		Files.createDirectories(directory);
+		Path file = directory.resolve(STATE);
+		if(Files.exists(file)) {
+			try (InputStream in = Files.newInputStream(file)) {
+				state.load(in);
+			}
+		}
+	}
+
+	/**
+	 * Returns the checkpoint directory
+	 * @return the directory
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Checks if a checkpoint has been saved in this directory
+	 * @return true if there is a checkpoint to resume from
+	 */
+	public boolean exists() {
+		return state.containsKey("generation");
+	}
+
+	/**
+	 * Saves a new checkpoint. The crawl should be quiescent (no pages in progress) while saving.
+	 * @param index the index built so far
+	 * @param visited the visited set
+	 * @param validators the validators of the crawled pages
+	 * @param frontier the crawl frontier
+	 * @param prioritized the priority frontier or null if the crawl is not prioritized
+	 * @param claimed the number of urls claimed against the limit
+	 * @param limit the crawl limit
+	 * @throws IOException if unable to save the checkpoint
+	 */
+	public void save(InvertedIndex index, VisitedSet visited, PageValidators validators, CrawlFrontier frontier, PriorityFrontier prioritized, int claimed, int limit) throws IOException {
+		long previous = Long.parseLong(state.getProperty("generation", "0"));
+		long generation = previous + 1;
+
+		Path log = frontier.getLog();
+		frontier.compact(directory.resolve(frontierFile(generation)));
+		index.writeBinary(directory.resolve(indexFile(generation)));
+		visited.save(directory.resolve(visitedFile(generation)));
+		validators.save(directory.resolve(validatorsFile(generation)));
+		if(prioritized != null) {
+			prioritized.save(directory.resolve(priorityFile(generation)));
+		}
+
+		state.setProperty("generation", Long.toString(generation));
+		state.setProperty("frontier.file", frontierFile(generation));
+		state.setProperty("frontier.read", Long.toString(frontier.readPosition()));
+		state.setProperty("frontier.length", Long.toString(frontier.writePosition()));
+		state.setProperty("prioritized", Boolean.toString(prioritized != null));
+		state.setProperty("claimed", Integer.toString(claimed));
+		state.setProperty("limit", Integer.toString(limit));
+
+		Path temp = directory.resolve(STATE + ".tmp");
+		try (OutputStream out = Files.newOutputStream(temp)) {
+			state.store(out, "crawl checkpoint");
+		}
+		Files.move(temp, directory.resolve(STATE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		Files.deleteIfExists(directory.resolve(indexFile(previous)));
+		Files.deleteIfExists(directory.resolve(visitedFile(previous)));
+		Files.deleteIfExists(directory.resolve(validatorsFile(previous)));
+		Files.deleteIfExists(directory.resolve(priorityFile(previous)));
+		Files.deleteIfExists(log);
+	}
+
+	/**
+	 * Adds the saved index to the given index
+	 * @param index the index to add to
+	 * @throws IOException if unable to read the saved index
+	 */
+	public void loadIndex(InvertedIndex index) throws IOException {
+		index.readBinary(directory.resolve(indexFile(getGeneration())));
+	}
+
+	/**
+	 * Reads the saved visited set
+	 * @return the visited set
+	 * @throws IOException if unable to read the saved set
+	 */
+	public VisitedSet loadVisited() throws IOException {
+		return VisitedSet.load(directory.resolve(visitedFile(getGeneration())));
+	}
+
+	/**
+	 * Reads the saved page validators
+	 * @return the validators, empty if none were saved
+	 * @throws IOException if unable to read the saved validators
+	 */
+	public PageValidators loadValidators() throws IOException {
+		return PageValidators.load(directory.resolve(validatorsFile(getGeneration())));
+	}
+
+	/**
+	 * Reads the saved priority frontier
+	 * @param priority scores the waiting urls
+	 * @param maxDepth the deepest links to queue
+	 * @return the priority frontier or null if the crawl was not prioritized
+	 * @throws IOException if unable to read the saved frontier
+	 */
+	public PriorityFrontier loadPriorityFrontier(CrawlPriority priority, int maxDepth) throws IOException {
+		if(!Boolean.parseBoolean(state.getProperty("prioritized", "false"))) {
+			return null;
+		}
+		return PriorityFrontier.load(directory.resolve(priorityFile(getGeneration())), priority, maxDepth);
+	}
+
+	/**
+	 * Opens the frontier at its saved position. Urls appended after the checkpoint was saved are
+	 * discarded, they will be found again when their pages are crawled again.
+	 * @return the frontier
+	 * @throws IOException if unable to open the frontier
+	 */
+	public CrawlFrontier openFrontier() throws IOException {
+		long read = Long.parseLong(state.getProperty("frontier.read", "0"));
+		long length = Long.parseLong(state.getProperty("frontier.length", "0"));
+		return new CrawlFrontier(directory.resolve(state.getProperty("frontier.file", CrawlFrontier.LOG)), read, length);
+	}
+
+	/**
+	 * Starts an empty frontier for a new crawl in the checkpoint directory
+	 * @return the frontier
+	 * @throws IOException if unable to create the frontier
+	 */
+	public CrawlFrontier newFrontier() throws IOException {
+		return new CrawlFrontier(directory.resolve(CrawlFrontier.LOG), 0, 0);
+	}
+
+	/**
+	 * Returns the number of urls claimed against the limit when the checkpoint was saved
+	 * @return the number of claimed urls
+	 */
+	public int getClaimed() {
+		return Integer.parseInt(state.getProperty("claimed", "0"));
+	}
+
+	/**
+	 * Returns the crawl limit when the checkpoint was saved
+	 * @return the crawl limit
+	 */
+	public int getLimit() {
+		return Integer.parseInt(state.getProperty("limit", "0"));
+	}
+
+	/**
+	 * Returns the generation of the saved checkpoint
+	 * @return the generation
+	 */
+	private long getGeneration() {
+		return Long.parseLong(state.getProperty("generation", "0"));
+	}
+
+	/**
+	 * Returns the name of the index snapshot for a generation
+	 * @param generation the checkpoint generation
+	 * @return the file name
+	 */
+	private static String indexFile(long generation) {
+		return "index-" + generation + ".bin";
+	}
+
+	/**
+	 * Returns the name of the visited set snapshot for a generation
+	 * @param generation the checkpoint generation
+	 * @return the file name
+	 */
+	private static String visitedFile(long generation) {
+		return "visited-" + generation + ".bin";
+	}
+
+	/**
+	 * Returns the name of the page validators snapshot for a generation
+	 * @param generation the checkpoint generation
+	 * @return the file name
+	 */
+	private static String validatorsFile(long generation) {
+		return "validators-" + generation + ".bin";
+	}
+
+	/**
+	 * Returns the name of the compacted frontier log for a generation
+	 * @param generation the checkpoint generation
+	 * @return the file name
+	 */
+	private static String frontierFile(long generation) {
+		return "frontier-" + generation + ".log";
+	}
+
+	/**
+	 * Returns the name of the priority frontier snapshot for a generation
+	 * @param generation the checkpoint generation
+	 * @return the file name
+	 */
+	private static String priorityFile(long generation) {
+		return "priority-" + generation + ".bin";
+	}
+}
@@ -0,0 +1,287 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/**
+ * A crawl frontier. Urls are appended to a log file, one per line, and read back in order, so only
+ * a small read buffer is kept in memory no matter how many urls are waiting. The read position can
+ * be saved and restored, which makes the frontier resumable, and the log can be compacted to the
+ * urls still waiting. A crawl that is not checkpointed can keep its frontier in memory instead.
+ *
+ * @author matthew
+ *
+ * @see CrawlCheckpoint
+ */
+public class CrawlFrontier implements Closeable {
+	/**
+	 * The name of the log file inside the frontier directory
+	 */
+	public static final String LOG = "frontier.log";
+
+	/**
+	 * The urls of a frontier kept in memory, null if it is kept in a log
+	 */
+	private final ArrayDeque<String> memory;
+
+	/**
+	 * The log file
+	 */
+	private Path log;
+
+	/**
+	 * Channel used to append to the log
+	 */
+	private FileChannel appendChannel;
+
+	/**
+	 * Writer used to append to the log
+	 */
+	private BufferedWriter writer;
+
+	/**
+	 * Channel used to read from the log
+	 */
+	private FileChannel readChannel;
+
+	/**
+	 * Buffered stream over the read channel
+	 */
+	private InputStream reader;
+
+	/**
+	 * Bytes of a line that has only been partially read
+	 */
+	private final ByteArrayOutputStream partial;
+
+	/**
+	 * The number of bytes consumed by {@link #poll()}
+	 */
+	private long readPosition;
+
+	/**
+	 * The number of bytes appended by {@link #offer(String)}
+	 */
+	private long writePosition;
+
+	/**
+	 * The number of urls offered but not yet polled
+	 */
+	private long pending;
+
+	/**
+	 * Initializes a frontier kept in memory, for a crawl that is not checkpointed
+	 */
+	public CrawlFrontier() {
+		this.memory = new ArrayDeque<>();
+		this.partial = null;
+		this.pending = 0;
+	}
+
+	/**
+	 * Opens (or creates) the frontier log at a saved position
+	 * @param log the log file
+	 * @param readPosition the saved read position
+	 * @param length the saved length of the log, anything after it is discarded (or -1 to keep all)
+	 * @throws IOException if unable to open the log
+	 */
+	public CrawlFrontier(Path log, long readPosition, long length) throws IOException {
+		this.memory = null;
+		this.partial = new ByteArrayOutputStream();
+		open(log, readPosition, length);
+	}
+
+	/**
+	 * Opens the log at a position and counts the urls waiting after it
+	 * @param log the log file
+	 * @param readPosition the read position
+	 * @param length the length of the log, anything after it is discarded (or -1 to keep all)
+	 * @throws IOException if unable to open the log
+	 */
+	private void open(Path log, long readPosition, long length) throws IOException {
+		this.log = log;
+		this.appendChannel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		if(length >= 0 && length < appendChannel.size()) {
+			appendChannel.truncate(length);
+		}
+		this.writePosition = appendChannel.size();
+		appendChannel.position(writePosition);
+		this.writer = new BufferedWriter(Channels.newWriter(appendChannel, StandardCharsets.UTF_8));
+
+		this.readChannel = FileChannel.open(log, StandardOpenOption.READ);
+		this.pending = 0;
+
+		// count the urls still waiting to be read, then go back to the first of them
+		long start = Math.min(readPosition, writePosition);
+		seek(start);
+		while(readLine() != null) {
+			pending++;
+		}
+		seek(start);
+	}
+
+	/**
+	 * Adds the url to the end of the frontier
+	 * @param url the url to add
+	 * @throws IOException if unable to write to the log
+	 */
+	public synchronized void offer(String url) throws IOException {
+		if(memory != null) {
+			memory.add(url);
+			pending++;
+			return;
+		}
+		writer.write(url);
+		writer.write('\n');
+		writePosition += url.getBytes(StandardCharsets.UTF_8).length + 1;
+		pending++;
+	}
+
+	/**
+	 * Removes the next url from the front of the frontier
+	 * @return the next url or null if the frontier is empty
+	 * @throws IOException if unable to read from the log
+	 */
+	public synchronized String poll() throws IOException {
+		if(pending == 0) {
+			return null;
+		}
+		if(memory != null) {
+			pending--;
+			return memory.poll();
+		}
+		writer.flush();
+
+		String url = readLine();
+		if(url != null) {
+			pending--;
+		}
+		return url;
+	}
+
+	/**
+	 * Returns the number of urls waiting in the frontier
+	 * @return the number of urls
+	 */
+	public synchronized long size() {
+		return pending;
+	}
+
+	/**
+	 * Checks if the frontier is empty
+	 * @return true if there are no waiting urls
+	 */
+	public synchronized boolean isEmpty() {
+		return pending == 0;
+	}
+
+	/**
+	 * Returns the byte offset of the next url to be read
+	 * @return the read position
+	 */
+	public synchronized long readPosition() {
+		return readPosition;
+	}
+
+	/**
+	 * Returns the length of the log in bytes
+	 * @return the write position
+	 */
+	public synchronized long writePosition() {
+		return writePosition;
+	}
+
+	/**
+	 * Returns the log file
+	 * @return the log file, or null if the frontier is kept in memory
+	 */
+	public synchronized Path getLog() {
+		return log;
+	}
+
+	/**
+	 * Flushes the log and forces it to disk
+	 * @throws IOException if unable to flush the log
+	 */
+	public synchronized void sync() throws IOException {
+		if(memory != null) {
+			return;
+		}
+		writer.flush();
+		appendChannel.force(false);
+	}
+
+	/**
+	 * Copies the urls still waiting to a new log, forces it to disk and continues with it, so the
+	 * log does not keep the urls that were already read. The old log is left for the caller to
+	 * delete once nothing refers to it.
+	 * @param target the new log file
+	 * @throws IOException if unable to write the new log
+	 */
+	public synchronized void compact(Path target) throws IOException {
+		if(memory != null) {
+			return;
+		}
+		writer.flush();
+		try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long length = writePosition - readPosition;
+			for(long copied = 0 ; copied < length ; ) {
+				copied += readChannel.transferTo(readPosition + copied, length - copied, out);
+			}
+			out.force(false);
+		}
+		close();
+		open(target, 0, -1);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(memory != null) {
+			return;
+		}
+		try {
+			writer.close();
+		} finally {
+			readChannel.close();
+		}
+	}
+
+	/**
+	 * Moves the reader to the given byte offset
+	 * @param position the byte offset
+	 * @throws IOException if unable to seek
+	 */
+	private void seek(long position) throws IOException {
+		readChannel.position(position);
+		reader = new BufferedInputStream(Channels.newInputStream(readChannel));
+		partial.reset();
+		readPosition = position;
+	}
+
+	/**
+	 * Reads the next complete line from the log, keeping any partially written line for later
+	 * @return the line or null if there is no complete line
+	 * @throws IOException if unable to read from the log
+	 */
+	private String readLine() throws IOException {
+		int b;
+		while((b = reader.read()) != -1) {
+			if(b == '\n') {
+				String line = partial.toString(StandardCharsets.UTF_8);
+				readPosition += partial.size() + 1;
+				partial.reset();
+				return line;
+			}
+			partial.write(b);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,55 @@
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Scores urls waiting in a {@link PriorityFrontier}, so that a limited crawl budget is spent on the
+ * most valuable pages first. Higher scores are crawled first and urls with equal scores are
+ * crawled in the order they were found.
+ *
+ * @author matthew
+ *
+ */
+public interface CrawlPriority {
+
+	/**
+	 * Crawls shallow pages first (breadth first)
+	 */
+	public static final CrawlPriority DEPTH = (depth, inlinks, hostRank) -> -depth;
+
+	/**
+	 * Crawls the pages with the most links to them seen so far first
+	 */
+	public static final CrawlPriority INLINKS = (depth, inlinks, hostRank) -> inlinks;
+
+	/**
+	 * Crawls pages from hosts with fewer pages found so far first, spreading the crawl over hosts
+	 */
+	public static final CrawlPriority HOSTS = (depth, inlinks, hostRank) -> -hostRank;
+
+	/**
+	 * Favors pages with many links to them, but also shallow pages and less crawled hosts
+	 */
+	public static final CrawlPriority BALANCED = (depth, inlinks, hostRank) -> inlinks - depth - Math.log1p(hostRank);
+
+	/**
+	 * Scores a url
+	 * @param depth the number of links followed from the seed to the url
+	 * @param inlinks the number of links to the url seen so far
+	 * @param hostRank the number of urls for the same host found before this one
+	 * @return the score, higher is crawled first
+	 */
+	public double score(int depth, int inlinks, int hostRank);
+
+	/**
+	 * Returns the built-in priorities by name
+	 * @return a map from name to priority
+	 */
+	public static Map<String, CrawlPriority> getPriorities() {
+		Map<String, CrawlPriority> priorities = new TreeMap<>();
+		priorities.put("depth", DEPTH);
+		priorities.put("inlinks", INLINKS);
+		priorities.put("hosts", HOSTS);
+		priorities.put("balanced", BALANCED);
+		return priorities;
+	}
+}
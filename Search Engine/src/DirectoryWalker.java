@@ -0,0 +1,328 @@
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Finds text files like {@link TextFileFinder}, but walks the directory tree in parallel with a
+ * fork-join pool (one task per directory) and hands every text file to a consumer as soon as it is
+ * found, so the files can be parsed while the rest of the tree is still being listed. This keeps
+ * the workers of a build busy on slow or network file systems.
+ *
+ * Optionally archives are found as well, so the text files inside them can be read with
+ * {@link ArchiveReader}.
+ *
+ * Symbolic links to files are always followed. Symbolic links to directories are only followed if
+ * requested, in which case links back to a directory that is already being walked are skipped.
+ *
+ * @author matthew
+ *
+ * @see TextFileFinder#hasTextExtension(String)
+ */
+public class DirectoryWalker {
+	/**
+	 * The default maximum depth, the same as {@link TextFileFinder#find(Path)}
+	 */
+	public static final int DEFAULT_DEPTH = 7;
+
+	/**
+	 * The maximum number of directory levels below the start to visit
+	 */
+	private final int maxDepth;
+
+	/**
+	 * Whether to follow symbolic links to directories
+	 */
+	private final boolean followLinks;
+
+	/**
+	 * Whether to also find archives that may contain text files
+	 */
+	private final boolean archives;
+
+	/**
+	 * The number of directories listed at the same time
+	 */
+	private final int parallelism;
+
+	/**
+	 * Accepts the locations of the text files to pass on
+	 */
+	private final Predicate<String> locations;
+
+	/**
+	 * Initializes a walker with the default depth that does not follow links to directories and
+	 * lists one directory per processor at a time
+	 */
+	public DirectoryWalker() {
+		this(DEFAULT_DEPTH, false, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Initializes a walker
+	 * @param maxDepth the maximum number of directory levels below the start to visit
+	 * @param followLinks whether to follow symbolic links to directories
+	 * @param parallelism the number of directories listed at the same time
+	 */
+	public DirectoryWalker(int maxDepth, boolean followLinks, int parallelism) {
+		this(maxDepth, followLinks, false, parallelism);
+	}
+
+	/**
+	 * Initializes a walker
+	 * @param maxDepth the maximum number of directory levels below the start to visit
+	 * @param followLinks whether to follow symbolic links to directories
+	 * @param archives whether to also find archives that may contain text files
+	 * @param parallelism the number of directories listed at the same time
+	 * @see ArchiveReader#isArchive(String)
+	 */
+	public DirectoryWalker(int maxDepth, boolean followLinks, boolean archives, int parallelism) {
+		this(maxDepth, followLinks, archives, parallelism, location -> true);
+	}
+
+	/**
+	 * Initializes a walker that only passes on the text files whose locations are accepted, for
+	 * example the ones that belong to one shard. Archives are always passed on, the builders only
+	 * read the entries whose locations are accepted (see {@link #accepts(String)}).
+	 * @param maxDepth the maximum number of directory levels below the start to visit
+	 * @param followLinks whether to follow symbolic links to directories
+	 * @param archives whether to also find archives that may contain text files
+	 * @param parallelism the number of directories listed at the same time
+	 * @param locations accepts the locations of the text files to pass on
+	 * @see ArchiveReader#isArchive(String)
+	 */
+	public DirectoryWalker(int maxDepth, boolean followLinks, boolean archives, int parallelism, Predicate<String> locations) {
+		this.maxDepth = Math.max(0, maxDepth);
+		this.followLinks = followLinks;
+		this.archives = archives;
+		this.parallelism = Math.max(1, parallelism);
+		this.locations = locations;
+	}
+
+	/**
+	 * Checks if a text file, or an entry of an archive, should be read
+	 * @param location the location of the text file or entry
+	 * @return true if the location is accepted
+	 */
+	public boolean accepts(String location) {
+		return locations.test(location);
+	}
+
+	/**
+	 * Returns the maximum number of directory levels below the start to visit
+	 * @return the maximum depth
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Checks if symbolic links to directories are followed
+	 * @return true if links to directories are followed
+	 */
+	public boolean isFollowingLinks() {
+		return followLinks;
+	}
+
+	/**
+	 * Checks if a file should be passed to the consumer
+	 * @param file the regular file
+	 * @return true if the file is an accepted text file, or an archive when archives are included
+	 */
+	public boolean matches(Path file) {
+		String name = file.toString();
+		return (TextFileFinder.hasTextExtension(name) && accepts(name)) || (archives && ArchiveReader.isArchive(name));
+	}
+
+	/**
+	 * Walks the directory tree and passes every text file to the consumer. The consumer is called
+	 * from several threads at once. Directories that cannot be listed are skipped, and the first
+	 * error is thrown once the rest of the tree has been walked.
+	 * @param start the directory (or single file) to start with
+	 * @param consumer receives the text files as they are found
+	 * @throws IOException if the start or one of the directories cannot be read
+	 */
+	public void walk(Path start, Consumer<Path> consumer) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(start, BasicFileAttributes.class);
+		if(!attributes.isDirectory()) {
+			if(attributes.isRegularFile() && matches(start)) {
+				consumer.accept(start);
+			}
+			return;
+		}
+		if(maxDepth == 0) {
+			return;
+		}
+
+		AtomicReference<IOException> failure = new AtomicReference<>();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new Walk(start, 0, new Ancestor(attributes.fileKey(), null), consumer, failure));
+		} finally {
+			pool.shutdown();
+		}
+
+		if(failure.get() != null) {
+			throw failure.get();
+		}
+	}
+
+	/**
+	 * Returns the text files in the directory tree, sorted by path
+	 * @param start the directory (or single file) to start with
+	 * @return the text files
+	 * @throws IOException if the start or one of the directories cannot be read
+	 */
+	public List<Path> list(Path start) throws IOException {
+		ConcurrentLinkedQueue<Path> files = new ConcurrentLinkedQueue<>();
+		walk(start, files::add);
+		List<Path> sorted = new ArrayList<>(files);
+		sorted.sort(null);
+		return sorted;
+	}
+
+	/**
+	 * The file keys of the directories above the one being walked, used to detect symbolic link
+	 * cycles
+	 */
+	private static class Ancestor {
+		/**
+		 * The file key of the directory or null if the file system has none
+		 */
+		private final Object key;
+
+		/**
+		 * The parent directory or null for the start
+		 */
+		private final Ancestor parent;
+
+		/**
+		 * Initializes an ancestor
+		 * @param key the file key of the directory
+		 * @param parent the parent directory or null for the start
+		 */
+		public Ancestor(Object key, Ancestor parent) {
+			this.key = key;
+			this.parent = parent;
+		}
+
+		/**
+		 * Checks if this directory or one above it has the file key
+		 * @param other the file key
+		 * @return true if following the directory would be a cycle
+		 */
+		public boolean contains(Object other) {
+			for(Ancestor ancestor = this ; ancestor != null ; ancestor = ancestor.parent) {
+				if(ancestor.key != null && Objects.equals(ancestor.key, other)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Lists one directory and forks a task for each of its subdirectories
+	 */
+	private class Walk extends RecursiveAction {
+		/**
+		 * Unused serial version
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The directory to list
+		 */
+		private final Path directory;
+
+		/**
+		 * The number of levels the directory is below the start
+		 */
+		private final int depth;
+
+		/**
+		 * The directory and the ones above it
+		 */
+		private final Ancestor ancestors;
+
+		/**
+		 * Receives the text files
+		 */
+		private final Consumer<Path> consumer;
+
+		/**
+		 * The first error of the walk
+		 */
+		private final AtomicReference<IOException> failure;
+
+		/**
+		 * Initializes the task
+		 * @param directory the directory to list
+		 * @param depth the number of levels the directory is below the start
+		 * @param ancestors the directory and the ones above it
+		 * @param consumer receives the text files
+		 * @param failure the first error of the walk
+		 */
+		public Walk(Path directory, int depth, Ancestor ancestors, Consumer<Path> consumer, AtomicReference<IOException> failure) {
+			this.directory = directory;
+			this.depth = depth;
+			this.ancestors = ancestors;
+			this.consumer = consumer;
+			this.failure = failure;
+		}
+
+		@Override
+		protected void compute() {
+			List<Walk> subdirectories = new ArrayList<>();
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+				for(Path entry : entries) {
+					BasicFileAttributes attributes;
+					try {
+						attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					} catch (NoSuchFileException e) {
+						// deleted since the directory was listed
+						continue;
+					}
+					if(attributes.isSymbolicLink()) {
+						try {
+							attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+						} catch (IOException e) {
+							// broken link
+							continue;
+						}
+						if(attributes.isDirectory() && (!followLinks || ancestors.contains(attributes.fileKey()))) {
+							continue;
+						}
+					}
+
+					if(attributes.isDirectory()) {
+						if(depth + 1 < maxDepth) {
+							subdirectories.add(new Walk(entry, depth + 1, new Ancestor(attributes.fileKey(), ancestors), consumer, failure));
+						}
+					}
+					else if(attributes.isRegularFile() && matches(entry)) {
+						consumer.accept(entry);
+					}
+				}
+			} catch (IOException e) {
+				failure.compareAndSet(null, e);
+			} catch (DirectoryIteratorException e) {
+				failure.compareAndSet(null, e.getCause());
+			}
+			invokeAll(subdirectories);
+		}
+	}
+}
@@ -0,0 +1,401 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an index built from a directory up to date as files change. Every directory under the root
+ * that the {@link DirectoryWalker} of the build visits is watched with a {@link WatchService}; the
+ * files it would pass on that are created or modified are re-indexed and deleted ones are removed
+ * from the index. An archive is read again as a whole, and its entries that are gone are removed.
+ * Bursts of events for the same file are debounced, so a file is only read once it has stopped
+ * changing. If the watch service drops events, the whole directory is rescanned instead.
+ *
+ * The watcher should be created before the index is built and started afterwards: the files are
+ * listed with their modification times and the directories are watched right away, so a file that
+ * changes during or after the build is still re-indexed once the watcher runs.
+ *
+ * @author matthew
+ *
+ */
+public class DirectoryWatcher implements Runnable, Closeable {
+	/**
+	 * The default time a file must stop changing for before it is re-indexed in milliseconds
+	 */
+	public static final long DEBOUNCE = 500;
+
+	/**
+	 * The root directory being watched
+	 */
+	private final Path root;
+
+	/**
+	 * The index to keep up to date
+	 */
+	private final InvertedIndex index;
+
+	/**
+	 * Finds the files to index, with the depth, links, archives and locations of the build
+	 */
+	private final DirectoryWalker walker;
+
+	/**
+	 * The time a file must stop changing for before it is re-indexed in nanoseconds
+	 */
+	private final long debounce;
+
+	/**
+	 * The watch service notifying of changes
+	 */
+	private final WatchService watcher;
+
+	/**
+	 * The watched directories by watch key
+	 */
+	private final Map<WatchKey, Path> keys;
+
+	/**
+	 * The watched directories
+	 */
+	private final Set<Path> registered;
+
+	/**
+	 * Changed paths and the {@link System#nanoTime()} after which to process them
+	 */
+	private final Map<Path, Long> pending;
+
+	/**
+	 * The indexed text files and archives and their modification time when they were indexed
+	 */
+	private final Map<Path, FileTime> indexed;
+
+	/**
+	 * Whether the watcher has been closed
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Starts watching a directory whose text files are in the index, found with the default walker
+	 * @param root the root directory
+	 * @param index the index built from the directory
+	 * @param debounceMillis the time a file must stop changing for before it is re-indexed
+	 * @throws IOException if unable to watch the directory
+	 */
+	public DirectoryWatcher(Path root, InvertedIndex index, long debounceMillis) throws IOException {
+		this(root, index, new DirectoryWalker(), debounceMillis);
+	}
+
+	/**
+	 * Starts watching a directory whose files are, or are about to be, built into the index by the
+	 * walker
+	 * @param root the root directory
+	 * @param index the index built from the directory
+	 * @param walker the walker of the build
+	 * @param debounceMillis the time a file must stop changing for before it is re-indexed
+	 * @throws IOException if unable to watch the directory
+	 */
+	public DirectoryWatcher(Path root, InvertedIndex index, DirectoryWalker walker, long debounceMillis) throws IOException {
+		this.root = root;
+		this.index = index;
+		this.walker = walker;
+		this.debounce = Math.max(0, debounceMillis) * 1_000_000;
+		this.watcher = FileSystems.getDefault().newWatchService();
+		this.keys = new HashMap<>();
+		this.registered = new HashSet<>();
+		this.pending = new HashMap<>();
+		this.indexed = new HashMap<>();
+		this.closed = false;
+
+		registerAll(root);
+		for(Path file : walker.list(root)) {
+			indexed.put(file, Files.getLastModifiedTime(file));
+		}
+	}
+
+	/**
+	 * Processes changes until closed
+	 */
+	@Override
+	public void run() {
+		try {
+			while(!closed) {
+				WatchKey key = watcher.poll(nextTimeout(), TimeUnit.MILLISECONDS);
+				if(key != null) {
+					handle(key);
+				}
+				processDue(System.nanoTime());
+			}
+		} catch (ClosedWatchServiceException e) {
+			// closed while waiting
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops watching the directory
+	 * @throws IOException if unable to close the watch service
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		watcher.close();
+	}
+
+	/**
+	 * Re-indexes changed files and removes files that no longer exist, for when events were lost
+	 */
+	public void rescan() {
+		try {
+			registerAll(root);
+			Set<Path> found = new HashSet<>();
+			for(Path file : walker.list(root)) {
+				found.add(file);
+				update(file);
+			}
+
+			Iterator<Path> iterator = indexed.keySet().iterator();
+			while(iterator.hasNext()) {
+				Path file = iterator.next();
+				if(!found.contains(file)) {
+					forget(file);
+					iterator.remove();
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Error: unable to rescan " + root);
+		}
+	}
+
+	/**
+	 * Handles the events of a watch key
+	 * @param key the signalled key
+	 */
+	private void handle(WatchKey key) {
+		Path directory = keys.get(key);
+		for(WatchEvent<?> event : key.pollEvents()) {
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+				pending.clear();
+				rescan();
+				continue;
+			}
+
+			Path child = directory.resolve((Path) event.context());
+			// a directory the walker would list, which is not too deep and not a link it skips
+			boolean walked = depth(child) < walker.getMaxDepth() && (walker.isFollowingLinks() || !Files.isSymbolicLink(child));
+			if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child) && walked) {
+				// files may have been added before the new directory was registered
+				try {
+					registerAll(child);
+					for(Path file : walker.list(child)) {
+						// the walker counts its depth from the new directory, not from the root
+						if(depth(file) <= walker.getMaxDepth()) {
+							schedule(file);
+						}
+					}
+				} catch (IOException e) {
+					System.out.println("Error: unable to watch " + child);
+				}
+			}
+			else {
+				schedule(child);
+			}
+		}
+
+		if(!key.reset()) {
+			registered.remove(keys.remove(key));
+		}
+	}
+
+	/**
+	 * Schedules a changed path to be processed once it stops changing
+	 * @param path the changed path
+	 */
+	private void schedule(Path path) {
+		pending.put(path, System.nanoTime() + debounce);
+	}
+
+	/**
+	 * Processes the changed paths that have stopped changing
+	 * @param now the current {@link System#nanoTime()}
+	 */
+	private void processDue(long now) {
+		List<Path> due = new ArrayList<>();
+		Iterator<Map.Entry<Path, Long>> iterator = pending.entrySet().iterator();
+		while(iterator.hasNext()) {
+			Map.Entry<Path, Long> entry = iterator.next();
+			if(now - entry.getValue() >= 0) {
+				due.add(entry.getKey());
+				iterator.remove();
+			}
+		}
+
+		for(Path path : due) {
+			if(Files.exists(path)) {
+				if(Files.isRegularFile(path) && walker.matches(path)) {
+					update(path);
+				}
+			}
+			else {
+				removeAll(path);
+			}
+		}
+	}
+
+	/**
+	 * Re-indexes a text file or archive if it was modified since it was last indexed
+	 * @param file the text file or archive
+	 */
+	private void update(Path file) {
+		try {
+			FileTime modified = Files.getLastModifiedTime(file);
+			if(modified.equals(indexed.get(file))) {
+				return;
+			}
+
+			if(ArchiveReader.isArchive(file.toString())) {
+				updateArchive(file);
+			}
+			else {
+				InvertedIndex local = new InvertedIndex(index.isPositional());
+				InvertedIndexBuilder.readFile(file, local);
+				index.replace(file.toString(), local);
+			}
+			indexed.put(file, modified);
+		} catch (IOException e) {
+			System.out.println("Error: unable to re-index " + file);
+		}
+	}
+
+	/**
+	 * Re-indexes the accepted entries of an archive and removes the entries that are gone
+	 * @param archive the archive
+	 * @throws IOException if unable to read the archive
+	 */
+	private void updateArchive(Path archive) throws IOException {
+		Map<String, InvertedIndex> entries = new HashMap<>();
+		ArchiveReader.read(archive, walker::accepts, (location, in) -> {
+			InvertedIndex local = new InvertedIndex(index.isPositional());
+			InvertedIndexBuilder.readStream(location, in, local);
+			entries.put(location, local);
+		});
+
+		for(String location : index.getLocations(archive.toString() + ArchiveReader.SEPARATOR)) {
+			if(!entries.containsKey(location)) {
+				index.remove(location);
+			}
+		}
+		for(Map.Entry<String, InvertedIndex> entry : entries.entrySet()) {
+			index.replace(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Removes a text file, or every entry of an archive, from the index
+	 * @param file the text file or archive
+	 */
+	private void forget(Path file) {
+		if(ArchiveReader.isArchive(file.toString())) {
+			for(String location : index.getLocations(file.toString() + ArchiveReader.SEPARATOR)) {
+				index.remove(location);
+			}
+		}
+		else {
+			index.remove(file.toString());
+		}
+	}
+
+	/**
+	 * Removes a deleted file, or every file of a deleted directory, from the index
+	 * @param path the deleted path
+	 */
+	private void removeAll(Path path) {
+		Iterator<Path> iterator = indexed.keySet().iterator();
+		while(iterator.hasNext()) {
+			Path file = iterator.next();
+			if(file.startsWith(path)) {
+				forget(file);
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Registers the directory and the subdirectories the walker visits with the watch service
+	 * @param start the directory
+	 * @throws IOException if unable to register a directory
+	 */
+	private void registerAll(Path start) throws IOException {
+		// the walker lists the directories less than its maximum depth below the root
+		int levels = walker.getMaxDepth() - depth(start);
+		if(levels <= 0) {
+			return;
+		}
+		Set<FileVisitOption> options = walker.isFollowingLinks() ? EnumSet.of(FileVisitOption.FOLLOW_LINKS) : EnumSet.noneOf(FileVisitOption.class);
+		Files.walkFileTree(start, options, levels, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+				if(!registered.contains(directory)) {
+					WatchKey key = directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+							StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+					keys.put(key, directory);
+					registered.add(directory);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+				if(e instanceof FileSystemLoopException) {
+					// a link back to a directory being walked, which the walker skips as well
+					return FileVisitResult.CONTINUE;
+				}
+				throw e;
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of directory levels a path is below the root
+	 * @param path the path under the root
+	 * @return the number of levels, zero for the root
+	 */
+	private int depth(Path path) {
+		Path relative = root.relativize(path);
+		return relative.toString().isEmpty() ? 0 : relative.getNameCount();
+	}
+
+	/**
+	 * Returns how long to wait for the next event
+	 * @return the wait in milliseconds, until the earliest pending path is due or one second
+	 */
+	private long nextTimeout() {
+		long now = System.nanoTime();
+		long timeout = 1000;
+		for(long deadline : pending.values()) {
+			timeout = Math.min(timeout, Math.max(1, (deadline - now) / 1_000_000 + 1));
+		}
+		return timeout;
+	}
+}
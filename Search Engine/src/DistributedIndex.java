@@ -0,0 +1,536 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A read-only index whose documents are served by separate shard processes, each running a
+ * {@link ShardServlet} over one partition (see {@link ShardedIndex#shardOf(String, int)}). A
+ * request is sent to every shard at once and the answers received before the timeout are
+ * combined, so a slow or stopped shard only leaves its documents out. Searches ask each shard for
+ * its best k results and merge them. Scores only depend on the document, so the merged results are
+ * the best k of all the documents that answered.
+ *
+ * The shard addresses must be given in partition order, so questions about one location can be
+ * sent to the shard that has it.
+ *
+ * @author matthew
+ *
+ */
+public class DistributedIndex implements IndexBackend {
+	/**
+	 * The results of a distributed search, and how many shards answered
+	 */
+	public static class Results extends ArrayList<InvertedIndex.SearchResult> {
+		/**
+		 * Unused serial version
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The number of shards asked
+		 */
+		private final int shards;
+
+		/**
+		 * The number of shards that answered in time
+		 */
+		private final int answered;
+
+		/**
+		 * The number of results the shards found, including the ones not returned
+		 */
+		private final long total;
+
+		/**
+		 * Initializes the results
+		 * @param results the merged results
+		 * @param shards the number of shards asked
+		 * @param answered the number of shards that answered in time
+		 * @param total the number of results the shards found
+		 */
+		public Results(List<InvertedIndex.SearchResult> results, int shards, int answered, long total) {
+			super(results);
+			this.shards = shards;
+			this.answered = answered;
+			this.total = total;
+		}
+
+		/**
+		 * Returns the number of shards asked
+		 * @return the number of shards
+		 */
+		public int getShards() {
+			return shards;
+		}
+
+		/**
+		 * Returns the number of shards that answered in time
+		 * @return the number of shards
+		 */
+		public int getAnswered() {
+			return answered;
+		}
+
+		/**
+		 * Returns the number of results the shards found, including the ones not returned
+		 * @return the number of results
+		 */
+		public long getTotal() {
+			return total;
+		}
+
+		/**
+		 * Checks if some shards did not answer in time
+		 * @return true if results may be missing
+		 */
+		public boolean isPartial() {
+			return answered < shards;
+		}
+	}
+
+	/**
+	 * Reads the answer of one shard
+	 * @param <T> the type of the answer
+	 */
+	@FunctionalInterface
+	private interface Decoder<T> {
+		/**
+		 * Reads the answer
+		 * @param in the body of the response
+		 * @return the answer
+		 * @throws IOException if the body is invalid
+		 */
+		public T decode(DataInputStream in) throws IOException;
+	}
+
+	/**
+	 * The default time to wait for the shards, in milliseconds
+	 */
+	public static final int TIMEOUT = 1000;
+
+	/**
+	 * The time to wait for the shards to export their whole partition, in milliseconds
+	 */
+	public static final int EXPORT_TIMEOUT = 600000;
+
+	/**
+	 * The default number of results to ask each shard for
+	 */
+	public static final int TOP_K = 100;
+
+	/**
+	 * The base address of each shard, in partition order
+	 */
+	private final List<String> shards;
+
+	/**
+	 * How long to wait for the shards
+	 */
+	private final Duration timeout;
+
+	/**
+	 * The most results to return from a search
+	 */
+	private final int k;
+
+	/**
+	 * The client that sends the requests
+	 */
+	private final HttpClient client;
+
+	/**
+	 * Initializes the index
+	 * @param shards the base address of each shard, such as http://localhost:8081, in partition order
+	 * @param timeout how long to wait for the shards
+	 * @param k the most results to return from a search
+	 */
+	public DistributedIndex(List<String> shards, Duration timeout, int k) {
+		if(shards.isEmpty()) {
+			throw new IllegalArgumentException("A distributed index needs at least one shard");
+		}
+		this.shards = new ArrayList<>();
+		for(String shard : shards) {
+			this.shards.add(shard.strip().replaceAll("/+$", ""));
+		}
+		this.timeout = timeout;
+		this.k = k;
+		this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+	}
+
+	/**
+	 * Builds a request to a shard
+	 * @param shard the shard
+	 * @param query the parameters, already encoded
+	 * @param wait how long to wait for the answer
+	 * @return the request
+	 */
+	private HttpRequest request(int shard, String query, Duration wait) {
+		return HttpRequest.newBuilder(URI.create(shards.get(shard) + "/shard?" + query)).timeout(wait).GET().build();
+	}
+
+	/**
+	 * Sends a request to every shard at once and reads the answers that arrive in time
+	 * @param <T> the type of the answers
+	 * @param query the parameters, already encoded
+	 * @param decoder reads an answer
+	 * @return the answer of each shard in order, null for shards that failed or were too slow
+	 */
+	private <T> List<T> fanOut(String query, Decoder<T> decoder) {
+		return fanOut(query, timeout, decoder);
+	}
+
+	/**
+	 * Sends a request to every shard at once and reads the answers that arrive in time
+	 * @param <T> the type of the answers
+	 * @param query the parameters, already encoded
+	 * @param wait how long to wait for the answers
+	 * @param decoder reads an answer
+	 * @return the answer of each shard in order, null for shards that failed or were too slow
+	 */
+	private <T> List<T> fanOut(String query, Duration wait, Decoder<T> decoder) {
+		List<CompletableFuture<HttpResponse<byte[]>>> pending = new ArrayList<>();
+		for(int shard = 0 ; shard < shards.size() ; shard ++) {
+			pending.add(client.sendAsync(request(shard, query, wait), HttpResponse.BodyHandlers.ofByteArray()));
+		}
+
+		long deadline = System.nanoTime() + wait.toNanos();
+		List<T> answers = new ArrayList<>();
+		for(CompletableFuture<HttpResponse<byte[]>> future : pending) {
+			T answer = null;
+			try {
+				HttpResponse<byte[]> response = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				if(response.statusCode() == 200) {
+					answer = decoder.decode(new DataInputStream(new ByteArrayInputStream(response.body())));
+				}
+			} catch (TimeoutException e) {
+				future.cancel(true);
+			} catch (ExecutionException | IOException e) {
+				// the shard is down or answered badly, so its documents are left out
+			} catch (InterruptedException e) {
+				future.cancel(true);
+				Thread.currentThread().interrupt();
+			}
+			answers.add(answer);
+		}
+		return answers;
+	}
+
+	/**
+	 * Sends a request to one shard
+	 * @param <T> the type of the answer
+	 * @param shard the shard
+	 * @param query the parameters, already encoded
+	 * @param decoder reads the answer
+	 * @return the answer, or null if the shard failed or was too slow
+	 */
+	private <T> T call(int shard, String query, Decoder<T> decoder) {
+		try {
+			HttpResponse<byte[]> response = client.send(request(shard, query, timeout), HttpResponse.BodyHandlers.ofByteArray());
+			if(response.statusCode() == 200) {
+				return decoder.decode(new DataInputStream(new ByteArrayInputStream(response.body())));
+			}
+		} catch (IOException e) {
+			// the shard is down or answered badly
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return null;
+	}
+
+	/**
+	 * Encodes a parameter value
+	 * @param value the value
+	 * @return the encoded value
+	 */
+	private static String encode(String value) {
+		return URLEncoder.encode(value, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads a set of strings
+	 * @param in the answer
+	 * @return the strings
+	 * @throws IOException if the answer is invalid
+	 */
+	private static List<String> readStrings(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		List<String> strings = new ArrayList<>(size);
+		for(int i = 0 ; i < size ; i ++) {
+			strings.add(in.readUTF());
+		}
+		return strings;
+	}
+
+	/**
+	 * Searches every shard and merges the best results of the shards that answered in time
+	 * @param query a collection of cleaned, stemmed, and unique strings
+	 * @param exact whether to match whole words or prefixes
+	 * @return the best k results, sorted in order of importance, as {@link Results}
+	 */
+	@Override
+	public Collection<InvertedIndex.SearchResult> search(Collection<String> query, boolean exact) {
+		String parameters = "op=search&q=" + encode(String.join(" ", query)) + "&exact=" + exact + "&k=" + k;
+		List<Results> answers = fanOut(parameters, in -> {
+			int found = in.readInt();
+			int returned = in.readInt();
+			List<InvertedIndex.SearchResult> results = new ArrayList<>(returned);
+			for(int i = 0 ; i < returned ; i ++) {
+				results.add(new InvertedIndex.SearchResult(in.readUTF(), in.readInt(), in.readDouble()));
+			}
+			return new Results(results, 1, 1, found);
+		});
+
+		List<InvertedIndex.SearchResult> merged = new ArrayList<>();
+		int answered = 0;
+		long total = 0;
+		for(Results answer : answers) {
+			if(answer != null) {
+				answered++;
+				total += answer.getTotal();
+				merged = ShardedIndex.merge(merged, answer);
+			}
+		}
+		if(merged.size() > k) {
+			merged = merged.subList(0, k);
+		}
+		return new Results(merged, shards.size(), answered, total);
+	}
+
+	@Override
+	public SortedSet<String> getTerms(String prefix) {
+		TreeSet<String> words = new TreeSet<>();
+		for(List<String> answer : fanOut("op=terms&prefix=" + encode(prefix), DistributedIndex::readStrings)) {
+			if(answer != null) {
+				words.addAll(answer);
+			}
+		}
+		return Collections.unmodifiableSortedSet(words);
+	}
+
+	@Override
+	public Set<String> get() {
+		return getTerms("");
+	}
+
+	@Override
+	public Set<String> get(String key) {
+		TreeSet<String> locations = new TreeSet<>();
+		for(List<String> answer : fanOut("op=locations&term=" + encode(key), DistributedIndex::readStrings)) {
+			if(answer != null) {
+				locations.addAll(answer);
+			}
+		}
+		return Collections.unmodifiableSet(locations);
+	}
+
+	/**
+	 * Reads the occurrences of a word at a location
+	 * @param in the answer
+	 * @return the number of occurrences followed by the positions, or just the negated number of
+	 * occurrences minus one if positions are not stored
+	 * @throws IOException if the answer is invalid
+	 */
+	private static int[] readPositions(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		if(!in.readBoolean()) {
+			return new int[] {-count - 1};
+		}
+		int[] positions = new int[count + 1];
+		positions[0] = count;
+		for(int i = 1 ; i <= count ; i ++) {
+			positions[i] = in.readInt();
+		}
+		return positions;
+	}
+
+	/**
+	 * Asks the shard of a location for the positions of a word there
+	 * @param key the word
+	 * @param location the location
+	 * @return the occurrences as read by {@link #readPositions(DataInputStream)}, or no occurrences
+	 * if the shard did not answer
+	 */
+	private int[] positions(String key, String location) {
+		int shard = ShardedIndex.shardOf(location, shards.size());
+		int[] answer = call(shard, "op=positions&term=" + encode(key) + "&location=" + encode(location), DistributedIndex::readPositions);
+		return answer == null ? new int[] {0} : answer;
+	}
+
+	/**
+	 * Returns the positions of a word at a location
+	 * @param key the word
+	 * @param location the location
+	 * @return unmodifiable sorted set of the positions, empty if the word is not at the location or
+	 * its shard did not answer
+	 * @throws UnsupportedOperationException if the shards do not store positions
+	 */
+	@Override
+	public Set<Integer> get(String key, String location) {
+		int[] answer = positions(key, location);
+		if(answer[0] < 0) {
+			throw new UnsupportedOperationException("Getting positions needs positions, which a counts-only index does not store");
+		}
+		TreeSet<Integer> positions = new TreeSet<>();
+		for(int i = 1 ; i < answer.length ; i ++) {
+			positions.add(answer[i]);
+		}
+		return Collections.unmodifiableSet(positions);
+	}
+
+	@Override
+	public boolean contains(String key) {
+		return numLocations(key) > 0;
+	}
+
+	@Override
+	public boolean contains(String key, String location) {
+		return numPositions(key, location) > 0;
+	}
+
+	@Override
+	public int size() {
+		return get().size();
+	}
+
+	@Override
+	public int numLocations(String key) {
+		return get(key).size();
+	}
+
+	@Override
+	public int numPositions(String key, String location) {
+		int count = positions(key, location)[0];
+		return count < 0 ? -count - 1 : count;
+	}
+
+	@Override
+	public Map<String, Integer> getWordCount() {
+		TreeMap<String, Integer> wordCount = new TreeMap<>();
+		List<Map<String, Integer>> answers = fanOut("op=counts", in -> {
+			int size = in.readInt();
+			Map<String, Integer> counts = new TreeMap<>();
+			for(int i = 0 ; i < size ; i ++) {
+				counts.put(in.readUTF(), in.readInt());
+			}
+			return counts;
+		});
+		for(Map<String, Integer> answer : answers) {
+			if(answer != null) {
+				wordCount.putAll(answer);
+			}
+		}
+		return Collections.unmodifiableMap(wordCount);
+	}
+
+	@Override
+	public Map<String, Long> getStats() {
+		long documents = 0;
+		long postings = 0;
+		long positions = 0;
+		for(long[] answer : fanOut("op=stats", in -> new long[] {in.readLong(), in.readLong(), in.readLong(), in.readLong()})) {
+			if(answer != null) {
+				documents += answer[0];
+				postings += answer[2];
+				positions += answer[3];
+			}
+		}
+		return IndexBackend.stats(documents, size(), postings, positions);
+	}
+
+	/**
+	 * Writes the index as JSON. Each shard exports its whole partition in one request, and the
+	 * postings of the shards that answered are merged word by word.
+	 * @param pathName the file to write to
+	 * @throws IOException if unable to write the file
+	 */
+	@Override
+	public void writeToFile(String pathName) throws IOException {
+		List<Map<String, Map<String, int[]>>> answers = fanOut("op=export", Duration.ofMillis(EXPORT_TIMEOUT), in -> {
+			Map<String, Map<String, int[]>> partition = new TreeMap<>();
+			while(in.readBoolean()) {
+				String key = in.readUTF();
+				int size = in.readInt();
+				Map<String, int[]> postings = new TreeMap<>();
+				for(int i = 0 ; i < size ; i ++) {
+					postings.put(in.readUTF(), readPositions(in));
+				}
+				partition.put(key, postings);
+			}
+			return partition;
+		});
+
+		TreeMap<String, TreeMap<String, TreeSet<Integer>>> elements = new TreeMap<>();
+		TreeMap<String, TreeMap<String, Integer>> counts = new TreeMap<>();
+		boolean positional = true;
+		for(Map<String, Map<String, int[]>> answer : answers) {
+			if(answer == null) {
+				continue;
+			}
+			for(Map.Entry<String, Map<String, int[]>> term : answer.entrySet()) {
+				String key = term.getKey();
+				for(Map.Entry<String, int[]> posting : term.getValue().entrySet()) {
+					int[] occurrences = posting.getValue();
+					if(occurrences[0] < 0) {
+						positional = false;
+						counts.computeIfAbsent(key, k -> new TreeMap<>()).put(posting.getKey(), -occurrences[0] - 1);
+						continue;
+					}
+					TreeSet<Integer> positions = new TreeSet<>();
+					for(int i = 1 ; i < occurrences.length ; i ++) {
+						positions.add(occurrences[i]);
+					}
+					elements.computeIfAbsent(key, k -> new TreeMap<>()).put(posting.getKey(), positions);
+					counts.computeIfAbsent(key, k -> new TreeMap<>()).put(posting.getKey(), occurrences[0]);
+				}
+			}
+		}
+		if(positional) {
+			SimpleJsonWriter.asObject(elements, Paths.get(pathName));
+		}
+		else {
+			SimpleJsonWriter.asNestedDictionary(counts, Paths.get(pathName));
+		}
+	}
+
+	@Override
+	public void writeWordCount(Path outputFile) throws IOException {
+		SimpleJsonWriter.asDictionary(getWordCount(), outputFile);
+	}
+
+	@Override
+	public void addDocument(String location, Iterable<String> words) {
+		throw new UnsupportedOperationException("A distributed index is read-only, documents are added to the shards");
+	}
+
+	@Override
+	public void addAll(InvertedIndex other) {
+		throw new UnsupportedOperationException("A distributed index is read-only, documents are added to the shards");
+	}
+
+	@Override
+	public String toString() {
+		return "DistributedIndex" + shards;
+	}
+}
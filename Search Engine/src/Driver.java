@@ -1,9 +1,19 @@
 import java.time.Duration;
 import java.time.Instant;
 import java.nio.file.Path;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Class responsible for running this project based on the provided command-line arguments.
@@ -31,9 +41,10 @@ public class Driver {
 		InvertedIndex index;
 		QueryParserInterface qParser = null;
 		int threads = 5;
+		Map<String, Map<String, Long>> ingestStats = new TreeMap<>();
 
-		if (parser.hasFlag("-threads") || parser.hasFlag("-url")) {
-			threadSafe = new ThreadSafeInvertedIndex();
+		if (parser.hasFlag("-threads") || parser.hasFlag("-url") || parser.hasFlag("-resume") || parser.hasFlag("-refresh") || parser.hasFlag("-watch") || parser.hasFlag("-live")) {
+			threadSafe = new ThreadSafeInvertedIndex(!parser.hasFlag("-countsonly"));
 			index = threadSafe;
 			try {
 				threads = parser.getPositiveInteger("-threads", 5);
@@ -43,44 +54,240 @@ public class Driver {
 			qParser = new MultiThreadedQueryParser(threadSafe, threads);
 		}
 		else {
-			index = new InvertedIndex();
+			index = new InvertedIndex(!parser.hasFlag("-countsonly"));
 			qParser = new QueryParser(index);
 		}
 
-		//-- project 4 url processing --
-		if(parser.hasFlag("-url")) {
-			String seed = parser.getString("-url");
-
-			int limit = 50;
-			if(parser.hasFlag("-limit")) {
-				limit = Integer.parseInt(parser.getString("-limit"));
-			}	
+		// only index one partition of the documents, to be served to a broker by this process
+		Predicate<String> locations = location -> true;
+		boolean shardServer = false;
+		if(parser.hasFlag("-shard")) {
+			try {
+				String[] shard = parser.getString("-shard", "").split("/");
+				int number = Integer.parseInt(shard[0]);
+				int shards = Integer.parseInt(shard[1]);
+				if(shards < 1 || number < 0 || number >= shards) {
+					throw new NumberFormatException();
+				}
+				locations = location -> ShardedIndex.shardOf(location, shards) == number;
+				shardServer = true;
+			} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+				System.out.println("Error: invalid shard, expected the shard number and count as i/n");
+			}
+		}
 
-			WebCrawlerBuilder webCrawler = new WebCrawlerBuilder(limit);
+		// how deep to walk -path, whether to follow links to other directories and to read archives
+		int depth = DirectoryWalker.DEFAULT_DEPTH;
+		if(parser.hasFlag("-depth")) {
 			try {
-				webCrawler.parseUrl(threadSafe, seed, threads);
-			} catch (MalformedURLException e) {
-				System.out.println("Error: Invalid URL");
+				depth = Integer.parseInt(parser.getString("-depth", Integer.toString(depth)));
+			} catch (NumberFormatException e) {
+				System.out.println("Error: invalid depth");
 			}
 		}
+		DirectoryWalker walker = new DirectoryWalker(depth, parser.hasFlag("-links"), parser.hasFlag("-archives"), threads, locations);
 
-		if(parser.hasFlag("-path")) {
+		// keep the index up to date with the directory while the server runs, watching it before the
+		// build so the files that change during the build are indexed again as well
+		DirectoryWatcher watcher = null;
+		if(parser.hasFlag("-watch") && parser.hasFlag("-path")) {
 			Path path = parser.getPath("-path");
+			boolean copied = parser.hasFlag("-offheap") || parser.hasFlag("-shards") || !parser.getString("-backend", "treemap").equals("treemap");
+			if(path != null && copied && !parser.hasFlag("-broker") && !parser.hasFlag("-replica")) {
+				// the server answers from a copy made once, which would never see the changes
+				System.out.println("Error: -watch cannot be used with -backend, -offheap or -shards");
+			}
+			else if(path != null) {
+				try {
+					watcher = new DirectoryWatcher(path, threadSafe, walker, parser.getPositiveInteger("-watch", (int) DirectoryWatcher.DEBOUNCE));
+				} catch (IOException e) {
+					System.out.println("Error: unable to watch path: " + path.toString());
+				}
+			}
+		}
+
+		// start the server right away and answer from a periodically refreshed copy of the index
+		// while the crawl or build below runs, then from the finished index
+		LiveIndex live = null;
+		Thread server = null;
+		if(parser.hasFlag("-live") && !parser.hasFlag("-port")) {
+			System.out.println("Error: -live needs -port to serve the index while it is built");
+		}
+		else if(parser.hasFlag("-live") && (parser.hasFlag("-shard") || parser.hasFlag("-broker") || parser.hasFlag("-replica") || parser.hasFlag("-reload") || parser.hasFlag("-publish"))) {
+			// the server starts before the build, so it could not serve the shard, the reloads or the
+			// snapshots that are only set up after it
+			System.out.println("Error: -live cannot be used with -shard, -broker, -replica, -reload or -publish");
+		}
+		else if(parser.hasFlag("-live")) {
+			live = new LiveIndex(threadSafe, parser.getPositiveInteger("-live", LiveIndex.REFRESH));
+			int port = parser.getPositiveInteger("-port", 8080);
+			LiveIndex view = live;
+			server = new Thread(() -> {
+				try {
+					MessageServer.runServer(view, port);
+				} catch (Exception e) {
+					System.out.println("Error when running server");
+					e.printStackTrace();
+				}
+			}, "search-server");
+			server.start();
+		}
+
+		InvertedIndex merged = build(parser, index, threadSafe, threads, locations, walker, ingestStats);
+		if(merged != null) {
+			// a -budget build is searched from the merged file, which never has to fit in the heap
+			qParser = threadSafe != null ? new MultiThreadedQueryParser(merged, threads) : new QueryParser(merged);
+			index = merged;
+			threadSafe = null;
+		}
+
+		if(watcher != null) {
+			Thread thread = new Thread(watcher, "directory-watcher");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		if(parser.hasFlag("-ingeststats")) {
+			Path statsFile = parser.getPath("-ingeststats", Path.of("ingeststats.json"));
 			try {
-				if (threadSafe != null) {
+				SimpleJsonWriter.asNestedDictionary(ingestStats, statsFile);
+			} catch (IOException e) {
+				System.out.println("Error: Could not print to file: " + statsFile.toString());
+			}
+		}
+
+		// publish versioned snapshots of the index for replicas, and again as the watched files change
+		Path snapshots = null;
+		SnapshotPublisher publisher = null;
+		if(parser.hasFlag("-publish")) {
+			snapshots = parser.getPath("-publish", Path.of("snapshots"));
+			try {
+				publisher = new SnapshotPublisher(snapshots, parser.getPositiveInteger("-fullevery", SnapshotPublisher.FULL_EVERY));
+				System.out.println("Published snapshot " + publisher.publish(index));
+				if(parser.hasFlag("-watch") && threadSafe != null) {
+					publisher.schedule(threadSafe, parser.getPositiveInteger("-publishevery", SnapshotPublisher.PERIOD));
+				}
+			} catch (IOException | InvalidPathException e) {
+				System.out.println("Error: unable to publish snapshot to " + parser.getString("-publish", "snapshots"));
+				snapshots = null;
+				publisher = null;
+			}
+		}
+
+		// copy the built index into another data structure, to compare them on the same queries
+		IndexBackend backend = index;
+		String backendName = parser.hasFlag("-offheap") ? "offheap" : parser.getString("-backend", "treemap");
+		Function<InvertedIndex, IndexBackend> factory = IndexBackend.getBackends().get(backendName);
+		Function<InvertedIndex, IndexBackend> copy = factory;
+		if(factory != null && parser.hasFlag("-shards")) {
+			// partition the documents so each search runs on all shards in parallel
+			int shards = parser.getPositiveInteger("-shards", Runtime.getRuntime().availableProcessors());
+			copy = built -> ShardedIndex.partition(built, shards, factory);
+		}
+		if(parser.hasFlag("-broker")) {
+			// search the shard processes instead of a local index
+			List<String> shards = List.of(parser.getString("-broker", "").split(","));
+			int timeout = parser.getPositiveInteger("-shardtimeout", DistributedIndex.TIMEOUT);
+			backend = new DistributedIndex(shards, Duration.ofMillis(timeout), parser.getPositiveInteger("-topk", DistributedIndex.TOP_K));
+			backendName = "distributed";
+			qParser = new QueryParser(backend);
+		}
+		else if(factory == null) {
+			System.out.println("Error: unknown backend " + backendName + ", expected one of " + IndexBackend.getBackends().keySet());
+		}
+		else if(parser.hasFlag("-replica")) {
+			// search a copy of the snapshots published by another process, swapped in as they arrive
+			SwappableIndex swappable = new SwappableIndex(new ThreadSafeInvertedIndex(!parser.hasFlag("-countsonly")));
+			// the default backend searches the segments of the replica, the others are copied into
+			Function<InvertedIndex, IndexBackend> replicated = parser.hasFlag("-shards") || !backendName.equals("treemap") ? copy : null;
+			SnapshotReplica replica = new SnapshotReplica(parser.getString("-replica", "snapshots"), swappable, replicated, parser.getPositiveInteger("-poll", SnapshotReplica.POLL));
+			try {
+				replica.update();
+			} catch (IOException e) {
+				System.out.println("Error: unable to replicate snapshot - " + e.getMessage());
+			}
+			if(parser.hasFlag("-port")) {
+				Thread thread = new Thread(replica, "snapshot-replica");
+				thread.setDaemon(true);
+				thread.start();
+			}
+			backend = swappable;
+			backendName = "replica";
+			if(threadSafe != null) {
+				qParser = new MultiThreadedQueryParser(backend, threads);
+			}
+			else {
+				qParser = new QueryParser(backend);
+			}
+		}
+		else if(parser.hasFlag("-shards") || !backendName.equals("treemap")) {
+			backend = copy.apply(index);
+			if(threadSafe != null) {
+				qParser = new MultiThreadedQueryParser(backend, threads);
+			}
+			else {
+				qParser = new QueryParser(backend);
+			}
+			// only the copy is searched from now on, so the built index can be collected
+			index = null;
+			threadSafe = null;
+		}
+
+		// build or load a new version in the background while the server keeps answering, at /reload
+		IndexReloader reloader = null;
+		if(parser.hasFlag("-reload") && parser.hasFlag("-watch")) {
+			// the watcher keeps updating the index it was started on, not the reloaded versions
+			System.out.println("Error: -reload cannot be used with -watch");
+		}
+		else if(parser.hasFlag("-reload") && parser.getPath("-reload", null) == null && (parser.hasFlag("-checkpoint") || parser.hasFlag("-ingest") && parser.getString("-ingest", "-").equals("-"))) {
+			// standard input is used up by the first build, and the checkpoint of a finished crawl
+			// would only be resumed
+			System.out.println("Error: -reload cannot build again from standard input or a -checkpoint, give it a binary index to load");
+		}
+		else if(parser.hasFlag("-reload") && copy != null && !parser.hasFlag("-broker") && !parser.hasFlag("-replica")) {
+			Path binary = parser.getPath("-reload", null);
+			boolean sources = parser.hasFlag("-path") || parser.hasFlag("-url") || parser.hasFlag("-resume") || parser.hasFlag("-refresh") || parser.hasFlag("-ingest");
+			boolean positional = !parser.hasFlag("-countsonly");
+			int builders = threads;
+			Predicate<String> accepted = locations;
+			DirectoryWalker files = walker;
+			Function<InvertedIndex, IndexBackend> reloaded = copy;
+			SnapshotPublisher replicated = publisher;
+			Callable<IndexBackend> loader = () -> {
+				ThreadSafeInvertedIndex fresh = new ThreadSafeInvertedIndex(positional);
+				InvertedIndex built = fresh;
+				if(binary != null) {
+					fresh.readBinary(binary);
+				}
+				else if(sources) {
+					// the same crawl, files and records as the first build
+					InvertedIndex spilled = build(parser, fresh, fresh, builders, accepted, files, new TreeMap<>());
+					built = spilled != null ? spilled : fresh;
+				}
+				else {
+					throw new IOException("nothing to reload, expected a binary index or the flags of the first build");
+				}
+				if(replicated != null) {
+					// the replicas follow the reloaded versions, which are published as full snapshots
 					try {
-						MultiThreadedIndexBuilder.build(path ,threadSafe , threads);
+						System.out.println("Published snapshot " + replicated.publish(built));
 					} catch (IOException e) {
-						System.out.println("Error: thread interruption occured when parsing file");
+						System.out.println("Error: unable to publish snapshot - " + e.getMessage());
 					}
 				}
-				else {
-					InvertedIndexBuilder.build(path,index);
-				}
-			}catch(IOException e) {
-				System.out.println("Unable to build from path: " + path.toString());
-			} catch(NullPointerException e) {
-				System.out.println("Error: No path was given");
+				return reloaded.apply(built);
+			};
+			SwappableIndex versions = new SwappableIndex(backend);
+			reloader = new IndexReloader(versions, loader);
+			backend = versions;
+		}
+
+		if(parser.hasFlag("-indexstats")) {
+			Path statsFile = parser.getPath("-indexstats", Path.of("indexstats.json"));
+			try {
+				SimpleJsonWriter.asNestedDictionary(Map.of(backend != index ? backendName : index instanceof OffHeapInvertedIndex ? "offheap" : "treemap", backend.getStats()), statsFile);
+			} catch (IOException e) {
+				System.out.println("Error: Could not print to file: " + statsFile.toString());
 			}
 		}
 
@@ -88,7 +295,7 @@ public class Driver {
 			System.out.println("printing to file");
 			try {
 				Path path = parser.getPath("-index", Path.of("index.json"));
-				index.writeToFile(path.toString());
+				backend.writeToFile(path.toString());
 			}catch (InvalidPathException e) {
 				System.out.println("Invalid path: " + parser.getString("-index","index.json"));
 			}catch (IOException e) {
@@ -102,7 +309,7 @@ public class Driver {
 		if(parser.hasFlag("-counts")) {
 			Path wordCountFile = parser.getPath("-counts", Path.of("counts.json"));
 			try {
-				index.writeWordCount(wordCountFile);
+				backend.writeWordCount(wordCountFile);
 			} catch (IOException e) {
 				System.out.println("Error: Could not print to file: " + wordCountFile.toString());
 			}
@@ -130,10 +337,24 @@ public class Driver {
 			}
 		}
 		
-		if(parser.hasFlag("-port")) {
+		if(live != null) {
+			// the server is already running, from now on it answers from the finished index
+			live.finish(backend);
+			try {
+				server.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		else if(parser.hasFlag("-port")) {
 			int port = parser.getPositiveInteger("-port", 8080);
 			try {
-				MessageServer.runServer(index, port);
+				if(shardServer) {
+					MessageServer.runShardServer(backend, port);
+				}
+				else {
+					MessageServer.runServer(backend, port, snapshots, reloader);
+				}
 			} catch (Exception e) {
 				System.out.println("Error when running server");
 				e.printStackTrace();
@@ -145,4 +366,216 @@ public class Driver {
 		double seconds = (double) elapsed.toMillis() / Duration.ofSeconds(1).toMillis();
 		System.out.printf("Elapsed: %f seconds%n", seconds);
 	}
+
+	/**
+	 * Builds the index from everything the flags ask for: a crawl (-url, -resume or -refresh), the
+	 * files under -path and the JSON records of -ingest, filtered to the accepted locations. Used for
+	 * the first build and again for every reload, so both read the same sources the same way.
+	 * Errors are printed and the rest of the build continues. With -budget the files under -path are
+	 * merged on disk and read into direct buffers instead of the given index.
+	 *
+	 * @param parser the command-line arguments
+	 * @param index the index to build
+	 * @param threadSafe the same index when it is built with several threads, or null
+	 * @param threads the number of threads to use
+	 * @param locations accepts the locations to index
+	 * @param walker finds the files under -path, with the same locations
+	 * @param ingestStats receives the metrics of the builders
+	 * @return the index merged by -budget, or null if everything was built into the given index
+	 */
+	private static InvertedIndex build(ArgumentParser parser, InvertedIndex index, ThreadSafeInvertedIndex threadSafe, int threads, Predicate<String> locations, DirectoryWalker walker, Map<String, Map<String, Long>> ingestStats) {
+		InvertedIndex merged = null;
+
+		//-- project 4 url processing --
+		if(parser.hasFlag("-url") || parser.hasFlag("-resume") || parser.hasFlag("-refresh")) {
+			String seed = parser.getString("-url");
+
+			int limit = 50;
+			if(parser.hasFlag("-limit")) {
+				limit = Integer.parseInt(parser.getString("-limit"));
+			}
+
+			// track visited sites with a Bloom filter for very large crawls
+			double falsePositiveRate = 0;
+			if(parser.hasFlag("-bloom")) {
+				try {
+					falsePositiveRate = Double.parseDouble(parser.getString("-bloom", "0.01"));
+				} catch (NumberFormatException e) {
+					falsePositiveRate = -1;
+				}
+				if(!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+					System.out.println("Error: invalid false positive rate, expected a number between 0 and 1");
+					falsePositiveRate = 0;
+				}
+			}
+
+			WebCrawlerBuilder webCrawler = new WebCrawlerBuilder(limit, falsePositiveRate);
+			webCrawler.setLocations(locations);
+			if(parser.hasFlag("-delay")) {
+				webCrawler.setPoliteness(parser.getPositiveInteger("-delay", 0));
+			}
+			if(parser.hasFlag("-timeout")) {
+				int timeout = parser.getPositiveInteger("-timeout", HttpsFetcher.TOTAL_TIMEOUT);
+				webCrawler.setTimeouts(Math.min(timeout, HttpsFetcher.CONNECT_TIMEOUT), Math.min(timeout, HttpsFetcher.READ_TIMEOUT), timeout);
+			}
+			// crawl the most valuable pages first
+			if(parser.hasFlag("-priority") || parser.hasFlag("-maxdepth")) {
+				String name = parser.getString("-priority", "depth");
+				CrawlPriority priority = CrawlPriority.getPriorities().get(name);
+				if(priority == null) {
+					System.out.println("Error: unknown priority - " + name);
+					priority = CrawlPriority.DEPTH;
+				}
+				int maxDepth = -1;
+				try {
+					maxDepth = Integer.parseInt(parser.getString("-maxdepth", "-1"));
+				} catch (NumberFormatException e) {
+					System.out.println("Error: invalid maximum depth");
+				}
+				webCrawler.setPriority(priority, maxDepth);
+			}
+			// skip pages that are (near) duplicates of pages already crawled
+			if(parser.hasFlag("-dedup")) {
+				try {
+					webCrawler.setDeduplication(Integer.parseInt(parser.getString("-dedup", Integer.toString(FingerprintIndex.DEFAULT_DISTANCE))));
+				} catch (NumberFormatException e) {
+					System.out.println("Error: invalid duplicate distance");
+				} catch (IllegalArgumentException e) {
+					System.out.println("Error: " + e.getMessage());
+				}
+			}
+			try {
+				if(parser.hasFlag("-refresh")) {
+					webCrawler.refresh(threadSafe, parser.getPath("-refresh", Path.of("checkpoint")), threads);
+				}
+				else if(parser.hasFlag("-resume")) {
+					webCrawler.resume(threadSafe, parser.getPath("-resume", Path.of("checkpoint")), threads);
+				}
+				else {
+					if(parser.hasFlag("-checkpoint")) {
+						Path checkpoint = parser.getPath("-checkpoint", Path.of("checkpoint"));
+						webCrawler.setCheckpoint(checkpoint, WebCrawlerBuilder.CHECKPOINT_INTERVAL);
+					}
+					webCrawler.parseUrl(threadSafe, seed, threads);
+				}
+			} catch (MalformedURLException e) {
+				System.out.println("Error: Invalid URL");
+			} catch (IOException e) {
+				System.out.println("Error: unable to use checkpoint - " + e.getMessage());
+			}
+
+			if(parser.hasFlag("-hoststats")) {
+				Path statsFile = parser.getPath("-hoststats", Path.of("hoststats.json"));
+				try {
+					webCrawler.writeHostStats(statsFile);
+				} catch (IOException e) {
+					System.out.println("Error: Could not print to file: " + statsFile.toString());
+				}
+			}
+
+			ingestStats.put("crawler", webCrawler.getIngestionStats());
+
+			if(parser.hasFlag("-aliases")) {
+				Path aliasFile = parser.getPath("-aliases", Path.of("aliases.json"));
+				try {
+					webCrawler.writeAliases(aliasFile);
+				} catch (IOException e) {
+					System.out.println("Error: Could not print to file: " + aliasFile.toString());
+				}
+			}
+		}
+
+		if(parser.hasFlag("-path") && parser.hasFlag("-budget") && parser.hasFlag("-cache")) {
+			// the manifest only works with the in-memory builders
+			System.out.println("Error: -cache cannot be used with -budget");
+		}
+		else if(parser.hasFlag("-path") && parser.hasFlag("-budget") && (parser.hasFlag("-url") || parser.hasFlag("-resume")
+				|| parser.hasFlag("-refresh") || parser.hasFlag("-ingest") || parser.hasFlag("-watch") || parser.hasFlag("-live")
+				|| parser.hasFlag("-shards") || parser.hasFlag("-backend"))) {
+			// these add to, watch or copy the heap index, which a -budget build never fills
+			System.out.println("Error: -budget only builds -path, it cannot be used with -url, -resume, -refresh, -ingest, -watch, -live, -shards or -backend");
+		}
+		else if(parser.hasFlag("-path")) {
+			Path path = parser.getPath("-path");
+
+			// skip the files that have not changed since the last build
+			Path manifestFile = null;
+			BuildManifest manifest = null;
+			if(parser.hasFlag("-cache")) {
+				manifestFile = parser.getPath("-cache", Path.of("manifest.bin"));
+				try {
+					manifest = BuildManifest.load(manifestFile);
+				} catch (IOException e) {
+					System.out.println("Error: unable to read manifest - " + manifestFile.toString());
+					manifest = new BuildManifest(manifestFile);
+				}
+			}
+
+			try {
+				if(parser.hasFlag("-budget")) {
+					// build in runs of at most this many megabytes, then merge them on disk
+					long budget = parser.getPositiveInteger("-budget", 256) * (1L << 20);
+					Path segment = parser.getPath("-segment", null);
+					Path output = segment != null ? segment : Files.createTempFile("index", ".bin");
+					try {
+						int runs = SpimiIndexBuilder.build(path, walker, threads, budget, output);
+						System.out.println("Merged " + runs + " runs");
+						merged = new OffHeapInvertedIndex(output, index.isPositional());
+					} finally {
+						if(segment == null) {
+							Files.deleteIfExists(output);
+						}
+					}
+				}
+				else if (threadSafe != null) {
+					try (IngestionQueue ingest = new IngestionQueue(threadSafe)) {
+						MultiThreadedIndexBuilder.build(path, ingest, threads, manifest, walker);
+						ingestStats.put("builder", ingest.getStats());
+					} catch (IOException e) {
+						System.out.println("Error: thread interruption occured when parsing file");
+					}
+				}
+				else if(manifest != null || parser.hasFlag("-shard") || parser.hasFlag("-depth") || parser.hasFlag("-links") || parser.hasFlag("-archives")) {
+					InvertedIndexBuilder.build(path, index, manifest, walker);
+				}
+				else {
+					InvertedIndexBuilder.build(path,index);
+				}
+			}catch(IOException e) {
+				System.out.println("Unable to build from path: " + path.toString());
+			} catch(NullPointerException e) {
+				System.out.println("Error: No path was given");
+			}
+
+			if(manifest != null) {
+				ingestStats.put("cache", manifest.getStats());
+				try {
+					manifest.save();
+				} catch (IOException e) {
+					System.out.println("Error: Could not print to file: " + manifestFile.toString());
+				}
+			}
+		}
+
+		// documents extracted by other pipelines, one JSON record per line
+		if(parser.hasFlag("-ingest")) {
+			String source = parser.getString("-ingest", "-");
+			try (BufferedReader input = source.equals("-")
+					? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+					: Files.newBufferedReader(Path.of(source), StandardCharsets.UTF_8)) {
+				if (threadSafe != null) {
+					try (IngestionQueue ingest = new IngestionQueue(threadSafe)) {
+						JsonLinesBuilder.build(input, ingest, threads, locations);
+						ingestStats.put("ingest", ingest.getStats());
+					}
+				}
+				else {
+					JsonLinesBuilder.build(input, index, locations);
+				}
+			} catch (IOException | InvalidPathException e) {
+				System.out.println("Error: unable to ingest from " + source);
+			}
+		}
+		return merged;
+	}
 }
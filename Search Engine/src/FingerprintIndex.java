@@ -0,0 +1,185 @@
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A concurrent index of document fingerprints used to skip duplicate pages. Each fingerprint is
+ * split into four 16-bit bands, and any two fingerprints within a Hamming distance of three share
+ * at least one band, so only documents in the same band buckets need to be compared. Documents
+ * found to be duplicates are recorded as aliases of the first (canonical) document.
+ *
+ * Two near duplicates registered at exactly the same time may both become canonical, which only
+ * means one duplicate gets indexed.
+ *
+ * @author matthew
+ *
+ * @see SimHash
+ */
+public class FingerprintIndex {
+	/**
+	 * The default largest Hamming distance for two documents to be near duplicates
+	 */
+	public static final int DEFAULT_DISTANCE = 3;
+
+	/**
+	 * The largest supported distance, any larger and banding could miss matches
+	 */
+	public static final int MAX_DISTANCE = 3;
+
+	/**
+	 * The number of bands each fingerprint is split into
+	 */
+	private static final int BANDS = 4;
+
+	/**
+	 * The largest Hamming distance for two documents to be near duplicates
+	 */
+	private final int maxDistance;
+
+	/**
+	 * The canonical document of each exact fingerprint
+	 */
+	private final ConcurrentHashMap<Long, String> exact;
+
+	/**
+	 * Canonical documents by band and band value
+	 */
+	private final ConcurrentHashMap<Integer, Queue<Document>> bands;
+
+	/**
+	 * Duplicate documents mapped to their canonical document
+	 */
+	private final ConcurrentHashMap<String, String> aliases;
+
+	/**
+	 * Initializes an index using the default distance
+	 */
+	public FingerprintIndex() {
+		this(DEFAULT_DISTANCE);
+	}
+
+	/**
+	 * Initializes an index
+	 * @param maxDistance the largest Hamming distance for two documents to be near duplicates, at
+	 * most {@link #MAX_DISTANCE} so that banding finds every match
+	 * @throws IllegalArgumentException if the distance is not between zero and
+	 * {@link #MAX_DISTANCE}
+	 */
+	public FingerprintIndex(int maxDistance) {
+		if(maxDistance < 0 || maxDistance > MAX_DISTANCE) {
+			throw new IllegalArgumentException("Duplicate distance must be between 0 and " + MAX_DISTANCE + ": " + maxDistance);
+		}
+		this.maxDistance = maxDistance;
+		this.exact = new ConcurrentHashMap<>();
+		this.bands = new ConcurrentHashMap<>();
+		this.aliases = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Registers the document's fingerprint. If it is an exact or near duplicate of a document
+	 * already registered, it is recorded as an alias of that document instead.
+	 * @param location the location of the document
+	 * @param fingerprint the {@link SimHash} of the document
+	 * @return the canonical location if the document is a duplicate, or null if it is new
+	 */
+	public String register(String location, long fingerprint) {
+		String canonical = exact.putIfAbsent(fingerprint, location);
+		if(canonical == null && maxDistance > 0) {
+			canonical = findNear(fingerprint);
+			if(canonical == null) {
+				Document document = new Document(location, fingerprint);
+				for(int band = 0 ; band < BANDS ; band ++) {
+					bands.computeIfAbsent(key(fingerprint, band), k -> new ConcurrentLinkedQueue<>()).add(document);
+				}
+			}
+			else {
+				exact.remove(fingerprint, location);
+			}
+		}
+
+		if(canonical != null && !canonical.equals(location)) {
+			aliases.put(location, canonical);
+			return canonical;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the canonical location of a document
+	 * @param location the location of the document
+	 * @return the canonical location, which is the location itself if it is not an alias
+	 */
+	public String canonical(String location) {
+		return aliases.getOrDefault(location, location);
+	}
+
+	/**
+	 * Returns all recorded aliases
+	 * @return an unmodifiable sorted map from duplicate location to canonical location
+	 */
+	public Map<String, String> getAliases() {
+		return Collections.unmodifiableMap(new TreeMap<>(aliases));
+	}
+
+	/**
+	 * Looks for a canonical document within the maximum distance of the fingerprint
+	 * @param fingerprint the fingerprint to match
+	 * @return the location of the closest match or null if none
+	 */
+	private String findNear(long fingerprint) {
+		Document best = null;
+		int bestDistance = maxDistance + 1;
+		for(int band = 0 ; band < BANDS ; band ++) {
+			Queue<Document> candidates = bands.get(key(fingerprint, band));
+			if(candidates == null) {
+				continue;
+			}
+			for(Document candidate : candidates) {
+				int distance = SimHash.distance(fingerprint, candidate.fingerprint);
+				if(distance < bestDistance) {
+					best = candidate;
+					bestDistance = distance;
+				}
+			}
+		}
+		return best == null ? null : best.location;
+	}
+
+	/**
+	 * Returns the bucket key of one band of the fingerprint
+	 * @param fingerprint the fingerprint
+	 * @param band which band
+	 * @return the bucket key
+	 */
+	private static int key(long fingerprint, int band) {
+		return (band << 16) | (int) ((fingerprint >>> (band * 16)) & 0xFFFF);
+	}
+
+	/**
+	 * A canonical document and its fingerprint
+	 */
+	private static class Document {
+		/**
+		 * The location of the document
+		 */
+		private final String location;
+
+		/**
+		 * The fingerprint of the document
+		 */
+		private final long fingerprint;
+
+		/**
+		 * Initializes a document
+		 * @param location the location of the document
+		 * @param fingerprint the fingerprint of the document
+		 */
+		public Document(String location, long fingerprint) {
+			this.location = location;
+			this.fingerprint = fingerprint;
+		}
+	}
+}
@@ -0,0 +1,594 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An index backend that keeps its dictionary in a hash map and each posting list in sorted int
+ * arrays, instead of a tree map of tree sets. Locations get an int id the first time they are
+ * added, so a posting list is a few arrays indexed together: the document ids, the number of
+ * occurrences and (if positions are stored) the positions. Exact lookups are one hash probe. For
+ * partial searches, a sorted array of the terms is built the first time a prefix is needed after
+ * the dictionary changed.
+ *
+ * Reads and writes are guarded by a {@link SimpleReadWriteLock}, so it can be searched from many
+ * threads while it is being added to. Locations cannot be removed.
+ *
+ * @author matthew
+ *
+ */
+public class HashIndex implements IndexBackend {
+	/**
+	 * The posting list of one term, sorted by document id
+	 */
+	private static class Postings {
+		/**
+		 * The number of documents in the list
+		 */
+		private int size;
+
+		/**
+		 * The document ids
+		 */
+		private int[] documents;
+
+		/**
+		 * The number of occurrences in each document
+		 */
+		private int[] counts;
+
+		/**
+		 * The sorted positions in each document, or null if positions are not stored
+		 */
+		private int[][] positions;
+
+		/**
+		 * Initializes an empty posting list
+		 * @param positional whether positions are stored
+		 */
+		public Postings(boolean positional) {
+			this.size = 0;
+			this.documents = new int[2];
+			this.counts = new int[2];
+			this.positions = positional ? new int[2][] : null;
+		}
+
+		/**
+		 * Finds a document
+		 * @param document the document id
+		 * @return the index of the document, or (-(insertion point) - 1) if it is not in the list
+		 */
+		public int find(int document) {
+			return Arrays.binarySearch(documents, 0, size, document);
+		}
+
+		/**
+		 * Adds the occurrences of the term in a document. Documents are usually added in increasing
+		 * id order, which appends. Adding a document again merges the positions, or adds the counts
+		 * if positions are not stored.
+		 * @param document the document id
+		 * @param count the number of occurrences
+		 * @param added the sorted positions, or null if positions are not stored
+		 */
+		public void add(int document, int count, int[] added) {
+			int i = find(document);
+			if(i >= 0) {
+				if(positions == null) {
+					counts[i] += count;
+				}
+				else {
+					positions[i] = union(positions[i], added);
+					counts[i] = positions[i].length;
+				}
+				return;
+			}
+
+			i = -i - 1;
+			if(size == documents.length) {
+				documents = Arrays.copyOf(documents, size * 2);
+				counts = Arrays.copyOf(counts, size * 2);
+				if(positions != null) {
+					positions = Arrays.copyOf(positions, size * 2);
+				}
+			}
+			if(i < size) {
+				System.arraycopy(documents, i, documents, i + 1, size - i);
+				System.arraycopy(counts, i, counts, i + 1, size - i);
+				if(positions != null) {
+					System.arraycopy(positions, i, positions, i + 1, size - i);
+				}
+			}
+			documents[i] = document;
+			counts[i] = count;
+			if(positions != null) {
+				positions[i] = added;
+			}
+			size++;
+		}
+
+		/**
+		 * Merges two sorted arrays without duplicates
+		 * @param first a sorted array
+		 * @param second a sorted array
+		 * @return the sorted union
+		 */
+		private static int[] union(int[] first, int[] second) {
+			int[] merged = new int[first.length + second.length];
+			int i = 0;
+			int j = 0;
+			int k = 0;
+			while(i < first.length || j < second.length) {
+				int next;
+				if(j == second.length || (i < first.length && first[i] <= second[j])) {
+					next = first[i++];
+				}
+				else {
+					next = second[j++];
+				}
+				if(k == 0 || merged[k - 1] != next) {
+					merged[k++] = next;
+				}
+			}
+			return Arrays.copyOf(merged, k);
+		}
+	}
+
+	/**
+	 * Whether the positions of each word are stored, or only the number of occurrences
+	 */
+	private final boolean positional;
+
+	/**
+	 * The lock guarding the index
+	 */
+	private final SimpleReadWriteLock lock;
+
+	/**
+	 * The posting list of each term
+	 */
+	private final HashMap<String, Postings> dictionary;
+
+	/**
+	 * The id of each location
+	 */
+	private final HashMap<String, Integer> ids;
+
+	/**
+	 * The location of each id
+	 */
+	private final ArrayList<String> locations;
+
+	/**
+	 * The word count of each id
+	 */
+	private int[] wordCounts;
+
+	/**
+	 * The sorted terms, or null if the dictionary changed since they were sorted
+	 */
+	private volatile String[] sorted;
+
+	/**
+	 * Guards sorting the terms, which readers do under the read lock
+	 */
+	private final Object sorting;
+
+	/**
+	 * Initializes an empty index that stores positions
+	 */
+	public HashIndex() {
+		this(true);
+	}
+
+	/**
+	 * Initializes an empty index
+	 * @param positional whether to store the positions of each word, or only the number of
+	 * occurrences
+	 */
+	public HashIndex(boolean positional) {
+		this.positional = positional;
+		this.lock = new SimpleReadWriteLock();
+		this.dictionary = new HashMap<>();
+		this.ids = new HashMap<>();
+		this.locations = new ArrayList<>();
+		this.wordCounts = new int[16];
+		this.sorted = null;
+		this.sorting = new Object();
+	}
+
+	/**
+	 * Returns the id of a location, adding it if it is new. Must be called with the write lock held.
+	 * @param location the location
+	 * @return the id
+	 */
+	private int id(String location) {
+		Integer id = ids.get(location);
+		if(id == null) {
+			id = locations.size();
+			ids.put(location, id);
+			locations.add(location);
+			if(id == wordCounts.length) {
+				wordCounts = Arrays.copyOf(wordCounts, id * 2);
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Adds the occurrences of a term in a document. Must be called with the write lock held.
+	 * @param term the term
+	 * @param document the document id
+	 * @param count the number of occurrences
+	 * @param positions the sorted positions, or null if positions are not stored
+	 */
+	private void addPosting(String term, int document, int count, int[] positions) {
+		Postings postings = dictionary.get(term);
+		if(postings == null) {
+			postings = new Postings(positional);
+			dictionary.put(term, postings);
+			sorted = null;
+		}
+		postings.add(document, count, positional ? positions : null);
+	}
+
+	@Override
+	public void addDocument(String location, Iterable<String> words) {
+		Map<String, List<Integer>> grouped = new HashMap<>();
+		int count = 0;
+		for(String word : words) {
+			count++;
+			grouped.computeIfAbsent(word, w -> new ArrayList<>()).add(count);
+		}
+		if(count == 0) {
+			return;
+		}
+
+		lock.writeLock().lock();
+		try {
+			int document = id(location);
+			for(Map.Entry<String, List<Integer>> entry : grouped.entrySet()) {
+				int[] positions = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+				addPosting(entry.getKey(), document, positions.length, positions);
+			}
+			wordCounts[document] += count;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds everything in another index to this one. A positional index can be added to a
+	 * counts-only index, but not the other way around.
+	 * @param other the index to add
+	 * @throws IllegalArgumentException if this index is positional and the other is not
+	 */
+	@Override
+	public void addAll(InvertedIndex other) {
+		if(positional && !other.isPositional()) {
+			throw new IllegalArgumentException("A counts-only index cannot be added to a positional index");
+		}
+
+		lock.writeLock().lock();
+		try {
+			// new locations get ids in sorted order, so the sorted posting lists below are appended
+			for(Map.Entry<String, Integer> entry : other.getWordCount().entrySet()) {
+				int document = id(entry.getKey());
+				wordCounts[document] += entry.getValue();
+			}
+			for(String term : other.get()) {
+				for(String location : other.get(term)) {
+					int[] positions = null;
+					if(positional) {
+						positions = other.get(term, location).stream().mapToInt(Integer::intValue).toArray();
+					}
+					addPosting(term, ids.get(location), other.numPositions(term, location), positions);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the sorted terms, sorting them if the dictionary changed. Must be called with the read
+	 * lock held.
+	 * @return the sorted terms
+	 */
+	private String[] sortedTerms() {
+		String[] terms = sorted;
+		if(terms == null) {
+			synchronized(sorting) {
+				terms = sorted;
+				if(terms == null) {
+					terms = dictionary.keySet().toArray(new String[0]);
+					Arrays.sort(terms);
+					sorted = terms;
+				}
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * Finds the first of the sorted terms that is not less than the key
+	 * @param terms the sorted terms
+	 * @param key the key
+	 * @return the index of the term, or the number of terms if every term is less
+	 */
+	private static int lowerBound(String[] terms, String key) {
+		int i = Arrays.binarySearch(terms, key);
+		return i >= 0 ? i : -i - 1;
+	}
+
+	/**
+	 * Finds the posting list of a term, if the term is at a location. Must be called with the read
+	 * lock held.
+	 * @param key the term
+	 * @param location the location
+	 * @return the posting list, or null if the term is not at the location
+	 */
+	private Postings find(String key, String location) {
+		Postings postings = dictionary.get(key);
+		Integer document = ids.get(location);
+		if(postings == null || document == null || postings.find(document) < 0) {
+			return null;
+		}
+		return postings;
+	}
+
+	@Override
+	public Set<String> get() {
+		lock.readLock().lock();
+		try {
+			return Collections.unmodifiableSet(new TreeSet<>(dictionary.keySet()));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Set<String> get(String key) {
+		lock.readLock().lock();
+		try {
+			Postings postings = dictionary.get(key);
+			if(postings == null) {
+				return Collections.emptySet();
+			}
+			TreeSet<String> found = new TreeSet<>();
+			for(int i = 0 ; i < postings.size ; i ++) {
+				found.add(locations.get(postings.documents[i]));
+			}
+			return Collections.unmodifiableSet(found);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the positions of a word at a location
+	 * @param key the word
+	 * @param location the location
+	 * @return unmodifiable sorted set of the positions, empty if the word is not at the location
+	 * @throws UnsupportedOperationException if this is a counts-only index
+	 */
+	@Override
+	public Set<Integer> get(String key, String location) {
+		if(!positional) {
+			throw new UnsupportedOperationException("Getting positions needs positions, which a counts-only index does not store");
+		}
+		lock.readLock().lock();
+		try {
+			Postings postings = find(key, location);
+			if(postings == null) {
+				return Collections.emptySet();
+			}
+			TreeSet<Integer> positions = new TreeSet<>();
+			for(int position : postings.positions[postings.find(ids.get(location))]) {
+				positions.add(position);
+			}
+			return Collections.unmodifiableSet(positions);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public SortedSet<String> getTerms(String prefix) {
+		lock.readLock().lock();
+		try {
+			String[] terms = sortedTerms();
+			TreeSet<String> found = new TreeSet<>();
+			for(int i = lowerBound(terms, prefix) ; i < terms.length && terms[i].startsWith(prefix) ; i ++) {
+				found.add(terms[i]);
+			}
+			return Collections.unmodifiableSortedSet(found);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean contains(String key) {
+		lock.readLock().lock();
+		try {
+			return dictionary.containsKey(key);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean contains(String key, String location) {
+		lock.readLock().lock();
+		try {
+			return find(key, location) != null;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return dictionary.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int numLocations(String key) {
+		lock.readLock().lock();
+		try {
+			Postings postings = dictionary.get(key);
+			return postings == null ? 0 : postings.size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int numPositions(String key, String location) {
+		lock.readLock().lock();
+		try {
+			Postings postings = find(key, location);
+			return postings == null ? 0 : postings.counts[postings.find(ids.get(location))];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Map<String, Integer> getWordCount() {
+		lock.readLock().lock();
+		try {
+			TreeMap<String, Integer> wordCount = new TreeMap<>();
+			for(int i = 0 ; i < locations.size() ; i ++) {
+				wordCount.put(locations.get(i), wordCounts[i]);
+			}
+			return Collections.unmodifiableMap(wordCount);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds the postings of a term to the search results
+	 * @param postings the posting list of the term
+	 * @param results the results by document id
+	 */
+	private void addResults(Postings postings, Map<Integer, InvertedIndex.SearchResult> results) {
+		for(int i = 0 ; i < postings.size ; i ++) {
+			int document = postings.documents[i];
+			InvertedIndex.SearchResult result = results.get(document);
+			if(result == null) {
+				result = new InvertedIndex.SearchResult(locations.get(document));
+				results.put(document, result);
+			}
+			result.update(postings.counts[i], wordCounts[document]);
+		}
+	}
+
+	@Override
+	public Collection<InvertedIndex.SearchResult> search(Collection<String> query, boolean exact) {
+		lock.readLock().lock();
+		try {
+			Map<Integer, InvertedIndex.SearchResult> results = new HashMap<>();
+			for(String word : query) {
+				if(exact) {
+					Postings postings = dictionary.get(word);
+					if(postings != null) {
+						addResults(postings, results);
+					}
+				}
+				else {
+					String[] terms = sortedTerms();
+					for(int i = lowerBound(terms, word) ; i < terms.length && terms[i].startsWith(word) ; i ++) {
+						addResults(dictionary.get(terms[i]), results);
+					}
+				}
+			}
+			List<InvertedIndex.SearchResult> output = new ArrayList<>(results.values());
+			Collections.sort(output);
+			return output;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Map<String, Long> getStats() {
+		lock.readLock().lock();
+		try {
+			long postingCount = 0;
+			long occurrences = 0;
+			for(Postings postings : dictionary.values()) {
+				postingCount += postings.size;
+				for(int i = 0 ; i < postings.size ; i ++) {
+					occurrences += postings.counts[i];
+				}
+			}
+			return IndexBackend.stats(locations.size(), dictionary.size(), postingCount, occurrences);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void writeToFile(String pathName) throws IOException {
+		lock.readLock().lock();
+		try {
+			if(positional) {
+				TreeMap<String, TreeMap<String, TreeSet<Integer>>> elements = new TreeMap<>();
+				for(Map.Entry<String, Postings> entry : dictionary.entrySet()) {
+					TreeMap<String, TreeSet<Integer>> found = new TreeMap<>();
+					Postings postings = entry.getValue();
+					for(int i = 0 ; i < postings.size ; i ++) {
+						TreeSet<Integer> positions = new TreeSet<>();
+						for(int position : postings.positions[i]) {
+							positions.add(position);
+						}
+						found.put(locations.get(postings.documents[i]), positions);
+					}
+					elements.put(entry.getKey(), found);
+				}
+				SimpleJsonWriter.asObject(elements, Paths.get(pathName));
+			}
+			else {
+				TreeMap<String, TreeMap<String, Integer>> elements = new TreeMap<>();
+				for(Map.Entry<String, Postings> entry : dictionary.entrySet()) {
+					TreeMap<String, Integer> found = new TreeMap<>();
+					Postings postings = entry.getValue();
+					for(int i = 0 ; i < postings.size ; i ++) {
+						found.put(locations.get(postings.documents[i]), postings.counts[i]);
+					}
+					elements.put(entry.getKey(), found);
+				}
+				SimpleJsonWriter.asNestedDictionary(elements, Paths.get(pathName));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void writeWordCount(Path outputFile) throws IOException {
+		SimpleJsonWriter.asDictionary(getWordCount(), outputFile);
+	}
+
+	@Override
+	public String toString() {
+		return getStats().toString();
+	}
+}
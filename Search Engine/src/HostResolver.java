@@ -0,0 +1,34 @@
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves host names to addresses for the crawler. Allows the system resolver to be replaced, for
+ * example by a {@link CachingResolver} or by a local stand-in during testing.
+ *
+ * @author matthew
+ *
+ */
+public interface HostResolver {
+
+	/**
+	 * Resolves host names using the system resolver
+	 */
+	public static final HostResolver SYSTEM = InetAddress::getAllByName;
+
+	/**
+	 * Resolves the host name to its addresses
+	 * @param host the host name or address literal
+	 * @return the addresses of the host, never empty
+	 * @throws UnknownHostException if the host cannot be resolved
+	 */
+	public InetAddress[] resolve(String host) throws UnknownHostException;
+
+	/**
+	 * Checks, without doing any network I/O, whether the host is already known to be unresolvable
+	 * @param host the host name
+	 * @return true if resolving the host is known to fail
+	 */
+	public default boolean isUnresolvable(String host) {
+		return false;
+	}
+}
@@ -0,0 +1,545 @@
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Schedules crawl urls fairly across hosts. Each host has its own queue, a minimum delay between
+ * requests, and a concurrency limit that adapts to how the host behaves: it grows additively while
+ * responses are fast and successful, and is cut in half on errors, timeouts or slow responses
+ * (AIMD). This keeps the load on any single host bounded while workers stay busy with other hosts.
+ * Hosts that time out repeatedly are evicted and the rest of their urls are dropped, as are urls
+ * for hosts the {@link HostResolver} already knows cannot be resolved.
+ *
+ * At most {@link #MAX_QUEUED} urls wait in each host's queue. Further urls for that host are
+ * parked behind its queue and are not counted in {@link #size()}, so a crawler that fills the
+ * scheduler up to a window keeps taking urls for other hosts even when one host dominates its
+ * frontier. Once {@link #MAX_PARKED} urls are parked the host is saturated, and the crawler should
+ * put its urls back into the frontier. Hosts with nothing queued or in progress are dropped once
+ * their delay has passed, only their metrics are kept, which include the adaptive concurrency limit,
+ the timeout streak and the eviction state, so a host that comes back picks up where it left off.
+ *
+ * This class is not thread-safe, the crawler only uses it while holding its own lock.
+ *
+ * @author matthew
+ *
+ */
+public class HostScheduler {
+	/**
+	 * Responses slower than this (in milliseconds) count as congestion
+	 */
+	public static final long SLOW_RESPONSE = 2000;
+
+	/**
+	 * The number of timeouts in a row after which a host is evicted
+	 */
+	public static final int MAX_TIMEOUTS = 3;
+
+	/**
+	 * The most urls queued for one host, further urls are parked
+	 */
+	public static final int MAX_QUEUED = 32;
+
+	/**
+	 * The number of parked urls after which a host is saturated
+	 */
+	public static final int MAX_PARKED = 64;
+
+	/**
+	 * The outcome of a request
+	 */
+	public enum Result {
+		/** A response was received */
+		SUCCESS,
+		/** The request failed */
+		ERROR,
+		/** The request ran past one of its timeouts */
+		TIMEOUT
+	}
+
+	/**
+	 * The minimum delay between two requests to the same host in nanoseconds
+	 */
+	private final long minDelay;
+
+	/**
+	 * The most requests allowed to one host at the same time
+	 */
+	private final int maxConcurrency;
+
+	/**
+	 * Used to drop urls for hosts that are known to be unresolvable
+	 */
+	private final HostResolver resolver;
+
+	/**
+	 * The hosts with queued urls, requests in progress or a delay that has not passed yet
+	 */
+	private final Map<String, Host> hosts;
+
+	/**
+	 * The metrics of all hosts seen so far
+	 */
+	private final Map<String, Metrics> metrics;
+
+	/**
+	 * Hosts that have queued urls, in round-robin order
+	 */
+	private final ArrayDeque<Host> waiting;
+
+	/**
+	 * Hosts that had nothing queued or in progress, in the order they became idle
+	 */
+	private final ArrayDeque<Host> idle;
+
+	/**
+	 * The number of queued urls across all hosts
+	 */
+	private int size;
+
+	/**
+	 * The number of parked urls across all hosts
+	 */
+	private int parked;
+
+	/**
+	 * Initializes the scheduler
+	 * @param minDelayMillis the minimum delay between two requests to the same host
+	 * @param maxConcurrency the most requests allowed to one host at the same time
+	 */
+	public HostScheduler(long minDelayMillis, int maxConcurrency) {
+		this(minDelayMillis, maxConcurrency, HttpsFetcher.getResolver());
+	}
+
+	/**
+	 * Initializes the scheduler
+	 * @param minDelayMillis the minimum delay between two requests to the same host
+	 * @param maxConcurrency the most requests allowed to one host at the same time
+	 * @param resolver used to drop urls for hosts that are known to be unresolvable
+	 */
+	public HostScheduler(long minDelayMillis, int maxConcurrency, HostResolver resolver) {
+		this.resolver = resolver;
+		this.minDelay = Math.max(0, minDelayMillis) * 1_000_000;
+		this.maxConcurrency = Math.max(1, maxConcurrency);
+		this.hosts = new HashMap<>();
+		this.metrics = new HashMap<>();
+		this.waiting = new ArrayDeque<>();
+		this.idle = new ArrayDeque<>();
+		this.size = 0;
+		this.parked = 0;
+	}
+
+	/**
+	 * Queues the url behind any other urls for the same host, or parks it if the host already has
+	 * {@link #MAX_QUEUED} urls queued
+	 * @param url the url to queue
+	 * @return false if the url was dropped because its host was evicted or cannot be resolved
+	 */
+	public boolean offer(String url) {
+		String name = hostOf(url);
+		Host host = hosts.get(name);
+		if(host == null) {
+			host = new Host(name, metrics.computeIfAbsent(name, Metrics::new));
+			hosts.put(name, host);
+			// dropped again if none of its urls are queued
+			idle.addLast(host);
+		}
+		if(host.metrics.evicted || resolver.isUnresolvable(host.address)) {
+			return false;
+		}
+		if(host.queue.size() >= MAX_QUEUED) {
+			host.parked.addLast(url);
+			parked++;
+			return true;
+		}
+		if(host.queue.isEmpty()) {
+			waiting.addLast(host);
+		}
+		host.queue.addLast(url);
+		size++;
+		return true;
+	}
+
+	/**
+	 * Checks if the host of the url is saturated, so the url should wait somewhere else
+	 * @param url the url
+	 * @return true if the host already has {@link #MAX_QUEUED} urls queued and {@link #MAX_PARKED}
+	 * parked
+	 */
+	public boolean isSaturated(String url) {
+		Host host = hosts.get(hostOf(url));
+		return host != null && host.parked.size() >= MAX_PARKED;
+	}
+
+	/**
+	 * Removes the next url from the first host (in round-robin order) that is allowed another request
+	 * @param now the current {@link System#nanoTime()}
+	 * @return the url or null if no host is ready
+	 */
+	public String poll(long now) {
+		prune(now);
+		for(int i = 0 ; i < waiting.size() ; i ++) {
+			Host host = waiting.pollFirst();
+			if(host.ready(now)) {
+				String url = host.queue.pollFirst();
+				host.active++;
+				host.nextRequest = now + minDelay;
+				size--;
+				if(!host.parked.isEmpty()) {
+					host.queue.addLast(host.parked.pollFirst());
+					parked--;
+					size++;
+				}
+
+				if(!host.queue.isEmpty()) {
+					waiting.addLast(host);
+				}
+				return url;
+			}
+			waiting.addLast(host);
+		}
+		return null;
+	}
+
+	/**
+	 * Drops the idle hosts whose delay has passed, so only their metrics are kept, which include
+	 * the concurrency limit and whether they were evicted. A host that is dropped before its delay
+	 * passes could be sent its next request too early.
+	 * @param now the current {@link System#nanoTime()}
+	 */
+	private void prune(long now) {
+		while(!idle.isEmpty() && now - idle.peekFirst().nextRequest >= 0) {
+			Host host = idle.pollFirst();
+			if(host.isIdle() && hosts.get(host.name) == host) {
+				hosts.remove(host.name);
+			}
+		}
+	}
+
+	/**
+	 * Returns how long until some host with queued urls is past its delay
+	 * @param now the current {@link System#nanoTime()}
+	 * @return the wait in nanoseconds, zero if a host is ready, or -1 if all hosts with queued urls
+	 * are at their concurrency limit
+	 */
+	public long delay(long now) {
+		long delay = -1;
+		for(Host host : waiting) {
+			if(host.active < host.limit()) {
+				long wait = Math.max(0, host.nextRequest - now);
+				delay = delay < 0 ? wait : Math.min(delay, wait);
+			}
+		}
+		return delay;
+	}
+
+	/**
+	 * Records a finished request, adapts the host's concurrency limit, and evicts the host if it has
+	 * timed out too many times in a row
+	 * @param url the url that was fetched
+	 * @param latencyMillis how long the request took
+	 * @param result the outcome of the request
+	 */
+	public void complete(String url, long latencyMillis, Result result) {
+		Host host = hosts.get(hostOf(url));
+		if(host == null) {
+			return;
+		}
+		host.active--;
+		Metrics recorded = host.metrics;
+		recorded.requests++;
+		recorded.totalLatency += latencyMillis;
+		recorded.maxLatency = Math.max(recorded.maxLatency, latencyMillis);
+
+		if(result == Result.TIMEOUT) {
+			recorded.timeouts++;
+			recorded.timeoutsInRow++;
+			if(recorded.timeoutsInRow >= MAX_TIMEOUTS && !recorded.evicted) {
+				recorded.evicted = true;
+				size -= host.queue.size();
+				parked -= host.parked.size();
+				host.queue.clear();
+				host.parked.clear();
+				waiting.remove(host);
+			}
+		}
+		else {
+			recorded.timeoutsInRow = 0;
+			if(result == Result.ERROR) {
+				recorded.errors++;
+			}
+		}
+
+		if(result == Result.SUCCESS && latencyMillis < SLOW_RESPONSE) {
+			// additive increase, about one more request per round trip
+			recorded.concurrency = Math.min(maxConcurrency, recorded.concurrency + 1.0 / recorded.concurrency);
+		}
+		else {
+			// multiplicative decrease
+			recorded.concurrency = Math.max(1.0, recorded.concurrency / 2);
+		}
+
+		if(host.isIdle()) {
+			idle.addLast(host);
+		}
+	}
+
+	/**
+	 * Removes and returns all queued and parked urls, for example to write them back to the frontier
+	 * @return the urls
+	 */
+	public List<String> drain() {
+		List<String> urls = new ArrayList<>(size + parked);
+		Iterator<Host> iterator = waiting.iterator();
+		while(iterator.hasNext()) {
+			Host host = iterator.next();
+			urls.addAll(host.queue);
+			urls.addAll(host.parked);
+			host.queue.clear();
+			host.parked.clear();
+			iterator.remove();
+			if(host.isIdle()) {
+				idle.addLast(host);
+			}
+		}
+		size = 0;
+		parked = 0;
+		return urls;
+	}
+
+	/**
+	 * Returns the request metrics of every host seen so far
+	 * @return a map from host name to its metrics
+	 */
+	public Map<String, Map<String, Long>> getStats() {
+		Map<String, Map<String, Long>> stats = new TreeMap<>();
+		for(Metrics host : metrics.values()) {
+			Map<String, Long> values = new LinkedHashMap<>();
+			values.put("requests", host.requests);
+			values.put("errors", host.errors);
+			values.put("timeouts", host.timeouts);
+			values.put("averageLatency", host.requests == 0 ? 0 : host.totalLatency / host.requests);
+			values.put("maxLatency", host.maxLatency);
+			values.put("concurrency", (long) host.concurrency);
+			values.put("evicted", host.evicted ? 1L : 0L);
+			stats.put(host.name, values);
+		}
+		return stats;
+	}
+
+	/**
+	 * Returns the number of queued urls, not counting parked urls
+	 * @return the number of urls
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of parked urls, which wait behind full host queues
+	 * @return the number of urls
+	 */
+	public int parked() {
+		return parked;
+	}
+
+	/**
+	 * Checks if there are no queued urls
+	 * @return true if empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the lowercase host name (with port) of the url. Only parses the string, never resolves
+	 * the host.
+	 * @param url the url
+	 * @return the host name or an empty string if the url is invalid
+	 */
+	public static String hostOf(String url) {
+		String host;
+		int port;
+		try {
+			URI parsed = new URI(url);
+			host = parsed.getHost();
+			port = parsed.getPort();
+		} catch (URISyntaxException e) {
+			try {
+				// not encoded yet, the URL constructor is more lenient (and also never resolves)
+				URL parsed = new URL(url);
+				host = parsed.getHost();
+				port = parsed.getPort();
+			} catch (MalformedURLException ex) {
+				return "";
+			}
+		}
+
+		if(host == null) {
+			return "";
+		}
+		host = host.toLowerCase();
+		return port < 0 ? host : host + ":" + port;
+	}
+
+	/**
+	 * The scheduling state of one host
+	 */
+	private static class Host {
+		/**
+		 * The host name
+		 */
+		private final String name;
+
+		/**
+		 * The host name without the port, as passed to the resolver
+		 */
+		private final String address;
+
+		/**
+		 * The urls waiting for this host
+		 */
+		private final ArrayDeque<String> queue;
+
+		/**
+		 * The urls waiting behind a full queue
+		 */
+		private final ArrayDeque<String> parked;
+
+		/**
+		 * The request metrics, concurrency limit, timeout streak and eviction state of this host,
+		 * which outlive it
+		 */
+		private final Metrics metrics;
+
+		/**
+		 * The number of requests in progress
+		 */
+		private int active;
+
+		/**
+		 * The earliest {@link System#nanoTime()} of the next request
+		 */
+		private long nextRequest;
+
+		/**
+		 * Initializes a host
+		 * @param name the host name
+		 * @param metrics the request metrics of the host, which hold its concurrency limit
+		 */
+		public Host(String name, Metrics metrics) {
+			this.name = name;
+			this.address = name.lastIndexOf(':') > name.lastIndexOf(']') ? name.substring(0, name.lastIndexOf(':')) : name;
+			this.queue = new ArrayDeque<>();
+			this.parked = new ArrayDeque<>();
+			this.metrics = metrics;
+			this.active = 0;
+			this.nextRequest = System.nanoTime();
+		}
+
+		/**
+		 * Checks if this host has nothing queued and no requests in progress
+		 * @return true if the host is idle
+		 */
+		public boolean isIdle() {
+			return active == 0 && queue.isEmpty();
+		}
+
+		/**
+		 * Returns the current whole number concurrency limit
+		 * @return the limit
+		 */
+		public int limit() {
+			return (int) metrics.concurrency;
+		}
+
+		/**
+		 * Checks if this host may be sent another request
+		 * @param now the current {@link System#nanoTime()}
+		 * @return true if the host is under its limit and past its delay
+		 */
+		public boolean ready(long now) {
+			return active < limit() && now - nextRequest >= 0;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * The request metrics of one host, with the state that has to outlive its queue
+	 */
+	private static class Metrics {
+		/**
+		 * The host name
+		 */
+		private final String name;
+
+		/**
+		 * The number of finished requests
+		 */
+		private long requests;
+
+		/**
+		 * The number of failed requests
+		 */
+		private long errors;
+
+		/**
+		 * The number of timed out requests
+		 */
+		private long timeouts;
+
+		/**
+		 * The sum of all request latencies in milliseconds
+		 */
+		private long totalLatency;
+
+		/**
+		 * The slowest request latency in milliseconds
+		 */
+		private long maxLatency;
+
+		/**
+		 * The adaptive concurrency limit
+		 */
+		private double concurrency;
+
+		/**
+		 * The number of timed out requests since the last one that did not time out, even if the
+		 * queue of the host ran empty in between
+		 */
+		private int timeoutsInRow;
+
+		/**
+		 * Whether the host was evicted for timing out too often
+		 */
+		private boolean evicted;
+
+		/**
+		 * Initializes empty metrics
+		 * @param name the host name
+		 */
+		public Metrics(String name) {
+			this.name = name;
+			this.requests = 0;
+			this.errors = 0;
+			this.timeouts = 0;
+			this.totalLatency = 0;
+			this.maxLatency = 0;
+			this.concurrency = 1.0;
+			this.timeoutsInRow = 0;
+			this.evicted = false;
+		}
+	}
+}
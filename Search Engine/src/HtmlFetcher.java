@@ -2,6 +2,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.util.List;
@@ -53,7 +54,8 @@ public class HtmlFetcher {
    */
   public static boolean isRedirect(Map<String, List<String>> headers) {
     if(getStatusCode(headers) > 299 && getStatusCode(headers) < 400) {
-    	return true;
+    	// a 304 Not Modified response has no location to follow
+    	return headers.containsKey("Location") && !headers.get("Location").isEmpty();
     }
     return false;
   }
@@ -80,22 +82,11 @@ public class HtmlFetcher {
    */
   public static String fetch(URL url, int redirects) {
     try {
-    	Map<String, List<String>> headers = HttpsFetcher.fetchURL(url);
-    	if(isRedirect(headers)) {
-	    	for (int i = 0 ; i < redirects ; i ++) {
-	    		if(isRedirect(headers)) {
-	    			headers = HttpsFetcher.fetchURL(headers.get("Location").get(0));
-	    		} else {
-	    			break;
-	    		}
-	    	}
-    	}
-    	if(getStatusCode(headers) > 199 && getStatusCode(headers) < 300 && isHtml(headers)) {
-    		return String.join("\n",headers.get("Content"));
-    	}
-		
+    	return fetchHtml(url, redirects, HttpsFetcher.CONNECT_TIMEOUT, HttpsFetcher.READ_TIMEOUT, HttpsFetcher.TOTAL_TIMEOUT);
 	} catch (UnknownHostException e) {
 		System.out.println("Error: Unknown host");
+	} catch (SocketTimeoutException e) {
+		System.out.println("Error: Timed out");
 	} catch (IOException e) {
 		System.out.println("Error: IO exception");
 	}
@@ -103,6 +94,70 @@ public class HtmlFetcher {
     
   }
 
+  /**
+   * Fetches the resource at the URL like {@link #fetch(URL, int)}, but within the given timeouts and
+   * passing any errors on to the caller. The total timeout covers all of the redirects.
+   *
+   * @param url the url to fetch
+   * @param redirects the number of times to follow redirects
+   * @param connectTimeout the time allowed to establish each connection in milliseconds
+   * @param readTimeout the time allowed for a single read to block in milliseconds
+   * @param totalTimeout the time allowed for the whole fetch in milliseconds
+   * @return the html or {@code null} if the resource is not html
+   * @throws SocketTimeoutException if any of the timeouts is reached
+   * @throws IOException if unable to fetch the resource
+   *
+   * @see HttpsFetcher#fetchURL(URL, int, int, int)
+   */
+  public static String fetchHtml(URL url, int redirects, int connectTimeout, int readTimeout, int totalTimeout) throws IOException {
+	return getHtml(fetchResponse(url, redirects, Map.of(), connectTimeout, readTimeout, totalTimeout));
+  }
+
+  /**
+   * Fetches the resource at the URL, following redirects, and returns the final response. The
+   * request headers are sent with every request, so a conditional request may be answered with a
+   * 304 Not Modified response. The total timeout covers all of the redirects.
+   *
+   * @param url the url to fetch
+   * @param redirects the number of times to follow redirects
+   * @param requestHeaders extra headers to send with each request
+   * @param connectTimeout the time allowed to establish each connection in milliseconds
+   * @param readTimeout the time allowed for a single read to block in milliseconds
+   * @param totalTimeout the time allowed for the whole fetch in milliseconds
+   * @return the headers and content of the final response
+   * @throws SocketTimeoutException if any of the timeouts is reached
+   * @throws IOException if unable to fetch the resource
+   *
+   * @see HttpsFetcher#fetchURL(URL, Map, int, int, int)
+   * @see #getHtml(Map)
+   */
+  public static Map<String, List<String>> fetchResponse(URL url, int redirects, Map<String, String> requestHeaders, int connectTimeout, int readTimeout, int totalTimeout) throws IOException {
+	long deadline = System.nanoTime() + totalTimeout * 1_000_000L;
+	Map<String, List<String>> headers = HttpsFetcher.fetchURL(url, requestHeaders, connectTimeout, readTimeout, totalTimeout);
+	for (int i = 0 ; i < redirects && isRedirect(headers) ; i ++) {
+		int remaining = (int) ((deadline - System.nanoTime()) / 1_000_000);
+		if(remaining <= 0) {
+			throw new SocketTimeoutException("Redirects took longer than " + totalTimeout + " ms: " + url);
+		}
+		headers = HttpsFetcher.fetchURL(new URL(headers.get("Location").get(0)), requestHeaders, connectTimeout, readTimeout, remaining);
+	}
+	return headers;
+  }
+
+  /**
+   * Returns the content of a response as a single string if the status code is 2xx and the content
+   * type is HTML.
+   *
+   * @param headers the headers and content of the response
+   * @return the html or {@code null} if the response is not a successful html response
+   */
+  public static String getHtml(Map<String, List<String>> headers) {
+	if(getStatusCode(headers) > 199 && getStatusCode(headers) < 300 && isHtml(headers)) {
+		return String.join("\n",headers.get("Content"));
+	}
+	return null;
+  }
+
   /**
    * Converts the {@link String} url into a {@link URL} object and then calls
    * {@link #fetch(URL, int)}.
@@ -2,8 +2,11 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
@@ -12,8 +15,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
-import javax.net.SocketFactory;
 import javax.net.ssl.SSLSocketFactory;
 
 /**
@@ -22,6 +29,54 @@ import javax.net.ssl.SSLSocketFactory;
  */
 public class HttpsFetcher {
 
+	/**
+	 * The default time allowed to establish a connection in milliseconds
+	 */
+	public static final int CONNECT_TIMEOUT = 5000;
+
+	/**
+	 * The default time allowed for a single read to block in milliseconds
+	 */
+	public static final int READ_TIMEOUT = 10000;
+
+	/**
+	 * The default time allowed for the whole request in milliseconds
+	 */
+	public static final int TOTAL_TIMEOUT = 30000;
+
+	/**
+	 * Resolves host names before connecting
+	 */
+	private static volatile HostResolver resolver = new CachingResolver();
+
+	/**
+	 * Closes the sockets of requests that run past their total deadline
+	 */
+	private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(task -> {
+		Thread thread = new Thread(task, "fetch-watchdog");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Returns the resolver used to look up hosts before connecting
+	 *
+	 * @return the resolver
+	 */
+	public static HostResolver getResolver() {
+		return resolver;
+	}
+
+	/**
+	 * Replaces the resolver used to look up hosts before connecting. By default a
+	 * {@link CachingResolver} in front of the system resolver is used.
+	 *
+	 * @param hostResolver the resolver to use
+	 */
+	public static void setResolver(HostResolver hostResolver) {
+		resolver = hostResolver;
+	}
+
 	/**
 	 * Fetches the headers and content for the specified URL. The content is placed as a list of all
 	 * the lines fetched under the "Content" key.
@@ -31,18 +86,72 @@ public class HttpsFetcher {
 	 * @throws IOException if unable to fetch headers and content
 	 */
 	public static Map<String, List<String>> fetchURL(URL url) throws IOException {
+		return fetchURL(url, CONNECT_TIMEOUT, READ_TIMEOUT, TOTAL_TIMEOUT);
+	}
+
+	/**
+	 * Fetches the headers and content for the specified URL within the given timeouts. If the whole
+	 * request is not done by the total timeout, its socket is closed so no read can block past it.
+	 *
+	 * @param url the url to fetch
+	 * @param connectTimeout the time allowed to establish a connection in milliseconds
+	 * @param readTimeout the time allowed for a single read to block in milliseconds
+	 * @param totalTimeout the time allowed for the whole request in milliseconds
+	 * @return a map with the headers and content
+	 * @throws SocketTimeoutException if any of the timeouts is reached
+	 * @throws IOException if unable to fetch headers and content
+	 */
+	public static Map<String, List<String>> fetchURL(URL url, int connectTimeout, int readTimeout, int totalTimeout) throws IOException {
+		return fetchURL(url, Map.of(), connectTimeout, readTimeout, totalTimeout);
+	}
+
+	/**
+	 * Fetches the headers and content for the specified URL within the given timeouts, sending the
+	 * given extra request headers, for example to make a conditional request.
+	 *
+	 * @param url the url to fetch
+	 * @param requestHeaders extra headers to send with the request
+	 * @param connectTimeout the time allowed to establish a connection in milliseconds
+	 * @param readTimeout the time allowed for a single read to block in milliseconds
+	 * @param totalTimeout the time allowed for the whole request in milliseconds
+	 * @return a map with the headers and content
+	 * @throws SocketTimeoutException if any of the timeouts is reached
+	 * @throws IOException if unable to fetch headers and content
+	 *
+	 * @see #fetchURL(URL, int, int, int)
+	 */
+	public static Map<String, List<String>> fetchURL(URL url, Map<String, String> requestHeaders, int connectTimeout, int readTimeout, int totalTimeout) throws IOException {
+		AtomicBoolean expired = new AtomicBoolean(false);
+		Socket socket = new Socket();
+		ScheduledFuture<?> timer = WATCHDOG.schedule(() -> {
+			expired.set(true);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}, totalTimeout, TimeUnit.MILLISECONDS);
+
 		try (
-				Socket socket = openConnection(url);
-				PrintWriter request = new PrintWriter(socket.getOutputStream());
-				InputStreamReader input = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+				Socket connection = openConnection(socket, url, Math.min(connectTimeout, totalTimeout), readTimeout);
+				PrintWriter request = new PrintWriter(connection.getOutputStream());
+				InputStreamReader input = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8);
 				BufferedReader response = new BufferedReader(input);
 				) {
-			printGetRequest(request, url);
+			printGetRequest(request, url, requestHeaders);
 
 			Map<String, List<String>> headers = getHeaderFields(response);
 			List<String> content = getContent(response);
 			headers.put("Content", content);
 			return headers;
+		} catch (IOException e) {
+			if(expired.get()) {
+				throw new SocketTimeoutException("Request took longer than " + totalTimeout + " ms: " + url);
+			}
+			throw e;
+		} finally {
+			timer.cancel(false);
+			socket.close();
 		}
 	}
 
@@ -66,12 +175,32 @@ public class HttpsFetcher {
 	 *
 	 * @param url the url to connect
 	 * @return a socket connection for that url
-	 * @throws UnknownHostException from {@link SocketFactory#createSocket(String, int)}
-	 * @throws IOException from {@link SocketFactory#createSocket(String, int)}
+	 * @throws UnknownHostException from {@link #openConnection(Socket, URL, int, int)}
+	 * @throws IOException from {@link #openConnection(Socket, URL, int, int)}
 	 *
 	 * @see URL#openConnection()
 	 */
 	public static Socket openConnection(URL url) throws UnknownHostException, IOException {
+		return openConnection(new Socket(), url, CONNECT_TIMEOUT, READ_TIMEOUT);
+	}
+
+	/**
+	 * Connects the given unconnected socket to the web server associated with the provided URL,
+	 * layering TLS over it for HTTPS connections.
+	 *
+	 * @param socket an unconnected socket
+	 * @param url the url to connect
+	 * @param connectTimeout the time allowed to establish a connection in milliseconds
+	 * @param readTimeout the time allowed for a single read to block in milliseconds
+	 * @return a socket connection for that url
+	 * @throws UnknownHostException if unable to resolve the host
+	 * @throws IOException if unable to connect
+	 *
+	 * @see #setResolver(HostResolver)
+	 * @see Socket#connect(java.net.SocketAddress, int)
+	 * @see Socket#setSoTimeout(int)
+	 */
+	public static Socket openConnection(Socket socket, URL url, int connectTimeout, int readTimeout) throws UnknownHostException, IOException {
 		String protocol = url.getProtocol();
 		String host = url.getHost();
 
@@ -79,9 +208,13 @@ public class HttpsFetcher {
 		int defaultPort = https ? 443 : 80;
 		int port = url.getPort() < 0 ? defaultPort : url.getPort();
 
+		InetAddress address = resolver.resolve(host)[0];
+		socket.connect(new InetSocketAddress(address, port), connectTimeout);
+		socket.setSoTimeout(readTimeout);
+
 		return https ?
-				SSLSocketFactory.getDefault().createSocket(host, port) :
-					SocketFactory.getDefault().createSocket(host, port);
+				((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(socket, host, port, true) :
+					socket;
 	}
 
 	/**
@@ -92,11 +225,26 @@ public class HttpsFetcher {
 	 * @throws IOException from {@link PrintWriter#printf(String, Object...)}
 	 */
 	public static void printGetRequest(PrintWriter writer, URL url) throws IOException {
+		printGetRequest(writer, url, Map.of());
+	}
+
+	/**
+	 * Writes a simple HTTP GET request with extra headers to the provided socket writer.
+	 *
+	 * @param writer a writer created from a socket connection
+	 * @param url the url to fetch via the socket connection
+	 * @param requestHeaders extra headers to send with the request
+	 * @throws IOException from {@link PrintWriter#printf(String, Object...)}
+	 */
+	public static void printGetRequest(PrintWriter writer, URL url, Map<String, String> requestHeaders) throws IOException {
 		String host = url.getHost();
 		String resource = url.getFile().isEmpty() ? "/" : url.getFile();
 
 		writer.printf("GET %s HTTP/1.1\r\n", resource);
 		writer.printf("Host: %s\r\n", host);
+		for(Map.Entry<String, String> header : requestHeaders.entrySet()) {
+			writer.printf("%s: %s\r\n", header.getKey(), header.getValue());
+		}
 		writer.printf("Connection: close\r\n");
 		writer.printf("\r\n");
 		writer.flush();
@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.function.Function;
+
+/**
+ * The operations the query parsers, the search server and the output flags need from an index, so
+ * the data structure behind them can be swapped. {@link InvertedIndex} (sorted tree maps) is the
+ * default backend, and every build pipeline still builds into one. The other backends are filled
+ * from a built index with {@link #addAll(InvertedIndex)}, see {@link #getBackends()}.
+ *
+ * Backends that are searched by several threads must be safe for concurrent reads.
+ *
+ * @author matthew
+ *
+ */
+public interface IndexBackend {
+	/**
+	 * Adds a whole document to the index
+	 * @param location the location of the document
+	 * @param words the cleaned and stemmed words of the document, in order (positions start at 1)
+	 */
+	public void addDocument(String location, Iterable<String> words);
+
+	/**
+	 * Adds everything in another index to this one
+	 * @param other the index to add
+	 */
+	public void addAll(InvertedIndex other);
+
+	/**
+	 * Returns the words in the index
+	 * @return unmodifiable sorted set of the words
+	 */
+	public Set<String> get();
+
+	/**
+	 * Returns the locations of a word
+	 * @param key the word
+	 * @return unmodifiable sorted set of the locations, empty if the word is not in the index
+	 */
+	public Set<String> get(String key);
+
+	/**
+	 * Returns the positions of a word at a location
+	 * @param key the word
+	 * @param location the location
+	 * @return unmodifiable sorted set of the positions, empty if the word is not at the location
+	 * @throws UnsupportedOperationException if the index does not store positions
+	 */
+	public Set<Integer> get(String key, String location);
+
+	/**
+	 * Returns a copy of the positions of a word at a location, read all at once so that it stays
+	 * whole while the index changes
+	 * @param key the word
+	 * @param location the location
+	 * @return the positions in order, empty if the word is not at the location
+	 * @throws UnsupportedOperationException if the index does not store positions
+	 */
+	public default List<Integer> copyPositions(String key, String location) {
+		return List.copyOf(get(key, location));
+	}
+
+	/**
+	 * Returns the words that start with a prefix
+	 * @param prefix the prefix
+	 * @return unmodifiable sorted set of the words
+	 */
+	public SortedSet<String> getTerms(String prefix);
+
+	/**
+	 * Checks if a word is in the index
+	 * @param key the word
+	 * @return true if the word is in the index
+	 */
+	public boolean contains(String key);
+
+	/**
+	 * Checks if a word was found at a location
+	 * @param key the word
+	 * @param location the location
+	 * @return true if the word was found at the location
+	 */
+	public boolean contains(String key, String location);
+
+	/**
+	 * Returns the number of words in the index
+	 * @return the number of words
+	 */
+	public int size();
+
+	/**
+	 * Returns the number of locations of a word
+	 * @param key the word
+	 * @return the number of locations, zero if the word is not in the index
+	 */
+	public int numLocations(String key);
+
+	/**
+	 * Returns the number of times a word was found at a location
+	 * @param key the word
+	 * @param location the location
+	 * @return the number of occurrences, zero if the word is not at the location
+	 */
+	public int numPositions(String key, String location);
+
+	/**
+	 * Returns the number of words at each location
+	 * @return unmodifiable sorted map of the word counts
+	 */
+	public Map<String, Integer> getWordCount();
+
+	/**
+	 * Searches the index
+	 * @param query a collection of cleaned, stemmed, and unique strings
+	 * @param exact whether to match whole words or prefixes
+	 * @return the results, sorted in order of importance
+	 */
+	public Collection<InvertedIndex.SearchResult> search(Collection<String> query, boolean exact);
+
+	/**
+	 * Returns the size of the index: the number of documents, terms, postings and positions (or
+	 * occurrences, if positions are not stored)
+	 * @return unmodifiable map of the statistics
+	 */
+	public Map<String, Long> getStats();
+
+	/**
+	 * Writes the index as JSON
+	 * @param pathName the file to write
+	 * @throws IOException if unable to write the file
+	 */
+	public void writeToFile(String pathName) throws IOException;
+
+	/**
+	 * Writes the word counts as JSON
+	 * @param outputFile the file to write
+	 * @throws IOException if unable to write the file
+	 */
+	public void writeWordCount(Path outputFile) throws IOException;
+
+	/**
+	 * Builds the statistics map returned by {@link #getStats()}
+	 * @param documents the number of documents
+	 * @param terms the number of terms
+	 * @param postings the number of postings
+	 * @param positions the number of positions or occurrences
+	 * @return unmodifiable map of the statistics
+	 */
+	public static Map<String, Long> stats(long documents, long terms, long postings, long positions) {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		stats.put("documents", documents);
+		stats.put("terms", terms);
+		stats.put("postings", postings);
+		stats.put("positions", positions);
+		return Collections.unmodifiableMap(stats);
+	}
+
+	/**
+	 * Returns the available backends by name, each as a function that copies a built index into a
+	 * new instance of the backend
+	 * @return the backends in a stable order
+	 */
+	public static Map<String, Function<InvertedIndex, IndexBackend>> getBackends() {
+		Map<String, Function<InvertedIndex, IndexBackend>> backends = new LinkedHashMap<>();
+		backends.put("treemap", index -> index);
+		backends.put("hash", index -> {
+			HashIndex hash = new HashIndex(index.isPositional());
+			hash.addAll(index);
+			return hash;
+		});
+		backends.put("offheap", OffHeapInvertedIndex::new);
+		return backends;
+	}
+}
@@ -0,0 +1,106 @@
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Builds or loads a new index in the background and swaps it into a {@link SwappableIndex}, so the
+ * server keeps answering from the previous version until the new one is ready. Only one reload
+ * runs at a time.
+ *
+ * @author matthew
+ *
+ */
+public class IndexReloader {
+	/**
+	 * The holder the new versions are swapped into
+	 */
+	private final SwappableIndex index;
+
+	/**
+	 * Builds or loads a new version of the index
+	 */
+	private final Callable<IndexBackend> loader;
+
+	/**
+	 * Runs the reloads
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Whether a reload is running
+	 */
+	private final AtomicBoolean running;
+
+	/**
+	 * The outcome of the last reload
+	 */
+	private volatile String status;
+
+	/**
+	 * Initializes the reloader
+	 * @param index the holder to swap new versions into
+	 * @param loader builds or loads a new version of the index
+	 */
+	public IndexReloader(SwappableIndex index, Callable<IndexBackend> loader) {
+		this.index = index;
+		this.loader = loader;
+		this.executor = Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread(task, "index-reloader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.running = new AtomicBoolean(false);
+		this.status = "Not reloaded";
+	}
+
+	/**
+	 * Starts a reload in the background, unless one is already running
+	 * @return true if a reload was started
+	 */
+	public boolean reload() {
+		if(!running.compareAndSet(false, true)) {
+			return false;
+		}
+		executor.execute(() -> {
+			Instant start = Instant.now();
+			try {
+				long version = index.swap(loader.call());
+				double seconds = (double) Duration.between(start, Instant.now()).toMillis() / Duration.ofSeconds(1).toMillis();
+				status = "Loaded version " + version + " in " + seconds + " seconds";
+			} catch (Exception e) {
+				status = "Error: unable to reload the index - " + e.getMessage();
+				System.out.println(status);
+			} finally {
+				running.set(false);
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Checks if a reload is running
+	 * @return true if a reload is running
+	 */
+	public boolean isRunning() {
+		return running.get();
+	}
+
+	/**
+	 * Returns the outcome of the last reload
+	 * @return the outcome
+	 */
+	public String getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the holder new versions are swapped into
+	 * @return the holder
+	 */
+	public SwappableIndex getIndex() {
+		return index;
+	}
+}
@@ -0,0 +1,342 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded queue between the workers that parse documents and the shared index. Workers add their
+ * finished per-document indexes to the queue, and a single writer thread drains it in batches,
+ * merging each batch outside of any lock and adding it to the shared index at once. This takes the
+ * index's write lock once per batch instead of once per document, and blocks workers when indexing
+ * falls behind.
+ *
+ * @author matthew
+ *
+ */
+public class IngestionQueue implements Closeable {
+	/**
+	 * The default number of documents that can wait in the queue
+	 */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * The default most documents added to the index at once
+	 */
+	public static final int DEFAULT_BATCH = 32;
+
+	/**
+	 * Tells the writer to stop
+	 */
+	private static final Item STOP = new Item(null, null);
+
+	/**
+	 * The index to add to
+	 */
+	private final InvertedIndex index;
+
+	/**
+	 * The documents waiting to be added
+	 */
+	private final BlockingQueue<Item> queue;
+
+	/**
+	 * The most documents added to the index at once
+	 */
+	private final int maxBatch;
+
+	/**
+	 * The thread that adds documents to the index
+	 */
+	private final Thread writer;
+
+	/**
+	 * The number of documents added to the queue
+	 */
+	private long submitted;
+
+	/**
+	 * The number of documents added to the index
+	 */
+	private long applied;
+
+	/**
+	 * The number of batches added to the index
+	 */
+	private long batches;
+
+	/**
+	 * The largest batch added to the index
+	 */
+	private long maxBatchSize;
+
+	/**
+	 * The most documents seen waiting in the queue
+	 */
+	private long maxDepth;
+
+	/**
+	 * The sum of the time documents waited before being added to the index in nanoseconds
+	 */
+	private long totalLag;
+
+	/**
+	 * The longest time a document waited before being added to the index in nanoseconds
+	 */
+	private long maxLag;
+
+	/**
+	 * Whether the queue has been closed
+	 */
+	private boolean closed;
+
+	/**
+	 * Starts a queue with the default capacity and batch size
+	 * @param index the index to add to
+	 */
+	public IngestionQueue(InvertedIndex index) {
+		this(index, DEFAULT_CAPACITY, DEFAULT_BATCH);
+	}
+
+	/**
+	 * Starts a queue and its writer thread
+	 * @param index the index to add to
+	 * @param capacity the number of documents that can wait in the queue
+	 * @param maxBatch the most documents to add to the index at once
+	 */
+	public IngestionQueue(InvertedIndex index, int capacity, int maxBatch) {
+		this.index = index;
+		this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+		this.maxBatch = Math.max(1, maxBatch);
+		this.submitted = 0;
+		this.applied = 0;
+		this.batches = 0;
+		this.maxBatchSize = 0;
+		this.maxDepth = 0;
+		this.totalLag = 0;
+		this.maxLag = 0;
+		this.closed = false;
+
+		this.writer = new Thread(this::write, "index-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Adds a document to the queue, waiting while the queue is full. If interrupted while waiting,
+	 * the document is added to the index directly instead.
+	 * @param local the index of the document
+	 */
+	public void add(InvertedIndex local) {
+		add(null, local);
+	}
+
+	/**
+	 * Adds a changed document to the queue, it replaces the old version of the document
+	 * @param location the location of the document
+	 * @param local the new index of the document
+	 */
+	public void replace(String location, InvertedIndex local) {
+		add(location, local);
+	}
+
+	/**
+	 * Waits until every document added so far has been added to the index
+	 */
+	public synchronized void flush() {
+		long target = submitted;
+		try {
+			while(applied < target) {
+				this.wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Adds the remaining documents to the index and stops the writer thread
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if(closed) {
+				return;
+			}
+			closed = true;
+		}
+		try {
+			queue.put(STOP);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the ingestion metrics
+	 * @return a map from metric name to value, lag in milliseconds
+	 */
+	public synchronized Map<String, Long> getStats() {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		stats.put("documents", applied);
+		stats.put("batches", batches);
+		stats.put("averageBatch", batches == 0 ? 0 : applied / batches);
+		stats.put("maxBatch", maxBatchSize);
+		stats.put("queueDepth", (long) queue.size());
+		stats.put("maxQueueDepth", maxDepth);
+		stats.put("averageLag", applied == 0 ? 0 : totalLag / applied / 1_000_000);
+		stats.put("maxLag", maxLag / 1_000_000);
+		return stats;
+	}
+
+	/**
+	 * Queues a document
+	 * @param location the location to remove first or null
+	 * @param local the index of the document
+	 */
+	private void add(String location, InvertedIndex local) {
+		Item item = new Item(location, local);
+		synchronized (this) {
+			if(closed) {
+				throw new IllegalStateException("Ingestion queue is closed");
+			}
+			submitted++;
+		}
+
+		try {
+			queue.put(item);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			apply(List.of(item));
+			return;
+		}
+
+		synchronized (this) {
+			maxDepth = Math.max(maxDepth, queue.size());
+		}
+	}
+
+	/**
+	 * Drains the queue in batches until told to stop
+	 */
+	private void write() {
+		List<Item> batch = new ArrayList<>(maxBatch);
+		boolean running = true;
+		while(running) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				continue;
+			}
+			queue.drainTo(batch, maxBatch - 1);
+
+			if(batch.remove(STOP)) {
+				// documents behind the stop item were added before close was called
+				queue.drainTo(batch);
+				batch.remove(STOP);
+				running = false;
+			}
+			if(!batch.isEmpty()) {
+				apply(batch);
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Adds a batch of documents to the index in queue order. Runs of plain documents are merged and
+	 * added at once, and each replacement is applied after the documents queued before it.
+	 * @param batch the documents to add
+	 */
+	private void apply(List<Item> batch) {
+		List<Item> run = new ArrayList<>();
+		try {
+			for(Item item : batch) {
+				if(item.location != null) {
+					// replaced one at a time so the old version is never mixed into the batch
+					addAll(run);
+					run.clear();
+					try {
+						index.replace(item.location, item.local);
+					} catch (RuntimeException e) {
+						System.out.println("Error: unable to replace " + item.location + " in the index - " + e.getMessage());
+					}
+				}
+				else {
+					run.add(item);
+				}
+			}
+			addAll(run);
+		} finally {
+			long now = System.nanoTime();
+			synchronized (this) {
+				for(Item item : batch) {
+					long lag = now - item.queued;
+					totalLag += lag;
+					maxLag = Math.max(maxLag, lag);
+				}
+				applied += batch.size();
+				batches++;
+				maxBatchSize = Math.max(maxBatchSize, batch.size());
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Merges documents and adds them to the index at once
+	 * @param run the documents to add
+	 */
+	private void addAll(List<Item> run) {
+		if(run.isEmpty()) {
+			return;
+		}
+		InvertedIndex merged = new InvertedIndex();
+		try {
+			for(Item item : run) {
+				merged.addAll(item.local);
+			}
+			index.addAll(merged);
+		} catch (RuntimeException e) {
+			List<String> locations = new ArrayList<>();
+			for(Item item : run) {
+				locations.addAll(item.local.getWordCount().keySet());
+			}
+			System.out.println("Error: unable to add " + locations + " to the index - " + e.getMessage());
+		}
+	}
+
+	/**
+	 * A document waiting to be added
+	 */
+	private static class Item {
+		/**
+		 * The location whose old postings are removed first, or null
+		 */
+		private final String location;
+
+		/**
+		 * The index of the document
+		 */
+		private final InvertedIndex local;
+
+		/**
+		 * When the document was queued
+		 */
+		private final long queued;
+
+		/**
+		 * Initializes an item
+		 * @param location the location whose old postings are removed first, or null
+		 * @param local the index of the document
+		 */
+		public Item(String location, InvertedIndex local) {
+			this.location = location;
+			this.local = local;
+			this.queued = System.nanoTime();
+		}
+	}
+}
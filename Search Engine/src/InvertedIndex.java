@@ -1,8 +1,16 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.TreeSet;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -10,20 +18,25 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
 import java.util.TreeMap;
+import java.util.NoSuchElementException;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
 
 /**
  * data structure to store elements and print as a pretty json file
  * @author matthew
  *
  */
-public class InvertedIndex {
+public class InvertedIndex implements IndexBackend {
 	/**
 	 * class to store search result data
 	 * @author matthew
 	 *
 	 */
-	public class SearchResult implements Comparable<InvertedIndex.SearchResult> {
+	public static class SearchResult implements Comparable<InvertedIndex.SearchResult> {
 		/**
 		 * the path to the file
 		 */
@@ -44,16 +57,29 @@ public class InvertedIndex {
 			this.where = where;
 			this.count = 0;
 			this.score = 0.0;
-			wordCount.get(where);
 		}
 
 		/**
-		 * updater method to set the count of the object and automatically update score
-		 * @param word the word that was found
+		 * Constructor method for a result that was already scored, such as one received from another
+		 * process
+		 * @param where the path to the file
+		 * @param count the total matches in the file
+		 * @param score the total matches/total words in the file
+		 */
+		SearchResult(String where, int count, double score) {
+			this.where = where;
+			this.count = count;
+			this.score = score;
+		}
+
+		/**
+		 * updater method to add the occurrences of a word to the count and update the score
+		 * @param occurrences the number of times the word was found at the location
+		 * @param words the total number of words at the location
 		 */
-		private void update(String word) {
-			this.count += invertedIndex.get(word).get(where).size();
-			this.score = (Double.valueOf(this.count) / wordCount.get(where));
+		void update(int occurrences, int words) {
+			this.count += occurrences;
+			this.score = (Double.valueOf(this.count) / words);
 		}
 
 		/**
@@ -98,17 +124,107 @@ public class InvertedIndex {
 	 */
 	private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> invertedIndex;
 
+	/**
+	 * The number of occurrences of each word at each location, stored instead of the positions in
+	 * a counts-only index
+	 */
+	private final TreeMap<String, TreeMap<String, Integer>> frequencies;
+
+	/**
+	 * Whether the positions of each word are stored, or only the number of occurrences
+	 */
+	private final boolean positional;
+
 	/**
 	 * Stores file names and word counts
 	 */
 	private final TreeMap<String,Integer> wordCount;
 
+	/**
+	 * The terms of each location, used to purge a location's postings without scanning every term
+	 */
+	private final HashMap<String, List<String>> forward;
+
+	/**
+	 * The document id of each removed location, used to index the tombstones
+	 */
+	private final HashMap<String, Integer> documents;
+
+	/**
+	 * The removed documents whose postings have not been purged yet
+	 */
+	private final BitSet tombstones;
+
+	/**
+	 * The number of removed locations not purged yet in the postings of each word, so reads can
+	 * count and skip them without scanning every posting
+	 */
+	private final HashMap<String, Integer> buried;
+
+	/**
+	 * The next document id to assign
+	 */
+	private int nextDocument;
+
+	/**
+	 * The number of times a location was added to, replaced or removed
+	 */
+	private long modifications;
+
+	/**
+	 * The modification number of the last change of each location, or null if changes are not
+	 * tracked
+	 */
+	private HashMap<String, Long> changed;
+
+	/**
+	 * The locations by the modification number of their last change, or null if changes are not
+	 * tracked
+	 */
+	private TreeMap<Long, String> changes;
+
+	/**
+	 * Identifies the binary index format (also written by {@link SpimiIndexBuilder})
+	 */
+	static final int MAGIC = 0x49445831;
+
+	/**
+	 * Identifies the binary format of a counts-only index
+	 */
+	static final int COUNTS_MAGIC = 0x49444331;
+
+	/**
+	 * Tombstones are purged once they are more than this fraction of the documents
+	 */
+	private static final double COMPACTION_RATIO = 0.25;
+
 	/**
 	 * Class constructor that initializes the inverted index
 	 */
 	public InvertedIndex(){
+		this(true);
+	}
+
+	/**
+	 * Class constructor that initializes the inverted index. A counts-only index stores how often
+	 * each word occurs at each location instead of every position, which takes several times less
+	 * memory. It returns the same {@link #numPositions(String, String)} and search results, but
+	 * cannot return or check positions.
+	 * @param positional whether to store positions or only the number of occurrences
+	 */
+	public InvertedIndex(boolean positional){
+		this.positional = positional;
+		this.frequencies = new TreeMap<>();
 		this.invertedIndex = new TreeMap<>();
 		this.wordCount = new TreeMap<>();
+		this.forward = new HashMap<>();
+		this.documents = new HashMap<>();
+		this.tombstones = new BitSet();
+		this.buried = new HashMap<>();
+		this.nextDocument = 0;
+		this.modifications = 0;
+		this.changed = null;
+		this.changes = null;
 	}
 
 	/**
@@ -126,6 +242,15 @@ public class InvertedIndex {
 	 * @param pos the position if was found in the file
 	 */
 	public void add(String str, String path, int pos) {
+		revive(path);
+
+		if(!positional) {
+			// positions are not stored, so adding the same position twice counts it twice
+			addFrequency(str, path, 1);
+			wordCount.merge(path, 1, Integer::sum);
+			return;
+		}
+
 		//add a new string-map element if this is a new string
 		invertedIndex.putIfAbsent(str, new TreeMap<String, TreeSet<Integer>>());
 
@@ -133,7 +258,9 @@ public class InvertedIndex {
 		TreeMap<String, TreeSet<Integer>> pathIndex = invertedIndex.get(str);
 
 		//add a new path - TreeSet element if this is a new path
-		pathIndex.putIfAbsent(path, new TreeSet<Integer>());
+		if(pathIndex.putIfAbsent(path, new TreeSet<Integer>()) == null) {
+			forward.computeIfAbsent(path, p -> new ArrayList<>()).add(str);
+		}
 
 		//get the TreeSet from the path key
 		TreeSet<Integer> indices = pathIndex.get(path);
@@ -146,42 +273,736 @@ public class InvertedIndex {
 	}
 
 	/**
-	 * adds all information from one index to this current one
+	 * adds a whole document to the inverted-index at once. The words are grouped by term first, so
+	 * each term's positions are added in one run and the word count is updated once.
+	 * @param location the location of the document
+	 * @param words the cleaned and stemmed words of the document, in order (positions start at 1)
+	 */
+	public void addDocument(String location, Iterable<String> words) {
+		if(!positional) {
+			Map<String, Integer> counted = new HashMap<>();
+			int count = 0;
+			for(String word : words) {
+				count++;
+				counted.merge(word, 1, Integer::sum);
+			}
+			if(count > 0) {
+				addCounted(location, counted, count);
+			}
+			return;
+		}
+
+		Map<String, TreeSet<Integer>> grouped = new HashMap<>();
+		int count = 0;
+		for(String word : words) {
+			count++;
+			grouped.computeIfAbsent(word, w -> new TreeSet<>()).add(count);
+		}
+		if(count > 0) {
+			addGrouped(location, grouped, count);
+		}
+	}
+
+	/**
+	 * adds a document's positions, already grouped by term, to the inverted-index
+	 * @param location the location of the document
+	 * @param grouped the positions of each term in the document (may be kept by the index)
+	 * @param count the number of words in the document
+	 * @see #addDocument(String, Iterable)
+	 */
+	protected void addGrouped(String location, Map<String, TreeSet<Integer>> grouped, int count) {
+		revive(location);
+		List<String> terms = forward.computeIfAbsent(location, p -> new ArrayList<>());
+		for(Map.Entry<String, TreeSet<Integer>> entry : grouped.entrySet()) {
+			TreeMap<String, TreeSet<Integer>> pathIndex = invertedIndex.computeIfAbsent(entry.getKey(), k -> new TreeMap<>());
+			TreeSet<Integer> positions = pathIndex.putIfAbsent(location, entry.getValue());
+			if(positions != null) {
+				positions.addAll(entry.getValue());
+			}
+			else {
+				terms.add(entry.getKey());
+			}
+		}
+		wordCount.merge(location, count, Integer::sum);
+	}
+
+	/**
+	 * adds a document's number of occurrences of each term to a counts-only inverted-index
+	 * @param location the location of the document
+	 * @param counted the number of occurrences of each term in the document
+	 * @param count the number of words in the document
+	 * @see #addDocument(String, Iterable)
+	 */
+	protected void addCounted(String location, Map<String, Integer> counted, int count) {
+		revive(location);
+		for(Map.Entry<String, Integer> entry : counted.entrySet()) {
+			addFrequency(entry.getKey(), location, entry.getValue());
+		}
+		wordCount.merge(location, count, Integer::sum);
+	}
+
+	/**
+	 * adds all information from one index to this current one. A positional index can be added to
+	 * a counts-only index, but not the other way around.
 	 * @param other the index to add (should be built only from one file)
+	 * @throws IllegalArgumentException if this index is positional and the other is not
 	 */
 	public void addAll(InvertedIndex other) {
-		for (String key : other.invertedIndex.keySet()) {
-			if (this.invertedIndex.containsKey(key)) {
-				TreeMap<String, TreeSet<Integer>> pathIndex = invertedIndex.get(key);
-				for (String path : other.invertedIndex.get(key).keySet()) {
-					if (pathIndex.containsKey(path)) {
-						pathIndex.get(path).addAll(other.invertedIndex.get(key).get(path));
+		merge(other);
+	}
+
+	/**
+	 * copies each location of the index, with its postings and word count, into one of several
+	 * other indexes. Removed locations are not copied.
+	 * @param parts the indexes to copy into
+	 * @param partOf returns the position in parts of the index to copy each location into
+	 * @throws IllegalArgumentException if a part is positional and this index is not
+	 */
+	public void split(List<? extends InvertedIndex> parts, ToIntFunction<String> partOf) {
+		for(Map.Entry<String, Integer> entry : wordCount.entrySet()) {
+			copy(entry.getKey(), entry.getValue(), parts.get(partOf.applyAsInt(entry.getKey())));
+		}
+	}
+
+	/**
+	 * copies some locations of the index, with their postings and word counts, into another index.
+	 * Locations that are not in this index are skipped.
+	 * @param locations the locations to copy
+	 * @param target the index to copy into
+	 * @throws IllegalArgumentException if the target is positional and this index is not
+	 */
+	public void copy(Collection<String> locations, InvertedIndex target) {
+		for(String location : locations) {
+			Integer count = wordCount.get(location);
+			if(count != null) {
+				copy(location, count, target);
+			}
+		}
+	}
+
+	/**
+	 * copies one location of the index into another index
+	 * @param location the location, which must be in this index
+	 * @param count the number of words at the location
+	 * @param target the index to copy into
+	 * @throws IllegalArgumentException if the target is positional and this index is not
+	 */
+	private void copy(String location, int count, InvertedIndex target) {
+		if(target.positional) {
+			if(!positional) {
+				throw new IllegalArgumentException("A counts-only index cannot be added to a positional index");
+			}
+			Map<String, TreeSet<Integer>> grouped = new HashMap<>();
+			for(String key : forward.get(location)) {
+				grouped.put(key, new TreeSet<>(invertedIndex.get(key).get(location)));
+			}
+			target.addGrouped(location, grouped, count);
+		}
+		else {
+			Map<String, Integer> counted = new HashMap<>();
+			for(String key : forward.get(location)) {
+				counted.put(key, frequency(key, location));
+			}
+			target.addCounted(location, counted, count);
+		}
+	}
+
+	/**
+	 * removes a location from the index. This only marks the document with a tombstone, so it is
+	 * skipped by searches right away, and its postings are purged later by {@link #compact()}.
+	 * @param location the location to remove
+	 * @return true if the location was in the index
+	 */
+	public boolean remove(String location) {
+		if(!bury(location)) {
+			return false;
+		}
+		if(tombstones.cardinality() > COMPACTION_RATIO * wordCount.size()) {
+			purge();
+		}
+		return true;
+	}
+
+	/**
+	 * replaces a location with a new version of the document. The old postings of the location are
+	 * purged first (only the terms of the old document are touched), so the new version never mixes
+	 * with the old one.
+	 * @param location the location to replace
+	 * @param document the index of the new version (should be built only from this location)
+	 */
+	public void replace(String location, InvertedIndex document) {
+		bury(location);
+		purge(location);
+		merge(document);
+	}
+
+	/**
+	 * purges the postings of all removed documents from the index
+	 */
+	public void compact() {
+		purge();
+	}
+
+	/**
+	 * adds all information from one index to this current one, without dispatching to any
+	 * overridden methods
+	 * @param other the index to add
+	 */
+	private void merge(InvertedIndex other) {
+		if(positional && !other.positional) {
+			throw new IllegalArgumentException("A counts-only index cannot be added to a positional index");
+		}
+		for (String path : other.wordCount.keySet()) {
+			revive(path);
+		}
+		if(!positional) {
+			// only the number of occurrences is kept from the other index
+			for (String key : other.postings().keySet()) {
+				for (String path : other.postings().get(key).keySet()) {
+					addFrequency(key, path, other.frequency(key, path));
+				}
+			}
+		}
+		else {
+			for (String key : other.invertedIndex.keySet()) {
+				TreeMap<String, TreeSet<Integer>> otherIndex = other.invertedIndex.get(key);
+				TreeMap<String, TreeSet<Integer>> pathIndex = this.invertedIndex.putIfAbsent(key, otherIndex);
+				for (String path : otherIndex.keySet()) {
+					if (pathIndex == null) {
+						forward.computeIfAbsent(path, p -> new ArrayList<>()).add(key);
+					}
+					else if (pathIndex.containsKey(path)) {
+						pathIndex.get(path).addAll(otherIndex.get(path));
 					}
 					else {
-						pathIndex.put(path, other.invertedIndex.get(key).get(path));
+						pathIndex.put(path, otherIndex.get(path));
+						forward.computeIfAbsent(path, p -> new ArrayList<>()).add(key);
 					}
 				}
 			}
-			else {
-				this.invertedIndex.put(key, other.invertedIndex.get(key));
-			}
 		}
 		for (String path : other.wordCount.keySet()) {
 			this.wordCount.put(path, this.wordCount.getOrDefault(path, 0) + other.wordCount.get(path));
 		}
+	}
+
+	/**
+	 * adds occurrences of a word at a location to a counts-only index
+	 * @param key the word
+	 * @param location the location
+	 * @param occurrences the number of occurrences to add
+	 */
+	private void addFrequency(String key, String location, int occurrences) {
+		TreeMap<String, Integer> pathIndex = frequencies.computeIfAbsent(key, k -> new TreeMap<>());
+		Integer previous = pathIndex.put(location, occurrences);
+		if(previous != null) {
+			pathIndex.put(location, previous + occurrences);
+		}
+		else {
+			forward.computeIfAbsent(location, p -> new ArrayList<>()).add(key);
+		}
+	}
+
+	/**
+	 * returns the postings of the index, positions or counts depending on the mode, for the
+	 * methods that only need the words and locations
+	 * @return the postings
+	 */
+	private TreeMap<String, ? extends Map<String, ?>> postings() {
+		return positional ? invertedIndex : frequencies;
+	}
+
+	/**
+	 * returns the number of occurrences of a word at a location that is in the index
+	 * @param key the word
+	 * @param location the location
+	 * @return the number of occurrences
+	 */
+	private int frequency(String key, String location) {
+		return positional ? invertedIndex.get(key).get(location).size() : frequencies.get(key).get(location);
+	}
+
+	/**
+	 * checks if positions are stored
+	 * @param operation what needs the positions, for the error message
+	 * @throws UnsupportedOperationException if this is a counts-only index
+	 */
+	private void requirePositions(String operation) {
+		if(!positional) {
+			throw new UnsupportedOperationException(operation + " needs positions, which a counts-only index does not store");
+		}
+	}
+
+	/**
+	 * checks if this index stores positions
+	 * @return true if positions are stored, false for a counts-only index
+	 */
+	public boolean isPositional() {
+		return positional;
+	}
+
+	/**
+	 * marks a location with a tombstone and removes its word count
+	 * @param location the location to remove
+	 * @return true if the location was in the index
+	 */
+	private boolean bury(String location) {
+		if(wordCount.remove(location) == null) {
+			return false;
+		}
+		touch(location);
+		tombstones.set(documents.computeIfAbsent(location, l -> nextDocument++));
+		for(String term : forward.getOrDefault(location, List.of())) {
+			buried.merge(term, 1, Integer::sum);
+		}
+		return true;
+	}
+
+	/**
+	 * purges a removed location before it is added again
+	 * @param location the location being added
+	 */
+	private void revive(String location) {
+		touch(location);
+		if(isDeleted(location)) {
+			purge(location);
+		}
+	}
 
+	/**
+	 * counts a change of a location, and records it if changes are tracked
+	 * @param location the location being added to, replaced or removed
+	 */
+	private void touch(String location) {
+		modifications++;
+		if(changed != null) {
+			Long previous = changed.put(location, modifications);
+			if(previous != null) {
+				changes.remove(previous);
+			}
+			changes.put(modifications, location);
+		}
+	}
+
+	/**
+	 * returns the number of times a location was added to, replaced or removed, which only grows,
+	 * so a copy of the index is up to date as long as this has not changed
+	 * @return the modification number
+	 */
+	public long getModifications() {
+		return modifications;
+	}
 
+	/**
+	 * starts recording which locations change, for {@link #getChanged(long)}. Changes made before
+	 * this call are not recorded. Tracking costs one map entry per changed location.
+	 */
+	public void trackChanges() {
+		if(changed == null) {
+			changed = new HashMap<>();
+			changes = new TreeMap<>();
+		}
 	}
 
+	/**
+	 * returns the locations that were added to, replaced or removed after a modification number.
+	 * A removed location is included but is no longer in the {@link #getWordCount()}.
+	 * @param since a modification number returned by {@link #getModifications()} after
+	 * {@link #trackChanges()} was called
+	 * @return the changed locations, sorted
+	 * @throws IllegalStateException if changes are not tracked
+	 */
+	public SortedSet<String> getChanged(long since) {
+		if(changes == null) {
+			throw new IllegalStateException("Changes are not tracked");
+		}
+		return new TreeSet<>(changes.tailMap(since, false).values());
+	}
 
 	/**
-	 * calls SimpleJsonWriter to write the inverted-index to the given file
+	 * checks if a location has been removed but not yet purged
+	 * @param location the location
+	 * @return true if the location has a tombstone
+	 */
+	private boolean isDeleted(String location) {
+		if(tombstones.isEmpty()) {
+			return false;
+		}
+		Integer id = documents.get(location);
+		return id != null && tombstones.get(id);
+	}
+
+	/**
+	 * purges the postings of one location using its terms
+	 * @param location the location to purge
+	 */
+	private void purge(String location) {
+		boolean deleted = isDeleted(location);
+		List<String> terms = forward.remove(location);
+		if(terms != null) {
+			for(String term : terms) {
+				Map<String, ?> pathIndex = postings().get(term);
+				if(pathIndex == null || pathIndex.remove(location) == null) {
+					continue;
+				}
+				if(deleted) {
+					buried.computeIfPresent(term, (key, count) -> count == 1 ? null : count - 1);
+				}
+				if(pathIndex.isEmpty()) {
+					postings().remove(term);
+				}
+			}
+		}
+
+		Integer id = documents.remove(location);
+		if(id != null) {
+			tombstones.clear(id);
+		}
+	}
+
+	/**
+	 * purges the postings of all removed locations
+	 */
+	private void purge() {
+		if(tombstones.isEmpty()) {
+			return;
+		}
+		List<String> removed = new ArrayList<>();
+		for(Map.Entry<String, Integer> entry : documents.entrySet()) {
+			if(tombstones.get(entry.getValue())) {
+				removed.add(entry.getKey());
+			}
+		}
+		for(String location : removed) {
+			purge(location);
+		}
+	}
+
+	/**
+	 * returns the number of locations of a word that are not removed
+	 * @param key the word, which must be in the index
+	 * @return the number of locations
+	 */
+	private int liveLocations(String key) {
+		return postings().get(key).size() - buried.getOrDefault(key, 0);
+	}
+
+	/**
+	 * checks if every location of a word in the index has been removed
+	 * @param key the word, which must be in the index
+	 * @return true if the word has no locations left
+	 */
+	private boolean isBuried(String key) {
+		return !buried.isEmpty() && liveLocations(key) == 0;
+	}
+
+	/**
+	 * returns the number of words with locations that are not removed
+	 * @return the number of words
+	 */
+	private int liveSize() {
+		int size = postings().size();
+		for(String key : buried.keySet()) {
+			if(isBuried(key)) {
+				size--;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * returns the postings without removed locations. Unless there are tombstones these are the
+	 * postings themselves, otherwise a view that skips removed words while iterating and copies
+	 * only the locations of the words that have removed locations.
+	 * @param <V> the positions or number of occurrences
+	 * @param postings the positions or counts
+	 * @return the live postings
+	 */
+	private <V> Map<String, TreeMap<String, V>> live(TreeMap<String, TreeMap<String, V>> postings) {
+		if(buried.isEmpty()) {
+			return postings;
+		}
+
+		return new AbstractMap<String, TreeMap<String, V>>() {
+			@Override
+			public Set<Map.Entry<String, TreeMap<String, V>>> entrySet() {
+				return new AbstractSet<Map.Entry<String, TreeMap<String, V>>>() {
+					@Override
+					public Iterator<Map.Entry<String, TreeMap<String, V>>> iterator() {
+						Iterator<String> keys = skipping(postings.keySet().iterator(), InvertedIndex.this::isBuried);
+						return new Iterator<Map.Entry<String, TreeMap<String, V>>>() {
+							@Override
+							public boolean hasNext() {
+								return keys.hasNext();
+							}
+
+							@Override
+							public Map.Entry<String, TreeMap<String, V>> next() {
+								String key = keys.next();
+								return new AbstractMap.SimpleImmutableEntry<>(key, get(key));
+							}
+						};
+					}
+
+					@Override
+					public int size() {
+						return liveSize();
+					}
+				};
+			}
+
+			@Override
+			public Set<String> keySet() {
+				return new LiveSet(postings.keySet(), InvertedIndex.this::isBuried, InvertedIndex.this::liveSize);
+			}
+
+			@Override
+			public TreeMap<String, V> get(Object key) {
+				TreeMap<String, V> pathIndex = postings.get(key);
+				if(pathIndex == null || isBuried((String) key)) {
+					return null;
+				}
+				if(!buried.containsKey(key)) {
+					return pathIndex;
+				}
+				TreeMap<String, V> live = new TreeMap<>(pathIndex);
+				live.keySet().removeIf(InvertedIndex.this::isDeleted);
+				return live;
+			}
+
+			@Override
+			public int size() {
+				return liveSize();
+			}
+		};
+	}
+
+	/**
+	 * returns an iterator that skips some elements of another, and does not support removal
+	 * @param iterator the iterator to skip elements of
+	 * @param skip returns true for the elements to skip
+	 * @return the iterator
+	 */
+	private static Iterator<String> skipping(Iterator<String> iterator, Predicate<String> skip) {
+		return new Iterator<String>() {
+			/**
+			 * The next element, or null if not found yet
+			 */
+			private String next = null;
+
+			@Override
+			public boolean hasNext() {
+				while(next == null && iterator.hasNext()) {
+					String element = iterator.next();
+					if(!skip.test(element)) {
+						next = element;
+					}
+				}
+				return next != null;
+			}
+
+			@Override
+			public String next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				String element = next;
+				next = null;
+				return element;
+			}
+		};
+	}
+
+	/**
+	 * An unmodifiable view of words or locations that skips the removed ones while iterating
+	 */
+	private static class LiveSet extends AbstractSet<String> {
+		/**
+		 * The words or locations, including the removed ones
+		 */
+		private final Set<String> elements;
+
+		/**
+		 * Returns true for the removed elements
+		 */
+		private final Predicate<String> removed;
+
+		/**
+		 * Counts the elements that are not removed
+		 */
+		private final IntSupplier size;
+
+		/**
+		 * Initializes the view
+		 * @param elements the words or locations, including the removed ones
+		 * @param removed returns true for the removed elements
+		 * @param size counts the elements that are not removed
+		 */
+		public LiveSet(Set<String> elements, Predicate<String> removed, IntSupplier size) {
+			this.elements = elements;
+			this.removed = removed;
+			this.size = size;
+		}
+
+		@Override
+		public Iterator<String> iterator() {
+			return skipping(elements.iterator(), removed);
+		}
+
+		@Override
+		public boolean contains(Object element) {
+			return elements.contains(element) && !removed.test((String) element);
+		}
+
+		@Override
+		public int size() {
+			return size.getAsInt();
+		}
+	}
+
+	/**
+	 * calls SimpleJsonWriter to write the inverted-index to the given file. A counts-only index is
+	 * written with the number of occurrences in place of the array of positions.
 	 * @param pathName the path to the output file
 	 * 
 	 * @throws IOException if an IO error occurs
 	 */
 	public void writeToFile(String pathName) throws IOException { 
-		SimpleJsonWriter.asObject(invertedIndex, Paths.get(pathName));
+		if(positional) {
+			SimpleJsonWriter.asObject(live(invertedIndex), Paths.get(pathName));
+		}
+		else {
+			SimpleJsonWriter.asNestedDictionary(live(frequencies), Paths.get(pathName));
+		}
+	}
+
+	/**
+	 * Writes the inverted-index to the given file in a compact binary format. Locations are written
+	 * once in a document table and positions are delta encoded. A counts-only index writes the
+	 * number of occurrences without positions.
+	 * @param path the path to the output file
+	 *
+	 * @throws IOException if an IO error occurs
+	 * @see #readBinary(Path)
+	 */
+	public void writeBinary(Path path) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			writeBinary(out);
+		}
+	}
+
+	/**
+	 * Writes the inverted-index in the format of {@link #writeBinary(Path)} to a stream, so it can
+	 * be embedded in other files
+	 * @param out the stream to write to, which is left open
+	 *
+	 * @throws IOException if an IO error occurs
+	 */
+	void writeBinary(DataOutputStream out) throws IOException {
+		out.writeInt(positional ? MAGIC : COUNTS_MAGIC);
+
+		Map<String, Integer> documents = new HashMap<>();
+		out.writeInt(wordCount.size());
+		for(String location : wordCount.keySet()) {
+			documents.put(location, documents.size());
+			out.writeUTF(location);
+			out.writeInt(wordCount.get(location));
+		}
+
+		if(!positional) {
+			Map<String, TreeMap<String, Integer>> live = live(frequencies);
+			out.writeInt(live.size());
+			for(String word : live.keySet()) {
+				out.writeUTF(word);
+				out.writeInt(live.get(word).size());
+				for(Map.Entry<String, Integer> entry : live.get(word).entrySet()) {
+					out.writeInt(documents.get(entry.getKey()));
+					out.writeInt(entry.getValue());
+				}
+			}
+			return;
+		}
+
+		Map<String, TreeMap<String, TreeSet<Integer>>> live = live(invertedIndex);
+		out.writeInt(live.size());
+		for(String word : live.keySet()) {
+			TreeMap<String, TreeSet<Integer>> pathIndex = live.get(word);
+			out.writeUTF(word);
+			out.writeInt(pathIndex.size());
+			for(String location : pathIndex.keySet()) {
+				out.writeInt(documents.get(location));
+				out.writeInt(pathIndex.get(location).size());
+				int previous = 0;
+				for(int pos : pathIndex.get(location)) {
+					out.writeInt(pos - previous);
+					previous = pos;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads an inverted-index written by {@link #writeBinary(Path)} and adds it to this one
+	 * @param path the path to the input file
+	 *
+	 * @throws IOException if an IO error occurs, the file is not a binary index, or it is a
+	 * counts-only index and this one is positional
+	 */
+	public void readBinary(Path path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			readBinary(in, path.toString());
+		}
+	}
+
+	/**
+	 * Reads an inverted-index written by {@link #writeBinary(DataOutputStream)} from a stream and
+	 * adds it to this one
+	 * @param in the stream to read from, which is left open after the index
+	 * @param source where the stream comes from, for error messages
+	 *
+	 * @throws IOException if an IO error occurs, the stream is not a binary index, or it is a
+	 * counts-only index and this one is positional
+	 */
+	void readBinary(DataInputStream in, String source) throws IOException {
+		int magic = in.readInt();
+		if(magic != MAGIC && magic != COUNTS_MAGIC) {
+			throw new IOException("Not a binary index: " + source);
+		}
+		if(magic == COUNTS_MAGIC && positional) {
+			throw new IOException("Cannot add a counts-only index to a positional index: " + source);
+		}
+		InvertedIndex other = new InvertedIndex(magic == MAGIC);
+
+		String[] documents = new String[in.readInt()];
+		for(int i = 0 ; i < documents.length ; i ++) {
+			documents[i] = in.readUTF();
+			other.wordCount.put(documents[i], in.readInt());
+		}
+
+		int words = in.readInt();
+		for(int i = 0 ; i < words && !other.positional ; i ++) {
+			String word = in.readUTF();
+			int locations = in.readInt();
+			for(int j = 0 ; j < locations ; j ++) {
+				other.addFrequency(word, documents[in.readInt()], in.readInt());
+			}
+		}
+		for(int i = 0 ; i < words && other.positional ; i ++) {
+			TreeMap<String, TreeSet<Integer>> pathIndex = new TreeMap<>();
+			other.invertedIndex.put(in.readUTF(), pathIndex);
+			int locations = in.readInt();
+			for(int j = 0 ; j < locations ; j ++) {
+				TreeSet<Integer> positions = new TreeSet<>();
+				pathIndex.put(documents[in.readInt()], positions);
+				int count = in.readInt();
+				int pos = 0;
+				for(int k = 0 ; k < count ; k ++) {
+					pos += in.readInt();
+					positions.add(pos);
+				}
+			}
+		}
+		addAll(other);
 	}
 
 	/**
@@ -197,7 +1018,10 @@ public class InvertedIndex {
 	 * @return unmodifiable set of keys from the inverted index
 	 */
 	public Set<String> get() {
-		return Collections.unmodifiableSet(invertedIndex.keySet());
+		if(buried.isEmpty()) {
+			return Collections.unmodifiableSet(postings().keySet());
+		}
+		return new LiveSet(postings().keySet(), this::isBuried, this::liveSize);
 	}
 
 	/**
@@ -207,7 +1031,10 @@ public class InvertedIndex {
 	 */
 	public Set<String> get(String key) {
 		if (this.contains(key)) {
-			return Collections.unmodifiableSet(invertedIndex.get(key).keySet());
+			if (!buried.containsKey(key)) {
+				return Collections.unmodifiableSet(postings().get(key).keySet());
+			}
+			return new LiveSet(postings().get(key).keySet(), this::isDeleted, () -> liveLocations(key));
 		}
 		return Collections.emptySet();
 	}
@@ -217,8 +1044,10 @@ public class InvertedIndex {
 	 * @param key the word to search in the index
 	 * @param location the pathname for search for
 	 * @return unmodifiable set of pathnames if the word exists at the give location, else returns empty set
+	 * @throws UnsupportedOperationException if this is a counts-only index
 	 */
 	public Set<Integer> get(String key, String location) {
+		requirePositions("Getting positions");
 		if (this.contains(key, location)) {
 			return Collections.unmodifiableSet(invertedIndex.get(key).get(location));
 		}
@@ -232,7 +1061,7 @@ public class InvertedIndex {
 	 * @return true if the word is in the index
 	 */
 	public boolean contains(String key) {
-		return invertedIndex.containsKey(key);
+		return numLocations(key) > 0;
 	}
 
 	/**
@@ -242,8 +1071,8 @@ public class InvertedIndex {
 	 * @return true if the key was found at the path 
 	 */
 	public boolean contains(String key, String pathName) {
-		if(invertedIndex.containsKey(key)) {
-			return invertedIndex.get(key).containsKey(pathName);
+		if(postings().containsKey(key)) {
+			return postings().get(key).containsKey(pathName) && !isDeleted(pathName);
 		}
 		return false;
 	}
@@ -254,12 +1083,12 @@ public class InvertedIndex {
 	 * @param pathName a string representing the path to the file
 	 * @param pos the position of the word in the file
 	 * @return true if the word was found at the path and the position
+	 * @throws UnsupportedOperationException if this is a counts-only index
 	 */
 	public boolean contains(String key, String pathName, int pos) {
-		if(invertedIndex.containsKey(key)) {
-			if(invertedIndex.get(key).containsKey(pathName)) {
-				return invertedIndex.get(key).get(pathName).contains(pos);
-			}
+		requirePositions("Checking a position");
+		if(this.contains(key, pathName)) {
+			return invertedIndex.get(key).get(pathName).contains(pos);
 		}
 		return false;
 	}
@@ -269,7 +1098,7 @@ public class InvertedIndex {
 	 * @return int the size of the inverted index
 	 */
 	public int size() {
-		return invertedIndex.size();
+		return liveSize();
 	}
 
 	/**
@@ -278,8 +1107,8 @@ public class InvertedIndex {
 	 * @return int the number of locations found. If no key exists, returns zero.
 	 */
 	public int numLocations(String key) {
-		if(invertedIndex.containsKey(key)) {
-			return invertedIndex.get(key).size();
+		if(postings().containsKey(key)) {
+			return liveLocations(key);
 		}
 		return 0;
 	}
@@ -292,14 +1121,120 @@ public class InvertedIndex {
 	 */
 	public int numPositions(String key, String location) {
 		if(this.contains(key, location)) {
-			return invertedIndex.get(key).get(location).size();
+			return frequency(key, location);
 		}
 		return 0;
 	}
 
+	/**
+	 * returns the words that start with a prefix
+	 * @param prefix the prefix
+	 * @return unmodifiable sorted set of the words
+	 */
+	public SortedSet<String> getTerms(String prefix) {
+		TreeSet<String> terms = new TreeSet<>();
+		for(String key : postings().tailMap(prefix).keySet()) {
+			if(!key.startsWith(prefix)) {
+				break;
+			}
+			if(!isBuried(key)) {
+				terms.add(key);
+			}
+		}
+		return Collections.unmodifiableSortedSet(terms);
+	}
+
+	/**
+	 * returns the locations that start with a prefix, for example the entries of one archive
+	 * @param prefix the prefix
+	 * @return unmodifiable sorted set of the locations
+	 */
+	public SortedSet<String> getLocations(String prefix) {
+		TreeSet<String> locations = new TreeSet<>();
+		for(String location : wordCount.tailMap(prefix).keySet()) {
+			if(!location.startsWith(prefix)) {
+				break;
+			}
+			locations.add(location);
+		}
+		return Collections.unmodifiableSortedSet(locations);
+	}
+
+	/**
+	 * returns the number of documents, terms, postings and positions (occurrences in a counts-only
+	 * index), not counting removed locations
+	 * @return unmodifiable map of the statistics
+	 */
+	public Map<String, Long> getStats() {
+		long terms = 0;
+		long postingCount = 0;
+		long positions = 0;
+		for(Map.Entry<String, ? extends Map<String, ?>> entry : postings().entrySet()) {
+			boolean live = false;
+			for(String location : entry.getValue().keySet()) {
+				if(!isDeleted(location)) {
+					live = true;
+					postingCount++;
+					positions += frequency(entry.getKey(), location);
+				}
+			}
+			if(live) {
+				terms++;
+			}
+		}
+		return IndexBackend.stats(wordCount.size(), terms, postingCount, positions);
+	}
+
+	/**
+	 * returns a checksum of each location, computed from its word count and the occurrences of
+	 * each of its words, so two versions of an index can be compared document by document. The
+	 * checksum does not depend on the order the words were added in, and removed locations are
+	 * left out.
+	 * @return unmodifiable sorted map of the checksum of each location
+	 */
+	public Map<String, Long> getChecksums() {
+		TreeMap<String, Long> checksums = new TreeMap<>();
+		for(Map.Entry<String, Integer> entry : wordCount.entrySet()) {
+			String location = entry.getKey();
+			long checksum = mix(entry.getValue());
+			for(String key : forward.getOrDefault(location, List.of())) {
+				long hash = 0;
+				for(int i = 0 ; i < key.length() ; i ++) {
+					hash = hash * 31 + key.charAt(i);
+				}
+				if(positional) {
+					for(int pos : invertedIndex.get(key).get(location)) {
+						hash = hash * 31 + pos;
+					}
+				}
+				else {
+					hash = hash * 31 + frequencies.get(key).get(location);
+				}
+				// summing makes the checksum independent of the order of the words
+				checksum += mix(hash);
+			}
+			checksums.put(location, checksum);
+		}
+		return Collections.unmodifiableMap(checksums);
+	}
+
+	/**
+	 * mixes the bits of a hash, so similar words and positions give unrelated values
+	 * @param hash the hash
+	 * @return the mixed hash
+	 */
+	private static long mix(long hash) {
+		hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+		return hash ^ (hash >>> 31);
+	}
+
 	@Override
 	public String toString() {
-		return SimpleJsonWriter.asObject(invertedIndex);
+		if(positional) {
+			return SimpleJsonWriter.asObject(live(invertedIndex));
+		}
+		return SimpleJsonWriter.asNestedDictionary(live(frequencies));
 	}
 
 	/**
@@ -327,7 +1262,7 @@ public class InvertedIndex {
 		// Iterate through each word in the query and perform an exact search on it
 		for(String key : query) {
 			// search for the word, find all of its locations, and store data into the searchResults collection
-			if(invertedIndex.containsKey(key)) { 
+			if(postings().containsKey(key)) { 
 				this.addResults(key, searchResults, output);
 			}
 		}
@@ -345,7 +1280,7 @@ public class InvertedIndex {
 		List<SearchResult> output = new ArrayList<>();
 
 		for(String searchWord : query) {
-			Iterator<String> wordIterator = invertedIndex.tailMap(searchWord).keySet().iterator();
+			Iterator<String> wordIterator = postings().tailMap(searchWord).keySet().iterator();
 			String current;
 			while(wordIterator.hasNext()) {
 				current = wordIterator.next();
@@ -367,14 +1302,18 @@ public class InvertedIndex {
 	 * @param output a List of SearchResults to add to
 	 */
 	private void addResults(String key, Map<String, SearchResult> searchResults, List<SearchResult> output) {
-		if(invertedIndex.containsKey(key)) { 
-			for (String location : invertedIndex.get(key).keySet()) {
+		if(postings().containsKey(key)) { 
+			for (String location : postings().get(key).keySet()) {
+				if(isDeleted(location)) {
+					// removed, but not purged yet
+					continue;
+				}
 				if(!searchResults.containsKey(location)) {
 					SearchResult result = new SearchResult(location);
 					searchResults.put(location, result);
 					output.add(result);
 				}
-				searchResults.get(location).update(key);
+				searchResults.get(location).update(frequency(key, location), wordCount.get(location));
 			}
 		}
 	}
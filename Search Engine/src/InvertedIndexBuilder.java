@@ -1,9 +1,13 @@
+import java.util.ArrayList;
 import java.util.List;
 import opennlp.tools.stemmer.Stemmer;
 import opennlp.tools.stemmer.snowball.SnowballStemmer;
 import java.nio.file.Path;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 
@@ -36,7 +40,7 @@ public class InvertedIndexBuilder {
 	}
 
 	/**
-	 * Reads the given file and stores it to the inverted index. Also stores the total word count for the file.
+	 * Reads the given file and stores it to the inverted index as one document. Also stores the total word count for the file.
 	 * @param path the path to the directory of files
 	 * @param index the Inverted index object that will be modified
 	 * 
@@ -45,19 +49,85 @@ public class InvertedIndexBuilder {
 	 */
 	public static void readFile(Path path, InvertedIndex index) throws IOException {
 		try (BufferedReader br = Files.newBufferedReader(path,StandardCharsets.UTF_8)){
-			Stemmer stemmer = new SnowballStemmer(DEFAULT);
-			String line =br.readLine();
-
-			int pos = 1;
-			while(line != null) {
-				String [] words = TextParser.parse(line);
-				for(String word : words) {
-					word = stemmer.stem(word).toString();
-					index.add(word, path.toString(), pos);
-					pos++;
-				}
-				line = br.readLine();
+			index.addDocument(path.toString(), stem(br));
+		}
+	}
+
+	/**
+	 * Builds the inverted index based on the text files the walker finds in the given path. If a
+	 * manifest is given, the files that have not changed since the last build (and copies of files
+	 * already read) are taken from it instead of being parsed again.
+	 * @param path the path to the directory of files
+	 * @param index the Inverted index object that will be modified
+	 * @param manifest the manifest of the previous build, updated with the files of this one, or
+	 * null to parse every file
+	 * @param walker finds the text files
+	 *
+	 * @throws IOException if IO error occurs
+	 */
+	public static void build(Path path, InvertedIndex index, BuildManifest manifest, DirectoryWalker walker) throws IOException{
+		List<Path> textFiles = walker.list(path);
+		for(Path file : textFiles) {
+			if(ArchiveReader.isArchive(file.toString())) {
+				ArchiveReader.read(file, walker::accepts, (location, in) -> readStream(location, in, index));
+			}
+			else if(manifest != null) {
+				manifest.readFile(file, index);
+			}
+			else {
+				readFile(file, index);
+			}
+		}
+	}
+
+	/**
+	 * Reads a document from the given stream and stores it to the inverted index, the same way as
+	 * {@link #readFile(Path, InvertedIndex)}. The stream is not closed.
+	 * @param location the location of the document
+	 * @param in the UTF-8 content of the document
+	 * @param index the Inverted index object that will be modified
+	 *
+	 * @throws IOException if IO error occurs
+	 */
+	public static void readStream(String location, InputStream in, InvertedIndex index) throws IOException {
+		BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8.newDecoder()));
+		index.addDocument(location, stem(br));
+	}
+
+	/**
+	 * Stores the given text to the inverted index as one document, the same way as
+	 * {@link #readFile(Path, InvertedIndex)}
+	 * @param location the location of the document
+	 * @param text the content of the document
+	 * @param index the Inverted index object that will be modified
+	 *
+	 * @throws IOException if IO error occurs
+	 */
+	public static void readText(String location, String text, InvertedIndex index) throws IOException {
+		try (BufferedReader br = new BufferedReader(new StringReader(text))) {
+			index.addDocument(location, stem(br));
+		}
+	}
+
+	/**
+	 * Parses and stems every line of the reader
+	 * @param br the reader of one document
+	 * @return the stems of the document in order
+	 *
+	 * @throws IOException if IO error occurs
+	 */
+	public static List<String> stem(BufferedReader br) throws IOException {
+		Stemmer stemmer = new SnowballStemmer(DEFAULT);
+		String line =br.readLine();
+
+		List<String> stems = new ArrayList<>();
+		while(line != null) {
+			String [] words = TextParser.parse(line);
+			for(String word : words) {
+				stems.add(stemmer.stem(word).toString());
 			}
+			line = br.readLine();
 		}
+		return stems;
 	}
 }
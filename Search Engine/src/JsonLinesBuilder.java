@@ -0,0 +1,320 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Predicate;
+
+/**
+ * Builds the inverted index from newline-delimited JSON, one document per line in the form
+ * {@code {"location": "...", "text": "..."}}. Other members of a record are ignored. The input is
+ * read one line at a time, so it can be any size and can come from standard input. Each text is
+ * indexed the same way as a file read by {@link InvertedIndexBuilder#readFile(java.nio.file.Path, InvertedIndex)}.
+ *
+ * @author matthew
+ *
+ */
+public class JsonLinesBuilder {
+	/**
+	 * The most lines per worker thread that may be waiting to be parsed, so reading the input never
+	 * gets far ahead of the workers
+	 */
+	public static final int LINES_PER_THREAD = 64;
+
+	/**
+	 * Adds every record of the input to the index
+	 * @param input the newline-delimited JSON
+	 * @param index the index to add to
+	 * @return the number of documents added
+	 * @throws IOException if unable to read the input
+	 */
+	public static int build(BufferedReader input, InvertedIndex index) throws IOException {
+		return build(input, index, location -> true);
+	}
+
+	/**
+	 * Adds the records of the input whose locations are accepted to the index. The other records
+	 * are skipped before their text is parsed.
+	 * @param input the newline-delimited JSON
+	 * @param index the index to add to
+	 * @param locations accepts the locations of the records to add
+	 * @return the number of documents added
+	 * @throws IOException if unable to read the input
+	 */
+	public static int build(BufferedReader input, InvertedIndex index, Predicate<String> locations) throws IOException {
+		int documents = 0;
+		int number = 0;
+		String line;
+		while((line = input.readLine()) != null) {
+			number++;
+			if(readLine(line, number, index, locations)) {
+				documents++;
+			}
+		}
+		return documents;
+	}
+
+	/**
+	 * Adds every record of the input to the index, parsing and tokenizing the records on a work
+	 * queue while the next lines are being read. The queue is flushed before returning.
+	 * @param input the newline-delimited JSON
+	 * @param ingest the queue that adds the parsed documents to the index
+	 * @param threads the number of threads to use
+	 * @throws IOException if unable to read the input
+	 */
+	public static void build(BufferedReader input, IngestionQueue ingest, int threads) throws IOException {
+		build(input, ingest, threads, location -> true);
+	}
+
+	/**
+	 * Adds the records of the input whose locations are accepted to the index, parsing and
+	 * tokenizing the records on a work queue like {@link #build(BufferedReader, IngestionQueue, int)}.
+	 * The other records are skipped before their text is parsed.
+	 * @param input the newline-delimited JSON
+	 * @param ingest the queue that adds the parsed documents to the index
+	 * @param threads the number of threads to use
+	 * @param locations accepts the locations of the records to add
+	 * @throws IOException if unable to read the input
+	 */
+	public static void build(BufferedReader input, IngestionQueue ingest, int threads, Predicate<String> locations) throws IOException {
+		WorkQueue workQueue = new WorkQueue(threads);
+		Semaphore waiting = new Semaphore(Math.max(1, threads) * LINES_PER_THREAD);
+		try {
+			int number = 0;
+			String line;
+			while((line = input.readLine()) != null) {
+				number++;
+				String record = line;
+				int recordNumber = number;
+
+				waiting.acquireUninterruptibly();
+				workQueue.execute(() -> {
+					try {
+						InvertedIndex local = new InvertedIndex();
+						if(readLine(record, recordNumber, local, locations)) {
+							ingest.add(local);
+						}
+					} finally {
+						waiting.release();
+					}
+				});
+			}
+			workQueue.finish();
+		} finally {
+			workQueue.shutdown();
+		}
+		ingest.flush();
+	}
+
+	/**
+	 * Parses one line and adds its document to the index. Blank lines and records whose locations
+	 * are not accepted are skipped, invalid records are reported and skipped.
+	 * @param line the line
+	 * @param number the line number, used in error messages
+	 * @param index the index to add to
+	 * @param locations accepts the locations of the records to add
+	 * @return true if a document was added
+	 */
+	private static boolean readLine(String line, int number, InvertedIndex index, Predicate<String> locations) {
+		if(line.isBlank()) {
+			return false;
+		}
+
+		Record record;
+		try {
+			record = new Record(line);
+		} catch (IllegalArgumentException e) {
+			System.out.println("Error: invalid record on line " + number + " - " + e.getMessage());
+			return false;
+		}
+		if(!locations.test(record.location)) {
+			return false;
+		}
+
+		try {
+			InvertedIndexBuilder.readText(record.location, record.text, index);
+		} catch (IOException e) {
+			System.out.println("Error: could not read record on line " + number);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The location and text of one JSON record. Only the syntax needed to find the two string
+	 * members is checked strictly, other values are skipped.
+	 */
+	private static class Record {
+		/**
+		 * The line being parsed
+		 */
+		private final String line;
+
+		/**
+		 * The position of the next character to parse
+		 */
+		private int position;
+
+		/**
+		 * The location of the document
+		 */
+		private String location;
+
+		/**
+		 * The text of the document
+		 */
+		private String text;
+
+		/**
+		 * Parses a record
+		 * @param line the JSON object
+		 * @throws IllegalArgumentException if the line is not a JSON object with string location and
+		 * text members
+		 */
+		public Record(String line) {
+			this.line = line;
+			this.position = 0;
+
+			expect('{');
+			if(peek() != '}') {
+				do {
+					String key = string();
+					expect(':');
+					if(peek() == '"' && (key.equals("location") || key.equals("text"))) {
+						if(key.equals("location")) {
+							location = string();
+						}
+						else {
+							text = string();
+						}
+					}
+					else {
+						skipValue();
+					}
+				} while(accept(','));
+			}
+			expect('}');
+			if(peek() != 0) {
+				throw new IllegalArgumentException("unexpected text after the record");
+			}
+
+			if(location == null || text == null) {
+				throw new IllegalArgumentException("missing location or text");
+			}
+		}
+
+		/**
+		 * Skips whitespace and returns the next character without consuming it
+		 * @return the character, or zero at the end of the line
+		 */
+		private char peek() {
+			while(position < line.length() && Character.isWhitespace(line.charAt(position))) {
+				position++;
+			}
+			return position < line.length() ? line.charAt(position) : 0;
+		}
+
+		/**
+		 * Consumes the next character if it is the expected one
+		 * @param c the expected character
+		 * @return true if it was consumed
+		 */
+		private boolean accept(char c) {
+			if(peek() == c) {
+				position++;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Consumes the next character, which must be the expected one
+		 * @param c the expected character
+		 */
+		private void expect(char c) {
+			if(!accept(c)) {
+				throw new IllegalArgumentException("expected '" + c + "' at column " + (position + 1));
+			}
+		}
+
+		/**
+		 * Parses a string value
+		 * @return the unescaped string
+		 */
+		private String string() {
+			expect('"');
+			StringBuilder builder = new StringBuilder();
+			while(position < line.length()) {
+				char c = line.charAt(position++);
+				if(c == '"') {
+					return builder.toString();
+				}
+				if(c != '\\') {
+					builder.append(c);
+					continue;
+				}
+				if(position >= line.length()) {
+					break;
+				}
+				char escape = line.charAt(position++);
+				switch(escape) {
+				case 'n': builder.append('\n'); break;
+				case 't': builder.append('\t'); break;
+				case 'r': builder.append('\r'); break;
+				case 'b': builder.append('\b'); break;
+				case 'f': builder.append('\f'); break;
+				case 'u':
+					if(position + 4 > line.length()) {
+						throw new IllegalArgumentException("invalid unicode escape at column " + position);
+					}
+					try {
+						builder.append((char) Integer.parseInt(line.substring(position, position + 4), 16));
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("invalid unicode escape at column " + position);
+					}
+					position += 4;
+					break;
+				default: builder.append(escape); break;
+				}
+			}
+			throw new IllegalArgumentException("unterminated string");
+		}
+
+		/**
+		 * Skips a value of any type, including nested objects and arrays
+		 */
+		private void skipValue() {
+			char c = peek();
+			if(c == '"') {
+				string();
+			}
+			else if(c == '{' || c == '[') {
+				int depth = 0;
+				do {
+					c = peek();
+					if(c == '"') {
+						string();
+						continue;
+					}
+					if(c == 0) {
+						throw new IllegalArgumentException("unterminated " + (depth > 0 ? "value" : "record"));
+					}
+					if(c == '{' || c == '[') {
+						depth++;
+					}
+					else if(c == '}' || c == ']') {
+						depth--;
+					}
+					position++;
+				} while(depth > 0);
+			}
+			else {
+				int start = position;
+				while(position < line.length() && ",}] \t".indexOf(line.charAt(position)) < 0) {
+					position++;
+				}
+				if(position == start) {
+					throw new IllegalArgumentException("expected a value at column " + (position + 1));
+				}
+			}
+		}
+	}
+}
@@ -28,6 +28,36 @@ public class LinkParser {
 		}
 	}
 
+	/**
+	 * Converts the URL into a normalized string key: the scheme and host are lowercased, default
+	 * ports and fragments are dropped, an empty path becomes "/", and the result is ASCII encoded.
+	 * Unlike {@link URL#equals(Object)}, comparing these keys never resolves hosts.
+	 *
+	 * @param url the url to normalize
+	 * @return the normalized url
+	 */
+	public static String normalize(URL url) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(url.getProtocol().toLowerCase()).append("://");
+		if(url.getUserInfo() != null) {
+			builder.append(url.getUserInfo()).append('@');
+		}
+		builder.append(url.getHost().toLowerCase());
+		if(url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+			builder.append(':').append(url.getPort());
+		}
+		builder.append(url.getPath().isEmpty() ? "/" : url.getPath());
+		if(url.getQuery() != null) {
+			builder.append('?').append(url.getQuery());
+		}
+
+		try {
+			return new URI(builder.toString()).toASCIIString();
+		} catch (URISyntaxException e) {
+			return builder.toString();
+		}
+	}
+
 	/**
 	 * Returns a list of all the HTTP(S) links found in the href attribute of the anchor tags in the
 	 * provided HTML. The links will be converted to absolute using the base URL and cleaned (removing
@@ -0,0 +1,211 @@
+import java.io.Closeable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers searches while an index is still being built. Every few seconds the documents added,
+ * replaced or removed since the last refresh (see {@link InvertedIndex#getChanged(long)}) are
+ * copied into a new segment of a {@link SegmentedIndex}, which is swapped in like any other
+ * {@link SwappableIndex} version. A refresh only costs as much as the documents that changed, and
+ * the earlier segments are shared between versions. Searches only read the copies, so they never
+ * wait for the builders, and the builders only wait while a small batch of documents is copied.
+ * Every document is copied whole, but the batches are copied one after the other while the
+ * builders keep going, so a version is not a snapshot of the index at one point in time: a
+ * document added during a refresh may be in it while an earlier one is not until the next
+ * refresh. Once the build is done, {@link #finish(IndexBackend)} swaps in the finished index for
+ * good.
+ *
+ * The progress of the build (documents, terms and documents per second) is kept for the search
+ * page.
+ *
+ * @author matthew
+ *
+ */
+public class LiveIndex extends SwappableIndex implements Closeable {
+	/**
+	 * The default time between refreshes in seconds
+	 */
+	public static final int REFRESH = 5;
+
+	/**
+	 * The number of documents copied while the builders wait
+	 */
+	private static final int BATCH = 100;
+
+	/**
+	 * The index being built, which must be safe to read while it changes, or null once the build
+	 * is done
+	 */
+	private InvertedIndex building;
+
+	/**
+	 * The segments copied so far
+	 */
+	private SegmentedIndex view;
+
+	/**
+	 * The modification number of the index being built when the last segment was copied, or -1
+	 * before the first refresh
+	 */
+	private long copied;
+
+	/**
+	 * When the build started
+	 */
+	private final Instant start;
+
+	/**
+	 * Refreshes the view
+	 */
+	private final ScheduledExecutorService refresher;
+
+	/**
+	 * The number of documents in the current view
+	 */
+	private volatile long documents;
+
+	/**
+	 * The number of terms in the index being built when the current view was copied
+	 */
+	private volatile long terms;
+
+	/**
+	 * The documents added per second between the last two refreshes
+	 */
+	private volatile double rate;
+
+	/**
+	 * When the current view was copied
+	 */
+	private volatile Instant refreshed;
+
+	/**
+	 * Whether the build is done
+	 */
+	private volatile boolean done;
+
+	/**
+	 * Initializes the index with an empty view and starts refreshing it
+	 * @param building the index being built, which must be safe to read while it changes
+	 * @param seconds the time between refreshes
+	 */
+	public LiveIndex(ThreadSafeInvertedIndex building, int seconds) {
+		super(new SegmentedIndex(building.isPositional()));
+		building.trackChanges();
+		this.building = building;
+		this.view = new SegmentedIndex(building.isPositional());
+		this.copied = -1;
+		this.start = Instant.now();
+		this.refreshed = start;
+		this.documents = 0;
+		this.terms = 0;
+		this.rate = 0;
+		this.done = false;
+		this.refresher = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "live-index-refresher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		refresher.scheduleWithFixedDelay(this::refresh, seconds, seconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Copies the documents that changed since the last refresh into a new segment and swaps in a
+	 * version with it, unless nothing changed
+	 */
+	public synchronized void refresh() {
+		if(done) {
+			return;
+		}
+		// anything changed after this number is copied by the next refresh, even if it is copied now
+		long modifications = building.getModifications();
+		if(modifications == copied) {
+			update(view.getDocuments(), terms);
+			return;
+		}
+		List<String> locations = new ArrayList<>(copied < 0 ? building.getWordCount().keySet() : building.getChanged(copied));
+
+		// copy a batch of documents at a time, so builders only ever wait for one short batch
+		InvertedIndex segment = new InvertedIndex(building.isPositional());
+		for(int i = 0 ; i < locations.size() ; i += BATCH) {
+			building.copy(locations.subList(i, Math.min(i + BATCH, locations.size())), segment);
+		}
+		Set<String> removed = new HashSet<>(locations);
+		removed.removeAll(segment.getWordCount().keySet());
+
+		view = view.add(segment, removed);
+		copied = modifications;
+		update(view.getDocuments(), building.size());
+		swap(view);
+	}
+
+	/**
+	 * Stops refreshing and swaps in the finished index
+	 * @param index the finished index, in the backend to search
+	 */
+	public synchronized void finish(IndexBackend index) {
+		done = true;
+		refresher.shutdownNow();
+		Map<String, Long> stats = index.getStats();
+		update(stats.get("documents"), stats.get("terms"));
+		swap(index);
+		// only the finished index is searched from now on
+		building = null;
+		view = null;
+	}
+
+	/**
+	 * Records the size of a new view
+	 * @param documents the number of documents in the view
+	 * @param terms the number of terms in the index being built, or in the finished index
+	 */
+	private void update(long documents, long terms) {
+		Instant now = Instant.now();
+		long elapsed = Duration.between(refreshed, now).toMillis();
+		if(elapsed > 0) {
+			rate = (documents - this.documents) * 1000.0 / elapsed;
+		}
+		this.documents = documents;
+		this.terms = terms;
+		refreshed = now;
+	}
+
+	/**
+	 * Checks if the build is done
+	 * @return true if the build is done
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * Describes the progress of the build as of the current version, for the search page: the
+	 * number of documents and terms, and the documents added per second since the previous refresh
+	 * while building, or overall once done
+	 * @return the description
+	 */
+	public String describeProgress() {
+		String counts = String.format("%,d documents and %,d terms", documents, terms);
+		if(done) {
+			double seconds = (double) Duration.between(start, refreshed).toMillis() / Duration.ofSeconds(1).toMillis();
+			return String.format("Indexed %s in %.1f seconds (%.1f documents per second)", counts, seconds, seconds > 0 ? documents / seconds : 0);
+		}
+		return String.format("Still indexing: searching %s so far, adding %.1f documents per second", counts, rate);
+	}
+
+	/**
+	 * Stops refreshing
+	 */
+	@Override
+	public void close() {
+		refresher.shutdownNow();
+	}
+}
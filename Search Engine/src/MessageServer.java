@@ -1,3 +1,5 @@
+import java.nio.file.Path;
+
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
@@ -15,17 +17,42 @@ public class MessageServer {
 	 * @param port the port to host server on
 	 * @throws Exception if unable to start and run server
 	 */
-	public static void runServer(InvertedIndex index, int port) throws Exception {
+	public static void runServer(IndexBackend index, int port) throws Exception {
+		runServer(index, port, null, null);
+	}
+
+	/**
+	 * Sets up a Jetty server with different servlet instances. The servlets read the index through
+	 * a {@link SwappableIndex}, so a new version can be swapped in without restarting the server.
+	 * The server also serves the snapshots of the index to replicas at /snapshots, and reloads the
+	 * index when asked at /reload.
+	 *
+	 * @param index the index to build website on, used as is if it is already a
+	 * {@link SwappableIndex}
+	 * @param port the port to host server on
+	 * @param snapshots the directory of a {@link SnapshotPublisher}, or null to serve no snapshots
+	 * @param reloader reloads the index, which must hold the same {@link SwappableIndex}, or null to
+	 * serve no reloads
+	 * @throws Exception if unable to start and run server
+	 */
+	public static void runServer(IndexBackend index, int port, Path snapshots, IndexReloader reloader) throws Exception {
 		System.out.println("starting server");
+		SwappableIndex versions = index instanceof SwappableIndex ? (SwappableIndex) index : new SwappableIndex(index);
 		// type of handler that supports sessions
 	    ServletContextHandler servletContext = null;
 
 	    // turn on sessions and set context
 	    servletContext = new ServletContextHandler(ServletContextHandler.SESSIONS);
 	    servletContext.setContextPath("/");
-	    servletContext.addServlet(new ServletHolder(new SearchServlet(index)), "/home");
+	    servletContext.addServlet(new ServletHolder(new SearchServlet(versions)), "/home");
 	    servletContext.addServlet(new ServletHolder(new HistoryServlet()), "/history");
 	    servletContext.addServlet(new ServletHolder(new FavoriteServlet()), "/favorites");
+	    if(snapshots != null) {
+	    	servletContext.addServlet(new ServletHolder(new SnapshotServlet(snapshots)), "/snapshots/*");
+	    }
+	    if(reloader != null) {
+	    	servletContext.addServlet(new ServletHolder(new ReloadServlet(reloader)), "/reload");
+	    }
 	    
 		
 		Server server = new Server(port);
@@ -44,4 +71,24 @@ public class MessageServer {
 		server.start();
 		server.join();
 	}
+
+	/**
+	 * Sets up a Jetty server that serves one partition of the documents to a
+	 * {@link DistributedIndex} broker at /shard.
+	 *
+	 * @param index the partition to serve
+	 * @param port the port to host server on
+	 * @throws Exception if unable to start and run server
+	 */
+	public static void runShardServer(IndexBackend index, int port) throws Exception {
+		System.out.println("starting shard server");
+		ServletContextHandler servletContext = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+		servletContext.setContextPath("/");
+		servletContext.addServlet(new ServletHolder(new ShardServlet(index)), "/shard");
+
+		Server server = new Server(port);
+		server.setHandler(servletContext);
+		server.start();
+		server.join();
+	}
 }
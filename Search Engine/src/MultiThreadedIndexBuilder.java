@@ -1,6 +1,5 @@
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.List;
 
 /**
  * Builder class for InvertedIndex using a work queue
@@ -18,13 +17,118 @@ public class MultiThreadedIndexBuilder {
 	 * @throws IOException if IO error occurs
 	 */
 	public static void build(Path path, ThreadSafeInvertedIndex index, int threads) throws IOException {
+		try (IngestionQueue ingest = new IngestionQueue(index)) {
+			build(path, ingest, threads);
+		}
+	}
+
+	/**
+	 * Builds the inverted index based on the given path, adding the parsed files to the index
+	 * through the given ingestion queue. The queue is flushed before returning.
+	 * @param path the path to the directory of files
+	 * @param ingest the queue that adds parsed files to the index
+	 * @param threads the number of threads to use
+	 *
+	 * @throws IOException if IO error occurs
+	 */
+	public static void build(Path path, IngestionQueue ingest, int threads) throws IOException {
+		build(path, ingest, threads, null);
+	}
+
+	/**
+	 * Builds the inverted index based on the given path, adding the parsed files to the index
+	 * through the given ingestion queue. Files that have not changed since the last build (and
+	 * copies of files already read) are taken from the manifest instead of being parsed again. The
+	 * queue is flushed before returning.
+	 * @param path the path to the directory of files
+	 * @param ingest the queue that adds parsed files to the index
+	 * @param threads the number of threads to use
+	 * @param manifest the manifest of the previous build, updated with the files of this one, or
+	 * null to parse every file
+	 *
+	 * @throws IOException if IO error occurs
+	 */
+	public static void build(Path path, IngestionQueue ingest, int threads, BuildManifest manifest) throws IOException {
+		build(path, ingest, threads, manifest, new DirectoryWalker());
+	}
+
+	/**
+	 * Builds the inverted index based on the given path, adding the parsed files to the index
+	 * through the given ingestion queue. The files are parsed as soon as the walker finds them,
+	 * while it is still listing the rest of the directory tree. The queue is flushed before
+	 * returning.
+	 * @param path the path to the directory of files
+	 * @param ingest the queue that adds parsed files to the index
+	 * @param threads the number of threads to use
+	 * @param manifest the manifest of the previous build, updated with the files of this one, or
+	 * null to parse every file
+	 * @param walker finds the text files
+	 *
+	 * @throws IOException if IO error occurs
+	 */
+	public static void build(Path path, IngestionQueue ingest, int threads, BuildManifest manifest, DirectoryWalker walker) throws IOException {
 		WorkQueue workQueue = new WorkQueue(threads);
-		List<Path> textFiles = TextFileFinder.list(path);
-		for(Path file : textFiles) {
-			workQueue.execute(new Task(index, file));
+		try {
+			walker.walk(path, file -> {
+				if(ArchiveReader.isArchive(file.toString())) {
+					workQueue.execute(new ArchiveTask(ingest, file, walker, workQueue));
+				}
+				else {
+					workQueue.execute(new Task(ingest, file, manifest));
+				}
+			});
+			workQueue.finish();
+		} finally {
+			workQueue.shutdown();
+		}
+		ingest.flush();
+	}
+
+	/**
+	 * Reads the text files of an archive, handing each one to a worker
+	 */
+	private static class ArchiveTask implements Runnable {
+		/** The archive to read. */
+		private final Path archive;
+		/**
+		 * The queue that adds the parsed files to the index
+		 */
+		private final IngestionQueue ingest;
+		/**
+		 * Accepts the locations of the files to read
+		 */
+		private final DirectoryWalker walker;
+		/**
+		 * The work queue that parses the files
+		 */
+		private final WorkQueue workQueue;
+
+		/**
+		 * Initializes this task.
+		 * @param ingest the queue that adds the parsed files to the index
+		 * @param archive the archive to read
+		 * @param walker accepts the locations of the files to read
+		 * @param workQueue the work queue that parses the files
+		 */
+		public ArchiveTask(IngestionQueue ingest, Path archive, DirectoryWalker walker, WorkQueue workQueue) {
+			this.ingest = ingest;
+			this.archive = archive;
+			this.walker = walker;
+			this.workQueue = workQueue;
+		}
+
+		@Override
+		public void run() {
+			try {
+				ArchiveReader.read(archive, walker::accepts, (location, in) -> {
+					InvertedIndex local = new InvertedIndex();
+					InvertedIndexBuilder.readStream(location, in, local);
+					ingest.add(local);
+				}, workQueue);
+			} catch (IOException e) {
+				System.out.println("Error: could not read archive - " + archive);
+			}
 		}
-		workQueue.finish();
-		workQueue.shutdown();
 	}
 
 	/**
@@ -35,19 +139,25 @@ public class MultiThreadedIndexBuilder {
 		/** The path to add or list. */
 		private final Path path;
 		/**
-		 * The inverted index to add to
+		 * The queue that adds the parsed file to the index
+		 */
+		private final IngestionQueue ingest;
+		/**
+		 * The manifest of the previous build or null
 		 */
-		private final ThreadSafeInvertedIndex index;
+		private final BuildManifest manifest;
 
 		/**
 		 * Initializes this task.
-		 * @param index the index to add to
+		 * @param ingest the queue that adds the parsed file to the index
 		 *
 		 * @param path the path to add or list
+		 * @param manifest the manifest of the previous build or null
 		 */
-		public Task(ThreadSafeInvertedIndex index, Path path) {
-			this.index = index;
+		public Task(IngestionQueue ingest, Path path, BuildManifest manifest) {
+			this.ingest = ingest;
 			this.path = path;
+			this.manifest = manifest;
 		}
 
 		@Override
@@ -55,12 +165,17 @@ public class MultiThreadedIndexBuilder {
 
 			InvertedIndex local = new InvertedIndex();
 			try {
-				InvertedIndexBuilder.readFile(path, local);
+				if(manifest != null) {
+					manifest.readFile(path, local);
+				}
+				else {
+					InvertedIndexBuilder.readFile(path, local);
+				}
 			} catch (IOException e) {
 				System.out.println("Error: could not read file");
 			}
 
-			index.addAll(local);
+			ingest.add(local);
 		}
 	}
 }
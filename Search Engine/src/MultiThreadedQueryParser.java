@@ -23,17 +23,17 @@ public class MultiThreadedQueryParser implements QueryParserInterface{
 	private final TreeMap<String, Collection<InvertedIndex.SearchResult>> allResults;
 
 	/**
-	 * The thread safe inverted index
+	 * The index to search, which must be safe to search from several threads
 	 */
-	private final ThreadSafeInvertedIndex safeIndex;
+	private final IndexBackend safeIndex;
 
 
 	/**
 	 * Initializes QueryParser
-	 * @param index The inverted index to use
+	 * @param index The index to search, which must be safe to search from several threads
 	 * @param threads the number of threads to use
 	 */
-	public MultiThreadedQueryParser(ThreadSafeInvertedIndex index, int threads) {
+	public MultiThreadedQueryParser(IndexBackend index, int threads) {
 		this.allResults = new TreeMap<>();
 		this.safeIndex = index;
 		this.threads = 5; 
@@ -0,0 +1,790 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * A read-only copy of an inverted index whose terms, postings and document table are stored in
+ * direct (off-heap) buffers. Only a handful of buffer objects stay on the Java heap, so a large
+ * index adds almost nothing to the work of the garbage collector, and searches are not slowed down
+ * by long pauses to mark millions of small map entries. Searches return the same results as the
+ * index it was copied from.
+ *
+ * Terms are stored as UTF-8 in byte order, which keeps the terms that start with a prefix next to
+ * each other for partial searches. Each posting list is a run of ints: the document id, the number
+ * of occurrences and (if the source index stores them) the positions.
+ *
+ * It can also be read straight from a binary index file, such as the output of
+ * {@link SpimiIndexBuilder}, without the index ever being on the heap.
+ *
+ * The copy is immutable and safe to search from many threads at once. All methods that would
+ * change it throw {@link UnsupportedOperationException}. Each buffer holds at most 2 GB.
+ *
+ * @author matthew
+ *
+ */
+public class OffHeapInvertedIndex extends InvertedIndex {
+	/**
+	 * The number of terms
+	 */
+	private final int terms;
+
+	/**
+	 * The start of each term in {@link #termBytes}, plus the end of the last term
+	 */
+	private final IntBuffer termOffsets;
+
+	/**
+	 * The UTF-8 bytes of all terms, sorted
+	 */
+	private final ByteBuffer termBytes;
+
+	/**
+	 * The start of each term's posting list in {@link #postings}
+	 */
+	private final IntBuffer postingOffsets;
+
+	/**
+	 * The number of documents in each term's posting list
+	 */
+	private final IntBuffer documentCounts;
+
+	/**
+	 * The posting lists of all terms
+	 */
+	private final IntBuffer postings;
+
+	/**
+	 * The number of documents
+	 */
+	private final int documents;
+
+	/**
+	 * The start of each location in {@link #locationBytes}, plus the end of the last location
+	 */
+	private final IntBuffer locationOffsets;
+
+	/**
+	 * The UTF-8 bytes of all locations, sorted
+	 */
+	private final ByteBuffer locationBytes;
+
+	/**
+	 * The word count of each document
+	 */
+	private final IntBuffer wordCounts;
+
+	/**
+	 * Whether the posting lists include positions
+	 */
+	private final boolean positional;
+
+	/**
+	 * Copies the index into direct buffers
+	 * @param index the index to copy, which must not change during the copy
+	 */
+	public OffHeapInvertedIndex(InvertedIndex index) {
+		super(index.isPositional());
+		this.positional = index.isPositional();
+
+		// the document table, ids in location order
+		Map<String, Integer> wordCount = index.getWordCount();
+		this.documents = wordCount.size();
+		Map<String, Integer> ids = new HashMap<>();
+		List<byte[]> locations = new ArrayList<>(documents);
+		for(String location : wordCount.keySet()) {
+			ids.put(location, ids.size());
+			locations.add(location.getBytes(StandardCharsets.UTF_8));
+		}
+		this.locationOffsets = allocateInts(documents + 1);
+		this.locationBytes = pack(locations, locationOffsets);
+		this.wordCounts = allocateInts(documents);
+		for(int count : wordCount.values()) {
+			wordCounts.put(count);
+		}
+
+		// the terms, in UTF-8 byte order
+		byte[][] sorted = index.get().stream().map(term -> term.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+		Arrays.sort(sorted, Arrays::compareUnsigned);
+		this.terms = sorted.length;
+		this.termOffsets = allocateInts(terms + 1);
+		this.termBytes = pack(Arrays.asList(sorted), termOffsets);
+
+		// the posting lists
+		long size = 0;
+		for(byte[] term : sorted) {
+			String word = new String(term, StandardCharsets.UTF_8);
+			for(String location : index.get(word)) {
+				size += 2 + (positional ? index.numPositions(word, location) : 0);
+			}
+		}
+		if(size > Integer.MAX_VALUE / Integer.BYTES) {
+			throw new IllegalArgumentException("Index too large for an off-heap copy: " + size + " postings");
+		}
+		this.postings = allocateInts((int) size);
+		this.postingOffsets = allocateInts(terms);
+		this.documentCounts = allocateInts(terms);
+		for(byte[] term : sorted) {
+			String word = new String(term, StandardCharsets.UTF_8);
+			postingOffsets.put(postings.position());
+			documentCounts.put(index.get(word).size());
+
+			// the locations are sorted, so the document ids are increasing
+			for(String location : index.get(word)) {
+				postings.put(ids.get(location));
+				postings.put(index.numPositions(word, location));
+				if(positional) {
+					for(int position : index.get(word, location)) {
+						postings.put(position);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads an index written by {@link InvertedIndex#writeBinary(Path)} or merged by
+	 * {@link SpimiIndexBuilder} into direct buffers. The file is read twice, first to size the
+	 * buffers and then to fill them, so only the document table and the terms are on the heap while
+	 * it is read, never the postings.
+	 * @param path the binary index
+	 * @param positional whether to keep the positions, a counts-only copy only keeps the number of
+	 * occurrences
+	 * @throws IOException if unable to read the file, it is not a binary index, or it is a
+	 * counts-only index and positions were asked for
+	 */
+	public OffHeapInvertedIndex(Path path, boolean positional) throws IOException {
+		super(positional);
+		this.positional = positional;
+		boolean stored = readPositional(path);
+		if(positional && !stored) {
+			throw new IOException("Cannot read a counts-only index with positions: " + path);
+		}
+
+		// the document table, in the order of the document ids of the file
+		List<byte[]> locations = new ArrayList<>();
+		byte[][] words;
+		int[] lists;
+		long size = 0;
+		try (DataInputStream in = open(path)) {
+			in.readInt();
+			this.documents = in.readInt();
+			this.wordCounts = allocateInts(documents);
+			for(int i = 0 ; i < documents ; i ++) {
+				locations.add(in.readUTF().getBytes(StandardCharsets.UTF_8));
+				wordCounts.put(in.readInt());
+			}
+
+			words = new byte[in.readInt()][];
+			lists = new int[words.length];
+			for(int i = 0 ; i < words.length ; i ++) {
+				words[i] = in.readUTF().getBytes(StandardCharsets.UTF_8);
+				lists[i] = in.readInt();
+				for(int j = 0 ; j < lists[i] ; j ++) {
+					in.readInt();
+					int count = in.readInt();
+					size += 2 + (positional ? count : 0);
+					if(stored) {
+						in.skipNBytes((long) count * Integer.BYTES);
+					}
+				}
+			}
+		}
+		if(size > Integer.MAX_VALUE / Integer.BYTES) {
+			throw new IllegalArgumentException("Index too large for an off-heap copy: " + size + " postings");
+		}
+		this.locationOffsets = allocateInts(documents + 1);
+		this.locationBytes = pack(locations, locationOffsets);
+
+		// the posting lists, in the order of the file
+		this.postings = allocateInts((int) size);
+		int[] starts = new int[words.length];
+		try (DataInputStream in = open(path)) {
+			in.readInt();
+			int skipped = in.readInt();
+			for(int i = 0 ; i < skipped ; i ++) {
+				in.readUTF();
+				in.readInt();
+			}
+			in.readInt();
+			for(int i = 0 ; i < words.length ; i ++) {
+				in.readUTF();
+				starts[i] = postings.position();
+				int list = in.readInt();
+				for(int j = 0 ; j < list ; j ++) {
+					postings.put(in.readInt());
+					int count = in.readInt();
+					postings.put(count);
+					int pos = 0;
+					for(int k = 0 ; stored && k < count ; k ++) {
+						pos += in.readInt();
+						if(positional) {
+							postings.put(pos);
+						}
+					}
+				}
+			}
+		}
+
+		// the terms, in UTF-8 byte order, pointing at their posting lists
+		Integer[] order = new Integer[words.length];
+		for(int i = 0 ; i < order.length ; i ++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(words[a], words[b]));
+		List<byte[]> sorted = new ArrayList<>(words.length);
+		this.terms = words.length;
+		this.postingOffsets = allocateInts(terms);
+		this.documentCounts = allocateInts(terms);
+		for(int i : order) {
+			sorted.add(words[i]);
+			postingOffsets.put(starts[i]);
+			documentCounts.put(lists[i]);
+		}
+		this.termOffsets = allocateInts(terms + 1);
+		this.termBytes = pack(sorted, termOffsets);
+	}
+
+	/**
+	 * Opens a binary index file
+	 * @param path the file
+	 * @return the stream
+	 * @throws IOException if unable to open the file
+	 */
+	private static DataInputStream open(Path path) throws IOException {
+		return new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+	}
+
+	/**
+	 * Checks if a binary index file stores positions
+	 * @param path the file
+	 * @return true if it stores positions, false if it is counts-only
+	 * @throws IOException if unable to read the file or it is not a binary index
+	 */
+	private static boolean readPositional(Path path) throws IOException {
+		try (DataInputStream in = open(path)) {
+			int magic = in.readInt();
+			if(magic != InvertedIndex.MAGIC && magic != InvertedIndex.COUNTS_MAGIC) {
+				throw new IOException("Not a binary index: " + path);
+			}
+			return magic == InvertedIndex.MAGIC;
+		}
+	}
+
+	/**
+	 * Allocates a direct buffer of ints
+	 * @param size the number of ints
+	 * @return the buffer
+	 */
+	private static IntBuffer allocateInts(int size) {
+		return ByteBuffer.allocateDirect(size * Integer.BYTES).asIntBuffer();
+	}
+
+	/**
+	 * Copies byte strings one after the other into a direct buffer, recording where each starts
+	 * @param strings the byte strings
+	 * @param offsets receives the start of each string and the end of the last one
+	 * @return the buffer
+	 */
+	private static ByteBuffer pack(List<byte[]> strings, IntBuffer offsets) {
+		long size = 0;
+		for(byte[] string : strings) {
+			size += string.length;
+		}
+		if(size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Index too large for an off-heap copy: " + size + " bytes of strings");
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+		for(byte[] string : strings) {
+			offsets.put(buffer.position());
+			buffer.put(string);
+		}
+		offsets.put(buffer.position());
+		return buffer;
+	}
+
+	/**
+	 * Compares a stored string with the bytes of another one, or checks if it starts with them
+	 * @param buffer the strings
+	 * @param offsets the start of each string
+	 * @param i the stored string
+	 * @param key the other string
+	 * @param prefix whether a stored string that starts with the key counts as equal
+	 * @return a negative number, zero or a positive number if the stored string is less than, equal
+	 * to (or starts with) or greater than the key
+	 */
+	private static int compare(ByteBuffer buffer, IntBuffer offsets, int i, byte[] key, boolean prefix) {
+		int start = offsets.get(i);
+		int length = offsets.get(i + 1) - start;
+		int common = Math.min(length, key.length);
+		for(int j = 0 ; j < common ; j ++) {
+			int compare = Byte.compareUnsigned(buffer.get(start + j), key[j]);
+			if(compare != 0) {
+				return compare;
+			}
+		}
+		if(prefix && length >= key.length) {
+			return 0;
+		}
+		return Integer.compare(length, key.length);
+	}
+
+	/**
+	 * Finds the first term that is not less than the key
+	 * @param key the UTF-8 bytes of the key
+	 * @return the index of the term, or the number of terms if every term is less
+	 */
+	private int lowerBound(byte[] key) {
+		int low = 0;
+		int high = terms;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(compare(termBytes, termOffsets, middle, key, false) < 0) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Finds a term
+	 * @param key the term
+	 * @return the index of the term or -1 if it is not in the index
+	 */
+	private int find(String key) {
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		int i = lowerBound(bytes);
+		return i < terms && compare(termBytes, termOffsets, i, bytes, false) == 0 ? i : -1;
+	}
+
+	/**
+	 * Finds the posting of a location in a term's posting list
+	 * @param term the index of the term
+	 * @param location the location
+	 * @return the offset of the posting in {@link #postings} or -1 if the term is not there
+	 */
+	private int findPosting(int term, String location) {
+		int document = findDocument(location);
+		if(document < 0) {
+			return -1;
+		}
+		int offset = postingOffsets.get(term);
+		for(int i = 0 ; i < documentCounts.get(term) ; i ++) {
+			int current = postings.get(offset);
+			if(current == document) {
+				return offset;
+			}
+			if(current > document) {
+				break;
+			}
+			offset += 2 + (positional ? postings.get(offset + 1) : 0);
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the id of a document
+	 * @param location the location of the document
+	 * @return the document id or -1 if the location is not in the index
+	 */
+	private int findDocument(String location) {
+		byte[] bytes = location.getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = documents - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			int compare = compare(locationBytes, locationOffsets, middle, bytes, false);
+			if(compare == 0) {
+				return middle;
+			}
+			if(compare < 0) {
+				low = middle + 1;
+			}
+			else {
+				high = middle - 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Decodes a stored string
+	 * @param buffer the strings
+	 * @param offsets the start of each string
+	 * @param i the string
+	 * @return the string
+	 */
+	private static String decode(ByteBuffer buffer, IntBuffer offsets, int i) {
+		byte[] bytes = new byte[offsets.get(i + 1) - offsets.get(i)];
+		buffer.get(offsets.get(i), bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Adds the postings of a term to the search results
+	 * @param term the index of the term
+	 * @param results the results by document id
+	 */
+	private void addResults(int term, Map<Integer, SearchResult> results) {
+		int offset = postingOffsets.get(term);
+		for(int i = 0 ; i < documentCounts.get(term) ; i ++) {
+			int document = postings.get(offset);
+			int occurrences = postings.get(offset + 1);
+			SearchResult result = results.get(document);
+			if(result == null) {
+				result = new SearchResult(decode(locationBytes, locationOffsets, document));
+				results.put(document, result);
+			}
+			result.update(occurrences, wordCounts.get(document));
+			offset += 2 + (positional ? occurrences : 0);
+		}
+	}
+
+	/**
+	 * Sorts the search results
+	 * @param results the results by document id
+	 * @return the sorted results
+	 */
+	private static List<SearchResult> sorted(Map<Integer, SearchResult> results) {
+		List<SearchResult> output = new ArrayList<>(results.values());
+		Collections.sort(output);
+		return output;
+	}
+
+	@Override
+	public Collection<SearchResult> search(Collection<String> query, boolean exact) {
+		return exact ? exactSearch(query) : partialSearch(query);
+	}
+
+	@Override
+	public Collection<SearchResult> exactSearch(Collection<String> query) {
+		Map<Integer, SearchResult> results = new HashMap<>();
+		for(String key : query) {
+			int term = find(key);
+			if(term >= 0) {
+				addResults(term, results);
+			}
+		}
+		return sorted(results);
+	}
+
+	@Override
+	public Collection<SearchResult> partialSearch(Collection<String> query) {
+		Map<Integer, SearchResult> results = new HashMap<>();
+		for(String searchWord : query) {
+			byte[] prefix = searchWord.getBytes(StandardCharsets.UTF_8);
+			for(int term = lowerBound(prefix) ; term < terms && compare(termBytes, termOffsets, term, prefix, true) == 0 ; term ++) {
+				addResults(term, results);
+			}
+		}
+		return sorted(results);
+	}
+
+	@Override
+	public Map<String, Integer> getWordCount() {
+		TreeMap<String, Integer> wordCount = new TreeMap<>();
+		for(int i = 0 ; i < documents ; i ++) {
+			wordCount.put(decode(locationBytes, locationOffsets, i), wordCounts.get(i));
+		}
+		return Collections.unmodifiableMap(wordCount);
+	}
+
+	@Override
+	public void writeWordCount(Path outputFile) throws IOException {
+		SimpleJsonWriter.asDictionary(getWordCount(), outputFile);
+	}
+
+	@Override
+	public Set<String> get() {
+		TreeSet<String> words = new TreeSet<>();
+		for(int i = 0 ; i < terms ; i ++) {
+			words.add(decode(termBytes, termOffsets, i));
+		}
+		return Collections.unmodifiableSet(words);
+	}
+
+	@Override
+	public Set<String> get(String key) {
+		int term = find(key);
+		if(term < 0) {
+			return Collections.emptySet();
+		}
+		TreeSet<String> locations = new TreeSet<>();
+		int offset = postingOffsets.get(term);
+		for(int i = 0 ; i < documentCounts.get(term) ; i ++) {
+			locations.add(decode(locationBytes, locationOffsets, postings.get(offset)));
+			offset += 2 + (positional ? postings.get(offset + 1) : 0);
+		}
+		return Collections.unmodifiableSet(locations);
+	}
+
+	@Override
+	public Set<Integer> get(String key, String location) {
+		if(!positional) {
+			throw new UnsupportedOperationException("Getting positions needs positions, which a counts-only index does not store");
+		}
+		int term = find(key);
+		int offset = term < 0 ? -1 : findPosting(term, location);
+		if(offset < 0) {
+			return Collections.emptySet();
+		}
+		TreeSet<Integer> positions = new TreeSet<>();
+		for(int i = 0 ; i < postings.get(offset + 1) ; i ++) {
+			positions.add(postings.get(offset + 2 + i));
+		}
+		return Collections.unmodifiableSet(positions);
+	}
+
+	@Override
+	public SortedSet<String> getTerms(String prefix) {
+		TreeSet<String> words = new TreeSet<>();
+		byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+		for(int term = lowerBound(bytes) ; term < terms && compare(termBytes, termOffsets, term, bytes, true) == 0 ; term ++) {
+			words.add(decode(termBytes, termOffsets, term));
+		}
+		return Collections.unmodifiableSortedSet(words);
+	}
+
+	@Override
+	public Map<String, Long> getStats() {
+		long postingCount = 0;
+		long occurrences = 0;
+		for(int term = 0 ; term < terms ; term ++) {
+			int offset = postingOffsets.get(term);
+			for(int i = 0 ; i < documentCounts.get(term) ; i ++) {
+				int count = postings.get(offset + 1);
+				postingCount++;
+				occurrences += count;
+				offset += 2 + (positional ? count : 0);
+			}
+		}
+		return IndexBackend.stats(documents, terms, postingCount, occurrences);
+	}
+
+	@Override
+	public boolean contains(String key) {
+		return find(key) >= 0;
+	}
+
+	@Override
+	public boolean contains(String key, String pathName) {
+		int term = find(key);
+		return term >= 0 && findPosting(term, pathName) >= 0;
+	}
+
+	@Override
+	public boolean contains(String key, String pathName, int pos) {
+		return get(key, pathName).contains(pos);
+	}
+
+	@Override
+	public int size() {
+		return terms;
+	}
+
+	@Override
+	public int numLocations(String key) {
+		int term = find(key);
+		return term < 0 ? 0 : documentCounts.get(term);
+	}
+
+	@Override
+	public int numPositions(String key, String location) {
+		int term = find(key);
+		int offset = term < 0 ? -1 : findPosting(term, location);
+		return offset < 0 ? 0 : postings.get(offset + 1);
+	}
+
+	/**
+	 * Copies this index back onto the heap, for the output methods
+	 * @return the copy
+	 */
+	private InvertedIndex toHeap() {
+		InvertedIndex copy = new InvertedIndex(positional);
+		for(int term = 0 ; term < terms ; term ++) {
+			String word = decode(termBytes, termOffsets, term);
+			int offset = postingOffsets.get(term);
+			for(int i = 0 ; i < documentCounts.get(term) ; i ++) {
+				String location = decode(locationBytes, locationOffsets, postings.get(offset));
+				int occurrences = postings.get(offset + 1);
+				for(int j = 0 ; j < occurrences ; j ++) {
+					copy.add(word, location, positional ? postings.get(offset + 2 + j) : j);
+				}
+				offset += 2 + (positional ? occurrences : 0);
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Returns a view of the posting lists in the order of the heap index, for the output methods.
+	 * The posting list of a term is only copied onto the heap when it is looked up, so writing the
+	 * index never needs more than the terms and one posting list on the heap.
+	 * @param <V> the positions or number of occurrences
+	 * @param value reads the positions or number of occurrences of the posting at an offset
+	 * @return the view
+	 */
+	private <V> Map<String, TreeMap<String, V>> view(IntFunction<V> value) {
+		Set<String> words = get();
+		return new AbstractMap<String, TreeMap<String, V>>() {
+			@Override
+			public Set<Map.Entry<String, TreeMap<String, V>>> entrySet() {
+				return new AbstractSet<Map.Entry<String, TreeMap<String, V>>>() {
+					@Override
+					public Iterator<Map.Entry<String, TreeMap<String, V>>> iterator() {
+						Iterator<String> keys = words.iterator();
+						return new Iterator<Map.Entry<String, TreeMap<String, V>>>() {
+							@Override
+							public boolean hasNext() {
+								return keys.hasNext();
+							}
+
+							@Override
+							public Map.Entry<String, TreeMap<String, V>> next() {
+								String key = keys.next();
+								return new AbstractMap.SimpleImmutableEntry<>(key, get(key));
+							}
+						};
+					}
+
+					@Override
+					public int size() {
+						return words.size();
+					}
+				};
+			}
+
+			@Override
+			public Set<String> keySet() {
+				return words;
+			}
+
+			@Override
+			public TreeMap<String, V> get(Object key) {
+				int term = find((String) key);
+				if(term < 0) {
+					return null;
+				}
+				TreeMap<String, V> locations = new TreeMap<>();
+				int offset = postingOffsets.get(term);
+				for(int i = 0 ; i < documentCounts.get(term) ; i ++) {
+					locations.put(decode(locationBytes, locationOffsets, postings.get(offset)), value.apply(offset));
+					offset += 2 + (positional ? postings.get(offset + 1) : 0);
+				}
+				return locations;
+			}
+
+			@Override
+			public int size() {
+				return words.size();
+			}
+		};
+	}
+
+	@Override
+	public void writeToFile(String pathName) throws IOException {
+		if(positional) {
+			SimpleJsonWriter.asObject(view(offset -> {
+				TreeSet<Integer> positions = new TreeSet<>();
+				for(int i = 0 ; i < postings.get(offset + 1) ; i ++) {
+					positions.add(postings.get(offset + 2 + i));
+				}
+				return positions;
+			}), Paths.get(pathName));
+		}
+		else {
+			SimpleJsonWriter.asNestedDictionary(view(offset -> postings.get(offset + 1)), Paths.get(pathName));
+		}
+	}
+
+	@Override
+	public void writeBinary(Path path) throws IOException {
+		toHeap().writeBinary(path);
+	}
+
+	@Override
+	void writeBinary(DataOutputStream out) throws IOException {
+		toHeap().writeBinary(out);
+	}
+
+	@Override
+	public Map<String, Long> getChecksums() {
+		return toHeap().getChecksums();
+	}
+
+	@Override
+	public String toString() {
+		return toHeap().toString();
+	}
+
+	@Override
+	public void split(List<? extends InvertedIndex> parts, ToIntFunction<String> partOf) {
+		toHeap().split(parts, partOf);
+	}
+
+	@Override
+	public void copy(Collection<String> locations, InvertedIndex target) {
+		toHeap().copy(locations, target);
+	}
+
+	@Override
+	public void add(String str, String path, int pos) {
+		throw new UnsupportedOperationException("An off-heap index is read-only");
+	}
+
+	@Override
+	protected void addGrouped(String location, Map<String, TreeSet<Integer>> grouped, int count) {
+		throw new UnsupportedOperationException("An off-heap index is read-only");
+	}
+
+	@Override
+	protected void addCounted(String location, Map<String, Integer> counted, int count) {
+		throw new UnsupportedOperationException("An off-heap index is read-only");
+	}
+
+	@Override
+	public void addAll(InvertedIndex other) {
+		throw new UnsupportedOperationException("An off-heap index is read-only");
+	}
+
+	@Override
+	public boolean remove(String location) {
+		throw new UnsupportedOperationException("An off-heap index is read-only");
+	}
+
+	@Override
+	public void replace(String location, InvertedIndex document) {
+		throw new UnsupportedOperationException("An off-heap index is read-only");
+	}
+
+	@Override
+	public void compact() {
+		throw new UnsupportedOperationException("An off-heap index is read-only");
+	}
+}
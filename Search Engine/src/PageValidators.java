@@ -0,0 +1,209 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The validators (ETag, Last-Modified and a hash of the content) of each crawled page. They are
+ * saved with the crawl checkpoint next to the index's document table, so a later refresh can issue
+ * conditional requests and only re-index the pages that changed.
+ *
+ * @author matthew
+ *
+ * @see HtmlFetcher#fetchResponse(java.net.URL, int, Map, int, int, int)
+ */
+public class PageValidators {
+	/**
+	 * The status code of a response to a conditional request for an unchanged page
+	 */
+	public static final int NOT_MODIFIED = 304;
+
+	/**
+	 * The validators by page location
+	 */
+	private final ConcurrentHashMap<String, Validator> validators;
+
+	/**
+	 * Initializes an empty set of validators
+	 */
+	public PageValidators() {
+		this.validators = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Returns the validator of a page
+	 * @param location the location of the page
+	 * @return the validator or null if the page has not been crawled
+	 */
+	public Validator get(String location) {
+		return validators.get(location);
+	}
+
+	/**
+	 * Records the validator of a page
+	 * @param location the location of the page
+	 * @param validator the validator
+	 */
+	public void put(String location, Validator validator) {
+		validators.put(location, validator);
+	}
+
+	/**
+	 * Forgets the validator of a page
+	 * @param location the location of the page
+	 */
+	public void remove(String location) {
+		validators.remove(location);
+	}
+
+	/**
+	 * Returns the locations of all pages with validators
+	 * @return an unmodifiable copy of the locations
+	 */
+	public Set<String> getLocations() {
+		return Set.copyOf(validators.keySet());
+	}
+
+	/**
+	 * Returns the number of pages with validators
+	 * @return the number of pages
+	 */
+	public int size() {
+		return validators.size();
+	}
+
+	/**
+	 * Writes the validators to the given file
+	 * @param path the file to write to
+	 * @throws IOException if unable to write the file
+	 * @see #load(Path)
+	 */
+	public void save(Path path) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			Map<String, Validator> snapshot = new LinkedHashMap<>(validators);
+			out.writeInt(snapshot.size());
+			for(Map.Entry<String, Validator> entry : snapshot.entrySet()) {
+				Validator validator = entry.getValue();
+				out.writeUTF(entry.getKey());
+				out.writeUTF(validator.etag == null ? "" : validator.etag);
+				out.writeUTF(validator.lastModified == null ? "" : validator.lastModified);
+				out.writeLong(validator.contentHash);
+			}
+		}
+	}
+
+	/**
+	 * Reads validators written by {@link #save(Path)}, or returns an empty set if the file does not
+	 * exist
+	 * @param path the file to read from
+	 * @return the validators
+	 * @throws IOException if unable to read the file
+	 */
+	public static PageValidators load(Path path) throws IOException {
+		PageValidators loaded = new PageValidators();
+		if(!Files.exists(path)) {
+			return loaded;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			int size = in.readInt();
+			for(int i = 0 ; i < size ; i ++) {
+				String location = in.readUTF();
+				String etag = in.readUTF();
+				String lastModified = in.readUTF();
+				long contentHash = in.readLong();
+				loaded.put(location, new Validator(etag.isEmpty() ? null : etag, lastModified.isEmpty() ? null : lastModified, contentHash));
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Returns the first value of a response header, ignoring the case of its name
+	 * @param headers the response headers
+	 * @param name the header name
+	 * @return the value or null if the header is missing
+	 */
+	private static String header(Map<String, List<String>> headers, String name) {
+		for(Map.Entry<String, List<String>> entry : headers.entrySet()) {
+			if(name.equalsIgnoreCase(entry.getKey()) && !entry.getValue().isEmpty()) {
+				return entry.getValue().get(0);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The validators of one version of a page
+	 */
+	public static class Validator {
+		/**
+		 * The entity tag sent by the server or null
+		 */
+		private final String etag;
+
+		/**
+		 * The last modified date sent by the server or null
+		 */
+		private final String lastModified;
+
+		/**
+		 * A hash of the page content
+		 */
+		private final long contentHash;
+
+		/**
+		 * Initializes a validator
+		 * @param etag the entity tag or null
+		 * @param lastModified the last modified date or null
+		 * @param contentHash a hash of the page content
+		 */
+		public Validator(String etag, String lastModified, long contentHash) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.contentHash = contentHash;
+		}
+
+		/**
+		 * Creates the validator of a fetched page
+		 * @param headers the response headers
+		 * @param html the page content
+		 * @return the validator
+		 */
+		public static Validator of(Map<String, List<String>> headers, String html) {
+			return new Validator(header(headers, "ETag"), header(headers, "Last-Modified"), VisitedSet.fingerprint(html));
+		}
+
+		/**
+		 * Returns the headers that make a request for the page conditional on it having changed
+		 * @return the request headers, empty if the server sent no validators
+		 */
+		public Map<String, String> getConditionalHeaders() {
+			Map<String, String> headers = new LinkedHashMap<>();
+			if(etag != null) {
+				headers.put("If-None-Match", etag);
+			}
+			if(lastModified != null) {
+				headers.put("If-Modified-Since", lastModified);
+			}
+			return headers;
+		}
+
+		/**
+		 * Checks if the content of another version of the page differs from this one
+		 * @param other the other version
+		 * @return true if the content hashes differ
+		 */
+		public boolean changed(Validator other) {
+			return contentHash != other.contentHash;
+		}
+	}
+}
@@ -0,0 +1,336 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A concurrent crawl frontier ordered by a {@link CrawlPriority} instead of the order urls were
+ * found in. Urls deeper than the depth cutoff are never queued, and the score of a waiting url is
+ * updated whenever another link to it is found. Workers add urls without any lock while the
+ * crawler takes the best ones from the front.
+ *
+ * @author matthew
+ *
+ * @see CrawlFrontier
+ */
+public class PriorityFrontier {
+	/**
+	 * Scores the waiting urls
+	 */
+	private final CrawlPriority priority;
+
+	/**
+	 * The deepest links that are queued
+	 */
+	private final int maxDepth;
+
+	/**
+	 * The waiting urls, best first
+	 */
+	private final ConcurrentSkipListSet<Ticket> queue;
+
+	/**
+	 * The waiting urls by normalized url
+	 */
+	private final ConcurrentHashMap<String, Entry> entries;
+
+	/**
+	 * The number of urls found so far for each host
+	 */
+	private final ConcurrentHashMap<String, AtomicInteger> hosts;
+
+	/**
+	 * Orders urls with equal scores by when they were first queued
+	 */
+	private final AtomicLong sequence;
+
+	/**
+	 * Initializes an empty frontier
+	 * @param priority scores the waiting urls
+	 * @param maxDepth the deepest links to queue
+	 */
+	public PriorityFrontier(CrawlPriority priority, int maxDepth) {
+		this.priority = priority;
+		this.maxDepth = maxDepth;
+		this.queue = new ConcurrentSkipListSet<>();
+		this.entries = new ConcurrentHashMap<>();
+		this.hosts = new ConcurrentHashMap<>();
+		this.sequence = new AtomicLong(0);
+	}
+
+	/**
+	 * Checks if links found at the given depth are deep enough to be cut off
+	 * @param depth the depth of the links
+	 * @return true if links at this depth would not be queued
+	 */
+	public boolean tooDeep(int depth) {
+		return depth > maxDepth;
+	}
+
+	/**
+	 * Queues a url that has not been queued before
+	 * @param key the normalized url
+	 * @param url the url to crawl
+	 * @param depth the number of links followed from the seed to the url
+	 * @return false if the url is deeper than the cutoff or already waiting
+	 */
+	public boolean offer(String key, String url, int depth) {
+		if(tooDeep(depth)) {
+			return false;
+		}
+
+		int hostRank = hosts.computeIfAbsent(HostScheduler.hostOf(url), host -> new AtomicInteger()).getAndIncrement();
+		return offer(new Entry(key, url, depth, 1, hostRank));
+	}
+
+	/**
+	 * Records another link to a url, moving it forward if it is still waiting
+	 * @param key the normalized url
+	 */
+	public void link(String key) {
+		Entry entry = entries.get(key);
+		if(entry == null) {
+			return;
+		}
+
+		synchronized (entry) {
+			// only rescore the url if it was not taken in the meantime
+			if(queue.remove(entry.ticket)) {
+				entry.inlinks++;
+				entry.ticket = new Ticket(score(entry), entry);
+				queue.add(entry.ticket);
+			}
+		}
+	}
+
+	/**
+	 * Removes the best waiting url
+	 * @return the entry of the url or null if none are waiting
+	 */
+	public Entry poll() {
+		Ticket ticket;
+		while((ticket = queue.pollFirst()) != null) {
+			// a ticket is only ever taken once, a rescored url has a new ticket
+			if(entries.remove(ticket.entry.key, ticket.entry)) {
+				return ticket.entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Puts a url that was taken from the frontier but not crawled back
+	 * @param entry the entry of the url
+	 */
+	public void putBack(Entry entry) {
+		offer(entry);
+	}
+
+	/**
+	 * Returns the number of waiting urls
+	 * @return the number of urls
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Checks if no urls are waiting
+	 * @return true if empty
+	 */
+	public boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	/**
+	 * Writes the waiting urls to the given file, best first. Should only be called while no urls are
+	 * added or taken.
+	 * @param path the file to write to
+	 * @throws IOException if unable to write the file
+	 * @see #load(Path, CrawlPriority, int)
+	 */
+	public void save(Path path) throws IOException {
+		List<Entry> snapshot = new ArrayList<>();
+		for(Ticket ticket : queue) {
+			snapshot.add(ticket.entry);
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			out.writeInt(snapshot.size());
+			for(Entry entry : snapshot) {
+				out.writeUTF(entry.key);
+				out.writeUTF(entry.url);
+				out.writeInt(entry.depth);
+				out.writeInt(entry.inlinks);
+				out.writeInt(entry.hostRank);
+			}
+		}
+	}
+
+	/**
+	 * Reads the urls written by {@link #save(Path)} into a new frontier
+	 * @param path the file to read from
+	 * @param priority scores the waiting urls
+	 * @param maxDepth the deepest links to queue
+	 * @return the frontier
+	 * @throws IOException if unable to read the file
+	 */
+	public static PriorityFrontier load(Path path, CrawlPriority priority, int maxDepth) throws IOException {
+		PriorityFrontier frontier = new PriorityFrontier(priority, maxDepth);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			int size = in.readInt();
+			for(int i = 0 ; i < size ; i ++) {
+				Entry entry = new Entry(in.readUTF(), in.readUTF(), in.readInt(), in.readInt(), in.readInt());
+				frontier.hosts.computeIfAbsent(HostScheduler.hostOf(entry.url), host -> new AtomicInteger())
+						.accumulateAndGet(entry.hostRank + 1, Math::max);
+				frontier.offer(entry);
+			}
+		}
+		return frontier;
+	}
+
+	/**
+	 * Queues the entry unless its url is already waiting
+	 * @param entry the entry to queue
+	 * @return true if the entry was queued
+	 */
+	private boolean offer(Entry entry) {
+		synchronized (entry) {
+			// publish and queue the entry together so links to it are not missed
+			if(entries.putIfAbsent(entry.key, entry) != null) {
+				return false;
+			}
+			if(entry.sequence < 0) {
+				entry.sequence = sequence.getAndIncrement();
+			}
+			entry.ticket = new Ticket(score(entry), entry);
+			queue.add(entry.ticket);
+		}
+		return true;
+	}
+
+	/**
+	 * Scores the entry with the frontier's priority
+	 * @param entry the entry to score
+	 * @return the score
+	 */
+	private double score(Entry entry) {
+		return priority.score(entry.depth, entry.inlinks, entry.hostRank);
+	}
+
+	/**
+	 * A waiting url
+	 */
+	public static class Entry {
+		/**
+		 * The normalized url
+		 */
+		private final String key;
+
+		/**
+		 * The url to crawl
+		 */
+		private final String url;
+
+		/**
+		 * The number of links followed from the seed to the url
+		 */
+		private final int depth;
+
+		/**
+		 * The number of links to the url seen so far
+		 */
+		private int inlinks;
+
+		/**
+		 * The number of urls for the same host found before this one
+		 */
+		private final int hostRank;
+
+		/**
+		 * When the url was first queued, or -1 if it has not been
+		 */
+		private long sequence;
+
+		/**
+		 * The current place of the url in the queue
+		 */
+		private Ticket ticket;
+
+		/**
+		 * Initializes an entry
+		 * @param key the normalized url
+		 * @param url the url to crawl
+		 * @param depth the number of links followed from the seed to the url
+		 * @param inlinks the number of links to the url seen so far
+		 * @param hostRank the number of urls for the same host found before this one
+		 */
+		private Entry(String key, String url, int depth, int inlinks, int hostRank) {
+			this.key = key;
+			this.url = url;
+			this.depth = depth;
+			this.inlinks = inlinks;
+			this.hostRank = hostRank;
+			this.sequence = -1;
+			this.ticket = null;
+		}
+
+		/**
+		 * Returns the url to crawl
+		 * @return the url
+		 */
+		public String getUrl() {
+			return url;
+		}
+
+		/**
+		 * Returns the number of links followed from the seed to the url
+		 * @return the depth
+		 */
+		public int getDepth() {
+			return depth;
+		}
+	}
+
+	/**
+	 * An immutable place in the queue, replaced whenever its url is rescored
+	 */
+	private static class Ticket implements Comparable<Ticket> {
+		/**
+		 * The score of the url when the ticket was issued
+		 */
+		private final double score;
+
+		/**
+		 * The url the ticket is for
+		 */
+		private final Entry entry;
+
+		/**
+		 * Initializes a ticket
+		 * @param score the score of the url
+		 * @param entry the url the ticket is for
+		 */
+		public Ticket(double score, Entry entry) {
+			this.score = score;
+			this.entry = entry;
+		}
+
+		@Override
+		public int compareTo(Ticket other) {
+			int compare = Double.compare(other.score, score);
+			if(compare == 0) {
+				compare = Long.compare(entry.sequence, other.entry.sequence);
+			}
+			return compare;
+		}
+	}
+}
@@ -17,13 +17,13 @@ public class QueryParser implements QueryParserInterface{
 	/**
 	 * collection of all queries
 	 */
-	private final InvertedIndex index;
+	private final IndexBackend index;
 
 	/**
 	 * Initializes QueryParser
-	 * @param index The inverted index to use
+	 * @param index The index to search
 	 */
-	public QueryParser(InvertedIndex index) {
+	public QueryParser(IndexBackend index) {
 		this.allResults = new TreeMap<>();
 		this.index = index;
 	}
@@ -0,0 +1,65 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Reloads the index of the running server. A POST starts a reload in the background and answers
+ * right away with 202 Accepted, or 409 Conflict if a reload is already running. A GET shows the
+ * current version, whether a reload is running, the outcome of the last one and the readers still
+ * on replaced versions, as text.
+ *
+ * @author matthew
+ *
+ */
+public class ReloadServlet extends HttpServlet {
+	/**
+	 * Unused serial version
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Reloads the index
+	 */
+	private final IndexReloader reloader;
+
+	/**
+	 * Initializes the servlet
+	 * @param reloader reloads the index
+	 */
+	public ReloadServlet(IndexReloader reloader) {
+		super();
+		this.reloader = reloader;
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		response.setContentType("text/plain");
+		response.setStatus(HttpServletResponse.SC_OK);
+		PrintWriter out = response.getWriter();
+		out.println("version " + reloader.getIndex().getVersion());
+		out.println("reloading " + reloader.isRunning());
+		out.println("last " + reloader.getStatus());
+		out.println("retired " + reloader.getIndex().getRetired());
+		out.flush();
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		response.setContentType("text/plain");
+		if(reloader.reload()) {
+			response.setStatus(HttpServletResponse.SC_ACCEPTED);
+			response.getWriter().println("Reloading, the current version is " + reloader.getIndex().getVersion());
+		}
+		else {
+			response.setStatus(HttpServletResponse.SC_CONFLICT);
+			response.getWriter().println("A reload is already running");
+		}
+		response.getWriter().flush();
+	}
+}
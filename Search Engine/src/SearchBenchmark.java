@@ -0,0 +1,254 @@
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Measures search latency percentiles of the same index in each {@link IndexBackend}, such as on the
+ * heap and in an {@link OffHeapInvertedIndex} copy, while another thread keeps the garbage collector
+ * busy. The garbage thread keeps a large
+ * ring of small linked objects alive and keeps replacing them, so objects are promoted and the old
+ * generation has to be collected while the searches run.
+ *
+ * Usage: {@code java SearchBenchmark -path corpus -query queries.txt [-seconds 10] [-threads 4]
+ * [-garbage 256] [-exact] [-countsonly] [-backends treemap,offheap] [-shards n]}, where -garbage is
+ * the size of the ring in megabytes and -backends lists the backends to compare (see
+ * {@link IndexBackend#getBackends()}). With -shards, each backend is also measured as a
+ * {@link ShardedIndex} of n shards. Run it with the same -Xmx as the search server.
+ *
+ * The corpus is built again for every backend and only the backend is kept while it is measured,
+ * so the garbage collector never traces a heap index behind an off-heap one.
+ *
+ * @author matthew
+ *
+ */
+public class SearchBenchmark {
+	/**
+	 * The approximate size of one object in the garbage ring, in bytes
+	 */
+	private static final int GARBAGE_OBJECT = 48;
+
+	/**
+	 * Runs the benchmark
+	 * @param args flag/value pairs
+	 * @throws IOException if unable to read the corpus or queries
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		ArgumentParser parser = new ArgumentParser(args);
+		String usage = "Usage: SearchBenchmark -path corpus -query queries.txt [-seconds 10] [-threads 4] [-garbage 256] [-exact] [-countsonly] [-backends treemap,offheap] [-shards n]";
+		if(!parser.hasFlag("-path") || !parser.hasFlag("-query")) {
+			System.out.println(usage);
+			return;
+		}
+		int seconds = parser.getPositiveInteger("-seconds", 10);
+		int threads = parser.getPositiveInteger("-threads", 4);
+		int garbage = parser.getPositiveInteger("-garbage", 256);
+		boolean exact = parser.hasFlag("-exact");
+
+		List<Collection<String>> queries = new ArrayList<>();
+		for(String line : Files.readAllLines(parser.getPath("-query"), StandardCharsets.UTF_8)) {
+			Collection<String> query = QueryParserInterface.cleanLine(line);
+			if(!query.isEmpty()) {
+				queries.add(query);
+			}
+		}
+		if(queries.isEmpty()) {
+			System.out.println("Error: no queries in " + parser.getPath("-query"));
+			System.out.println(usage);
+			return;
+		}
+
+		Path path = parser.getPath("-path");
+		boolean positional = !parser.hasFlag("-countsonly");
+		boolean header = false;
+		for(String name : parser.getString("-backends", "treemap,offheap").split(",")) {
+			Function<InvertedIndex, IndexBackend> factory = IndexBackend.getBackends().get(name.strip());
+			if(factory == null) {
+				System.out.println("Error: unknown backend " + name + ", expected one of " + IndexBackend.getBackends().keySet());
+				continue;
+			}
+			IndexBackend backend = build(path, positional, factory);
+			if(!header) {
+				System.out.printf("%d documents, %d terms, %d queries, %d search threads, %d MB of garbage%n",
+						backend.getStats().get("documents"), backend.getStats().get("terms"), queries.size(), threads, garbage);
+				System.out.printf("%-10s %10s %9s %9s %9s %9s %9s %8s %9s%n",
+						"index", "searches", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "gcs", "gc ms");
+				header = true;
+			}
+			run(name.strip(), backend, queries, exact, seconds, threads, garbage);
+			backend = null;
+
+			if(parser.hasFlag("-shards")) {
+				int shards = parser.getPositiveInteger("-shards", Runtime.getRuntime().availableProcessors());
+				backend = build(path, positional, built -> ShardedIndex.partition(built, shards, factory));
+				run(name.strip() + " x" + shards, backend, queries, exact, seconds, threads, garbage);
+				backend = null;
+			}
+		}
+	}
+
+	/**
+	 * Builds the corpus into a heap index and copies it into a backend. Only the backend is
+	 * returned, so the heap index can be collected before the backend is measured.
+	 * @param path the corpus
+	 * @param positional whether to store positions
+	 * @param factory copies the heap index into the backend
+	 * @return the backend
+	 * @throws IOException if unable to read the corpus
+	 */
+	private static IndexBackend build(Path path, boolean positional, Function<InvertedIndex, IndexBackend> factory) throws IOException {
+		InvertedIndex index = new InvertedIndex(positional);
+		InvertedIndexBuilder.build(path, index);
+		return factory.apply(index);
+	}
+
+	/**
+	 * Searches the index from several threads for the given time while garbage is being created,
+	 * and prints the latency percentiles
+	 * @param name the name of the backend
+	 * @param index the index
+	 * @param queries the queries, searched round-robin
+	 * @param exact whether to run exact or partial searches
+	 * @param seconds how long to search
+	 * @param threads the number of search threads
+	 * @param garbage the size of the garbage ring in megabytes
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 */
+	private static void run(String name, IndexBackend index, List<Collection<String>> queries, boolean exact, int seconds, int threads, int garbage) throws InterruptedException {
+		System.gc();
+		long gcCount = gcCount();
+		long gcTime = gcTime();
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread churn = new Thread(() -> churn(running, (int) ((long) garbage * (1 << 20) / GARBAGE_OBJECT)), "garbage");
+		churn.start();
+
+		long[][] latencies = new long[threads][];
+		Thread[] searchers = new Thread[threads];
+		long end = System.nanoTime() + seconds * 1_000_000_000L;
+		for(int t = 0 ; t < threads ; t ++) {
+			int thread = t;
+			searchers[t] = new Thread(() -> {
+				long[] samples = new long[1 << 16];
+				int size = 0;
+				int next = thread % queries.size();
+				while(System.nanoTime() < end) {
+					long start = System.nanoTime();
+					index.search(queries.get(next), exact);
+					long latency = System.nanoTime() - start;
+					next = (next + 1) % queries.size();
+
+					if(size == samples.length) {
+						samples = Arrays.copyOf(samples, size * 2);
+					}
+					samples[size++] = latency;
+				}
+				latencies[thread] = Arrays.copyOf(samples, size);
+			}, "search-" + t);
+			searchers[t].start();
+		}
+		for(Thread searcher : searchers) {
+			searcher.join();
+		}
+		running.set(false);
+		churn.join();
+
+		long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+		System.out.printf("%-10s %10d %9.3f %9.3f %9.3f %9.3f %9.3f %8d %9d%n", name, all.length,
+				percentile(all, 0.5), percentile(all, 0.9), percentile(all, 0.99), percentile(all, 0.999),
+				all.length == 0 ? 0.0 : all[all.length - 1] / 1e6, gcCount() - gcCount, gcTime() - gcTime);
+	}
+
+	/**
+	 * A small object of the garbage ring
+	 */
+	private static class Node {
+		/**
+		 * Another node, so the collector has pointers to trace
+		 */
+		private Node next;
+
+		/**
+		 * Some payload
+		 */
+		private final long value;
+
+		/**
+		 * Initializes a node
+		 * @param next another node
+		 * @param value some payload
+		 */
+		public Node(Node next, long value) {
+			this.next = next;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Keeps replacing the nodes of a ring until stopped, so live objects keep being promoted and
+	 * then dropped
+	 * @param running cleared to stop
+	 * @param size the number of nodes in the ring
+	 */
+	private static void churn(AtomicBoolean running, int size) {
+		Node[] ring = new Node[Math.max(1, size)];
+		long value = 0;
+		int i = 0;
+		while(running.get()) {
+			Node previous = ring[(i + ring.length - 1) % ring.length];
+			ring[i] = new Node(previous, value++);
+			if(previous != null) {
+				// only link neighbours, so replaced nodes become garbage
+				previous.next = null;
+			}
+			i = (i + 1) % ring.length;
+		}
+	}
+
+	/**
+	 * Returns a percentile of sorted latencies in milliseconds
+	 * @param sorted the sorted latencies in nanoseconds
+	 * @param fraction the percentile as a fraction
+	 * @return the latency in milliseconds
+	 */
+	private static double percentile(long[] sorted, double fraction) {
+		if(sorted.length == 0) {
+			return 0;
+		}
+		int i = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, i))] / 1e6;
+	}
+
+	/**
+	 * Returns the number of garbage collections so far
+	 * @return the number of collections
+	 */
+	private static long gcCount() {
+		long count = 0;
+		for(GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, bean.getCollectionCount());
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the time spent on garbage collection so far
+	 * @return the time in milliseconds
+	 */
+	private static long gcTime() {
+		long time = 0;
+		for(GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, bean.getCollectionTime());
+		}
+		return time;
+	}
+}
@@ -56,15 +56,15 @@ public class SearchServlet extends HttpServlet {
 	/** Template for individual message HTML. **/
 	private final String historyTextTemplate;
 
-	/** The index to store data **/
-	private final InvertedIndex invertedIndex;
+	/** The index to store data, which may be swapped for a new version while the server runs **/
+	private final SwappableIndex index;
 
 	/**
 	 * Initializes this search page
-	 * @param invertedIndex the index to store data
+	 * @param index the index to store data
 	 * @throws IOException if unable to read templates
 	 */
-	public SearchServlet(InvertedIndex invertedIndex) throws IOException {
+	public SearchServlet(SwappableIndex index) throws IOException {
 		super();
 		messages = new CopyOnWriteArrayList<>();
 
@@ -74,7 +74,7 @@ public class SearchServlet extends HttpServlet {
 		textTemplate = Files.readString(Path.of("html", "default-text.html"), StandardCharsets.UTF_8);
 		altTextTemplate = Files.readString(Path.of("html", "default-include-word-count.html"), StandardCharsets.UTF_8);
 		historyTextTemplate = Files.readString(Path.of("html", "history-text.html"), StandardCharsets.UTF_8);
-		this.invertedIndex = invertedIndex;
+		this.index = index;
 	}
 
 	@Override
@@ -111,6 +111,11 @@ public class SearchServlet extends HttpServlet {
 		PrintWriter out = response.getWriter();
 		out.println(head);
 
+		// the index may still be being built, so show how far along it is
+		if(index instanceof LiveIndex) {
+			out.printf("<p class=\"info text-secondary\">%s</p>%n", ((LiveIndex) index).describeProgress());
+		}
+
 		if (messages.isEmpty()) {
 			out.printf("<h3 class=\"info text-secondary\">Try searching!</h3>%n");
 		}
@@ -140,6 +145,22 @@ public class SearchServlet extends HttpServlet {
 	@Override
 	protected void doPost(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
+		// the whole request reads one version, even if a new one is swapped in meanwhile
+		try (SwappableIndex.Version version = index.acquire()) {
+			doPost(request, response, version.getIndex());
+		}
+	}
+
+	/**
+	 * Handles a POST request on one version of the index
+	 * @param request the http request
+	 * @param response the http response
+	 * @param invertedIndex the version of the index to search
+	 * @throws ServletException if exception occurs
+	 * @throws IOException if exception occurs
+	 */
+	private void doPost(HttpServletRequest request, HttpServletResponse response, IndexBackend invertedIndex)
+			throws ServletException, IOException {
 		response.setContentType("text/html");
 		log.info("MessageServlet ID " + this.hashCode() + " handling POST request.");
 
@@ -257,6 +278,10 @@ public class SearchServlet extends HttpServlet {
 
 				String searchMessageTitle = "<h3 class=\"title text-secondary\">"+ request.getParameter("searchType") +" search results for \"" + query + "\"...</h3>";
 				String timeNote = "<footnote class=\"title text-secondary blockquote-footer\"> Recieved " + (number-1) + " results in " + seconds + " seconds</footnote>";
+				if(searchResults instanceof DistributedIndex.Results && ((DistributedIndex.Results) searchResults).isPartial()) {
+					DistributedIndex.Results distributed = (DistributedIndex.Results) searchResults;
+					timeNote += "<footnote class=\"title text-warning blockquote-footer\"> Only " + distributed.getAnswered() + " of " + distributed.getShards() + " shards answered in time, some results may be missing</footnote>";
+				}
 				messages.add(0,timeNote);
 				messages.add(0,searchMessageTitle);
 
@@ -0,0 +1,409 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A read-only index made of immutable segments, each an {@link InvertedIndex} with some of the
+ * documents. A newer segment can hold a new version of a location of an older segment, or mark it
+ * as removed, and a location is only found in its newest segment. Adding a segment returns a new
+ * index that shares the segments of this one, so an index that is being searched never changes and
+ * adding only costs as much as the new documents. Small segments are merged into the ones before
+ * them as they grow, so a location is copied a logarithmic number of times and there are only a
+ * logarithmic number of segments to search.
+ *
+ * It is safe to search from several threads.
+ *
+ * @author matthew
+ *
+ */
+public class SegmentedIndex implements IndexBackend {
+	/**
+	 * The segments, oldest first
+	 */
+	private final List<Segment> segments;
+
+	/**
+	 * Whether the segments store positions
+	 */
+	private final boolean positional;
+
+	/**
+	 * The number of locations in the index
+	 */
+	private final int documents;
+
+	/**
+	 * Initializes an empty index
+	 * @param positional whether the segments store positions
+	 */
+	public SegmentedIndex(boolean positional) {
+		this(List.of(), positional, 0);
+	}
+
+	/**
+	 * Initializes an index over existing segments
+	 * @param segments the segments, oldest first
+	 * @param positional whether the segments store positions
+	 * @param documents the number of locations in the index
+	 */
+	private SegmentedIndex(List<Segment> segments, boolean positional, int documents) {
+		this.segments = List.copyOf(segments);
+		this.positional = positional;
+		this.documents = documents;
+	}
+
+	/**
+	 * Returns a new index with one more segment. The locations of the segment and the removed
+	 * locations replace those of this index.
+	 * @param index the documents of the segment, which must not change afterwards
+	 * @param removed the locations that were removed since the last segment
+	 * @return the new index
+	 * @throws IllegalArgumentException if the segment is counts-only and this index is positional
+	 */
+	public SegmentedIndex add(InvertedIndex index, Set<String> removed) {
+		if(positional && !index.isPositional()) {
+			throw new IllegalArgumentException("A counts-only index cannot be added to a positional index");
+		}
+		Segment segment = new Segment(index, removed);
+
+		int count = documents + segment.wordCount.size();
+		for(String location : segment.locations()) {
+			if(owner(location) != null) {
+				count--;
+			}
+		}
+
+		List<Segment> added = new ArrayList<>(segments);
+		added.add(segment);
+		// merge while the newest segment is at least half the size of the one before it
+		while(added.size() > 1 && 2 * added.get(added.size() - 1).size() >= added.get(added.size() - 2).size()) {
+			Segment newer = added.remove(added.size() - 1);
+			Segment older = added.remove(added.size() - 1);
+			added.add(older.merge(newer, added.isEmpty(), positional));
+		}
+		return new SegmentedIndex(added, positional, count);
+	}
+
+	/**
+	 * Returns the number of segments
+	 * @return the number of segments
+	 */
+	public int getSegments() {
+		return segments.size();
+	}
+
+	/**
+	 * Checks if the segments store positions
+	 * @return true if the index is positional
+	 */
+	public boolean isPositional() {
+		return positional;
+	}
+
+	/**
+	 * Returns the number of locations in the index
+	 * @return the number of locations
+	 */
+	public int getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * Returns the segment that holds the current version of a location
+	 * @param location the location
+	 * @return the segment, or null if the location is not in the index
+	 */
+	private Segment owner(String location) {
+		for(int i = segments.size() - 1 ; i >= 0 ; i --) {
+			Segment segment = segments.get(i);
+			if(segment.wordCount.containsKey(location)) {
+				return segment;
+			}
+			if(segment.removed.contains(location)) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Throws, the index is read-only
+	 * @param location unused
+	 * @param words unused
+	 */
+	@Override
+	public void addDocument(String location, Iterable<String> words) {
+		throw new UnsupportedOperationException("A segmented index is read-only, add a segment instead");
+	}
+
+	/**
+	 * Throws, the index is read-only
+	 * @param other unused
+	 */
+	@Override
+	public void addAll(InvertedIndex other) {
+		throw new UnsupportedOperationException("A segmented index is read-only, add a segment instead");
+	}
+
+	@Override
+	public Set<String> get() {
+		TreeSet<String> words = new TreeSet<>();
+		for(Segment segment : segments) {
+			for(String key : segment.index.get()) {
+				if(!words.contains(key) && contains(key)) {
+					words.add(key);
+				}
+			}
+		}
+		return Collections.unmodifiableSet(words);
+	}
+
+	@Override
+	public Set<String> get(String key) {
+		TreeSet<String> locations = new TreeSet<>();
+		for(Segment segment : segments) {
+			for(String location : segment.index.get(key)) {
+				if(owner(location) == segment) {
+					locations.add(location);
+				}
+			}
+		}
+		return Collections.unmodifiableSet(locations);
+	}
+
+	@Override
+	public Set<Integer> get(String key, String location) {
+		if(!positional) {
+			throw new UnsupportedOperationException("Getting positions needs positions, which a counts-only index does not store");
+		}
+		Segment owner = owner(location);
+		return owner == null ? Collections.emptySet() : owner.index.get(key, location);
+	}
+
+	@Override
+	public SortedSet<String> getTerms(String prefix) {
+		TreeSet<String> words = new TreeSet<>();
+		for(Segment segment : segments) {
+			for(String key : segment.index.getTerms(prefix)) {
+				if(!words.contains(key) && contains(key)) {
+					words.add(key);
+				}
+			}
+		}
+		return Collections.unmodifiableSortedSet(words);
+	}
+
+	@Override
+	public boolean contains(String key) {
+		for(Segment segment : segments) {
+			for(String location : segment.index.get(key)) {
+				if(owner(location) == segment) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean contains(String key, String location) {
+		Segment owner = owner(location);
+		return owner != null && owner.index.contains(key, location);
+	}
+
+	@Override
+	public int size() {
+		return get().size();
+	}
+
+	@Override
+	public int numLocations(String key) {
+		return get(key).size();
+	}
+
+	@Override
+	public int numPositions(String key, String location) {
+		Segment owner = owner(location);
+		return owner == null ? 0 : owner.index.numPositions(key, location);
+	}
+
+	@Override
+	public Map<String, Integer> getWordCount() {
+		TreeMap<String, Integer> wordCount = new TreeMap<>();
+		for(Segment segment : segments) {
+			for(Map.Entry<String, Integer> entry : segment.wordCount.entrySet()) {
+				if(owner(entry.getKey()) == segment) {
+					wordCount.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		return Collections.unmodifiableMap(wordCount);
+	}
+
+	/**
+	 * Searches every segment and merges their results, leaving out the locations that a newer
+	 * segment replaced or removed. Scores only depend on the document, so the results are the same
+	 * as those of one index with the current version of every location.
+	 * @param query a collection of cleaned, stemmed, and unique strings
+	 * @param exact whether to match whole words or prefixes
+	 * @return the results, sorted in order of importance
+	 */
+	@Override
+	public Collection<InvertedIndex.SearchResult> search(Collection<String> query, boolean exact) {
+		List<InvertedIndex.SearchResult> merged = new ArrayList<>();
+		for(Segment segment : segments) {
+			List<InvertedIndex.SearchResult> results = new ArrayList<>();
+			for(InvertedIndex.SearchResult result : segment.index.search(query, exact)) {
+				if(owner(result.getWhere()) == segment) {
+					results.add(result);
+				}
+			}
+			merged = ShardedIndex.merge(merged, results);
+		}
+		return merged;
+	}
+
+	@Override
+	public Map<String, Long> getStats() {
+		long postings = 0;
+		long positions = 0;
+		Set<String> words = get();
+		for(String key : words) {
+			for(Segment segment : segments) {
+				for(String location : segment.index.get(key)) {
+					if(owner(location) == segment) {
+						postings++;
+						positions += segment.index.numPositions(key, location);
+					}
+				}
+			}
+		}
+		return IndexBackend.stats(documents, words.size(), postings, positions);
+	}
+
+	@Override
+	public void writeToFile(String pathName) throws IOException {
+		if(positional) {
+			TreeMap<String, TreeMap<String, TreeSet<Integer>>> elements = new TreeMap<>();
+			for(String key : get()) {
+				TreeMap<String, TreeSet<Integer>> locations = new TreeMap<>();
+				for(String location : get(key)) {
+					locations.put(location, new TreeSet<>(get(key, location)));
+				}
+				elements.put(key, locations);
+			}
+			SimpleJsonWriter.asObject(elements, Paths.get(pathName));
+		}
+		else {
+			TreeMap<String, TreeMap<String, Integer>> elements = new TreeMap<>();
+			for(String key : get()) {
+				TreeMap<String, Integer> locations = new TreeMap<>();
+				for(String location : get(key)) {
+					locations.put(location, numPositions(key, location));
+				}
+				elements.put(key, locations);
+			}
+			SimpleJsonWriter.asNestedDictionary(elements, Paths.get(pathName));
+		}
+	}
+
+	@Override
+	public void writeWordCount(Path outputFile) throws IOException {
+		SimpleJsonWriter.asDictionary(getWordCount(), outputFile);
+	}
+
+	@Override
+	public String toString() {
+		return "SegmentedIndex " + segments.size() + " segments, " + documents + " documents";
+	}
+
+	/**
+	 * One immutable segment
+	 */
+	private static class Segment {
+		/**
+		 * The documents of the segment
+		 */
+		private final InvertedIndex index;
+
+		/**
+		 * The word count of each location of the segment
+		 */
+		private final Map<String, Integer> wordCount;
+
+		/**
+		 * The locations of older segments that were removed
+		 */
+		private final Set<String> removed;
+
+		/**
+		 * Initializes a segment
+		 * @param index the documents of the segment, which must not change afterwards
+		 * @param removed the locations of older segments that were removed
+		 */
+		public Segment(InvertedIndex index, Set<String> removed) {
+			this.index = index;
+			this.wordCount = index.getWordCount();
+			this.removed = Set.copyOf(removed);
+		}
+
+		/**
+		 * Returns the locations the segment adds, replaces or removes
+		 * @return the locations
+		 */
+		public Set<String> locations() {
+			Set<String> locations = new HashSet<>(wordCount.keySet());
+			locations.addAll(removed);
+			return locations;
+		}
+
+		/**
+		 * Returns the number of locations the segment adds, replaces or removes
+		 * @return the number of locations
+		 */
+		public int size() {
+			return wordCount.size() + removed.size();
+		}
+
+		/**
+		 * Merges a newer segment into a copy of this one
+		 * @param newer the newer segment, whose locations replace those of this one
+		 * @param oldest whether the merged segment is the oldest one, so there is nothing left for
+		 * removed locations to hide
+		 * @param positional whether to store positions
+		 * @return the merged segment
+		 */
+		public Segment merge(Segment newer, boolean oldest, boolean positional) {
+			InvertedIndex merged = new InvertedIndex(positional);
+			List<String> kept = new ArrayList<>();
+			for(String location : wordCount.keySet()) {
+				if(!newer.wordCount.containsKey(location) && !newer.removed.contains(location)) {
+					kept.add(location);
+				}
+			}
+			index.copy(kept, merged);
+			newer.index.copy(newer.wordCount.keySet(), merged);
+
+			Set<String> gone = new HashSet<>();
+			if(!oldest) {
+				for(String location : removed) {
+					if(!newer.wordCount.containsKey(location)) {
+						gone.add(location);
+					}
+				}
+				gone.addAll(newer.removed);
+			}
+			return new Segment(merged, gone);
+		}
+	}
+}
@@ -0,0 +1,245 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves one partition of the documents to a {@link DistributedIndex} broker. Requests are GET
+ * requests with the operation in the "op" parameter, and responses are written with
+ * {@link DataOutputStream}:
+ *
+ * <ul>
+ * <li>search (q = the cleaned query words separated by spaces, exact = true or false, k = the most
+ * results to return): the total number of results, the number returned, then the location, count
+ * and score of each result, best first</li>
+ * <li>terms (prefix, optional): the number of words, then each word starting with the prefix</li>
+ * <li>locations (term): the number of locations, then each location of the word</li>
+ * <li>counts: the number of locations, then each location and its word count</li>
+ * <li>positions (term, location): the number of occurrences, whether positions are stored, then
+ * the positions if they are</li>
+ * <li>postings (term): the number of locations, then each location of the word followed by its
+ * occurrences as for positions</li>
+ * <li>export: every word in order, each as true, the word and its postings, then false. The
+ * answer is streamed as it is written, so a broker can copy a whole partition in one request.</li>
+ * <li>stats: the number of documents, terms, postings and positions as longs</li>
+ * </ul>
+ *
+ * Strings are written with {@link DataOutputStream#writeUTF(String)}. Unknown operations and
+ * missing parameters are answered with 400 Bad Request.
+ *
+ * @author matthew
+ *
+ */
+public class ShardServlet extends HttpServlet {
+	/**
+	 * Unused serial version
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The partition of the documents served
+	 */
+	private final IndexBackend index;
+
+	/**
+	 * Initializes the servlet
+	 * @param index the partition of the documents to serve, which must be safe to search from
+	 * several threads
+	 */
+	public ShardServlet(IndexBackend index) {
+		super();
+		this.index = index;
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		String op = request.getParameter("op");
+		if("export".equals(op)) {
+			response.setContentType("application/octet-stream");
+			response.setStatus(HttpServletResponse.SC_OK);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(response.getOutputStream()));
+			for(String term : index.get()) {
+				out.writeBoolean(true);
+				out.writeUTF(term);
+				writePostings(term, out);
+			}
+			out.writeBoolean(false);
+			out.flush();
+			return;
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		try {
+			switch(op == null ? "search" : op) {
+			case "search":
+				writeSearch(request, out);
+				break;
+			case "terms":
+				String prefix = request.getParameter("prefix");
+				writeStrings(index.getTerms(prefix == null ? "" : prefix), out);
+				break;
+			case "locations":
+				writeStrings(index.get(required(request, "term")), out);
+				break;
+			case "counts":
+				Map<String, Integer> wordCount = index.getWordCount();
+				out.writeInt(wordCount.size());
+				for(Map.Entry<String, Integer> entry : wordCount.entrySet()) {
+					out.writeUTF(entry.getKey());
+					out.writeInt(entry.getValue());
+				}
+				break;
+			case "positions":
+				writePositions(required(request, "term"), required(request, "location"), out);
+				break;
+			case "postings":
+				writePostings(required(request, "term"), out);
+				break;
+			case "stats":
+				Map<String, Long> stats = index.getStats();
+				out.writeLong(stats.get("documents"));
+				out.writeLong(stats.get("terms"));
+				out.writeLong(stats.get("postings"));
+				out.writeLong(stats.get("positions"));
+				break;
+			default:
+				badRequest(response, "Unknown operation " + op);
+				return;
+			}
+		} catch (IllegalArgumentException e) {
+			badRequest(response, e.getMessage());
+			return;
+		}
+
+		out.flush();
+		response.setContentType("application/octet-stream");
+		response.setContentLength(bytes.size());
+		response.setStatus(HttpServletResponse.SC_OK);
+		bytes.writeTo(response.getOutputStream());
+	}
+
+	/**
+	 * Answers with 400 Bad Request
+	 * @param response the response
+	 * @param message the reason, sent as text
+	 * @throws IOException if unable to write
+	 */
+	private static void badRequest(HttpServletResponse response, String message) throws IOException {
+		response.setContentType("text/plain");
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		response.getWriter().println(message);
+	}
+
+	/**
+	 * Returns a request parameter that must be present
+	 * @param request the request
+	 * @param name the name of the parameter
+	 * @return the value
+	 * @throws IllegalArgumentException if the parameter is missing
+	 */
+	private static String required(HttpServletRequest request, String name) {
+		String value = request.getParameter(name);
+		if(value == null) {
+			throw new IllegalArgumentException("Missing parameter " + name);
+		}
+		return value;
+	}
+
+	/**
+	 * Searches the partition and writes the best results
+	 * @param request the request with the query
+	 * @param out the response
+	 * @throws IOException if unable to write
+	 */
+	private void writeSearch(HttpServletRequest request, DataOutputStream out) throws IOException {
+		String q = required(request, "q").strip();
+		List<String> query = q.isEmpty() ? List.of() : Arrays.asList(q.split(" +"));
+		boolean exact = Boolean.parseBoolean(request.getParameter("exact"));
+		int k = Integer.MAX_VALUE;
+		if(request.getParameter("k") != null) {
+			try {
+				k = Integer.parseInt(request.getParameter("k"));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid result limit " + request.getParameter("k"));
+			}
+		}
+
+		Collection<InvertedIndex.SearchResult> results = index.search(query, exact);
+		int returned = Math.max(0, Math.min(k, results.size()));
+		out.writeInt(results.size());
+		out.writeInt(returned);
+		for(InvertedIndex.SearchResult result : results) {
+			if(returned-- == 0) {
+				break;
+			}
+			out.writeUTF(result.getWhere());
+			out.writeInt(result.getCount());
+			out.writeDouble(result.getScore());
+		}
+	}
+
+	/**
+	 * Writes the locations of a word, each followed by its occurrences there
+	 * @param term the word
+	 * @param out the response
+	 * @throws IOException if unable to write
+	 */
+	private void writePostings(String term, DataOutputStream out) throws IOException {
+		List<String> locations = List.copyOf(index.get(term));
+		out.writeInt(locations.size());
+		for(String location : locations) {
+			out.writeUTF(location);
+			writePositions(term, location, out);
+		}
+	}
+
+	/**
+	 * Writes the occurrences of a word at a location. The positions are copied in one read, so the
+	 * number written always matches them even while the index changes.
+	 * @param term the word
+	 * @param location the location
+	 * @param out the response
+	 * @throws IOException if unable to write
+	 */
+	private void writePositions(String term, String location, DataOutputStream out) throws IOException {
+		List<Integer> positions;
+		try {
+			positions = index.copyPositions(term, location);
+		} catch (UnsupportedOperationException e) {
+			out.writeInt(index.numPositions(term, location));
+			out.writeBoolean(false);
+			return;
+		}
+		out.writeInt(positions.size());
+		out.writeBoolean(true);
+		for(int position : positions) {
+			out.writeInt(position);
+		}
+	}
+
+	/**
+	 * Writes a set of strings
+	 * @param strings the strings
+	 * @param out the response
+	 * @throws IOException if unable to write
+	 */
+	private static void writeStrings(Set<String> strings, DataOutputStream out) throws IOException {
+		out.writeInt(strings.size());
+		for(String string : strings) {
+			out.writeUTF(string);
+		}
+	}
+}
@@ -0,0 +1,408 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+/**
+ * An index whose documents are partitioned across several shards, each its own
+ * {@link IndexBackend}. A location always belongs to the shard given by
+ * {@link #shardOf(String, int)}, so adding a document only touches one shard. A search runs on
+ * every shard at once in a fork-join pool, and the sorted results of the shards are merged. Scores
+ * only depend on the document, so the merged results are the same as those of one index with all
+ * the documents.
+ *
+ * It is as safe to use from several threads as its shards are.
+ *
+ * @author matthew
+ *
+ */
+public class ShardedIndex implements IndexBackend, Closeable {
+	/**
+	 * The shards
+	 */
+	private final List<IndexBackend> shards;
+
+	/**
+	 * Whether the shards store positions
+	 */
+	private final boolean positional;
+
+	/**
+	 * The pool that searches the shards
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Initializes an empty index of thread-safe shards
+	 * @param shards the number of shards
+	 * @param positional whether to store the positions of each word, or only the number of
+	 * occurrences
+	 */
+	public ShardedIndex(int shards, boolean positional) {
+		this(emptyShards(shards, positional), positional);
+	}
+
+	/**
+	 * Initializes an index over existing shards. Each shard must only hold the locations that
+	 * {@link #shardOf(String, int)} assigns to it.
+	 * @param shards the shards
+	 * @param positional whether the shards store positions
+	 */
+	public ShardedIndex(List<? extends IndexBackend> shards, boolean positional) {
+		if(shards.isEmpty()) {
+			throw new IllegalArgumentException("A sharded index needs at least one shard");
+		}
+		this.shards = List.copyOf(shards);
+		this.positional = positional;
+		this.pool = new ForkJoinPool(Math.min(shards.size(), Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * Creates empty thread-safe shards
+	 * @param shards the number of shards
+	 * @param positional whether to store positions
+	 * @return the shards
+	 */
+	private static List<ThreadSafeInvertedIndex> emptyShards(int shards, boolean positional) {
+		List<ThreadSafeInvertedIndex> empty = new ArrayList<>();
+		for(int i = 0 ; i < shards ; i ++) {
+			empty.add(new ThreadSafeInvertedIndex(positional));
+		}
+		return empty;
+	}
+
+	/**
+	 * Partitions a built index into a new sharded index
+	 * @param index the index to partition
+	 * @param shards the number of shards
+	 * @param backend copies each partition into the backend used for the shards
+	 * @return the sharded index
+	 */
+	public static ShardedIndex partition(InvertedIndex index, int shards, Function<InvertedIndex, IndexBackend> backend) {
+		List<ThreadSafeInvertedIndex> parts = emptyShards(shards, index.isPositional());
+		index.split(parts, location -> shardOf(location, shards));
+
+		List<IndexBackend> built = new ArrayList<>();
+		for(int i = 0 ; i < shards ; i ++) {
+			built.add(backend.apply(parts.get(i)));
+			parts.set(i, null);
+		}
+		return new ShardedIndex(built, index.isPositional());
+	}
+
+	/**
+	 * Returns the shard a location belongs to. This only depends on the location and the number of
+	 * shards, so separate processes agree on it.
+	 * @param location the location
+	 * @param shards the number of shards
+	 * @return the shard, from zero to shards - 1
+	 */
+	public static int shardOf(String location, int shards) {
+		// mix the bits, the string hash of similar locations spreads poorly over a few shards
+		int hash = location.hashCode();
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return Math.floorMod(hash, shards);
+	}
+
+	/**
+	 * Returns the shard of a location
+	 * @param location the location
+	 * @return the shard
+	 */
+	private IndexBackend shard(String location) {
+		return shards.get(shardOf(location, shards.size()));
+	}
+
+	/**
+	 * Returns the number of shards
+	 * @return the number of shards
+	 */
+	public int getShards() {
+		return shards.size();
+	}
+
+	@Override
+	public void addDocument(String location, Iterable<String> words) {
+		shard(location).addDocument(location, words);
+	}
+
+	/**
+	 * Adds everything in another index, each location to its shard
+	 * @param other the index to add
+	 */
+	@Override
+	public void addAll(InvertedIndex other) {
+		List<InvertedIndex> parts = new ArrayList<>();
+		for(int i = 0 ; i < shards.size() ; i ++) {
+			parts.add(new InvertedIndex(other.isPositional()));
+		}
+		other.split(parts, location -> shardOf(location, shards.size()));
+		for(int i = 0 ; i < shards.size() ; i ++) {
+			if(!parts.get(i).getWordCount().isEmpty()) {
+				shards.get(i).addAll(parts.get(i));
+			}
+		}
+	}
+
+	@Override
+	public Set<String> get() {
+		TreeSet<String> words = new TreeSet<>();
+		for(IndexBackend shard : shards) {
+			words.addAll(shard.get());
+		}
+		return Collections.unmodifiableSet(words);
+	}
+
+	@Override
+	public Set<String> get(String key) {
+		TreeSet<String> locations = new TreeSet<>();
+		for(IndexBackend shard : shards) {
+			locations.addAll(shard.get(key));
+		}
+		return Collections.unmodifiableSet(locations);
+	}
+
+	@Override
+	public Set<Integer> get(String key, String location) {
+		return shard(location).get(key, location);
+	}
+
+	@Override
+	public List<Integer> copyPositions(String key, String location) {
+		return shard(location).copyPositions(key, location);
+	}
+
+	@Override
+	public SortedSet<String> getTerms(String prefix) {
+		TreeSet<String> words = new TreeSet<>();
+		for(IndexBackend shard : shards) {
+			words.addAll(shard.getTerms(prefix));
+		}
+		return Collections.unmodifiableSortedSet(words);
+	}
+
+	@Override
+	public boolean contains(String key) {
+		for(IndexBackend shard : shards) {
+			if(shard.contains(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean contains(String key, String location) {
+		return shard(location).contains(key, location);
+	}
+
+	@Override
+	public int size() {
+		return get().size();
+	}
+
+	@Override
+	public int numLocations(String key) {
+		int count = 0;
+		for(IndexBackend shard : shards) {
+			count += shard.numLocations(key);
+		}
+		return count;
+	}
+
+	@Override
+	public int numPositions(String key, String location) {
+		return shard(location).numPositions(key, location);
+	}
+
+	@Override
+	public Map<String, Integer> getWordCount() {
+		TreeMap<String, Integer> wordCount = new TreeMap<>();
+		for(IndexBackend shard : shards) {
+			wordCount.putAll(shard.getWordCount());
+		}
+		return Collections.unmodifiableMap(wordCount);
+	}
+
+	/**
+	 * Searches the shards in parallel and merges their results
+	 * @param query a collection of cleaned, stemmed, and unique strings
+	 * @param exact whether to match whole words or prefixes
+	 * @return the results, sorted in order of importance
+	 */
+	@Override
+	public Collection<InvertedIndex.SearchResult> search(Collection<String> query, boolean exact) {
+		if(shards.size() == 1) {
+			return shards.get(0).search(query, exact);
+		}
+		return pool.invoke(new ShardSearch(query, exact, 0, shards.size()));
+	}
+
+	/**
+	 * Searches a range of shards, splitting it in half until each task searches one shard, and
+	 * merges the results of the halves
+	 */
+	private class ShardSearch extends RecursiveTask<List<InvertedIndex.SearchResult>> {
+		/**
+		 * Unused serial version
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The query
+		 */
+		private final Collection<String> query;
+
+		/**
+		 * Whether to match whole words or prefixes
+		 */
+		private final boolean exact;
+
+		/**
+		 * The first shard to search
+		 */
+		private final int low;
+
+		/**
+		 * One past the last shard to search
+		 */
+		private final int high;
+
+		/**
+		 * Initializes the task
+		 * @param query the query
+		 * @param exact whether to match whole words or prefixes
+		 * @param low the first shard to search
+		 * @param high one past the last shard to search
+		 */
+		public ShardSearch(Collection<String> query, boolean exact, int low, int high) {
+			this.query = query;
+			this.exact = exact;
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override
+		protected List<InvertedIndex.SearchResult> compute() {
+			if(high - low == 1) {
+				return new ArrayList<>(shards.get(low).search(query, exact));
+			}
+			int middle = (low + high) >>> 1;
+			ShardSearch left = new ShardSearch(query, exact, low, middle);
+			left.fork();
+			List<InvertedIndex.SearchResult> right = new ShardSearch(query, exact, middle, high).compute();
+			return merge(left.join(), right);
+		}
+	}
+
+	/**
+	 * Merges two sorted lists of search results
+	 * @param first sorted results
+	 * @param second sorted results
+	 * @return the sorted results of both
+	 */
+	public static List<InvertedIndex.SearchResult> merge(List<InvertedIndex.SearchResult> first, List<InvertedIndex.SearchResult> second) {
+		List<InvertedIndex.SearchResult> merged = new ArrayList<>(first.size() + second.size());
+		int i = 0;
+		int j = 0;
+		while(i < first.size() && j < second.size()) {
+			if(first.get(i).compareTo(second.get(j)) <= 0) {
+				merged.add(first.get(i++));
+			}
+			else {
+				merged.add(second.get(j++));
+			}
+		}
+		merged.addAll(first.subList(i, first.size()));
+		merged.addAll(second.subList(j, second.size()));
+		return merged;
+	}
+
+	@Override
+	public Map<String, Long> getStats() {
+		long documents = 0;
+		long postings = 0;
+		long positions = 0;
+		for(IndexBackend shard : shards) {
+			Map<String, Long> stats = shard.getStats();
+			documents += stats.get("documents");
+			postings += stats.get("postings");
+			positions += stats.get("positions");
+		}
+		return IndexBackend.stats(documents, size(), postings, positions);
+	}
+
+	/**
+	 * Returns the statistics of each shard
+	 * @return the statistics by shard number
+	 */
+	public Map<String, Map<String, Long>> getShardStats() {
+		Map<String, Map<String, Long>> stats = new TreeMap<>();
+		for(int i = 0 ; i < shards.size() ; i ++) {
+			stats.put(String.valueOf(i), shards.get(i).getStats());
+		}
+		return stats;
+	}
+
+	@Override
+	public void writeToFile(String pathName) throws IOException {
+		if(positional) {
+			TreeMap<String, TreeMap<String, TreeSet<Integer>>> elements = new TreeMap<>();
+			for(IndexBackend shard : shards) {
+				for(String key : shard.get()) {
+					TreeMap<String, TreeSet<Integer>> locations = elements.computeIfAbsent(key, k -> new TreeMap<>());
+					for(String location : shard.get(key)) {
+						locations.put(location, new TreeSet<>(shard.get(key, location)));
+					}
+				}
+			}
+			SimpleJsonWriter.asObject(elements, Paths.get(pathName));
+		}
+		else {
+			TreeMap<String, TreeMap<String, Integer>> elements = new TreeMap<>();
+			for(IndexBackend shard : shards) {
+				for(String key : shard.get()) {
+					TreeMap<String, Integer> locations = elements.computeIfAbsent(key, k -> new TreeMap<>());
+					for(String location : shard.get(key)) {
+						locations.put(location, shard.numPositions(key, location));
+					}
+				}
+			}
+			SimpleJsonWriter.asNestedDictionary(elements, Paths.get(pathName));
+		}
+	}
+
+	@Override
+	public void writeWordCount(Path outputFile) throws IOException {
+		SimpleJsonWriter.asDictionary(getWordCount(), outputFile);
+	}
+
+	/**
+	 * Shuts down the pool that searches the shards, once the index is no longer searched
+	 */
+	@Override
+	public void close() {
+		pool.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return getShardStats().toString();
+	}
+}
@@ -0,0 +1,77 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Computes 64-bit SimHash fingerprints of token streams. Documents with similar text have
+ * fingerprints that differ in only a few bits, so near duplicates can be found by Hamming distance.
+ *
+ * @author matthew
+ *
+ * @see FingerprintIndex
+ */
+public class SimHash {
+	/**
+	 * The number of consecutive tokens hashed together as one feature
+	 */
+	public static final int SHINGLE = 3;
+
+	/**
+	 * Computes the fingerprint of the tokens, using overlapping shingles of {@link #SHINGLE} tokens
+	 * as features so that word order matters
+	 * @param tokens the cleaned and stemmed words of the document
+	 * @return the 64-bit fingerprint
+	 */
+	public static long fingerprint(String[] tokens) {
+		int[] weights = new int[64];
+		int width = Math.min(SHINGLE, tokens.length);
+
+		for(int i = 0 ; i + width <= tokens.length && width > 0 ; i ++) {
+			long hash = 0xcbf29ce484222325L;
+			for(int j = i ; j < i + width ; j ++) {
+				hash = hash(tokens[j], hash);
+			}
+
+			for(int bit = 0 ; bit < 64 ; bit ++) {
+				weights[bit] += ((hash >>> bit) & 1) == 1 ? 1 : -1;
+			}
+		}
+
+		long fingerprint = 0;
+		for(int bit = 0 ; bit < 64 ; bit ++) {
+			if(weights[bit] > 0) {
+				fingerprint |= 1L << bit;
+			}
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Returns the number of bits that differ between two fingerprints
+	 * @param a the first fingerprint
+	 * @param b the second fingerprint
+	 * @return the Hamming distance
+	 */
+	public static int distance(long a, long b) {
+		return Long.bitCount(a ^ b);
+	}
+
+	/**
+	 * Continues an FNV-1a hash with the token (and a separator), then mixes the result
+	 * @param token the token to hash
+	 * @param hash the hash so far
+	 * @return the new hash
+	 */
+	private static long hash(String token, long hash) {
+		for(byte b : token.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= (b & 0xff);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= ' ';
+		hash *= 0x100000001b3L;
+
+		long mixed = hash;
+		mixed ^= mixed >>> 33;
+		mixed *= 0xff51afd7ed558ccdL;
+		mixed ^= mixed >>> 33;
+		return mixed;
+	}
+}
@@ -227,6 +227,110 @@ public class SimpleJsonWriter {
 	}
 
 
+	/**
+	 * Writes the elements as a pretty JSON object of nested dictionaries.
+	 *
+	 * @param elements the elements to write
+	 * @param writer the writer to use
+	 * @param level the initial indent level
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void asNestedDictionary(Map<String, ? extends Map<String, ? extends Number>> elements, Writer writer, int level)
+			throws IOException {
+		writer.write("{");
+		Iterator<String> it = elements.keySet().iterator();
+		while(it.hasNext()) {
+			String key = it.next();
+			writer.write("\n");
+			quote(key, writer, level + 1);
+			writer.write(": {");
+
+			Iterator<? extends Map.Entry<String, ? extends Number>> inner = elements.get(key).entrySet().iterator();
+			while(inner.hasNext()) {
+				Map.Entry<String, ? extends Number> entry = inner.next();
+				writer.write("\n");
+				quote(entry.getKey(), writer, level + 2);
+				writer.write(": " + entry.getValue());
+				if(inner.hasNext()) {
+					writer.write(",");
+				}
+			}
+			writer.write("\n");
+			indent("}", writer, level + 1);
+			if(it.hasNext()) {
+				writer.write(",");
+			}
+		}
+		writer.write("\n");
+		indent("}", writer, level);
+	}
+
+	/**
+	 * Writes the elements as a pretty JSON object of nested dictionaries to the given path.
+	 * @param elements the elements to write
+	 * @param path the path to the output file
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void asNestedDictionary(Map<String, ? extends Map<String, ? extends Number>> elements, Path path) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			asNestedDictionary(elements, writer, 0);
+		}
+	}
+
+	/**
+	 * Returns the elements as a pretty JSON object of nested dictionaries.
+	 *
+	 * @param elements the elements to use
+	 * @return a {@link String} containing the elements in pretty JSON format
+	 *
+	 * @see #asNestedDictionary(Map, Writer, int)
+	 */
+	public static String asNestedDictionary(Map<String, ? extends Map<String, ? extends Number>> elements) {
+		try {
+			StringWriter writer = new StringWriter();
+			asNestedDictionary(elements, writer, 0);
+			return writer.toString();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the elements as a pretty JSON object with string values.
+	 * @param elements the elements to write
+	 * @param writer the writer to use
+	 * @param level the initial indent level
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void asStringDictionary(Map<String, String> elements, Writer writer, int level) throws IOException {
+		writer.write("{");
+		Iterator<Map.Entry<String, String>> it = elements.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<String, String> entry = it.next();
+			writer.write("\n");
+			quote(entry.getKey(), writer, level + 1);
+			writer.write(": ");
+			quote(entry.getValue(), writer);
+			if(it.hasNext()) {
+				writer.write(",");
+			}
+		}
+		writer.write("\n");
+		indent("}", writer, level);
+	}
+
+	/**
+	 * Writes the elements as a pretty JSON object with string values to the given path.
+	 * @param elements the elements to write
+	 * @param path the path to the output file
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void asStringDictionary(Map<String, String> elements, Path path) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			asStringDictionary(elements, writer, 0);
+		}
+	}
+
 	/**
 	 * Writes the elements as a pretty JSON object. (modified to include nested array)
 	 *
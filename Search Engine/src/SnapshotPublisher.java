@@ -0,0 +1,369 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes numbered, immutable snapshots of an index to a directory, for {@link SnapshotReplica}
+ * processes to copy. A snapshot is either full, the whole index written with
+ * {@link InvertedIndex#writeBinary(Path)}, or a delta with only the locations that were added,
+ * changed or removed since the previous snapshot. A delta file holds {@link #DELTA_MAGIC}, the
+ * number of removed locations, each removed location, then the changed locations as a binary index.
+ * Changes are found with {@link InvertedIndex#getChanged(long)}, so a delta only copies the
+ * locations that changed, and nothing is copied when {@link InvertedIndex#getModifications()} has
+ * not moved since the last snapshot.
+ *
+ * Every file is written under a temporary name and then moved into place, and is listed in the
+ * manifest only once it is complete. The manifest has one line per snapshot: the version, "full" or
+ * "delta", the file name, its SHA-256 hash and its size. It is replaced the same way, so readers
+ * always see a complete manifest whose files exist. Snapshots older than the previous full
+ * snapshot are deleted.
+ *
+ * @author matthew
+ *
+ */
+public class SnapshotPublisher {
+	/**
+	 * The name of the manifest file
+	 */
+	public static final String MANIFEST = "manifest";
+
+	/**
+	 * Marks the start of a delta file
+	 */
+	public static final int DELTA_MAGIC = 0x49444431;
+
+	/**
+	 * The default number of snapshots from one full snapshot to the next
+	 */
+	public static final int FULL_EVERY = 10;
+
+	/**
+	 * The default time between scheduled snapshots in seconds
+	 */
+	public static final int PERIOD = 10;
+
+	/**
+	 * The directory the snapshots are written to
+	 */
+	private final Path directory;
+
+	/**
+	 * The number of snapshots from one full snapshot to the next
+	 */
+	private final int fullEvery;
+
+	/**
+	 * The snapshots listed in the manifest, oldest first
+	 */
+	private final List<Snapshot> snapshots;
+
+	/**
+	 * The modification number of the index in the last snapshot, or -1 before the first snapshot
+	 * of the current index
+	 */
+	private long published;
+
+	/**
+	 * The index of the last snapshot, null before the first snapshot of this process
+	 */
+	private InvertedIndex source;
+
+	/**
+	 * Publishes snapshots on a schedule
+	 */
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Initializes the publisher. Numbering continues from a manifest already in the directory, and
+	 * the first snapshot is always full.
+	 * @param directory the directory to write to, created if needed
+	 * @param fullEvery the number of snapshots from one full snapshot to the next
+	 * @throws IOException if unable to create the directory or read its manifest
+	 */
+	public SnapshotPublisher(Path directory, int fullEvery) throws IOException {
+		this.directory = directory;
+		this.fullEvery = Math.max(1, fullEvery);
+		Files.createDirectories(directory);
+		Path manifest = directory.resolve(MANIFEST);
+		this.snapshots = Files.exists(manifest) ? Snapshot.parse(Files.readAllLines(manifest, StandardCharsets.UTF_8)) : new ArrayList<>();
+		this.published = -1;
+		this.source = null;
+	}
+
+	/**
+	 * Returns the version of the last snapshot
+	 * @return the version, zero if there are no snapshots
+	 */
+	public synchronized int getVersion() {
+		return snapshots.isEmpty() ? 0 : snapshots.get(snapshots.size() - 1).version;
+	}
+
+	/**
+	 * Publishes a snapshot of the index, unless nothing changed since the last one. The documents
+	 * are copied first, so the index can keep changing while the snapshot is written. A different
+	 * index than the last one, such as a reloaded version, is published as a full snapshot.
+	 * @param index the index to publish
+	 * @return the version of the snapshot, or of the last one if nothing changed
+	 * @throws IOException if unable to write the snapshot
+	 */
+	public synchronized int publish(InvertedIndex index) throws IOException {
+		if(index != source) {
+			// the changes are only tracked per index, so a delta cannot reach back to another one
+			source = index;
+			published = -1;
+		}
+		index.trackChanges();
+		// anything changed after this number is published next time, even if it is copied now
+		long modifications = index.getModifications();
+		if(modifications == published) {
+			return getVersion();
+		}
+
+		int version = getVersion() + 1;
+		int sinceFull = 0;
+		for(int i = snapshots.size() - 1 ; i >= 0 && !snapshots.get(i).full ; i --) {
+			sinceFull++;
+		}
+
+		Snapshot snapshot;
+		if(published < 0 || sinceFull + 1 >= fullEvery) {
+			InvertedIndex copy = new InvertedIndex(index.isPositional());
+			index.split(List.of(copy), location -> 0);
+
+			String name = String.format("%08d.full", version);
+			Path temp = Files.createTempFile(directory, name, ".tmp");
+			try {
+				copy.writeBinary(temp);
+				snapshot = install(temp, version, true, name);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		}
+		else {
+			Set<String> changed = index.getChanged(published);
+			InvertedIndex copy = new InvertedIndex(index.isPositional());
+			index.copy(changed, copy);
+			List<String> removed = new ArrayList<>();
+			for(String location : changed) {
+				if(!copy.getWordCount().containsKey(location)) {
+					removed.add(location);
+				}
+			}
+
+			String name = String.format("%08d.delta", version);
+			Path temp = Files.createTempFile(directory, name, ".tmp");
+			try {
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+					out.writeInt(DELTA_MAGIC);
+					out.writeInt(removed.size());
+					for(String location : removed) {
+						out.writeUTF(location);
+					}
+					copy.writeBinary(out);
+				}
+				snapshot = install(temp, version, false, name);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		}
+
+		snapshots.add(snapshot);
+		published = modifications;
+		writeManifest();
+		return version;
+	}
+
+	/**
+	 * Moves a complete snapshot file into place
+	 * @param temp the temporary file
+	 * @param version the version of the snapshot
+	 * @param full whether it is a full snapshot
+	 * @param name the final name of the file
+	 * @return the snapshot
+	 * @throws IOException if unable to hash or move the file
+	 */
+	private Snapshot install(Path temp, int version, boolean full, String name) throws IOException {
+		Snapshot snapshot = new Snapshot(version, full, name, sha256(temp), Files.size(temp));
+		Files.move(temp, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		return snapshot;
+	}
+
+	/**
+	 * Drops the snapshots older than the previous full snapshot, replaces the manifest and then
+	 * deletes the files it no longer lists
+	 * @throws IOException if unable to write the manifest
+	 */
+	private void writeManifest() throws IOException {
+		int keep = 0;
+		int fulls = 0;
+		for(int i = snapshots.size() - 1 ; i >= 0 ; i --) {
+			if(snapshots.get(i).full && ++fulls == 2) {
+				keep = i;
+				break;
+			}
+		}
+		List<Snapshot> dropped = new ArrayList<>(snapshots.subList(0, keep));
+		snapshots.subList(0, keep).clear();
+
+		List<String> lines = new ArrayList<>();
+		for(Snapshot snapshot : snapshots) {
+			lines.add(snapshot.toString());
+		}
+		Path temp = Files.createTempFile(directory, MANIFEST, ".tmp");
+		try {
+			Files.write(temp, lines, StandardCharsets.UTF_8);
+			Files.move(temp, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+
+		Set<String> listed = new HashSet<>();
+		for(Snapshot snapshot : snapshots) {
+			listed.add(snapshot.file);
+		}
+		for(Snapshot snapshot : dropped) {
+			if(!listed.contains(snapshot.file)) {
+				Files.deleteIfExists(directory.resolve(snapshot.file));
+			}
+		}
+	}
+
+	/**
+	 * Publishes a snapshot of the index every period, for as long as the process runs. Errors are
+	 * printed and publishing continues.
+	 * @param index the index to publish, which must be safe to read while it changes
+	 * @param seconds the time between snapshots
+	 */
+	public synchronized void schedule(InvertedIndex index, int seconds) {
+		if(scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread thread = new Thread(task, "snapshot-publisher");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				publish(index);
+			} catch (IOException e) {
+				System.out.println("Error: unable to publish snapshot - " + e.getMessage());
+			}
+		}, seconds, seconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Computes the SHA-256 hash of a file
+	 * @param file the file
+	 * @return the hash as hexadecimal
+	 * @throws IOException if unable to read the file
+	 */
+	public static String sha256(Path file) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+				in.transferTo(OutputStream.nullOutputStream());
+			}
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * One line of the manifest
+	 */
+	public static class Snapshot {
+		/**
+		 * The version, counting up from 1
+		 */
+		public final int version;
+
+		/**
+		 * Whether this is a full snapshot or a delta from the previous version
+		 */
+		public final boolean full;
+
+		/**
+		 * The name of the file in the snapshot directory
+		 */
+		public final String file;
+
+		/**
+		 * The SHA-256 hash of the file, as hexadecimal
+		 */
+		public final String sha256;
+
+		/**
+		 * The size of the file in bytes
+		 */
+		public final long size;
+
+		/**
+		 * Initializes the snapshot
+		 * @param version the version
+		 * @param full whether this is a full snapshot
+		 * @param file the name of the file
+		 * @param sha256 the SHA-256 hash of the file
+		 * @param size the size of the file
+		 */
+		public Snapshot(int version, boolean full, String file, String sha256, long size) {
+			this.version = version;
+			this.full = full;
+			this.file = file;
+			this.sha256 = sha256;
+			this.size = size;
+		}
+
+		/**
+		 * Parses the lines of a manifest
+		 * @param lines the lines
+		 * @return the snapshots, oldest first
+		 * @throws IOException if a line is not a valid snapshot
+		 */
+		public static List<Snapshot> parse(List<String> lines) throws IOException {
+			List<Snapshot> snapshots = new ArrayList<>();
+			for(String line : lines) {
+				if(line.isBlank()) {
+					continue;
+				}
+				String[] fields = line.strip().split(" ");
+				try {
+					if(fields.length != 5 || !fields[1].matches("full|delta") || !fields[2].matches("[0-9]{8}\\.(full|delta)")) {
+						throw new NumberFormatException();
+					}
+					Snapshot snapshot = new Snapshot(Integer.parseInt(fields[0]), fields[1].equals("full"), fields[2], fields[3], Long.parseLong(fields[4]));
+					if(!snapshots.isEmpty() && snapshot.version <= snapshots.get(snapshots.size() - 1).version) {
+						throw new NumberFormatException();
+					}
+					snapshots.add(snapshot);
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid manifest line: " + line);
+				}
+			}
+			return snapshots;
+		}
+
+		@Override
+		public String toString() {
+			return version + " " + (full ? "full" : "delta") + " " + file + " " + sha256 + " " + size;
+		}
+	}
+}
@@ -0,0 +1,350 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Keeps a copy of an index published by a {@link SnapshotPublisher} in another process. The
+ * manifest is polled from the snapshot directory, or from a server that serves it over HTTP (see
+ * {@link SnapshotServlet}). When there is a newer version, the missing deltas are applied, or the
+ * latest full snapshot is loaded if the deltas do not reach back to the current version. Every
+ * file is downloaded to a temporary file and its size and SHA-256 hash are checked before anything
+ * is applied, so a bad download leaves the current version in place until the next poll.
+ *
+ * Each version is swapped into a {@link SwappableIndex}, so queries keep running on the previous
+ * version while an update is applied. Without a backend to copy into, the versions are kept as a
+ * {@link SegmentedIndex}, so a delta only adds a segment with the changed documents and the
+ * previous version is never copied. Otherwise updates are applied to a private copy of the index,
+ * which the backend copies into the searchable version.
+ *
+ * @author matthew
+ *
+ */
+public class SnapshotReplica implements Runnable, Closeable {
+	/**
+	 * The default time between polls in seconds
+	 */
+	public static final int POLL = 5;
+
+	/**
+	 * The snapshot directory, or the base address it is served at
+	 */
+	private final String source;
+
+	/**
+	 * The index queries are answered from
+	 */
+	private final SwappableIndex target;
+
+	/**
+	 * Copies each new version into the backend that is searched, null to search the segments
+	 */
+	private final Function<InvertedIndex, IndexBackend> backend;
+
+	/**
+	 * The time between polls in milliseconds
+	 */
+	private final long poll;
+
+	/**
+	 * The client for a source served over HTTP, null for a directory
+	 */
+	private final HttpClient client;
+
+	/**
+	 * The documents of the current version, which updates are applied to when there is a backend
+	 */
+	private InvertedIndex staging;
+
+	/**
+	 * The current version when there is no backend, null before the first snapshot
+	 */
+	private SegmentedIndex segments;
+
+	/**
+	 * The current version, zero before the first snapshot
+	 */
+	private int version;
+
+	/**
+	 * Whether polling should stop
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Initializes the replica
+	 * @param source the snapshot directory, or the address it is served at, such as
+	 * http://localhost:8080/snapshots
+	 * @param target the index to swap each new version into
+	 * @param backend copies each new version into the backend to search, or null to search the
+	 * segments of the replica itself
+	 * @param seconds the time between polls
+	 */
+	public SnapshotReplica(String source, SwappableIndex target, Function<InvertedIndex, IndexBackend> backend, int seconds) {
+		this.source = source.strip().replaceAll("/+$", "");
+		this.target = target;
+		this.backend = backend;
+		this.poll = seconds * 1000L;
+		this.client = isRemote(this.source) ? HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build() : null;
+		this.staging = null;
+		this.segments = null;
+		this.version = 0;
+	}
+
+	/**
+	 * Checks if a source is served over HTTP
+	 * @param source the source
+	 * @return true if the source is an HTTP or HTTPS address
+	 */
+	private static boolean isRemote(String source) {
+		return source.startsWith("http://") || source.startsWith("https://");
+	}
+
+	/**
+	 * Returns the current version
+	 * @return the version, zero before the first snapshot
+	 */
+	public synchronized int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Polls for new versions until closed. Errors are printed and the next poll tries again.
+	 */
+	@Override
+	public void run() {
+		while(!closed) {
+			try {
+				update();
+			} catch (IOException e) {
+				System.out.println("Error: unable to replicate snapshot - " + e.getMessage());
+			}
+			try {
+				Thread.sleep(poll);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Stops polling after the current poll
+	 */
+	@Override
+	public void close() {
+		closed = true;
+	}
+
+	/**
+	 * Brings the replica up to the latest version in the manifest
+	 * @return true if a new version was swapped in
+	 * @throws IOException if unable to read the manifest, download a snapshot, or a snapshot does
+	 * not match its hash
+	 */
+	public synchronized boolean update() throws IOException {
+		List<String> lines = readManifest();
+		List<SnapshotPublisher.Snapshot> snapshots = SnapshotPublisher.Snapshot.parse(lines == null ? List.of() : lines);
+		if(snapshots.isEmpty() || snapshots.get(snapshots.size() - 1).version <= version) {
+			return false;
+		}
+
+		// apply the deltas after the current version if they are all listed and no full snapshot
+		// came after it, otherwise start over from the latest full snapshot
+		int latestFull = -1;
+		int next = -1;
+		for(int i = 0 ; i < snapshots.size() ; i ++) {
+			if(snapshots.get(i).full) {
+				latestFull = i;
+			}
+			if(snapshots.get(i).version == version + 1) {
+				next = i;
+			}
+		}
+		List<SnapshotPublisher.Snapshot> needed = new ArrayList<>();
+		if((staging != null || segments != null) && next > latestFull) {
+			needed.addAll(snapshots.subList(next, snapshots.size()));
+		}
+		else if(latestFull >= 0) {
+			needed.addAll(snapshots.subList(latestFull, snapshots.size()));
+		}
+		else {
+			throw new IOException("No full snapshot in the manifest");
+		}
+
+		List<Path> files = new ArrayList<>();
+		try {
+			for(SnapshotPublisher.Snapshot snapshot : needed) {
+				files.add(download(snapshot));
+			}
+
+			try {
+				for(int i = 0 ; i < needed.size() ; i ++) {
+					if(needed.get(i).full) {
+						InvertedIndex loaded = load(files.get(i));
+						if(backend == null) {
+							segments = new SegmentedIndex(loaded.isPositional()).add(loaded, Set.of());
+						}
+						else {
+							staging = loaded;
+						}
+					}
+					else {
+						applyDelta(files.get(i));
+					}
+					version = needed.get(i).version;
+				}
+			} catch (IOException | RuntimeException e) {
+				// the copy may be half updated, so the next poll loads a full snapshot
+				staging = null;
+				segments = null;
+				version = 0;
+				throw e;
+			}
+		} finally {
+			for(Path file : files) {
+				Files.deleteIfExists(file);
+			}
+		}
+
+		// the segments never change once built, and the backend copies the staging index
+		target.swap(backend == null ? segments : backend.apply(staging));
+		return true;
+	}
+
+	/**
+	 * Reads the lines of the manifest
+	 * @return the lines, or null if nothing has been published yet
+	 * @throws IOException if unable to read the manifest
+	 */
+	private List<String> readManifest() throws IOException {
+		if(client == null) {
+			try {
+				return Files.readAllLines(Path.of(source, SnapshotPublisher.MANIFEST), StandardCharsets.UTF_8);
+			} catch (NoSuchFileException e) {
+				return null;
+			}
+		}
+
+		HttpResponse<String> response = send(SnapshotPublisher.MANIFEST, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+		if(response.statusCode() == 404) {
+			return null;
+		}
+		if(response.statusCode() != 200) {
+			throw new IOException("Unexpected status " + response.statusCode() + " for the manifest");
+		}
+		return response.body().lines().toList();
+	}
+
+	/**
+	 * Copies a snapshot to a temporary file and checks its size and hash
+	 * @param snapshot the snapshot
+	 * @return the temporary file
+	 * @throws IOException if unable to copy the file, or it does not match the manifest
+	 */
+	private Path download(SnapshotPublisher.Snapshot snapshot) throws IOException {
+		Path file = Files.createTempFile("snapshot", ".tmp");
+		try {
+			if(client == null) {
+				Files.copy(Path.of(source, snapshot.file), file, StandardCopyOption.REPLACE_EXISTING);
+			}
+			else {
+				HttpResponse<Path> response = send(snapshot.file, HttpResponse.BodyHandlers.ofFile(file));
+				if(response.statusCode() != 200) {
+					throw new IOException("Unexpected status " + response.statusCode() + " for " + snapshot.file);
+				}
+			}
+			if(Files.size(file) != snapshot.size || !SnapshotPublisher.sha256(file).equals(snapshot.sha256)) {
+				throw new IOException("Checksum mismatch for " + snapshot.file);
+			}
+			return file;
+		} catch (IOException e) {
+			Files.deleteIfExists(file);
+			throw e;
+		}
+	}
+
+	/**
+	 * Sends a request for a file to the snapshot server
+	 * @param <T> the type of the body
+	 * @param name the name of the file
+	 * @param handler reads the body
+	 * @return the response
+	 * @throws IOException if the request fails
+	 */
+	private <T> HttpResponse<T> send(String name, HttpResponse.BodyHandler<T> handler) throws IOException {
+		HttpRequest request = HttpRequest.newBuilder(URI.create(source + "/" + name)).timeout(Duration.ofSeconds(60)).GET().build();
+		try {
+			return client.send(request, handler);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while downloading " + name);
+		}
+	}
+
+	/**
+	 * Loads a full snapshot
+	 * @param file the snapshot
+	 * @return the index
+	 * @throws IOException if the file is not a binary index
+	 */
+	private static InvertedIndex load(Path file) throws IOException {
+		int magic;
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+			magic = in.readInt();
+		}
+		InvertedIndex index = new InvertedIndex(magic == InvertedIndex.MAGIC);
+		index.readBinary(file);
+		return index;
+	}
+
+	/**
+	 * Applies a delta to the current version. The changed documents become a new segment that hides
+	 * the removed locations, or the removed and changed locations are removed from the staging index
+	 * and the new versions of the changed ones are added.
+	 * @param file the delta
+	 * @throws IOException if the file is not a delta
+	 */
+	private void applyDelta(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if(in.readInt() != SnapshotPublisher.DELTA_MAGIC) {
+				throw new IOException("Not a snapshot delta: " + file);
+			}
+			int count = in.readInt();
+			Set<String> removed = new HashSet<>();
+			for(int i = 0 ; i < count ; i ++) {
+				removed.add(in.readUTF());
+			}
+			InvertedIndex changed = new InvertedIndex(backend == null ? segments.isPositional() : staging.isPositional());
+			changed.readBinary(in, file.toString());
+
+			if(backend == null) {
+				segments = segments.add(changed, removed);
+				return;
+			}
+			for(String location : removed) {
+				staging.remove(location);
+			}
+			for(String location : changed.getWordCount().keySet()) {
+				staging.remove(location);
+			}
+			staging.compact();
+			staging.addAll(changed);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the files of a {@link SnapshotPublisher} directory to {@link SnapshotReplica} processes,
+ * as /snapshots/manifest and /snapshots/ followed by the name of a snapshot. Other names are
+ * answered with 404 Not Found, so nothing else in the directory is reachable.
+ *
+ * @author matthew
+ *
+ */
+public class SnapshotServlet extends HttpServlet {
+	/**
+	 * Unused serial version
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The snapshot directory
+	 */
+	private final Path directory;
+
+	/**
+	 * Initializes the servlet
+	 * @param directory the snapshot directory
+	 */
+	public SnapshotServlet(Path directory) {
+		super();
+		this.directory = directory;
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		String name = request.getPathInfo();
+		if(name == null || !name.matches("/(" + SnapshotPublisher.MANIFEST + "|[0-9]{8}\\.(full|delta))")) {
+			notFound(response);
+			return;
+		}
+
+		// files are moved into place whole and never change, and stay readable once open even if the
+		// publisher deletes an old snapshot
+		try (SeekableByteChannel channel = Files.newByteChannel(directory.resolve(name.substring(1)))) {
+			response.setContentType(name.equals("/" + SnapshotPublisher.MANIFEST) ? "text/plain" : "application/octet-stream");
+			response.setContentLengthLong(channel.size());
+			response.setStatus(HttpServletResponse.SC_OK);
+			Channels.newInputStream(channel).transferTo(response.getOutputStream());
+		} catch (NoSuchFileException e) {
+			notFound(response);
+		}
+	}
+
+	/**
+	 * Answers with 404 Not Found
+	 * @param response the response
+	 * @throws IOException if unable to write
+	 */
+	private static void notFound(HttpServletResponse response) throws IOException {
+		response.setContentType("text/plain");
+		response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+		response.getWriter().println("No such snapshot");
+	}
+}
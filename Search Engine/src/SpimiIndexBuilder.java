@@ -0,0 +1,702 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Builds an inverted index that does not have to fit in memory (single-pass in-memory indexing).
+ * Documents are added to an in-memory dictionary of compact posting lists until its estimated size
+ * reaches the memory budget. The dictionary is then sorted by term and written to disk as a run,
+ * and a new one is started. At the end the runs are merged term by term (a k-way merge), so only
+ * the posting lists of one term are in memory at a time. The result is written in the format of
+ * {@link InvertedIndex#writeBinary(Path)}, so it can be loaded with
+ * {@link InvertedIndex#readBinary(Path)}.
+ *
+ * Only the document table (the locations and their word counts) is kept in memory for the whole
+ * build. A full run is swapped out while the builder is locked, and then sorted and written by the
+ * thread that filled it without holding the lock, so the other threads keep adding documents to the
+ * next run in the meantime.
+ *
+ * @author matthew
+ *
+ */
+public class SpimiIndexBuilder implements Closeable {
+	/**
+	 * The estimated memory used by a dictionary entry besides its term and postings, in bytes
+	 */
+	private static final int TERM_OVERHEAD = 96;
+
+	/**
+	 * The estimated memory used by a document of a run besides its location, in bytes
+	 */
+	private static final int DOCUMENT_OVERHEAD = 64;
+
+	/**
+	 * The memory budget of the dictionary in bytes
+	 */
+	private final long budget;
+
+	/**
+	 * The directory the runs are written to
+	 */
+	private final Path directory;
+
+	/**
+	 * The runs written so far
+	 */
+	private final List<Path> runs;
+
+	/**
+	 * The number of runs swapped out so far, used to name them
+	 */
+	private int swapped;
+
+	/**
+	 * The word count of every document added so far
+	 */
+	private final TreeMap<String, Integer> wordCount;
+
+	/**
+	 * The posting lists of the current run by term
+	 */
+	private HashMap<String, Postings> dictionary;
+
+	/**
+	 * The locations of the documents in the current run, by run document id
+	 */
+	private List<String> documents;
+
+	/**
+	 * The estimated memory used by the current run in bytes
+	 */
+	private long used;
+
+	/**
+	 * Initializes the builder
+	 * @param budget the memory budget of the in-memory dictionary in bytes
+	 * @param directory the directory to write the runs to, created if needed
+	 * @throws IOException if unable to create the directory
+	 */
+	public SpimiIndexBuilder(long budget, Path directory) throws IOException {
+		this.budget = Math.max(1, budget);
+		this.directory = Files.createDirectories(directory);
+		this.runs = new ArrayList<>();
+		this.swapped = 0;
+		this.wordCount = new TreeMap<>();
+		this.dictionary = new HashMap<>();
+		this.documents = new ArrayList<>();
+		this.used = 0;
+	}
+
+	/**
+	 * Builds the index of all text files the walker finds in the given path, including the text
+	 * files inside the archives it finds, parsing the files on a work queue, and writes it to the
+	 * given file
+	 * @param path the path to the directory of files
+	 * @param walker finds the text files
+	 * @param threads the number of threads to use
+	 * @param budget the memory budget of the in-memory dictionary in bytes
+	 * @param output the file to write the index to
+	 * @return the number of runs that were merged
+	 * @throws IOException if unable to read the files or write the runs or index
+	 */
+	public static int build(Path path, DirectoryWalker walker, int threads, long budget, Path output) throws IOException {
+		Path directory = Files.createTempDirectory(output.toAbsolutePath().getParent(), "runs");
+		try (SpimiIndexBuilder builder = new SpimiIndexBuilder(budget, directory)) {
+			WorkQueue workQueue = new WorkQueue(threads);
+			try {
+				walker.walk(path, file -> {
+					if(ArchiveReader.isArchive(file.toString())) {
+						workQueue.execute(() -> {
+							try {
+								ArchiveReader.read(file, walker::accepts, (location, in) -> {
+									BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8.newDecoder()));
+									builder.addDocument(location, InvertedIndexBuilder.stem(br));
+								}, workQueue);
+							} catch (IOException e) {
+								System.out.println("Error: could not read archive - " + file);
+							}
+						});
+					}
+					else {
+						workQueue.execute(() -> {
+							try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+								builder.addDocument(file.toString(), InvertedIndexBuilder.stem(br));
+							} catch (IOException e) {
+								System.out.println("Error: could not read file - " + file);
+							}
+						});
+					}
+				});
+				workQueue.finish();
+			} finally {
+				workQueue.shutdown();
+			}
+			builder.merge(output);
+			return builder.runs.size();
+		} finally {
+			Files.deleteIfExists(directory);
+		}
+	}
+
+	/**
+	 * Adds a whole document, writing the current run to disk afterwards if the memory budget is used
+	 * up. The run is written without holding the lock of the builder.
+	 * @param location the location of the document
+	 * @param words the cleaned and stemmed words of the document, in order (positions start at 1)
+	 * @throws IOException if unable to write the run
+	 * @see InvertedIndex#addDocument(String, Iterable)
+	 */
+	public void addDocument(String location, Iterable<String> words) throws IOException {
+		FullRun full = add(location, words);
+		if(full != null) {
+			write(full);
+		}
+	}
+
+	/**
+	 * Adds a whole document to the current run, and swaps the run out if the memory budget is used
+	 * up
+	 * @param location the location of the document
+	 * @param words the cleaned and stemmed words of the document, in order (positions start at 1)
+	 * @return the full run to write, or null if the budget is not used up
+	 */
+	private synchronized FullRun add(String location, Iterable<String> words) {
+		int document = documents.size();
+		int count = 0;
+		Map<String, Postings> seen = new HashMap<>();
+		for(String word : words) {
+			count++;
+			Postings postings = seen.get(word);
+			if(postings == null) {
+				postings = dictionary.get(word);
+				if(postings == null) {
+					postings = new Postings();
+					dictionary.put(word, postings);
+					used += TERM_OVERHEAD + 2L * word.length();
+				}
+				seen.put(word, postings);
+				used += postings.start(document);
+			}
+			used += postings.add(count);
+		}
+		if(count == 0) {
+			return null;
+		}
+
+		documents.add(location);
+		used += DOCUMENT_OVERHEAD + 2L * location.length();
+		wordCount.merge(location, count, Integer::sum);
+
+		return used >= budget ? swap() : null;
+	}
+
+	/**
+	 * Swaps the current run out and starts a new one
+	 * @return the run, or null if it has no documents
+	 */
+	private synchronized FullRun swap() {
+		if(documents.isEmpty()) {
+			return null;
+		}
+		FullRun full = new FullRun(directory.resolve("run-" + swapped++ + ".bin"), dictionary, documents);
+		dictionary = new HashMap<>();
+		documents = new ArrayList<>();
+		used = 0;
+		return full;
+	}
+
+	/**
+	 * Writes a run that was swapped out to disk, sorted by term, and adds it to the runs to merge
+	 * @param full the run
+	 * @throws IOException if unable to write the run
+	 */
+	private void write(FullRun full) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(full.path)))) {
+			out.writeInt(full.documents.size());
+			for(String location : full.documents) {
+				out.writeUTF(location);
+			}
+
+			String[] terms = full.dictionary.keySet().toArray(String[]::new);
+			Arrays.sort(terms);
+			out.writeInt(terms.length);
+			for(String term : terms) {
+				out.writeUTF(term);
+				full.dictionary.get(term).write(out);
+			}
+		}
+		synchronized(this) {
+			runs.add(full.path);
+		}
+	}
+
+	/**
+	 * Writes the last run and merges all runs into the given file, in the format of
+	 * {@link InvertedIndex#writeBinary(Path)}. Must only be called once every document was added.
+	 * @param output the file to write the index to
+	 * @throws IOException if unable to read the runs or write the index
+	 */
+	public synchronized void merge(Path output) throws IOException {
+		FullRun last = swap();
+		if(last != null) {
+			write(last);
+		}
+
+		// the same document ids as writeBinary, in location order
+		Map<String, Integer> ids = new HashMap<>();
+		long termCountOffset;
+		int terms = 0;
+
+		List<Run> readers = new ArrayList<>();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output)))) {
+			out.writeInt(InvertedIndex.MAGIC);
+			out.writeInt(wordCount.size());
+			for(Map.Entry<String, Integer> entry : wordCount.entrySet()) {
+				ids.put(entry.getKey(), ids.size());
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue());
+			}
+
+			// the number of terms is only known after the merge, it is filled in at the end
+			termCountOffset = out.size();
+			out.writeInt(0);
+
+			PriorityQueue<Run> heap = new PriorityQueue<>();
+			for(Path path : runs) {
+				Run run = new Run(path, ids);
+				readers.add(run);
+				if(run.next()) {
+					heap.add(run);
+				}
+			}
+
+			MergedPostings postings = new MergedPostings();
+			while(!heap.isEmpty()) {
+				String term = heap.peek().term;
+				postings.clear();
+				while(!heap.isEmpty() && heap.peek().term.equals(term)) {
+					Run run = heap.poll();
+					run.readPostings(postings);
+					if(run.next()) {
+						heap.add(run);
+					}
+				}
+
+				out.writeUTF(term);
+				postings.write(out);
+				terms++;
+			}
+		} finally {
+			for(Run run : readers) {
+				run.close();
+			}
+		}
+
+		try (RandomAccessFile file = new RandomAccessFile(output.toFile(), "rw")) {
+			file.seek(termCountOffset);
+			file.writeInt(terms);
+		}
+	}
+
+	/**
+	 * Returns the number of runs written so far
+	 * @return the number of runs
+	 */
+	public synchronized int getRuns() {
+		return runs.size();
+	}
+
+	/**
+	 * Deletes the runs
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		for(Path run : runs) {
+			Files.deleteIfExists(run);
+		}
+		runs.clear();
+	}
+
+	/**
+	 * A run that was swapped out of the builder and still has to be written
+	 */
+	private static class FullRun {
+		/**
+		 * The file to write the run to
+		 */
+		private final Path path;
+
+		/**
+		 * The posting lists of the run by term
+		 */
+		private final HashMap<String, Postings> dictionary;
+
+		/**
+		 * The locations of the documents of the run, by run document id
+		 */
+		private final List<String> documents;
+
+		/**
+		 * Initializes a full run
+		 * @param path the file to write the run to
+		 * @param dictionary the posting lists of the run by term
+		 * @param documents the locations of the documents of the run, by run document id
+		 */
+		public FullRun(Path path, HashMap<String, Postings> dictionary, List<String> documents) {
+			this.path = path;
+			this.dictionary = dictionary;
+			this.documents = documents;
+		}
+	}
+
+	/**
+	 * The posting list of one term in the current run, stored as one growing array of document
+	 * id, number of positions, and the positions, for each document in the order they were added
+	 */
+	private static class Postings {
+		/**
+		 * The postings
+		 */
+		private int[] data;
+
+		/**
+		 * The number of ints used
+		 */
+		private int size;
+
+		/**
+		 * The index of the position count of the last document
+		 */
+		private int last;
+
+		/**
+		 * The number of documents
+		 */
+		private int documents;
+
+		/**
+		 * Initializes an empty posting list
+		 */
+		public Postings() {
+			this.data = new int[8];
+			this.size = 0;
+			this.last = -1;
+			this.documents = 0;
+		}
+
+		/**
+		 * Starts the postings of a new document
+		 * @param document the run document id
+		 * @return the number of bytes the array grew by
+		 */
+		public int start(int document) {
+			int grown = append(document);
+			last = size;
+			documents++;
+			return grown + append(0);
+		}
+
+		/**
+		 * Adds a position to the last document
+		 * @param position the position
+		 * @return the number of bytes the array grew by
+		 */
+		public int add(int position) {
+			data[last]++;
+			return append(position);
+		}
+
+		/**
+		 * Appends an int, growing the array if needed
+		 * @param value the int
+		 * @return the number of bytes the array grew by
+		 */
+		private int append(int value) {
+			int grown = 0;
+			if(size == data.length) {
+				grown = data.length * Integer.BYTES;
+				data = Arrays.copyOf(data, data.length * 2);
+			}
+			data[size++] = value;
+			return grown;
+		}
+
+		/**
+		 * Writes the posting list with delta encoded positions
+		 * @param out the run being written
+		 * @throws IOException if unable to write
+		 */
+		public void write(DataOutputStream out) throws IOException {
+			out.writeInt(documents);
+			int i = 0;
+			while(i < size) {
+				out.writeInt(data[i++]);
+				int count = data[i++];
+				out.writeInt(count);
+				int previous = 0;
+				for(int j = 0 ; j < count ; j ++) {
+					out.writeInt(data[i] - previous);
+					previous = data[i++];
+				}
+			}
+		}
+	}
+
+	/**
+	 * The postings of one term gathered from every run during the merge, stored as one growing
+	 * array of final document id, number of positions, and the positions, for each document in the
+	 * order the runs were read. The documents are put in final id order by sorting one array of
+	 * packed id and offset pairs.
+	 */
+	private static class MergedPostings {
+		/**
+		 * The postings
+		 */
+		private int[] data;
+
+		/**
+		 * The number of ints used
+		 */
+		private int size;
+
+		/**
+		 * The final document id in the high half and the offset of its postings in the low half, for
+		 * each document
+		 */
+		private long[] order;
+
+		/**
+		 * The number of documents
+		 */
+		private int documents;
+
+		/**
+		 * Initializes empty postings
+		 */
+		public MergedPostings() {
+			this.data = new int[64];
+			this.order = new long[8];
+			this.size = 0;
+			this.documents = 0;
+		}
+
+		/**
+		 * Removes every document, keeping the arrays for the next term
+		 */
+		public void clear() {
+			size = 0;
+			documents = 0;
+		}
+
+		/**
+		 * Starts the postings of a document
+		 * @param document the final document id
+		 * @param count the number of positions that will follow
+		 */
+		public void start(int document, int count) {
+			if(documents == order.length) {
+				order = Arrays.copyOf(order, order.length * 2);
+			}
+			order[documents++] = (long) document << 32 | size;
+			if(size + 2 + count > data.length) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, size + 2 + count));
+			}
+			data[size++] = document;
+			data[size++] = count;
+		}
+
+		/**
+		 * Adds a position to the last document, in increasing order
+		 * @param position the position
+		 */
+		public void add(int position) {
+			data[size++] = position;
+		}
+
+		/**
+		 * Writes the postings in final document id order, in the format of
+		 * {@link InvertedIndex#writeBinary(Path)}. A document found in several runs has its
+		 * positions combined.
+		 * @param out the index being written
+		 * @throws IOException if unable to write
+		 */
+		public void write(DataOutputStream out) throws IOException {
+			Arrays.sort(order, 0, documents);
+
+			int distinct = 0;
+			for(int i = 0 ; i < documents ; i ++) {
+				if(i == 0 || id(order[i]) != id(order[i - 1])) {
+					distinct++;
+				}
+			}
+			out.writeInt(distinct);
+
+			int i = 0;
+			while(i < documents) {
+				int document = id(order[i]);
+				int end = i + 1;
+				while(end < documents && id(order[end]) == document) {
+					end++;
+				}
+
+				out.writeInt(document);
+				if(end == i + 1) {
+					int offset = (int) order[i] + 1;
+					writePositions(out, data, offset + 1, data[offset]);
+				}
+				else {
+					// the same location was added in more than one run
+					int[] positions = new int[0];
+					for(int j = i ; j < end ; j ++) {
+						int offset = (int) order[j] + 1;
+						int from = positions.length;
+						positions = Arrays.copyOf(positions, from + data[offset]);
+						System.arraycopy(data, offset + 1, positions, from, data[offset]);
+					}
+					Arrays.sort(positions);
+					int count = 0;
+					for(int j = 0 ; j < positions.length ; j ++) {
+						if(j == 0 || positions[j] != positions[j - 1]) {
+							positions[count++] = positions[j];
+						}
+					}
+					writePositions(out, positions, 0, count);
+				}
+				i = end;
+			}
+		}
+
+		/**
+		 * Writes the number of positions and the delta encoded positions
+		 * @param out the index being written
+		 * @param positions holds the positions in increasing order
+		 * @param from the index of the first position
+		 * @param count the number of positions
+		 * @throws IOException if unable to write
+		 */
+		private static void writePositions(DataOutputStream out, int[] positions, int from, int count) throws IOException {
+			out.writeInt(count);
+			int previous = 0;
+			for(int j = from ; j < from + count ; j ++) {
+				out.writeInt(positions[j] - previous);
+				previous = positions[j];
+			}
+		}
+
+		/**
+		 * Returns the final document id of a packed pair
+		 * @param packed the id and offset pair
+		 * @return the document id
+		 */
+		private static int id(long packed) {
+			return (int) (packed >>> 32);
+		}
+	}
+
+	/**
+	 * Reads the terms of one run in order during the merge
+	 */
+	private static class Run implements Comparable<Run>, Closeable {
+		/**
+		 * The run file
+		 */
+		private final DataInputStream in;
+
+		/**
+		 * The final document id of each run document id
+		 */
+		private final int[] ids;
+
+		/**
+		 * The order of the run, used to break ties
+		 */
+		private final Path path;
+
+		/**
+		 * The number of terms not read yet
+		 */
+		private int remaining;
+
+		/**
+		 * The current term
+		 */
+		private String term;
+
+		/**
+		 * Opens a run and reads its document table
+		 * @param path the run file
+		 * @param ids the final document id of each location
+		 * @throws IOException if unable to read the run
+		 */
+		public Run(Path path, Map<String, Integer> ids) throws IOException {
+			this.path = path;
+			this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+			this.ids = new int[in.readInt()];
+			for(int i = 0 ; i < this.ids.length ; i ++) {
+				this.ids[i] = ids.get(in.readUTF());
+			}
+			this.remaining = in.readInt();
+			this.term = null;
+		}
+
+		/**
+		 * Moves to the next term
+		 * @return false if there are no more terms
+		 * @throws IOException if unable to read the run
+		 */
+		public boolean next() throws IOException {
+			if(remaining == 0) {
+				return false;
+			}
+			remaining--;
+			term = in.readUTF();
+			return true;
+		}
+
+		/**
+		 * Reads the postings of the current term and adds them to the merged postings
+		 * @param postings the merged postings of the term
+		 * @throws IOException if unable to read the run
+		 */
+		public void readPostings(MergedPostings postings) throws IOException {
+			int documents = in.readInt();
+			for(int i = 0 ; i < documents ; i ++) {
+				int document = ids[in.readInt()];
+				int count = in.readInt();
+				postings.start(document, count);
+				int pos = 0;
+				for(int j = 0 ; j < count ; j ++) {
+					pos += in.readInt();
+					postings.add(pos);
+				}
+			}
+		}
+
+		@Override
+		public int compareTo(Run other) {
+			int compare = term.compareTo(other.term);
+			return compare != 0 ? compare : path.compareTo(other.path);
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,330 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current version of an index, which can be replaced at any time with
+ * {@link #swap(IndexBackend)}. Readers {@link #acquire()} a version and release it when they are
+ * done, so a request that reads the index several times sees one version throughout, even if a
+ * new one is swapped in meanwhile. Swapping never waits for readers and readers never wait for a
+ * swap. A replaced version is released when its last reader is done, and its index is closed then
+ * if it holds resources.
+ *
+ * The operations of {@link IndexBackend} each acquire the current version for the one call.
+ *
+ * @author matthew
+ *
+ */
+public class SwappableIndex implements IndexBackend {
+	/**
+	 * The current version
+	 */
+	private final AtomicReference<Version> current;
+
+	/**
+	 * The replaced versions that still have readers
+	 */
+	private final Set<Version> retired;
+
+	/**
+	 * Initializes the holder
+	 * @param index the index to start with, as version 1
+	 */
+	public SwappableIndex(IndexBackend index) {
+		this.retired = ConcurrentHashMap.newKeySet();
+		this.current = new AtomicReference<>(new Version(index, 1));
+	}
+
+	/**
+	 * Acquires the current version, which must be released when done
+	 * @return the version
+	 */
+	public Version acquire() {
+		while(true) {
+			Version version = current.get();
+			if(version.retain()) {
+				return version;
+			}
+			// the version was replaced and released after it was read, so read the new one
+		}
+	}
+
+	/**
+	 * Replaces the current version. Readers of the replaced version finish on it.
+	 * @param next the new index, which must not change after the swap
+	 * @return the number of the new version
+	 */
+	public synchronized long swap(IndexBackend next) {
+		Version previous = current.get();
+		Version version = new Version(next, previous.number + 1);
+		previous.replaced = true;
+		retired.add(previous);
+		current.set(version);
+		// drop the reference of the holder, the last reader releases the version
+		previous.release();
+		return version.number;
+	}
+
+	/**
+	 * Returns the number of the current version
+	 * @return the version number, counting up from 1
+	 */
+	public long getVersion() {
+		return current.get().number;
+	}
+
+	/**
+	 * Returns the current index, without acquiring it
+	 * @return the current index
+	 */
+	public IndexBackend getIndex() {
+		return current.get().index;
+	}
+
+	/**
+	 * Returns the number of readers of each replaced version that is still in use
+	 * @return the readers by version number
+	 */
+	public Map<Long, Integer> getRetired() {
+		Map<Long, Integer> readers = new TreeMap<>();
+		for(Version version : retired) {
+			readers.put(version.number, version.getReaders());
+		}
+		return readers;
+	}
+
+	/**
+	 * One version of the index and the number of references to it
+	 */
+	public class Version implements AutoCloseable {
+		/**
+		 * The index
+		 */
+		private final IndexBackend index;
+
+		/**
+		 * The version number
+		 */
+		private final long number;
+
+		/**
+		 * The number of readers, plus one while this is the current version
+		 */
+		private final AtomicInteger references;
+
+		/**
+		 * Whether a newer version was swapped in
+		 */
+		private volatile boolean replaced;
+
+		/**
+		 * Initializes the version, referenced by the holder
+		 * @param index the index
+		 * @param number the version number
+		 */
+		private Version(IndexBackend index, long number) {
+			this.index = index;
+			this.number = number;
+			this.references = new AtomicInteger(1);
+			this.replaced = false;
+		}
+
+		/**
+		 * Returns the index
+		 * @return the index
+		 */
+		public IndexBackend getIndex() {
+			return index;
+		}
+
+		/**
+		 * Returns the version number
+		 * @return the version number
+		 */
+		public long getNumber() {
+			return number;
+		}
+
+		/**
+		 * Returns the number of readers
+		 * @return the number of readers
+		 */
+		public int getReaders() {
+			int readers = references.get();
+			return replaced ? readers : readers - 1;
+		}
+
+		/**
+		 * Adds a reader, unless the version was already released
+		 * @return true if the reader was added
+		 */
+		private boolean retain() {
+			int count;
+			do {
+				count = references.get();
+				if(count == 0) {
+					return false;
+				}
+			} while(!references.compareAndSet(count, count + 1));
+			return true;
+		}
+
+		/**
+		 * Removes a reader, and releases the version if it was replaced and this was the last one
+		 */
+		public void release() {
+			if(references.decrementAndGet() == 0) {
+				retired.remove(this);
+				if(index instanceof AutoCloseable) {
+					try {
+						((AutoCloseable) index).close();
+					} catch (Exception e) {
+						System.out.println("Error: unable to close index version " + number + " - " + e.getMessage());
+					}
+				}
+			}
+		}
+
+		/**
+		 * Releases the version, see {@link #release()}
+		 */
+		@Override
+		public void close() {
+			release();
+		}
+	}
+
+	@Override
+	public void addDocument(String location, Iterable<String> words) {
+		try (Version version = acquire()) {
+			version.index.addDocument(location, words);
+		}
+	}
+
+	@Override
+	public void addAll(InvertedIndex other) {
+		try (Version version = acquire()) {
+			version.index.addAll(other);
+		}
+	}
+
+	@Override
+	public Set<String> get() {
+		try (Version version = acquire()) {
+			return version.index.get();
+		}
+	}
+
+	@Override
+	public Set<String> get(String key) {
+		try (Version version = acquire()) {
+			return version.index.get(key);
+		}
+	}
+
+	@Override
+	public Set<Integer> get(String key, String location) {
+		try (Version version = acquire()) {
+			return version.index.get(key, location);
+		}
+	}
+
+	@Override
+	public List<Integer> copyPositions(String key, String location) {
+		try (Version version = acquire()) {
+			return version.index.copyPositions(key, location);
+		}
+	}
+
+	@Override
+	public SortedSet<String> getTerms(String prefix) {
+		try (Version version = acquire()) {
+			return version.index.getTerms(prefix);
+		}
+	}
+
+	@Override
+	public boolean contains(String key) {
+		try (Version version = acquire()) {
+			return version.index.contains(key);
+		}
+	}
+
+	@Override
+	public boolean contains(String key, String location) {
+		try (Version version = acquire()) {
+			return version.index.contains(key, location);
+		}
+	}
+
+	@Override
+	public int size() {
+		try (Version version = acquire()) {
+			return version.index.size();
+		}
+	}
+
+	@Override
+	public int numLocations(String key) {
+		try (Version version = acquire()) {
+			return version.index.numLocations(key);
+		}
+	}
+
+	@Override
+	public int numPositions(String key, String location) {
+		try (Version version = acquire()) {
+			return version.index.numPositions(key, location);
+		}
+	}
+
+	@Override
+	public Map<String, Integer> getWordCount() {
+		try (Version version = acquire()) {
+			return version.index.getWordCount();
+		}
+	}
+
+	@Override
+	public Collection<InvertedIndex.SearchResult> search(Collection<String> query, boolean exact) {
+		try (Version version = acquire()) {
+			return version.index.search(query, exact);
+		}
+	}
+
+	@Override
+	public Map<String, Long> getStats() {
+		try (Version version = acquire()) {
+			return version.index.getStats();
+		}
+	}
+
+	@Override
+	public void writeToFile(String pathName) throws IOException {
+		try (Version version = acquire()) {
+			version.index.writeToFile(pathName);
+		}
+	}
+
+	@Override
+	public void writeWordCount(Path outputFile) throws IOException {
+		try (Version version = acquire()) {
+			version.index.writeWordCount(outputFile);
+		}
+	}
+
+	@Override
+	public String toString() {
+		try (Version version = acquire()) {
+			return version.index.toString();
+		}
+	}
+}
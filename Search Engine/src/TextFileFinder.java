@@ -26,7 +26,19 @@ public class TextFileFinder {
 	 * @see Path#getFileName()
 	 * @see Files#walk(Path, FileVisitOption...)
 	 */
-	public static final Predicate<Path> isText = (Path p) -> p.toString().toLowerCase().matches(".+\\.te?xt$") && Files.isRegularFile(p);
+	public static final Predicate<Path> isText = (Path p) -> hasTextExtension(p.toString()) && Files.isRegularFile(p);
+
+	/**
+	 * Checks if the path ends in a .txt or .text extension (case-insensitive) without building a
+	 * lowercase copy or matching a regular expression, since this runs for every file of a walk
+	 *
+	 * @param path the path
+	 * @return true if the path has a text extension
+	 */
+	public static boolean hasTextExtension(String path) {
+		return (path.length() > 4 && path.regionMatches(true, path.length() - 4, ".txt", 0, 4))
+				|| (path.length() > 5 && path.regionMatches(true, path.length() - 5, ".text", 0, 5));
+	}
 
 	/**
 	 * A lambda function that returns true if the path is a file that ends in a .txt or .text
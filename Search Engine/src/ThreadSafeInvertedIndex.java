@@ -1,8 +1,12 @@
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.ToIntFunction;
 
 
 /**
@@ -17,6 +21,16 @@ public class ThreadSafeInvertedIndex extends InvertedIndex{
 	 * Class constructor that initializes the inverted index
 	 */
 	public ThreadSafeInvertedIndex(){
+		this(true);
+	}
+
+	/**
+	 * Class constructor that initializes the inverted index
+	 * @param positional whether to store positions or only the number of occurrences
+	 * @see InvertedIndex#InvertedIndex(boolean)
+	 */
+	public ThreadSafeInvertedIndex(boolean positional){
+		super(positional);
 		this.lock = new SimpleReadWriteLock();
 	}
 
@@ -52,6 +66,42 @@ public class ThreadSafeInvertedIndex extends InvertedIndex{
 		}
 	}
 
+	/**
+	 * adds a document's positions, already grouped by term, to the inverted-index in a single
+	 * critical section
+	 * @param location the location of the document
+	 * @param grouped the positions of each term in the document
+	 * @param count the number of words in the document
+	 */
+	@Override
+	protected void addGrouped(String location, Map<String, TreeSet<Integer>> grouped, int count) {
+		lock.writeLock().lock();
+
+		try {
+			super.addGrouped(location, grouped, count);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * adds a document's number of occurrences of each term to the inverted-index in a single
+	 * critical section
+	 * @param location the location of the document
+	 * @param counted the number of occurrences of each term in the document
+	 * @param count the number of words in the document
+	 */
+	@Override
+	protected void addCounted(String location, Map<String, Integer> counted, int count) {
+		lock.writeLock().lock();
+
+		try {
+			super.addCounted(location, counted, count);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
 	/**
 	 * adds all information from one index to this current one
 	 * @param other the index to add (should be built only from one file)
@@ -67,6 +117,52 @@ public class ThreadSafeInvertedIndex extends InvertedIndex{
 		}
 	}
 
+	/**
+	 * removes a location from the index, marking it with a tombstone
+	 * @param location the location to remove
+	 * @return true if the location was in the index
+	 */
+	@Override
+	public boolean remove(String location) {
+		lock.writeLock().lock();
+
+		try {
+			return super.remove(location);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * replaces a location with a new version of the document in a single critical section
+	 * @param location the location to replace
+	 * @param document the index of the new version
+	 */
+	@Override
+	public void replace(String location, InvertedIndex document) {
+		lock.writeLock().lock();
+
+		try {
+			super.replace(location, document);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * purges the postings of all removed documents from the index
+	 */
+	@Override
+	public void compact() {
+		lock.writeLock().lock();
+
+		try {
+			super.compact();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
 	/**
 	 * calls SimpleJsonWriter to write the inverted-index to the given file
 	 * @param pathName the path to the output file
@@ -84,6 +180,23 @@ public class ThreadSafeInvertedIndex extends InvertedIndex{
 		}
 	}
 	
+	/**
+	 * Writes the inverted-index to the given file in a compact binary format
+	 * @param path the path to the output file
+	 *
+	 * @throws IOException if an IO error occurs
+	 */
+	@Override
+	public void writeBinary(Path path) throws IOException {
+		lock.readLock().lock();
+
+		try {
+			super.writeBinary(path);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	@Override
 	public Map<String, Integer> getWordCount() {
 		lock.readLock().lock();
@@ -146,6 +259,23 @@ public class ThreadSafeInvertedIndex extends InvertedIndex{
 
 	}
 
+	/**
+	 * returns a copy of the positions associated with the given word and location, read under the lock
+	 * @param key the word to search in the index
+	 * @param location the pathname for search for
+	 * @return the positions in order, empty if the word does not exist at the given location
+	 */
+	@Override
+	public List<Integer> copyPositions(String key, String location) {
+		lock.readLock().lock();
+
+		try {
+			return super.copyPositions(key, location);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 
 	/**
 	 * method to determine if a key is in the index
@@ -253,6 +383,105 @@ public class ThreadSafeInvertedIndex extends InvertedIndex{
 
 	}
 
+	@Override
+	public void split(List<? extends InvertedIndex> parts, ToIntFunction<String> partOf) {
+		lock.readLock().lock();
+
+		try {
+			super.split(parts, partOf);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void copy(Collection<String> locations, InvertedIndex target) {
+		lock.readLock().lock();
+
+		try {
+			super.copy(locations, target);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public SortedSet<String> getTerms(String prefix) {
+		lock.readLock().lock();
+
+		try {
+			return super.getTerms(prefix);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public SortedSet<String> getLocations(String prefix) {
+		lock.readLock().lock();
+
+		try {
+			return super.getLocations(prefix);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public long getModifications() {
+		lock.readLock().lock();
+
+		try {
+			return super.getModifications();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void trackChanges() {
+		lock.writeLock().lock();
+
+		try {
+			super.trackChanges();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public SortedSet<String> getChanged(long since) {
+		lock.readLock().lock();
+
+		try {
+			return super.getChanged(since);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Map<String, Long> getChecksums() {
+		lock.readLock().lock();
+
+		try {
+			return super.getChecksums();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Map<String, Long> getStats() {
+		lock.readLock().lock();
+
+		try {
+			return super.getStats();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	@Override
 	public String toString() {
 		lock.readLock().lock();
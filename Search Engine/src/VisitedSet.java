@@ -0,0 +1,283 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free set of visited URLs for the web crawler. Only a 64-bit fingerprint of each
+ * normalized URL is stored in an open-addressed table, so no {@link java.net.URL} objects are kept
+ * and set operations never trigger DNS lookups. Optionally a {@link BloomFilter} can be used in
+ * front of the crawl instead of the table for crawls of millions of URLs, trading a small false
+ * positive rate (some new URLs are skipped) for a much smaller memory footprint.
+ *
+ * @author matthew
+ *
+ * @see LinkParser#normalize(java.net.URL)
+ */
+public class VisitedSet {
+	/**
+	 * Marks an empty slot in the table
+	 */
+	private static final long EMPTY = 0L;
+
+	/**
+	 * Open-addressed table of fingerprints, or null when only the Bloom filter is used
+	 */
+	private final AtomicLongArray table;
+
+	/**
+	 * Bloom filter used instead of the table, or null for an exact set
+	 */
+	private final BloomFilter bloom;
+
+	/**
+	 * The number of fingerprints added
+	 */
+	private final AtomicInteger size;
+
+	/**
+	 * Initializes an exact visited set
+	 * @param expected the expected number of urls
+	 */
+	public VisitedSet(int expected) {
+		this(expected, 0);
+	}
+
+	/**
+	 * Initializes a visited set
+	 * @param expected the expected number of urls
+	 * @param falsePositiveRate if greater than zero, a Bloom filter with this false positive rate
+	 * is used instead of the exact fingerprint table
+	 */
+	public VisitedSet(int expected, double falsePositiveRate) {
+		if(expected < 1) {
+			expected = 1;
+		}
+		this.size = new AtomicInteger(0);
+
+		if(falsePositiveRate > 0) {
+			this.bloom = new BloomFilter(expected, falsePositiveRate);
+			this.table = null;
+		}
+		else {
+			this.table = new AtomicLongArray(capacity(expected));
+			this.bloom = null;
+		}
+	}
+
+	/**
+	 * Initializes a visited set from its parts
+	 * @param table the fingerprint table or null
+	 * @param bloom the Bloom filter or null
+	 * @param size the number of urls already added
+	 */
+	private VisitedSet(AtomicLongArray table, BloomFilter bloom, int size) {
+		this.table = table;
+		this.bloom = bloom;
+		this.size = new AtomicInteger(size);
+	}
+
+	/**
+	 * Returns the table capacity that keeps the load factor at or below one half
+	 * @param expected the expected number of urls
+	 * @return the capacity, a power of two
+	 */
+	private static int capacity(int expected) {
+		return Integer.highestOneBit(Math.max(16, expected) * 2 - 1) << 1;
+	}
+
+	/**
+	 * Checks if this is an exact set rather than a Bloom filter
+	 * @return true if the fingerprints are kept in a table
+	 */
+	public boolean isExact() {
+		return table != null;
+	}
+
+	/**
+	 * Returns an exact set with the same urls and room for the expected number of urls, copying the
+	 * fingerprints into a larger table if this one is too small. Should not be called while urls are
+	 * being added.
+	 * @param expected the expected number of urls
+	 * @return this set if it is large enough, otherwise a larger copy
+	 * @throws IllegalStateException if this set is a Bloom filter, which cannot be resized
+	 */
+	public VisitedSet resize(int expected) {
+		if(table == null) {
+			throw new IllegalStateException("A Bloom filter cannot be resized");
+		}
+		int capacity = capacity(Math.max(expected, size()));
+		if(capacity <= table.length()) {
+			return this;
+		}
+
+		VisitedSet resized = new VisitedSet(new AtomicLongArray(capacity), null, 0);
+		for(int i = 0 ; i < table.length() ; i ++) {
+			long fingerprint = table.get(i);
+			if(fingerprint != EMPTY) {
+				resized.add(fingerprint);
+			}
+		}
+		return resized;
+	}
+
+	/**
+	 * Writes a snapshot of the set to the given file. Urls added while the snapshot is being written
+	 * may or may not be included.
+	 * @param path the file to write to
+	 * @throws IOException if unable to write the file
+	 * @see #load(Path)
+	 */
+	public void save(Path path) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			out.writeInt(size.get());
+			out.writeBoolean(bloom != null);
+			if(bloom != null) {
+				bloom.write(out);
+			}
+			else {
+				out.writeInt(table.length());
+				for(int i = 0 ; i < table.length() ; i ++) {
+					out.writeLong(table.get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a visited set written by {@link #save(Path)}
+	 * @param path the file to read from
+	 * @return the visited set
+	 * @throws IOException if unable to read the file
+	 */
+	public static VisitedSet load(Path path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			int size = in.readInt();
+			if(in.readBoolean()) {
+				return new VisitedSet(null, new BloomFilter(in), size);
+			}
+
+			AtomicLongArray table = new AtomicLongArray(in.readInt());
+			for(int i = 0 ; i < table.length() ; i ++) {
+				table.set(i, in.readLong());
+			}
+			return new VisitedSet(table, null, size);
+		}
+	}
+
+	/**
+	 * Adds the normalized url to the set
+	 * @param url the normalized url
+	 * @return true if the url was not already in the set
+	 */
+	public boolean add(String url) {
+		return add(fingerprint(url));
+	}
+
+	/**
+	 * Adds the fingerprint to the set
+	 * @param fingerprint the fingerprint of a normalized url
+	 * @return true if the fingerprint was not already in the set
+	 * @throws IllegalStateException if the table is full
+	 */
+	public boolean add(long fingerprint) {
+		if(bloom != null) {
+			if(bloom.put(fingerprint)) {
+				size.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+
+		int mask = table.length() - 1;
+		int slot = (int) fingerprint & mask;
+		for(int probes = 0 ; probes < table.length() ; probes ++) {
+			long current = table.get(slot);
+			if(current == fingerprint) {
+				return false;
+			}
+			if(current == EMPTY) {
+				if(table.compareAndSet(slot, EMPTY, fingerprint)) {
+					size.incrementAndGet();
+					return true;
+				}
+				// lost the race for this slot, check it again
+				if(table.get(slot) == fingerprint) {
+					return false;
+				}
+			}
+			slot = (slot + 1) & mask;
+		}
+		throw new IllegalStateException("Visited set is full");
+	}
+
+	/**
+	 * Checks the set for the normalized url
+	 * @param url the normalized url
+	 * @return true if the url is in the set (or might be, when using a Bloom filter)
+	 */
+	public boolean contains(String url) {
+		return contains(fingerprint(url));
+	}
+
+	/**
+	 * Checks the set for the fingerprint
+	 * @param fingerprint the fingerprint of a normalized url
+	 * @return true if the fingerprint is in the set (or might be, when using a Bloom filter)
+	 */
+	public boolean contains(long fingerprint) {
+		if(bloom != null) {
+			return bloom.mightContain(fingerprint);
+		}
+
+		int mask = table.length() - 1;
+		int slot = (int) fingerprint & mask;
+		for(int probes = 0 ; probes < table.length() ; probes ++) {
+			long current = table.get(slot);
+			if(current == fingerprint) {
+				return true;
+			}
+			if(current == EMPTY) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of urls added to this set
+	 * @return the number of urls
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Computes the 64-bit fingerprint of a normalized url (FNV-1a followed by a murmur3 finalizer).
+	 * Never returns zero, which marks an empty slot.
+	 * @param url the normalized url
+	 * @return the fingerprint
+	 */
+	public static long fingerprint(String url) {
+		long hash = 0xcbf29ce484222325L;
+		for(byte b : url.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= (b & 0xff);
+			hash *= 0x100000001b3L;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+
+		return hash == EMPTY ? 1 : hash;
+	}
+}
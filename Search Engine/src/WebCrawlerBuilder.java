@@ -1,6 +1,14 @@
+import java.io.IOException;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.util.HashSet;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import opennlp.tools.stemmer.Stemmer;
 import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
@@ -15,33 +23,286 @@ public class WebCrawlerBuilder {
 	 */
 	public static final SnowballStemmer.ALGORITHM DEFAULT = SnowballStemmer.ALGORITHM.ENGLISH;
 
+	/**
+	 * The default number of pages crawled between checkpoints
+	 */
+	public static final int CHECKPOINT_INTERVAL = 100;
+
+	/**
+	 * The most urls queued in the host scheduler at once, and the most parked behind full host
+	 * queues, the rest stay in the frontier
+	 */
+	public static final int SCHEDULER_WINDOW = 1000;
+
+	/**
+	 * The most urls for saturated hosts moved to the end of the frontier for each url dispatched,
+	 * which bounds how fast the frontier log grows while one host dominates it
+	 */
+	public static final int SKIPS_PER_DISPATCH = 16;
+
+	/**
+	 * The most urls per worker held by the host scheduler at once when the crawl is prioritized, a
+	 * small window keeps the rest of the urls in priority order
+	 */
+	public static final int PRIORITY_WINDOW = 4;
+
+	/**
+	 * The number of candidate urls per page of the limit a prioritized crawl keeps track of
+	 */
+	public static final int PRIORITY_CANDIDATES = 10;
+
 	/**
 	 * The maxixmum number of sites to visit
 	 */
-	private final int limit;
+	private int limit;
+
+	/**
+	 * The false positive rate of the visited set, or zero for an exact set
+	 */
+	private final double falsePositiveRate;
 
 	/**
 	 * Signals when to stop adding work to the queue given the limit
 	 */
-	private volatile boolean shutdown; 
+	private volatile boolean shutdown;
+
+	/**
+	 * Fingerprints of all of the visited sites (normalized urls)
+	 */
+	private VisitedSet visited;
+
+	/**
+	 * The number of sites claimed against the limit so far
+	 */
+	private final AtomicInteger claimed;
+
+	/**
+	 * The sites waiting to be crawled
+	 */
+	private CrawlFrontier frontier;
+
+	/**
+	 * Schedules the sites taken from the frontier across hosts
+	 */
+	private HostScheduler scheduler;
+
+	/**
+	 * The minimum delay between two requests to the same host in milliseconds
+	 */
+	private long minDelay;
+
+	/**
+	 * The time allowed to connect to a host in milliseconds
+	 */
+	private int connectTimeout;
+
+	/**
+	 * The time allowed for a single read to block in milliseconds
+	 */
+	private int readTimeout;
 
 	/**
-	 * A collection of all of the visited sites 
+	 * The time allowed to fetch a page, including redirects, in milliseconds
 	 */
-	private final HashSet<URL> visited;
+	private int totalTimeout;
+
+	/**
+	 * Where to save checkpoints, or null to not checkpoint
+	 */
+	private CrawlCheckpoint checkpoint;
+
+	/**
+	 * The number of pages crawled between checkpoints
+	 */
+	private int checkpointInterval;
+
+	/**
+	 * Lock used to coordinate the crawl loop with the running tasks
+	 */
+	private final Object lock;
+
+	/**
+	 * The number of tasks currently fetching or parsing a page
+	 */
+	private int inFlight;
+
+	/**
+	 * The number of pages crawled since the last checkpoint
+	 */
+	private int pages;
+
+	/**
+	 * Fingerprints of the crawled pages used to skip duplicates, or null to index every page
+	 */
+	private FingerprintIndex fingerprints;
+
+	/**
+	 * The validators of the crawled pages, used to only re-index pages that changed
+	 */
+	private PageValidators validators;
+
+	/**
+	 * Scores the sites waiting to be crawled, or null to crawl them in the order they were found
+	 */
+	private CrawlPriority priority;
+
+	/**
+	 * The deepest links followed by a prioritized crawl
+	 */
+	private int maxDepth;
+
+	/**
+	 * The sites waiting to be crawled in priority order, or null if the crawl is not prioritized
+	 */
+	private PriorityFrontier prioritized;
+
+	/**
+	 * The sites taken from the priority frontier that are waiting in the host scheduler
+	 */
+	private final Map<String, PriorityFrontier.Entry> dispatched;
+
+	/**
+	 * Adds the crawled pages to the index in batches
+	 */
+	private IngestionQueue ingest;
+
+	/**
+	 * Accepts the locations of the pages to index
+	 */
+	private Predicate<String> locations;
 
 	/**
 	 * @param limit the maximum number of tasks
 	 */
 	public WebCrawlerBuilder(int limit) {
-	
+		this(limit, 0);
+	}
+
+	/**
+	 * @param limit the maximum number of tasks
+	 * @param falsePositiveRate if greater than zero, tracks visited sites with a Bloom filter of this
+	 * false positive rate instead of an exact set
+	 */
+	public WebCrawlerBuilder(int limit, double falsePositiveRate) {
+
 		if(limit < 1) {
 			limit = 50;
-		} 
+		}
 
 		this.limit = limit;
+		this.falsePositiveRate = falsePositiveRate;
 		this.shutdown = false;
-		this.visited = new HashSet<>();
+		this.claimed = new AtomicInteger(0);
+		this.lock = new Object();
+		this.checkpoint = null;
+		this.checkpointInterval = CHECKPOINT_INTERVAL;
+		this.minDelay = 0;
+		this.connectTimeout = HttpsFetcher.CONNECT_TIMEOUT;
+		this.readTimeout = HttpsFetcher.READ_TIMEOUT;
+		this.totalTimeout = HttpsFetcher.TOTAL_TIMEOUT;
+		this.fingerprints = null;
+		this.locations = location -> true;
+		this.priority = null;
+		this.maxDepth = Integer.MAX_VALUE;
+		this.dispatched = new HashMap<>();
+	}
+
+	/**
+	 * Crawls the sites found in priority order instead of the order they were found in. The limit
+	 * is then charged when a site is taken from the frontier rather than when it is found, so the
+	 * crawl budget is spent on the best sites found so far.
+	 * @param priority scores the sites waiting to be crawled
+	 * @param maxDepth the deepest links to follow from the seed
+	 */
+	public void setPriority(CrawlPriority priority, int maxDepth) {
+		this.priority = priority;
+		this.maxDepth = maxDepth < 0 ? Integer.MAX_VALUE : maxDepth;
+	}
+
+	/**
+	 * Enables skipping pages whose text is an exact or near duplicate of a page already crawled.
+	 * Duplicates are still searched for links, but are only recorded as aliases of the first page
+	 * instead of being indexed. Pages restored from a checkpoint and pages without words are not
+	 * compared against.
+	 * @param maxDistance the largest {@link SimHash} distance for two pages to be duplicates, zero
+	 * for exact duplicates only
+	 * @throws IllegalArgumentException if the distance is not between zero and
+	 * {@link FingerprintIndex#MAX_DISTANCE}
+	 */
+	public void setDeduplication(int maxDistance) {
+		this.fingerprints = new FingerprintIndex(maxDistance);
+	}
+
+	/**
+	 * Only indexes the pages whose locations are accepted, for example the ones that belong to one
+	 * shard. The other pages are still crawled for links, but are not parsed or compared for
+	 * duplicates.
+	 * @param locations accepts the locations of the pages to index
+	 */
+	public void setLocations(Predicate<String> locations) {
+		this.locations = locations;
+	}
+
+	/**
+	 * Returns the metrics of the queue that added the pages of the last crawl to the index
+	 * @return a map from metric name to value
+	 */
+	public Map<String, Long> getIngestionStats() {
+		return ingest == null ? Map.of() : ingest.getStats();
+	}
+
+	/**
+	 * Writes the duplicate pages found by the last crawl, each mapped to the page that was indexed,
+	 * to the given file
+	 * @param path the path to the output file
+	 * @throws IOException if an IO error occurs
+	 */
+	public void writeAliases(Path path) throws IOException {
+		SimpleJsonWriter.asStringDictionary(fingerprints == null ? Map.of() : fingerprints.getAliases(), path);
+	}
+
+	/**
+	 * Sets the timeouts used when fetching pages. Hosts that time out
+	 * {@link HostScheduler#MAX_TIMEOUTS} times in a row are not crawled any further.
+	 * @param connectTimeout the time allowed to connect to a host in milliseconds
+	 * @param readTimeout the time allowed for a single read to block in milliseconds
+	 * @param totalTimeout the time allowed to fetch a page, including redirects, in milliseconds
+	 */
+	public void setTimeouts(int connectTimeout, int readTimeout, int totalTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.totalTimeout = totalTimeout;
+	}
+
+	/**
+	 * Writes the request metrics of each host crawled by the last crawl to the given file
+	 * @param path the path to the output file
+	 * @throws IOException if an IO error occurs
+	 */
+	public void writeHostStats(Path path) throws IOException {
+		synchronized (lock) {
+			SimpleJsonWriter.asNestedDictionary(scheduler == null ? Map.of() : scheduler.getStats(), path);
+		}
+	}
+
+	/**
+	 * Sets the minimum delay between two requests to the same host
+	 * @param delayMillis the delay in milliseconds
+	 */
+	public void setPoliteness(long delayMillis) {
+		this.minDelay = Math.max(0, delayMillis);
+	}
+
+	/**
+	 * Enables checkpointing the crawl to the given directory. The crawl frontier is kept in this
+	 * directory as well.
+	 * @param directory the checkpoint directory
+	 * @param interval the number of pages to crawl between checkpoints
+	 * @throws IOException if unable to open the checkpoint directory
+	 */
+	public void setCheckpoint(Path directory, int interval) throws IOException {
+		this.checkpoint = new CrawlCheckpoint(directory);
+		this.checkpointInterval = interval < 1 ? CHECKPOINT_INTERVAL : interval;
 	}
 
 	/**
@@ -51,81 +312,481 @@ public class WebCrawlerBuilder {
 	 * @throws MalformedURLException if given bad url
 	 */
 	public void parseUrl(ThreadSafeInvertedIndex index, String url, int threads) throws MalformedURLException {
-		WorkQueue workQueue = new WorkQueue(threads);
 		URL base = new URL(url);
-		visited.add(base);
-		workQueue.executeAndTrack(new Task(index, base, workQueue));
-		workQueue.finish();
-		workQueue.shutdown();
+		visited = new VisitedSet(priority == null ? limit : limit * PRIORITY_CANDIDATES, falsePositiveRate);
+		visited.add(LinkParser.normalize(base));
+		validators = new PageValidators();
+		prioritized = priority == null ? null : new PriorityFrontier(priority, maxDepth);
+		claimed.set(prioritized == null ? 1 : 0);
+
+		try {
+			// without checkpoints nothing has to survive the process, so the frontier stays in memory
+			frontier = checkpoint != null ? checkpoint.newFrontier() : new CrawlFrontier();
+
+			if(prioritized != null) {
+				prioritized.offer(LinkParser.normalize(base), base.toString(), 0);
+			}
+			else {
+				frontier.offer(base.toString());
+			}
+			crawl(index, threads);
+		} catch (IOException e) {
+			System.out.println("Error: unable to use crawl frontier");
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Resumes a crawl from a checkpoint, continuing to checkpoint to the same directory. The saved
+	 * limit is used if it is larger than this crawler's limit.
+	 * @param index the inverted index to add the saved index to
+	 * @param directory the checkpoint directory
+	 * @param threads the number of threads to use
+	 * @throws IOException if unable to load the checkpoint
+	 */
+	public void resume(ThreadSafeInvertedIndex index, Path directory, int threads) throws IOException {
+		CrawlCheckpoint saved = new CrawlCheckpoint(directory);
+		if(!saved.exists()) {
+			throw new IOException("No checkpoint found in: " + directory);
+		}
+
+		restore(index, saved);
+
+		try {
+			frontier = saved.openFrontier();
+			crawl(index, threads);
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Refreshes a finished (or resumed) crawl from a checkpoint. Every page crawled before is
+	 * requested again with its saved validators, so unchanged pages are answered with 304 Not
+	 * Modified and are not downloaded again. Pages whose content changed have their old postings
+	 * removed before they are re-indexed, and pages that are gone are removed from the index.
+	 * @param index the inverted index to add the saved index to
+	 * @param directory the checkpoint directory
+	 * @param threads the number of threads to use
+	 * @throws IOException if unable to load the checkpoint
+	 */
+	public void refresh(ThreadSafeInvertedIndex index, Path directory, int threads) throws IOException {
+		CrawlCheckpoint saved = new CrawlCheckpoint(directory);
+		if(!saved.exists()) {
+			throw new IOException("No checkpoint found in: " + directory);
+		}
+
+		restore(index, saved);
+
+		try {
+			frontier = saved.openFrontier();
+			for(String url : validators.getLocations()) {
+				frontier.offer(url);
+			}
+			crawl(index, threads);
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Loads the state of a checkpoint. The saved limit is used if it is larger than this crawler's
+	 * limit. A larger limit copies the visited set into a table sized for it, but a Bloom filter
+	 * cannot grow past the limit it was sized for without missing its false positive rate.
+	 * @param index the inverted index to add the saved index to
+	 * @param saved the checkpoint
+	 * @throws IOException if unable to load the checkpoint, or the limit is too large for its Bloom
+	 * filter
+	 */
+	private void restore(ThreadSafeInvertedIndex index, CrawlCheckpoint saved) throws IOException {
+		checkpoint = saved;
+		prioritized = saved.loadPriorityFrontier(priority == null ? CrawlPriority.DEPTH : priority, maxDepth);
+		visited = saved.loadVisited();
+		if(limit > saved.getLimit()) {
+			if(!visited.isExact()) {
+				throw new IOException("The visited Bloom filter is sized for a limit of " + saved.getLimit() + ", resume with that limit or less");
+			}
+			visited = visited.resize(prioritized == null ? limit : limit * PRIORITY_CANDIDATES);
+		}
+		limit = Math.max(limit, saved.getLimit());
+		saved.loadIndex(index);
+		validators = saved.loadValidators();
+		claimed.set(saved.getClaimed());
+		shutdown = claimed.get() >= limit;
+	}
+
+	/**
+	 * Hands urls from the frontier to the work queue until the frontier is empty and no pages are
+	 * in progress. Urls pass through a {@link HostScheduler} so that each host is crawled politely,
+	 * and only a bounded number of them wait in its queues at once, the rest stay in the frontier.
+	 * When the crawl is prioritized, urls are also taken from the {@link PriorityFrontier} until the
+	 * limit is reached. Saves a checkpoint every {@link #checkpointInterval} pages and when done.
+	 * @param index the inverted index
+	 * @param threads the number of threads to use
+	 * @throws IOException if unable to read the frontier or save a checkpoint
+	 */
+	private void crawl(ThreadSafeInvertedIndex index, int threads) throws IOException {
+		WorkQueue workQueue = new WorkQueue(threads);
+		scheduler = new HostScheduler(minDelay, workQueue.size());
+		ingest = new IngestionQueue(index);
+		inFlight = 0;
+		pages = 0;
+		int skips = SKIPS_PER_DISPATCH;
+		dispatched.clear();
+
+		try {
+			crawling:
+			while(true) {
+				String next;
+				synchronized (lock) {
+					while(true) {
+						if(checkpointDue()) {
+							if(inFlight == 0) {
+								saveCheckpoint(index);
+							}
+							else {
+								lock.wait();
+							}
+							continue;
+						}
+
+						// urls for saturated hosts go back to the end of the frontier, so other hosts behind
+						// them are still reached
+						if(scheduler.isEmpty()) {
+							skips = SKIPS_PER_DISPATCH;
+						}
+						while(scheduler.size() < SCHEDULER_WINDOW && skips > 0 && (next = frontier.poll()) != null) {
+							if(scheduler.isSaturated(next)) {
+								frontier.offer(next);
+								skips--;
+							}
+							else {
+								scheduler.offer(next);
+							}
+						}
+						if(prioritized != null) {
+							dispatch(workQueue.size() * PRIORITY_WINDOW);
+						}
+
+						if(scheduler.isEmpty() && inFlight == 0) {
+							break crawling;
+						}
+
+						long now = System.nanoTime();
+						if(inFlight < workQueue.size()) {
+							next = scheduler.poll(now);
+							if(next != null) {
+								skips = SKIPS_PER_DISPATCH;
+								break;
+							}
+						}
+
+						// wait for a task to finish or for a host's delay to pass
+						long delay = inFlight < workQueue.size() ? scheduler.delay(now) : -1;
+						if(delay > 0) {
+							lock.wait(Math.max(1, delay / 1_000_000));
+						}
+						else {
+							lock.wait();
+						}
+					}
+					inFlight++;
+				}
+				PriorityFrontier.Entry entry = dispatched.remove(next);
+				workQueue.execute(new Task(index, next, entry == null ? 0 : entry.getDepth()));
+			}
+
+			if(checkpoint != null) {
+				saveCheckpoint(index);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			workQueue.finish();
+			workQueue.shutdown();
+			ingest.close();
+		}
+	}
+
+	/**
+	 * Moves the best urls from the priority frontier to the host scheduler, charging each against the
+	 * limit, and stops following links once the limit is reached. Must be called while holding the
+	 * lock.
+	 * @param window the most urls to hold in the host scheduler
+	 */
+	private void dispatch(int window) {
+		PriorityFrontier.Entry entry;
+		while(scheduler.size() < window && scheduler.parked() < window && claimed.get() < limit && (entry = prioritized.poll()) != null) {
+			if(scheduler.offer(entry.getUrl())) {
+				claimed.incrementAndGet();
+				dispatched.put(entry.getUrl(), entry);
+			}
+		}
+		if(claimed.get() >= limit) {
+			shutdown = true;
+		}
+	}
+
+	/**
+	 * Checks if enough pages have been crawled to save a checkpoint
+	 * @return true if a checkpoint should be saved
+	 */
+	private boolean checkpointDue() {
+		return checkpoint != null && pages >= checkpointInterval;
+	}
+
+	/**
+	 * Saves a checkpoint once the crawled pages have been added to the index, must only be called
+	 * while no pages are in progress
+	 * @param index the inverted index
+	 * @throws IOException if unable to save the checkpoint
+	 */
+	private void saveCheckpoint(ThreadSafeInvertedIndex index) throws IOException {
+		ingest.flush();
+
+		// urls taken from the frontier but not yet crawled go back to its end
+		for(String url : scheduler.drain()) {
+			PriorityFrontier.Entry entry = dispatched.remove(url);
+			if(entry != null) {
+				prioritized.putBack(entry);
+				claimed.decrementAndGet();
+			}
+			else {
+				frontier.offer(url);
+			}
+		}
+		checkpoint.save(index, visited, validators, frontier, prioritized, claimed.get(), limit);
+		pages = 0;
+	}
+
+	/**
+	 * Closes the frontier
+	 */
+	private void close() {
+		try {
+			if(frontier != null) {
+				frontier.close();
+			}
+		} catch (IOException e) {
+			System.out.println("Error: unable to close crawl frontier");
+		}
 	}
 
 	/**
 	 * @author matthew
-	 * Runnable task to parse a URL and add additional work to the queue
+	 * Runnable task to parse a URL and add additional work to the frontier
 	 */
 	private class Task implements Runnable {
 		/** The url to add or list. */
-		private final URL url;
+		private final String url;
 		/**
 		 * The inverted index to add to
 		 */
 		private final ThreadSafeInvertedIndex index;
 
 		/**
-		 * WorkQueue implementation
+		 * The number of links followed from the seed to the url
 		 */
-		private final WorkQueue workQueue;
+		private final int depth;
+
+		/**
+		 * How long fetching the page took in milliseconds
+		 */
+		private long latency;
+
+		/**
+		 * The outcome of fetching the page
+		 */
+		private HostScheduler.Result result;
 
 		/**
 		 * Initializes this task.
 		 * @param index the index to add to
 		 * @param url the URL to add
-		 * @param workQueue the workQueue used
+		 * @param depth the number of links followed from the seed to the url
 		 */
-		public Task(ThreadSafeInvertedIndex index, URL url, WorkQueue workQueue) {
+		public Task(ThreadSafeInvertedIndex index, String url, int depth) {
 			this.index = index;
 			this.url = url;
-			this.workQueue = workQueue;
+			this.depth = depth;
+			this.latency = 0;
+			this.result = HostScheduler.Result.ERROR;
 		}
 
 		@Override
 		public void run() {
+			try {
+				URL page = new URL(url);
+				PageValidators.Validator previous = validators.get(url);
+				Map<String, List<String>> response = fetch(page, previous);
+				if(response == null) {
+					return;
+				}
+
+				int status = HtmlFetcher.getStatusCode(response);
+				String html = HtmlFetcher.getHtml(response);
+				if(html != null) {
+					PageValidators.Validator current = PageValidators.Validator.of(response, html);
+					validators.put(url, current);
+					if(previous == null || previous.changed(current)) {
+						crawl(page, html, previous != null);
+					}
+				}
+				else if(previous != null && status != PageValidators.NOT_MODIFIED && status >= 400 && status < 500) {
+					// the page is gone
+					validators.remove(url);
+					index.remove(page.toString());
+				}
+			} catch (MalformedURLException e) {
+				System.out.println("Error: Invalid URL");
+			} catch (IOException e) {
+				System.out.println("Error: unable to add to crawl frontier");
+			} finally {
+				synchronized (lock) {
+					inFlight--;
+					pages++;
+					scheduler.complete(url, latency, result);
+					lock.notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Fetches the page within the crawler's timeouts, recording how long it took and whether it
+		 * succeeded, failed or timed out. Pages crawled before are requested conditionally.
+		 * @param page the URL to fetch
+		 * @param previous the validator of the page when it was last crawled or null
+		 * @return the response or null if the page could not be fetched
+		 */
+		private Map<String, List<String>> fetch(URL page, PageValidators.Validator previous) {
+			long start = System.nanoTime();
+			try {
+				Map<String, String> conditional = previous == null ? Map.of() : previous.getConditionalHeaders();
+				Map<String, List<String>> response = HtmlFetcher.fetchResponse(page, 3, conditional, connectTimeout, readTimeout, totalTimeout);
+				result = HostScheduler.Result.SUCCESS;
+				return response;
+			} catch (SocketTimeoutException e) {
+				result = HostScheduler.Result.TIMEOUT;
+				System.out.println("Error: Timed out - " + url);
+			} catch (IOException e) {
+				result = HostScheduler.Result.ERROR;
+				System.out.println("Error: unable to fetch - " + url);
+			} finally {
+				latency = (System.nanoTime() - start) / 1_000_000;
+			}
+			return null;
+		}
+
+		/**
+		 * Indexes the page if its location is accepted and adds its new links to the frontier
+		 * @param url the URL of the page
+		 * @param html the html of the page
+		 * @param replace whether the page was indexed before and its old postings must be removed
+		 * @throws IOException if unable to add to the frontier
+		 */
+		private void crawl(URL url, String html, boolean replace) throws IOException {
+			html = HtmlCleaner.stripBlockElements(html);
+			if(locations.test(url.toString())) {
+				indexPage(url, html, replace);
+			}
+			if(shutdown) {
+				return;
+			}
+			if(prioritized != null) {
+				queueLinks(url, html);
+				return;
+			}
+
+			// link extraction happens outside of any lock, the visited set is lock-free
+			for(URL link : LinkParser.listLinks(url, html)) {
+				String key = LinkParser.normalize(link);
+				if(visited.contains(key) || !visited.add(key)) {
+					continue;
+				}
+
+				// only new links are charged, and the count never passes the limit, so a worker that
+				// sees the limit reached knows that exactly limit pages were claimed
+				if(!claim()) {
+					shutdown = true;
+					break;
+				}
+				frontier.offer(link.toString());
+			}
+		}
+
+		/**
+		 * Charges one page against the limit, unless the limit is already reached
+		 * @return true if the page was charged
+		 */
+		private boolean claim() {
+			int current;
+			do {
+				current = claimed.get();
+				if(current >= limit) {
+					return false;
+				}
+			} while(!claimed.compareAndSet(current, current + 1));
+			return true;
+		}
+
+		/**
+		 * Parses the page and adds it to the index, unless it is a duplicate of a page already crawled
+		 * @param url the URL of the page
+		 * @param html the html of the page, without block elements
+		 * @param replace whether the page was indexed before and its old postings must be removed
+		 */
+		private void indexPage(URL url, String html, boolean replace) {
 			InvertedIndex local = new InvertedIndex();
 			Stemmer stemmer = new SnowballStemmer(DEFAULT);
-			String html = HtmlFetcher.fetch(url, 3);
-			if(!(html == null)) {
-				
-				html = HtmlCleaner.stripBlockElements(html);
-				int pos = 1;
-				String stripped = HtmlCleaner.stripHtml(html);
-				String[] words = TextParser.parse(stripped);
-				
-				for(String word : words) {
-					word = stemmer.stem(word).toString();
-					local.add(word, url.toString(), pos);
-					pos++;
+
+			String stripped = HtmlCleaner.stripHtml(html);
+			String[] words = TextParser.parse(stripped);
+
+			for(int i = 0 ; i < words.length ; i ++) {
+				words[i] = stemmer.stem(words[i]).toString();
+			}
+			local.addDocument(url.toString(), Arrays.asList(words));
+
+			// pages without words all have the same fingerprint but are not duplicates of each other
+			if(fingerprints != null && words.length > 0 && fingerprints.register(url.toString(), SimHash.fingerprint(words)) != null) {
+				if(replace) {
+					index.remove(url.toString());
 				}
+			}
+			else if(replace) {
+				ingest.replace(url.toString(), local);
+			}
+			else {
+				ingest.add(local);
+			}
+		}
 
-				index.addAll(local);
-				if(!shutdown) {
-					synchronized (visited) {
-						for(URL link : LinkParser.listLinks(url, html)) {
-
-							if(visited.size() < limit) {
-								if(!visited.contains(link)) {
-									workQueue.executeAndTrack(new Task(index, link, workQueue));
-									visited.add(link);
-//									System.out.println("visited: "+visited.size());
-								}
-							} else {
-//								System.out.println("REACHED LIMIT: no more new tasks - "+visited.size());
-								shutdown = true;
-								break;
-							}
-						}
+		/**
+		 * Adds the new links of the page to the priority frontier, and counts links to sites that are
+		 * already waiting. Links past the depth cutoff are ignored.
+		 * @param url the URL of the page
+		 * @param html the html of the page
+		 */
+		private void queueLinks(URL url, String html) {
+			if(prioritized.tooDeep(depth + 1)) {
+				return;
+			}
+
+			for(URL link : LinkParser.listLinks(url, html)) {
+				String key = LinkParser.normalize(link);
+				if(visited.contains(key)) {
+					prioritized.link(key);
+				}
+				else if(visited.size() < limit * PRIORITY_CANDIDATES) {
+					if(visited.add(key)) {
+						prioritized.offer(key, link.toString(), depth + 1);
+					}
+					else {
+						prioritized.link(key);
 					}
 				}
-			} 
+			}
 		}
 	}
 }